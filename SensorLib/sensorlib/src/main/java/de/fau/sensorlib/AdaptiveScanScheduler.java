@@ -0,0 +1,457 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib;
+
+import android.bluetooth.le.ScanSettings;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Drives a {@link BleScanEngine} with a duty cycle that adapts to the discovery progress of a watch-list of
+ * expected devices (e.g. all sensors of a fleet that is monitored for a long time).
+ * <p>
+ * As long as a watched device has not been seen, the engine scans continuously in the acquisition scan mode
+ * (low latency by default). Once all watched devices were seen (or the acquisition timed out), the engine only
+ * scans in short windows with the monitoring scan mode (low power by default). If a watched device was not seen
+ * within the stale timeout, the scheduler escalates to acquisition again.
+ * <p>
+ * Android blocks apps that start scans more than 5 times within 30 s, so scan (re-)starts are rate limited and
+ * windows are postponed if necessary. All methods must be called on the main thread.
+ */
+public class AdaptiveScanScheduler implements BleScanListener {
+
+    private static final String TAG = AdaptiveScanScheduler.class.getSimpleName();
+
+    public enum Phase {
+        /**
+         * Scheduler is stopped
+         */
+        IDLE,
+        /**
+         * Continuous scan until all watched devices were seen
+         */
+        ACQUIRING,
+        /**
+         * Periodic scan windows to check that all watched devices are still present
+         */
+        MONITORING
+    }
+
+    /**
+     * Default duration of the continuous scan before falling back to monitoring although watched devices are still missing (in ms)
+     */
+    public static final long DEFAULT_MAX_ACQUISITION_TIME = 60000;
+
+    /**
+     * Default duration of a monitoring scan window (in ms)
+     */
+    public static final long DEFAULT_MONITORING_WINDOW = 5000;
+
+    /**
+     * Default interval between two monitoring scan windows (in ms)
+     */
+    public static final long DEFAULT_MONITORING_INTERVAL = 30000;
+
+    /**
+     * Default time after which a watched device that was not seen anymore is considered stale (in ms)
+     */
+    public static final long DEFAULT_STALE_TIMEOUT = 90000;
+
+    /**
+     * Interval in which the watch-list is checked (in ms)
+     */
+    private static final long CHECK_INTERVAL = 1000;
+
+    /**
+     * Scan starts allowed by Android within {@link #SCAN_START_PERIOD}
+     */
+    private static final int MAX_SCAN_STARTS = 5;
+    private static final long SCAN_START_PERIOD = 30000;
+
+    private static class WatchedDevice {
+        /**
+         * Time the device was last seen (elapsed realtime in ms), or -1
+         */
+        private long mLastSeen = -1;
+        /**
+         * Time the search for this device started (elapsed realtime in ms), or -1 if the device is present
+         */
+        private long mSearchStart;
+        /**
+         * Time from the start of the last search until the device was seen (in ms), or -1
+         */
+        private long mDiscoveryLatency = -1;
+
+        private WatchedDevice(long now) {
+            mSearchStart = now;
+        }
+    }
+
+    private final BleScanEngine mEngine;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final LinkedHashMap<String, WatchedDevice> mWatchList = new LinkedHashMap<>();
+
+    private int mAcquisitionScanMode = ScanSettings.SCAN_MODE_LOW_LATENCY;
+    private int mMonitoringScanMode = ScanSettings.SCAN_MODE_LOW_POWER;
+    private long mMaxAcquisitionTime = DEFAULT_MAX_ACQUISITION_TIME;
+    private long mMonitoringWindow = DEFAULT_MONITORING_WINDOW;
+    private long mMonitoringInterval = DEFAULT_MONITORING_INTERVAL;
+    private long mStaleTimeout = DEFAULT_STALE_TIMEOUT;
+
+    private Phase mPhase = Phase.IDLE;
+    private long mAcquisitionStart;
+    private long mMonitoringStart;
+    private boolean mEscalationPending;
+
+    /**
+     * Scan mode the engine is currently running with, or -1 if the engine is stopped
+     */
+    private int mActiveScanMode = -1;
+    private final ArrayDeque<Long> mScanStarts = new ArrayDeque<>();
+
+    // duty cycle accounting
+    private long mStartTime;
+    private long mSegmentStart;
+    private double mRadioOnTime;
+    private long mScanTime;
+
+    private final List<Long> mDiscoveryLatencies = new ArrayList<>();
+
+    private final Runnable mCheckRunnable = new Runnable() {
+        @Override
+        public void run() {
+            update();
+            mHandler.postDelayed(this, CHECK_INTERVAL);
+        }
+    };
+
+
+    public AdaptiveScanScheduler(BleScanEngine engine) {
+        mEngine = engine;
+    }
+
+    /**
+     * Adds a device to the watch-list. The scheduler escalates to acquisition until the device was seen.
+     */
+    public void addWatchedDevice(String address) {
+        if (mWatchList.containsKey(address)) {
+            return;
+        }
+        mWatchList.put(address, new WatchedDevice(SystemClock.elapsedRealtime()));
+        if (mPhase != Phase.IDLE) {
+            mEscalationPending = true;
+            update();
+        }
+    }
+
+    public void removeWatchedDevice(String address) {
+        mWatchList.remove(address);
+    }
+
+    /**
+     * Replaces the watch-list. Devices already on the list keep their state.
+     */
+    public void setWatchList(Collection<String> addresses) {
+        mWatchList.keySet().retainAll(addresses);
+        for (String address : addresses) {
+            addWatchedDevice(address);
+        }
+    }
+
+    public List<String> getWatchList() {
+        return new ArrayList<>(mWatchList.keySet());
+    }
+
+    /**
+     * @param scanMode one of the ScanSettings.SCAN_MODE_* constants used while watched devices are missing
+     */
+    public void setAcquisitionScanMode(int scanMode) {
+        mAcquisitionScanMode = scanMode;
+    }
+
+    /**
+     * @param scanMode one of the ScanSettings.SCAN_MODE_* constants used for the monitoring windows.
+     *                 {@link ScanSettings#SCAN_MODE_OPPORTUNISTIC} only receives results of scans started by other apps.
+     */
+    public void setMonitoringScanMode(int scanMode) {
+        mMonitoringScanMode = scanMode;
+    }
+
+    /**
+     * @param maxAcquisitionTime duration of the continuous scan before falling back to monitoring although watched
+     *                           devices are still missing (in ms)
+     */
+    public void setMaxAcquisitionTime(long maxAcquisitionTime) {
+        mMaxAcquisitionTime = maxAcquisitionTime;
+    }
+
+    /**
+     * @param window   duration of a monitoring scan window (in ms)
+     * @param interval interval between the start of two monitoring scan windows (in ms)
+     */
+    public void setMonitoringWindow(long window, long interval) {
+        if (window <= 0 || interval < window) {
+            throw new IllegalArgumentException("Invalid monitoring window!");
+        }
+        mMonitoringWindow = window;
+        mMonitoringInterval = interval;
+    }
+
+    /**
+     * @param staleTimeout time after which a watched device that was not seen anymore is considered stale (in ms).
+     *                     Should be considerably longer than the monitoring interval.
+     */
+    public void setStaleTimeout(long staleTimeout) {
+        mStaleTimeout = staleTimeout;
+    }
+
+    /**
+     * Starts the scheduler, beginning with acquisition if any watched device has not been seen yet.
+     */
+    public void start() throws SensorException {
+        if (mPhase != Phase.IDLE) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        mStartTime = now;
+        mSegmentStart = now;
+        mRadioOnTime = 0;
+        mScanTime = 0;
+        for (WatchedDevice device : mWatchList.values()) {
+            if (device.mSearchStart < 0) {
+                device.mSearchStart = now;
+            }
+        }
+        // devices are only evicted once they are stale, not between two monitoring windows
+        mEngine.setTtl(Math.max(mStaleTimeout, mMonitoringInterval + mMonitoringWindow));
+        mEngine.addListener(this);
+        mAcquisitionStart = now;
+        mPhase = hasMissingDevices() ? Phase.ACQUIRING : Phase.MONITORING;
+        mMonitoringStart = now;
+        startEngine(mPhase == Phase.ACQUIRING ? mAcquisitionScanMode : mMonitoringScanMode);
+        mHandler.postDelayed(mCheckRunnable, CHECK_INTERVAL);
+    }
+
+    public void stop() {
+        if (mPhase == Phase.IDLE) {
+            return;
+        }
+        mHandler.removeCallbacks(mCheckRunnable);
+        mEngine.removeListener(this);
+        stopEngine();
+        mPhase = Phase.IDLE;
+    }
+
+    public Phase getPhase() {
+        return mPhase;
+    }
+
+    /**
+     * @return true if the watched device is currently present (i.e. seen and not stale)
+     */
+    public boolean isPresent(String address) {
+        WatchedDevice device = mWatchList.get(address);
+        return device != null && device.mSearchStart < 0;
+    }
+
+    /**
+     * @return time from the start of the last search for the given device until it was seen (in ms), or -1
+     */
+    public long getDiscoveryLatency(String address) {
+        WatchedDevice device = mWatchList.get(address);
+        return (device != null) ? device.mDiscoveryLatency : -1;
+    }
+
+    /**
+     * @return mean time from the start of a search until a watched device was seen (in ms), or -1
+     */
+    public double getMeanDiscoveryLatency() {
+        if (mDiscoveryLatencies.isEmpty()) {
+            return -1;
+        }
+        double sum = 0;
+        for (long latency : mDiscoveryLatencies) {
+            sum += latency;
+        }
+        return sum / mDiscoveryLatencies.size();
+    }
+
+    /**
+     * @return all measured discovery latencies (in ms)
+     */
+    public List<Long> getDiscoveryLatencies() {
+        return new ArrayList<>(mDiscoveryLatencies);
+    }
+
+    /**
+     * @return fraction of time since the start the scanner was running (regardless of the scan mode)
+     */
+    public double getScanDutyCycle() {
+        accountSegment();
+        long elapsed = SystemClock.elapsedRealtime() - mStartTime;
+        return (elapsed > 0) ? (double) mScanTime / elapsed : 0;
+    }
+
+    /**
+     * @return estimated fraction of time since the start the radio was receiving, i.e. the scan duty cycle
+     * weighted with the scan window of the respective scan mode
+     */
+    public double getRadioDutyCycle() {
+        accountSegment();
+        long elapsed = SystemClock.elapsedRealtime() - mStartTime;
+        return (elapsed > 0) ? mRadioOnTime / elapsed : 0;
+    }
+
+    @Override
+    public void onDeviceFound(BleScannedDevice device) {
+        if (mWatchList.containsKey(device.getAddress())) {
+            update();
+        }
+    }
+
+    @Override
+    public void onDeviceLost(BleScannedDevice device) {
+        if (mWatchList.containsKey(device.getAddress())) {
+            update();
+        }
+    }
+
+    private boolean hasMissingDevices() {
+        for (WatchedDevice device : mWatchList.values()) {
+            if (device.mSearchStart >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void update() {
+        if (mPhase == Phase.IDLE) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        boolean escalate = mEscalationPending;
+        mEscalationPending = false;
+        for (Map.Entry<String, WatchedDevice> entry : mWatchList.entrySet()) {
+            String address = entry.getKey();
+            WatchedDevice watched = entry.getValue();
+            BleScannedDevice device = mEngine.getDevice(address);
+            if (device != null && device.getLastSeen() > watched.mLastSeen && now - device.getLastSeen() <= mStaleTimeout) {
+                watched.mLastSeen = device.getLastSeen();
+                if (watched.mSearchStart >= 0) {
+                    watched.mDiscoveryLatency = Math.max(0, watched.mLastSeen - watched.mSearchStart);
+                    mDiscoveryLatencies.add(watched.mDiscoveryLatency);
+                    watched.mSearchStart = -1;
+                    Log.d(TAG, address + " discovered after " + watched.mDiscoveryLatency + " ms.");
+                }
+            } else if (watched.mSearchStart < 0 && now - watched.mLastSeen > mStaleTimeout) {
+                Log.d(TAG, address + " is stale.");
+                watched.mSearchStart = now;
+                escalate = true;
+            }
+        }
+
+        if (escalate && mPhase != Phase.ACQUIRING) {
+            Log.d(TAG, "Escalating to acquisition.");
+            mPhase = Phase.ACQUIRING;
+            mAcquisitionStart = now;
+        } else if (mPhase == Phase.ACQUIRING && (!hasMissingDevices() || now - mAcquisitionStart > mMaxAcquisitionTime)) {
+            Log.d(TAG, "Falling back to monitoring" + (hasMissingDevices() ? " (acquisition timed out)." : "."));
+            mPhase = Phase.MONITORING;
+            mMonitoringStart = now;
+        }
+
+        if (mPhase == Phase.ACQUIRING) {
+            startEngine(mAcquisitionScanMode);
+        } else if ((now - mMonitoringStart) % mMonitoringInterval < mMonitoringWindow) {
+            startEngine(mMonitoringScanMode);
+        } else {
+            stopEngine();
+        }
+    }
+
+    private void startEngine(int scanMode) {
+        if (mActiveScanMode == scanMode) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        while (!mScanStarts.isEmpty() && now - mScanStarts.peekFirst() > SCAN_START_PERIOD) {
+            mScanStarts.pollFirst();
+        }
+        if (mScanStarts.size() >= MAX_SCAN_STARTS) {
+            // retried on the next check
+            Log.w(TAG, "Scan start postponed to avoid being throttled.");
+            return;
+        }
+        accountSegment();
+        mEngine.setScanMode(scanMode);
+        try {
+            mEngine.start();
+        } catch (SensorException e) {
+            Log.e(TAG, "Error starting BLE scan: " + e.getMessage());
+            mActiveScanMode = -1;
+            return;
+        }
+        mScanStarts.addLast(now);
+        mActiveScanMode = scanMode;
+    }
+
+    private void stopEngine() {
+        if (mActiveScanMode < 0) {
+            return;
+        }
+        accountSegment();
+        mEngine.stop();
+        mActiveScanMode = -1;
+    }
+
+    /**
+     * Adds the time since the last mode change to the duty cycle accounting.
+     */
+    private void accountSegment() {
+        long now = SystemClock.elapsedRealtime();
+        long duration = now - mSegmentStart;
+        mSegmentStart = now;
+        if (mActiveScanMode < 0) {
+            return;
+        }
+        mScanTime += duration;
+        mRadioOnTime += duration * getScanWindowRatio(mActiveScanMode);
+    }
+
+    /**
+     * @return ratio of scan window to scan interval of the Android Bluetooth stack for the given scan mode
+     */
+    private static double getScanWindowRatio(int scanMode) {
+        switch (scanMode) {
+            case ScanSettings.SCAN_MODE_LOW_LATENCY:
+                // 4096 ms window / 4096 ms interval
+                return 1.0;
+            case ScanSettings.SCAN_MODE_BALANCED:
+                // 1024 ms window / 4096 ms interval
+                return 0.25;
+            case ScanSettings.SCAN_MODE_LOW_POWER:
+                // 512 ms window / 5120 ms interval
+                return 0.1;
+            default:
+                // opportunistic scans do not use the radio themselves
+                return 0.0;
+        }
+    }
+}
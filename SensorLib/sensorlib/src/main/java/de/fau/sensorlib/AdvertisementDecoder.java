@@ -0,0 +1,22 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib;
+
+/**
+ * Decodes the manufacturer data advertised by one sensor family. Decoders are registered per
+ * {@link de.fau.sensorlib.enums.KnownSensor} via {@link BleManufacturerDataHelper#registerDecoder}.
+ */
+public interface AdvertisementDecoder {
+
+    /**
+     * Decodes the given manufacturer data into the given (already reset) status.
+     *
+     * @return true if the manufacturer data could be decoded
+     */
+    boolean decode(byte[] manufacturerData, AdvertisementStatus status);
+}
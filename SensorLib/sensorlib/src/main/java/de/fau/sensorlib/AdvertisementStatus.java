@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+import de.fau.sensorlib.enums.SensorState;
+
+/**
+ * Sensor status decoded from the manufacturer data of a BLE advertisement by an {@link AdvertisementDecoder}.
+ * Instances are reused, i.e. decoded into again whenever the manufacturer data of a device changes.
+ */
+public class AdvertisementStatus {
+
+    public static final int CHANGED_STATE = 1;
+    public static final int CHANGED_BATTERY_LEVEL = 1 << 1;
+    public static final int CHANGED_CHARGING_STATE = 1 << 2;
+    public static final int CHANGED_NUM_RECORDINGS = 1 << 3;
+
+    private boolean mValid;
+    private SensorState mState = SensorState.UNDEFINED;
+    private int mBatteryLevel;
+    private boolean mCharging;
+    private int mNumRecordings;
+
+
+    /**
+     * Resets all values, called before decoding.
+     */
+    public void reset() {
+        mValid = false;
+        mState = SensorState.UNDEFINED;
+        mBatteryLevel = 0;
+        mCharging = false;
+        mNumRecordings = 0;
+    }
+
+    /**
+     * @return true if the status was decoded successfully
+     */
+    public boolean isValid() {
+        return mValid;
+    }
+
+    public void setValid(boolean valid) {
+        mValid = valid;
+    }
+
+    public SensorState getState() {
+        return mState;
+    }
+
+    public void setState(SensorState state) {
+        mState = state;
+    }
+
+    /**
+     * @return battery level in %
+     */
+    public int getBatteryLevel() {
+        return mBatteryLevel;
+    }
+
+    public void setBatteryLevel(int batteryLevel) {
+        mBatteryLevel = batteryLevel;
+    }
+
+    public boolean isCharging() {
+        return mCharging;
+    }
+
+    public void setCharging(boolean charging) {
+        mCharging = charging;
+    }
+
+    public int getNumRecordings() {
+        return mNumRecordings;
+    }
+
+    public void setNumRecordings(int numRecordings) {
+        mNumRecordings = numRecordings;
+    }
+
+    /**
+     * @return bit mask of the CHANGED_* flags for all values that differ from the given status
+     */
+    public int diff(AdvertisementStatus other) {
+        int changes = 0;
+        if (mState != other.mState) {
+            changes |= CHANGED_STATE;
+        }
+        if (mBatteryLevel != other.mBatteryLevel) {
+            changes |= CHANGED_BATTERY_LEVEL;
+        }
+        if (mCharging != other.mCharging) {
+            changes |= CHANGED_CHARGING_STATE;
+        }
+        if (mNumRecordings != other.mNumRecordings) {
+            changes |= CHANGED_NUM_RECORDINGS;
+        }
+        return changes;
+    }
+
+    public void copyFrom(AdvertisementStatus other) {
+        mValid = other.mValid;
+        mState = other.mState;
+        mBatteryLevel = other.mBatteryLevel;
+        mCharging = other.mCharging;
+        mNumRecordings = other.mNumRecordings;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.getDefault(), "%s <%s, battery: %d %%%s, recordings: %d>", getClass().getSimpleName(),
+                mState, mBatteryLevel, mCharging ? " (charging)" : "", mNumRecordings);
+    }
+}
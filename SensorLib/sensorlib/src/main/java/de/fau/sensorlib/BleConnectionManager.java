@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib;
+
+import android.bluetooth.BluetoothDevice;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import de.fau.sensorlib.enums.SensorState;
+import de.fau.sensorlib.sensors.BleLinkInfo;
+import de.fau.sensorlib.sensors.GenericBleSensor;
+
+/**
+ * Central view on all active BLE links of this app.
+ * <p>
+ * Every {@link GenericBleSensor} registers its link as soon as the link setup is finished. The manager relates
+ * the throughput required by all streaming sensors to the throughput the links (negotiated MTU, PHY and
+ * connection interval) and the Bluetooth controller can carry. Since the controller has to serve all
+ * connection events of all links, the aggregate throughput is limited even if every single link could carry
+ * its sensor's data rate. Before a sensor starts streaming, the budget including this sensor is checked and,
+ * depending on the {@link BudgetPolicy}, a warning is issued or streaming is refused.
+ */
+public class BleConnectionManager {
+
+    private static final String TAG = BleConnectionManager.class.getSimpleName();
+
+    /**
+     * Typical number of simultaneous BLE connections supported by Android phones
+     */
+    public static final int DEFAULT_MAX_LINKS = 7;
+
+    /**
+     * Conservative aggregate payload throughput of the controller on the 1M PHY (in Byte/s)
+     */
+    public static final double DEFAULT_CONTROLLER_CAPACITY = 80 * 1024;
+
+    /**
+     * Conservative number of packets per connection event
+     */
+    public static final int DEFAULT_PACKETS_PER_EVENT = 4;
+
+    /**
+     * Utilization above which a warning is issued
+     */
+    private static final double WARNING_UTILIZATION = 0.8;
+
+    private static BleConnectionManager sInstance;
+
+    /**
+     * What happens if a sensor is about to start streaming although the budget does not allow it.
+     */
+    public enum BudgetPolicy {
+        /**
+         * Do not check the budget
+         */
+        IGNORE,
+        /**
+         * Start streaming, but notify the sensor's processors with the {@link LinkBudget}
+         */
+        WARN,
+        /**
+         * Do not start streaming if the budget is exceeded
+         */
+        REFUSE
+    }
+
+    public enum BudgetStatus {
+        OK,
+        WARNING,
+        EXCEEDED
+    }
+
+    /**
+     * Snapshot of the link budget.
+     */
+    public static class LinkBudget {
+        private final int mNumLinks;
+        private final int mNumStreaming;
+        private final int mNumUnknown;
+        private final double mRequiredThroughput;
+        private final double mUtilization;
+        private final String mBottleneck;
+        private final BudgetStatus mStatus;
+
+        private LinkBudget(int numLinks, int numStreaming, int numUnknown, double requiredThroughput, double utilization, String bottleneck, BudgetStatus status) {
+            mNumLinks = numLinks;
+            mNumStreaming = numStreaming;
+            mNumUnknown = numUnknown;
+            mRequiredThroughput = requiredThroughput;
+            mUtilization = utilization;
+            mBottleneck = bottleneck;
+            mStatus = status;
+        }
+
+        /**
+         * @return number of connected links
+         */
+        public int getNumLinks() {
+            return mNumLinks;
+        }
+
+        /**
+         * @return number of streaming links
+         */
+        public int getNumStreaming() {
+            return mNumStreaming;
+        }
+
+        /**
+         * @return number of streaming links whose required throughput is unknown (not included in the budget)
+         */
+        public int getNumUnknown() {
+            return mNumUnknown;
+        }
+
+        /**
+         * @return aggregate throughput required by all streaming sensors (in Byte/s)
+         */
+        public double getRequiredThroughput() {
+            return mRequiredThroughput;
+        }
+
+        /**
+         * @return aggregate throughput available for the current links (in Byte/s)
+         */
+        public double getAvailableThroughput() {
+            return (mUtilization > 0) ? mRequiredThroughput / mUtilization : Double.POSITIVE_INFINITY;
+        }
+
+        /**
+         * @return utilization of the most loaded resource (controller or a single link), > 1 means data will be lost
+         */
+        public double getUtilization() {
+            return mUtilization;
+        }
+
+        /**
+         * @return the most loaded resource ("controller", "link limit" or the name of a sensor)
+         */
+        public String getBottleneck() {
+            return mBottleneck;
+        }
+
+        public BudgetStatus getStatus() {
+            return mStatus;
+        }
+
+        public boolean isExceeded() {
+            return mStatus == BudgetStatus.EXCEEDED;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.getDefault(), "%s <%s, %d links (%d streaming), required: %.1f kB/s, available: %.1f kB/s, utilization: %.0f %% (%s)>",
+                    getClass().getSimpleName(), mStatus, mNumLinks, mNumStreaming, mRequiredThroughput / 1024.0,
+                    getAvailableThroughput() / 1024.0, mUtilization * 100, mBottleneck);
+        }
+    }
+
+    private final List<GenericBleSensor> mLinks = new ArrayList<>();
+    private BudgetPolicy mPolicy = BudgetPolicy.WARN;
+    private int mMaxLinks = DEFAULT_MAX_LINKS;
+    private double mControllerCapacity = DEFAULT_CONTROLLER_CAPACITY;
+    private int mPacketsPerEvent = DEFAULT_PACKETS_PER_EVENT;
+
+
+    public static synchronized BleConnectionManager getInstance() {
+        if (sInstance == null) {
+            sInstance = new BleConnectionManager();
+        }
+        return sInstance;
+    }
+
+    private BleConnectionManager() {
+    }
+
+    /**
+     * Registers the link of the given sensor. Called by the sensor when the link setup is finished.
+     */
+    public synchronized void register(GenericBleSensor sensor) {
+        if (!mLinks.contains(sensor)) {
+            mLinks.add(sensor);
+            Log.d(TAG, "Link registered: " + sensor.getDeviceName() + " – " + mLinks.size() + " active links");
+        }
+    }
+
+    /**
+     * Removes the link of the given sensor. Called by the sensor when the connection was closed or lost.
+     */
+    public synchronized void unregister(GenericBleSensor sensor) {
+        if (mLinks.remove(sensor)) {
+            Log.d(TAG, "Link removed: " + sensor.getDeviceName() + " – " + mLinks.size() + " active links");
+        }
+    }
+
+    /**
+     * @return all sensors with an active link
+     */
+    public synchronized List<GenericBleSensor> getLinks() {
+        return new ArrayList<>(mLinks);
+    }
+
+    public synchronized void setBudgetPolicy(BudgetPolicy policy) {
+        mPolicy = policy;
+    }
+
+    public synchronized BudgetPolicy getBudgetPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * Sets the maximum number of simultaneous links (depends on the phone's Bluetooth controller).
+     */
+    public synchronized void setMaxLinks(int maxLinks) {
+        mMaxLinks = maxLinks;
+    }
+
+    /**
+     * Sets the aggregate payload throughput the controller can carry on the 1M PHY (in Byte/s).
+     */
+    public synchronized void setControllerCapacity(double controllerCapacity) {
+        mControllerCapacity = controllerCapacity;
+    }
+
+    /**
+     * Sets the number of packets the controller transmits per connection event and link.
+     */
+    public synchronized void setPacketsPerEvent(int packetsPerEvent) {
+        mPacketsPerEvent = packetsPerEvent;
+    }
+
+    /**
+     * @return the budget of all current links
+     */
+    public synchronized LinkBudget computeBudget() {
+        return computeBudget(null);
+    }
+
+    /**
+     * Computes the budget of all current links, assuming that the given sensor streams as well.
+     *
+     * @param candidate sensor that is about to start streaming, or null
+     */
+    public synchronized LinkBudget computeBudget(GenericBleSensor candidate) {
+        int numLinks = mLinks.size();
+        if (candidate != null && !mLinks.contains(candidate)) {
+            numLinks++;
+        }
+
+        List<GenericBleSensor> streaming = new ArrayList<>();
+        for (GenericBleSensor sensor : mLinks) {
+            if (sensor == candidate || sensor.getState() == SensorState.STREAMING) {
+                streaming.add(sensor);
+            }
+        }
+        if (candidate != null && !streaming.contains(candidate)) {
+            streaming.add(candidate);
+        }
+
+        double required = 0;
+        double controllerUtilization = 0;
+        double maxLinkUtilization = 0;
+        String maxLinkName = null;
+        int numUnknown = 0;
+        for (GenericBleSensor sensor : streaming) {
+            BleLinkInfo link = sensor.getLinkInfo();
+            double throughput = sensor.getRequiredThroughput();
+            if (throughput < 0) {
+                // fall back to the measured throughput
+                throughput = link.getNotificationThroughput();
+            }
+            if (throughput <= 0) {
+                numUnknown++;
+                continue;
+            }
+            required += throughput;
+            // the 2M PHY needs half the air time
+            double phyFactor = (link.getTxPhy() == BluetoothDevice.PHY_LE_2M) ? 2.0 : 1.0;
+            controllerUtilization += throughput / (mControllerCapacity * phyFactor);
+            double linkUtilization = throughput / link.getEstimatedCapacity(mPacketsPerEvent);
+            if (linkUtilization > maxLinkUtilization) {
+                maxLinkUtilization = linkUtilization;
+                maxLinkName = sensor.getDeviceName();
+            }
+        }
+
+        double utilization = Math.max(controllerUtilization, maxLinkUtilization);
+        String bottleneck = (maxLinkUtilization > controllerUtilization) ? maxLinkName : "controller";
+        BudgetStatus status;
+        if (numLinks > mMaxLinks) {
+            status = BudgetStatus.EXCEEDED;
+            bottleneck = "link limit";
+        } else if (utilization >= 1.0) {
+            status = BudgetStatus.EXCEEDED;
+        } else if (utilization >= WARNING_UTILIZATION) {
+            status = BudgetStatus.WARNING;
+        } else {
+            status = BudgetStatus.OK;
+        }
+        return new LinkBudget(numLinks, streaming.size(), numUnknown, required, utilization, bottleneck, status);
+    }
+
+    /**
+     * Checks whether the given sensor may start streaming according to the current {@link BudgetPolicy}.
+     *
+     * @return the budget including the given sensor, or null if the budget is not checked
+     */
+    public LinkBudget checkStartStreaming(GenericBleSensor sensor) {
+        if (getBudgetPolicy() == BudgetPolicy.IGNORE) {
+            return null;
+        }
+        LinkBudget budget = computeBudget(sensor);
+        if (budget.getStatus() != BudgetStatus.OK) {
+            Log.w(TAG, sensor.getDeviceName() + " start streaming: " + budget);
+        }
+        return budget;
+    }
+
+    /**
+     * @return true if streaming must not be started with the given budget
+     */
+    public synchronized boolean shouldRefuse(LinkBudget budget) {
+        return mPolicy == BudgetPolicy.REFUSE && budget != null && budget.isExceeded();
+    }
+}
@@ -11,8 +11,10 @@ import android.bluetooth.BluetoothGattCharacteristic;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Static storage for all used/known GATT attributes and BLE standard definitions.
@@ -2811,311 +2813,416 @@ public final class BleGattAttributes {
      */
     public static final UUID VALUE_TRIGGER_SETTING = new UUID((0x290AL << 32) | 0x1000, leastSigBits);
 
-    protected static HashMap<UUID, String> services = new HashMap<>();
-    protected static HashMap<UUID, String> characteristics = new HashMap<>();
-    protected static HashMap<UUID, String> descriptors = new HashMap<>();
-
-    static {
-        services.put(GENERIC_ACCESS_SERVICE, "Generic Access Service");
-        services.put(ALERT_NOTIFICATION_SERVICE, "Alert Notification Service");
-        services.put(AUTOMATION_IO_SERVICE, "Automation IO Service");
-        services.put(BATTERY_SERVICE, "Battery Service");
-        services.put(BLOOD_PRESSURE_SERVICE, "Blood Pressure Service");
-        services.put(BODY_COMPOSITION_SERVICE, "Body Composition Service");
-        services.put(BOND_MANAGEMENT_SERVICE_SERVICE, "Bond Management Service");
-        services.put(CONTINUOUS_GLUCOSE_MONITORING_SERVICE, "Continuous Glucose Monitoring Service");
-        services.put(CURRENT_TIME_SERVICE_SERVICE, "Current Time Service");
-        services.put(CYCLING_POWER_SERVICE, "Cycling Power Service");
-        services.put(CYCLING_SPEED_AND_CADENCE_SERVICE, "Cycling Speed and Cadence Service");
-        services.put(DEVICE_INFORMATION_SERVICE, "Device Information Service");
-        services.put(ENVIRONMENTAL_SENSING_SERVICE, "Environmental Sensing Service");
-        services.put(FITNESS_MACHINE_SERVICE, "Fitness Machine Service");
-        services.put(GENERIC_ATTRIBUTE_SERVICE, "Generic Attribute Service");
-        services.put(GLUCOSE_SERVICE, "Glucose Service");
-        services.put(HEALTH_THERMOMETER_SERVICE, "Health Thermometer Service");
-        services.put(HEART_RATE_SERVICE, "Heart Rate Service");
-        services.put(HTTP_PROXY_SERVICE, "HTTP Proxy Service");
-        services.put(HUMAN_INTERFACE_DEVICE_SERVICE, "Human Interface Device Service");
-        services.put(IMMEDIATE_ALERT_SERVICE, "Immediate Alert Service");
-        services.put(INDOOR_POSITIONING_SERVICE, "Indoor Positioning Service");
-        services.put(INTERNET_PROTOCOL_SUPPORT_SERVICE, "Internet Protocol Support Service");
-        services.put(LINK_LOSS_SERVICE, "Link Loss Service");
-        services.put(LOCATION_AND_NAVIGATION_SERVICE, "Location and Navigation Service");
-        services.put(MESH_PROVISIONING_SERVICE, "Mesh Provisioning Service");
-        services.put(MESH_PROXY_SERVICE, "Mesh Proxy Service");
-        services.put(NEXT_DST_CHANGE_SERVICE, "Next DST Change Service");
-        services.put(OBJECT_TRANSFER_SERVICE, "Object Transfer Service");
-        services.put(PHONE_ALERT_STATUS_SERVICE, "Phone Alert Status Service");
-        services.put(PULSE_OXIMETER_SERVICE, "Pulse Oximeter Service");
-        services.put(RECONNECTION_CONFIGURATION_SERVICE, "Reconnection Configuration Service");
-        services.put(REFERENCE_TIME_UPDATE_SERVICE, "Reference Time Update Service");
-        services.put(RUNNING_SPEED_AND_CADENCE_SERVICE, "Running Speed and Cadence Service");
-        services.put(SCAN_PARAMETER_SERVICE, "Scan Parameter Service");
-        services.put(TRANSPORT_DISCOVERY_SERVICE, "Transport Discovery Service");
-        services.put(TX_POWER_SERVICE, "Tx Power Service");
-        services.put(USER_DATA_SERVICE, "User Data Service");
-        services.put(WEIGHT_SCALE_SERVICE, "Weight Scale Service");
-
-        characteristics.put(AEROBIC_HEART_RATE_LOWER_LIMIT, "Aerobic Heart Rate Lower Limit");
-        characteristics.put(AEROBIC_HEART_RATE_UPPER_LIMIT, "Aerobic Heart Rate Upper Limit");
-        characteristics.put(AEROBIC_THRESHOLD, "Aerobic Threshold");
-        characteristics.put(AGE, "Age");
-        characteristics.put(AGGREGATE, "Aggregate");
-        characteristics.put(ALERT_CATEGORY_ID, "Alert Category ID");
-        characteristics.put(ALERT_CATEGORY_ID_BIT_MASK, "Alert Category ID Bit Mask");
-        characteristics.put(ALERT_LEVEL, "Alert Level");
-        characteristics.put(ALERT_NOTIFICATION_CONTROL_POINT, "Alert Notification Control Point");
-        characteristics.put(ALERT_STATUS, "Alert Status");
-        characteristics.put(ALTITUDE, "Altitude");
-        characteristics.put(ANAEROBIC_HEART_RATE_LOWER_LIMIT, "Anaerobic Heart Rate Lower Limit");
-        characteristics.put(ANAEROBIC_HEART_RATE_UPPER_LIMIT, "Anaerobic Heart Rate Upper Limit");
-        characteristics.put(ANAEROBIC_THRESHOLD, "Anaerobic Threshold");
-        characteristics.put(ANALOG, "Analog");
-        characteristics.put(ANALOG_OUTPUT, "Analog Output");
-        characteristics.put(APPARENT_WIND_DIRECTION, "Apparent Wind Direction");
-        characteristics.put(APPARENT_WIND_SPEED, "Apparent Wind Speed");
-        characteristics.put(APPEARANCE, "Appearance");
-        characteristics.put(BAROMETRIC_PRESSURE_TREND, "Barometric Pressure Trend");
-        characteristics.put(BATTERY_LEVEL, "Battery Level");
-        characteristics.put(BATTERY_LEVEL_STATE, "Battery Level State");
-        characteristics.put(BATTERY_POWER_STATE, "Battery Power State");
-        characteristics.put(BLOOD_PRESSURE_FEATURE, "Blood Pressure Feature");
-        characteristics.put(BLOOD_PRESSURE_MEASUREMENT, "Blood Pressure Measurement");
-        characteristics.put(BODY_COMPOSITION_FEATURE, "Body Composition Feature");
-        characteristics.put(BODY_COMPOSITION_MEASUREMENT, "Body Composition Measurement");
-        characteristics.put(BODY_SENSOR_LOCATION, "Body Sensor Location");
-        characteristics.put(BOND_MANAGEMENT_CONTROL_POINT, "Bond Management Control Point");
-        characteristics.put(BOND_MANAGEMENT_FEATURES, "Bond Management Features");
-        characteristics.put(BOOT_KEYBOARD_INPUT_REPORT, "Boot Keyboard Input Report");
-        characteristics.put(BOOT_KEYBOARD_OUTPUT_REPORT, "Boot Keyboard Output Report");
-        characteristics.put(BOOT_MOUSE_INPUT_REPORT, "Boot Mouse Input Report");
-        characteristics.put(CENTRAL_ADDRESS_RESOLUTION, "Central Address Resolution");
-        characteristics.put(CGM_FEATURE, "CGM Feature");
-        characteristics.put(CGM_MEASUREMENT, "CGM Measurement");
-        characteristics.put(CGM_SESSION_RUN_TIME, "CGM Session Run Time");
-        characteristics.put(CGM_SESSION_START_TIME, "CGM Session Start Time");
-        characteristics.put(CGM_SPECIFIC_OPS_CONTROL_POINT, "CGM Specific Ops Control Point");
-        characteristics.put(CGM_STATUS, "CGM Status");
-        characteristics.put(CROSS_TRAINER_DATA, "Cross Trainer Data");
-        characteristics.put(CSC_FEATURE, "CSC Feature");
-        characteristics.put(CSC_MEASUREMENT, "CSC Measurement");
-        characteristics.put(CURRENT_TIME, "Current Time");
-        characteristics.put(CYCLING_POWER_CONTROL_POINT, "Cycling Power Control Point");
-        characteristics.put(CYCLING_POWER_FEATURE, "Cycling Power Feature");
-        characteristics.put(CYCLING_POWER_MEASUREMENT, "Cycling Power Measurement");
-        characteristics.put(CYCLING_POWER_VECTOR, "Cycling Power Vector");
-        characteristics.put(DATABASE_CHANGE_INCREMENT, "Database Change Increment");
-        characteristics.put(DATE_OF_BIRTH, "Date of Birth");
-        characteristics.put(DATE_OF_THRESHOLD_ASSESSMENT, "Date of Threshold Assessment");
-        characteristics.put(DATE_TIME, "Date Time");
-        characteristics.put(DAY_DATE_TIME, "Day Date Time");
-        characteristics.put(DAY_OF_WEEK, "Day of Week");
-        characteristics.put(DESCRIPTOR_VALUE_CHANGED, "Descriptor Value Changed");
-        characteristics.put(DEVICE_NAME, "Device Name");
-        characteristics.put(DEW_POINT, "Dew Point");
-        characteristics.put(DIGITAL, "Digital");
-        characteristics.put(DIGITAL_OUTPUT, "Digital Output");
-        characteristics.put(DST_OFFSET, "DST Offset");
-        characteristics.put(ELEVATION, "Elevation");
-        characteristics.put(EMAIL_ADDRESS, "Email Address");
-        characteristics.put(EXACT_TIME_100, "Exact Time 100");
-        characteristics.put(EXACT_TIME_256, "Exact Time 256");
-        characteristics.put(FAT_BURN_HEART_RATE_LOWER_LIMIT, "Fat Burn Heart Rate Lower Limit");
-        characteristics.put(FAT_BURN_HEART_RATE_UPPER_LIMIT, "Fat Burn Heart Rate Upper Limit");
-        characteristics.put(FIRMWARE_REVISION_STRING, "Firmware Revision String");
-        characteristics.put(FIRST_NAME, "First Name");
-        characteristics.put(FITNESS_MACHINE_CONTROL_POINT, "Fitness Machine Control Point");
-        characteristics.put(FITNESS_MACHINE_FEATURE, "Fitness Machine Feature");
-        characteristics.put(FITNESS_MACHINE_STATUS, "Fitness Machine Status");
-        characteristics.put(FIVE_ZONE_HEART_RATE_LIMITS, "Five Zone Heart Rate Limits");
-        characteristics.put(FLOOR_NUMBER, "Floor Number");
-        characteristics.put(GENDER, "Gender");
-        characteristics.put(GLUCOSE_FEATURE, "Glucose Feature");
-        characteristics.put(GLUCOSE_MEASUREMENT, "Glucose Measurement");
-        characteristics.put(GLUCOSE_MEASUREMENT_CONTEXT, "Glucose Measurement Context");
-        characteristics.put(GUST_FACTOR, "Gust Factor");
-        characteristics.put(HARDWARE_REVISION_STRING, "Hardware Revision String");
-        characteristics.put(HEART_RATE_CONTROL_POINT, "Heart Rate Control Point");
-        characteristics.put(HEART_RATE_MAX, "Heart Rate Max");
-        characteristics.put(HEART_RATE_MEASUREMENT, "Heart Rate Measurement");
-        characteristics.put(HEAT_INDEX, "Heat Index");
-        characteristics.put(HEIGHT, "Height");
-        characteristics.put(HID_CONTROL_POINT, "HID Control Point");
-        characteristics.put(HID_INFORMATION, "HID Information");
-        characteristics.put(HIP_CIRCUMFERENCE, "Hip Circumference");
-        characteristics.put(HTTP_CONTROL_POINT, "HTTP Control Point");
-        characteristics.put(HTTP_ENTITIY_BODY, "HTTP Entity Body");
-        characteristics.put(HTTP_HEADERS, "HTTP Headers");
-        characteristics.put(HTTP_STATUS_CODE, "HTTP Status Code");
-        characteristics.put(HTTPS_SECURITY, "HTTPS Security");
-        characteristics.put(HUMIDITY, "Humidity");
-        characteristics.put(IEEE11073_20601_REGULATORY_CERTIFICATION_DATA_LIST, "IEEE 11073-20601 Regulatory Certification Data List");
-        characteristics.put(INDOOR_BIKE_DATA, "Indoor Bike Data");
-        characteristics.put(INDOOR_POSITIONING_CONFIGURATION, "Indoor Positioning Configuration");
-        characteristics.put(INTERMEDIATE_CUFF_PRESSURE, "Intermediate Cuff Pressure");
-        characteristics.put(INTERMEDIATE_TEMPERATURE, "Intermediate Temperature");
-        characteristics.put(IRRADIANCE, "Irradiance");
-        characteristics.put(LANGUAGE, "Language");
-        characteristics.put(LAST_NAME, "Last Name");
-        characteristics.put(LATITUDE, "Latitude");
-        characteristics.put(LN_CONTROL_POINT, "LN Control Point");
-        characteristics.put(LN_FEATURE, "LN Feature");
-        characteristics.put(LOCAL_EAST_COORDINATE, "Local East Coordinate");
-        characteristics.put(LOCAL_NORTH_COORDINATE, "Local North Coordinate");
-        characteristics.put(LOCAL_TIME_INFORMATION, "Local Time Information");
-        characteristics.put(LOCATION_AND_SPEED, "Location and Speed");
-        characteristics.put(LOCATION_NAME, "Location Name");
-        characteristics.put(LONGITUDE, "Longitude");
-        characteristics.put(MAGNETIC_DECLINATION, "Magnetic Declination");
-        characteristics.put(MAGNETIC_FLUX_DENSITY_2D, "Magnetic Flux Density - 2D");
-        characteristics.put(MAGNETIC_FLUX_DENSITY_3D, "Magnetic Flux Density - 3D");
-        characteristics.put(MANUFACTURER_NAME_STRING, "Manufacturer Name String");
-        characteristics.put(MAXIMUM_RECOMMENDED_HEART_RATE, "Maximum Recommended Heart Rate");
-        characteristics.put(MEASUREMENT_INTERVAL, "Measurement Interval");
-        characteristics.put(MODEL_NUMBER_STRING, "Model Number String");
-        characteristics.put(NAVIGATION, "Navigation");
-        characteristics.put(NETWORK_AVAILABILITY, "Network Availability");
-        characteristics.put(NEW_ALERT, "New Alert");
-        characteristics.put(OBJECT_ACTION_CONTROL_POINT, "Object Action Control Point");
-        characteristics.put(OBJECT_CHANGED, "Object Changed");
-        characteristics.put(OBJECT_FIRST_CREATED, "Object First-Created");
-        characteristics.put(OBJECT_ID, "Object ID");
-        characteristics.put(OBJECT_LAST_MODIFIED, "Object Last-Modified");
-        characteristics.put(OBJECT_LIST_CONTROL_POINT, "Object List Control Point");
-        characteristics.put(OBJECT_LIST_FILTER, "Object List Filter");
-        characteristics.put(OBJECT_NAME, "Object Name");
-        characteristics.put(OBJECT_PROPERTIES, "Object Properties");
-        characteristics.put(OBJECT_SIZE, "Object Size");
-        characteristics.put(OBJECT_TYPE, "Object Type");
-        characteristics.put(OTS_FEATURE, "OTS Feature");
-        characteristics.put(PERIPHERAL_PREFERRED_CONNECTION_PARAMETERS, "Peripheral Preferred Connection Parameters");
-        characteristics.put(PERIPHERAL_PRIVACY_FLAG, "Peripheral Privacy Flag");
-        characteristics.put(PLX_CONTINUOUS_MEASUREMENT, "PLX Continuous Measurement Characteristic");
-        characteristics.put(PLX_FEATURES, "PLX Features");
-        characteristics.put(PLX_SPOT_CHECK_MEASUREMENT, "PLX Spot-Check Measurement");
-        characteristics.put(PNP_ID, "PnP ID");
-        characteristics.put(POLLEN_CONCENTRATION, "Pollen Concentration");
-        characteristics.put(POSITION_2D, "Position 2D");
-        characteristics.put(POSITION_3D, "Position 3D");
-        characteristics.put(POSITION_QUALITY, "Position Quality");
-        characteristics.put(PRESSURE, "Pressure");
-        characteristics.put(PROTOCOL_MODE, "Protocol Mode");
-        characteristics.put(PULSE_OXIMETRY_CONTROL_POINT, "Pulse Oximetry Control Point");
-        characteristics.put(RAINFALL, "Rainfall");
-        characteristics.put(RC_FEATURE, "RC Feature");
-        characteristics.put(RC_SETTINGS, "RC Settings");
-        characteristics.put(RECONNECTION_ADDRESS, "Reconnection Address");
-        characteristics.put(RECONNECTION_CONFIGURATION_CONTROL_POINT, "Reconnection Configuration Control Point");
-        characteristics.put(RECORD_ACCESS_CONTROL_POINT, "Record Access Control Point");
-        characteristics.put(REFERENCE_TIME_INFORMATION, "Reference Time Information");
-        characteristics.put(REMOVABLE, "Removable");
-        characteristics.put(REPORT, "Report");
-        characteristics.put(REPORT_MAP, "Report Map");
-        characteristics.put(RESOLVABLE_PRIVATE_ADDRESS_ONLY, "Resolvable Private Address Only");
-        characteristics.put(RESTING_HEART_RATE, "Resting Heart Rate");
-        characteristics.put(RINGER_CONTROL_POINT, "Ringer Control Point");
-        characteristics.put(RINGER_SETTING, "Ringer Setting");
-        characteristics.put(ROWER_DATA, "Rower Data");
-        characteristics.put(RSC_FEATURE, "RSC Feature");
-        characteristics.put(RSC_MEASUREMENT, "RSC Measurement");
-        characteristics.put(SC_CONTROL_POINT, "SC Control Point");
-        characteristics.put(SCAN_INTERVAL_WINDOW, "Scan Interval Window");
-        characteristics.put(SCAN_REFRESH, "Scan Refresh");
-        characteristics.put(SCIENTIFIC_TEMPERATURE_CELSIUS, "Scientific Temperature Celsius");
-        characteristics.put(SECONDARY_TIME_ZONE, "Secondary Time Zone");
-        characteristics.put(SENSOR_LOCATION, "Sensor Location");
-        characteristics.put(SERIAL_NUMBER_STRING, "Serial Number String");
-        characteristics.put(SERVICE_CHANGED, "Service Changed");
-        characteristics.put(SERVICE_REQUIRED, "Service Required");
-        characteristics.put(SOFTWARE_REVISION_STRING, "Software Revision String");
-        characteristics.put(SPORT_TYPE_FOR_AEROBIC_AND_ANAEROBIC_THRESHOLDS, "Sport Type for Aerobic and Anaerobic Thresholds");
-        characteristics.put(STAIR_CLIMBER_DATA, "Stair Climber Data");
-        characteristics.put(STEP_CLIMBER_DATA, "Step Climber Data");
-        characteristics.put(STRING, "String");
-        characteristics.put(SUPPORTED_HEART_RATE_RANGE, "Supported Heart Rate Range");
-        characteristics.put(SUPPORTED_INCLINATION_RANGE, "Supported Inclination Range");
-        characteristics.put(SUPPORTED_NEW_ALERT_CATEGORY, "Supported New Alert Category");
-        characteristics.put(SUPPORTED_POWER_RANGE, "Supported Power Range");
-        characteristics.put(SUPPORTED_RESISTANCE_LEVEL_RANGE, "Supported Resistance Level Range");
-        characteristics.put(SUPPORTED_SPEED_RANGE, "Supported Speed Range");
-        characteristics.put(SUPPORTED_UNREAD_ALERT_CATEGORY, "Supported Unread Alert Category");
-        characteristics.put(SYSTEM_ID, "System ID");
-        characteristics.put(TDS_CONTROL_POINT, "TDS Control Point");
-        characteristics.put(TEMPERATURE, "Temperature");
-        characteristics.put(TEMPERATURE_CELSIUS, "Temperature Celsius");
-        characteristics.put(TEMPERATURE_FAHRENHEIT, "Temperature Fahrenheit");
-        characteristics.put(TEMPERATURE_MEASUREMENT, "Temperature Measurement");
-        characteristics.put(TEMPERATURE_TYPE, "Temperature Type");
-        characteristics.put(THREE_ZONE_HEART_RATE_LIMITS, "Three Zone Heart Rate Limits");
-        characteristics.put(TIME_ACCURACY, "Time Accuracy");
-        characteristics.put(TIME_BROADCAST, "Time Broadcast");
-        characteristics.put(TIME_SOURCE, "Time Source");
-        characteristics.put(TIME_UPDATE_CONTROL_POINT, "Time Update Control Point");
-        characteristics.put(TIME_UPDATE_STATE, "Time Update State");
-        characteristics.put(TIME_WITH_DST, "Time with DST");
-        characteristics.put(TIME_ZONE, "Time Zone");
-        characteristics.put(TRAINING_STATUS, "Training Status");
-        characteristics.put(TREADMILL_DATA, "Treadmill Data");
-        characteristics.put(TRUE_WIND_DIRECTION, "True Wind Direction");
-        characteristics.put(TRUE_WIND_SPEED, "True Wind Speed");
-        characteristics.put(TWO_ZONE_HEART_RATE_LIMIT, "Two Zone Heart Rate Limit");
-        characteristics.put(TX_POWER_LEVEL, "Tx Power Level");
-        characteristics.put(UNCERTAINTY, "Uncertainty");
-        characteristics.put(UNREAD_ALERT_STATUS, "Unread Alert Status");
-        characteristics.put(URI, "URI");
-        characteristics.put(USER_CONTROL_POINT, "User Control Point");
-        characteristics.put(USER_INDEX, "User Index");
-        characteristics.put(UV_INDEX, "UV Index");
-        characteristics.put(VO2_MAX, "VO2 Max");
-        characteristics.put(WAIST_CIRCUMFERENCE, "Waist Circumference");
-        characteristics.put(WEIGHT, "Weight");
-        characteristics.put(WEIGHT_MEASUREMENT, "Weight Measurement");
-        characteristics.put(WEIGHT_SCALE_FEATURE, "Weight Scale Feature");
-        characteristics.put(WIND_CHILL, "Wind Chill");
-
-        // Descriptors
-        descriptors.put(CHARACTERISTIC_AGGREGATE_FORMAT, "Characteristic Aggregate Format");
-        descriptors.put(CHARACTERISTIC_EXTENDED_PROPERTIES, "Characteristic Extended Properties");
-        descriptors.put(CHARACTERISTIC_PRESENTATION_FORMAT, "Characteristic Presentation Format");
-        descriptors.put(CHARACTERISTIC_USER_DESCRIPTION, "Characteristic User Description");
-        descriptors.put(CLIENT_CHARACTERISTIC_CONFIGURATION, "Client Characteristic Configuration");
-        descriptors.put(ENVIRONMENTAL_SENSING_CONFIGURATION, "Environmental Sensing Configuration");
-        descriptors.put(ENVIRONMENTAL_SENSING_MEASUREMENT, "Environmental Sensing Measurement");
-        descriptors.put(ENVIRONMENTAL_SENSING_TRIGGER_SETTING, "Environmental Sensing Trigger Setting");
-        descriptors.put(EXTERNAL_REPORT_REFERENCE, "External Report Reference");
-        descriptors.put(NUMBER_OF_DIGITALS, "Number of Digitals");
-        descriptors.put(REPORT_REFERENCE, "Report Reference");
-        descriptors.put(SERVER_CHARACTERISTIC_CONFIGURATION, "Server Characteristic Configuration");
-        descriptors.put(TIME_TRIGGER_SETTING, "Time Trigger Setting");
-        descriptors.put(VALID_RANGE, "Valid Range");
-        descriptors.put(VALUE_TRIGGER_SETTING, "Value Trigger Setting");
+    /**
+     * Compact table of attribute names of the Bluetooth SIG base UUID, keyed by the 16 bit short UUID and sorted
+     * by key, so lookups use binary search.
+     */
+    private static final class AttributeTable {
+
+        private final int[] mKeys;
+        private final String[] mNames;
+
+        private AttributeTable(int[] keys, String[] names) {
+            mKeys = keys;
+            mNames = names;
+        }
+
+        private String get(int shortUuid) {
+            int idx = Arrays.binarySearch(mKeys, shortUuid);
+            return (idx >= 0) ? mNames[idx] : null;
+        }
     }
 
-    public static String lookupService(UUID uuid) {
-        String name = services.get(uuid);
+    /**
+     * Standard services, loaded on first lookup.
+     */
+    private static final class Services {
+        private static final AttributeTable TABLE = new AttributeTable(
+                new int[]{
+                    0x1800, 0x1801, 0x1802, 0x1803, 0x1804, 0x1805, 0x1806, 0x1807,
+                    0x1808, 0x1809, 0x180A, 0x180D, 0x180E, 0x180F, 0x1810, 0x1811,
+                    0x1812, 0x1813, 0x1814, 0x1815, 0x1816, 0x1818, 0x1819, 0x181A,
+                    0x181B, 0x181C, 0x181D, 0x181E, 0x181F, 0x1820, 0x1821, 0x1822,
+                    0x1823, 0x1824, 0x1825, 0x1826, 0x1827, 0x1828, 0x1829
+                },
+                new String[]{
+                    "Generic Access Service", // 0x1800
+                    "Generic Attribute Service", // 0x1801
+                    "Immediate Alert Service", // 0x1802
+                    "Link Loss Service", // 0x1803
+                    "Tx Power Service", // 0x1804
+                    "Current Time Service", // 0x1805
+                    "Reference Time Update Service", // 0x1806
+                    "Next DST Change Service", // 0x1807
+                    "Glucose Service", // 0x1808
+                    "Health Thermometer Service", // 0x1809
+                    "Device Information Service", // 0x180A
+                    "Heart Rate Service", // 0x180D
+                    "Phone Alert Status Service", // 0x180E
+                    "Battery Service", // 0x180F
+                    "Blood Pressure Service", // 0x1810
+                    "Alert Notification Service", // 0x1811
+                    "Human Interface Device Service", // 0x1812
+                    "Scan Parameter Service", // 0x1813
+                    "Running Speed and Cadence Service", // 0x1814
+                    "Automation IO Service", // 0x1815
+                    "Cycling Speed and Cadence Service", // 0x1816
+                    "Cycling Power Service", // 0x1818
+                    "Location and Navigation Service", // 0x1819
+                    "Environmental Sensing Service", // 0x181A
+                    "Body Composition Service", // 0x181B
+                    "User Data Service", // 0x181C
+                    "Weight Scale Service", // 0x181D
+                    "Bond Management Service", // 0x181E
+                    "Continuous Glucose Monitoring Service", // 0x181F
+                    "Internet Protocol Support Service", // 0x1820
+                    "Indoor Positioning Service", // 0x1821
+                    "Pulse Oximeter Service", // 0x1822
+                    "HTTP Proxy Service", // 0x1823
+                    "Transport Discovery Service", // 0x1824
+                    "Object Transfer Service", // 0x1825
+                    "Fitness Machine Service", // 0x1826
+                    "Mesh Provisioning Service", // 0x1827
+                    "Mesh Proxy Service", // 0x1828
+                    "Reconnection Configuration Service" // 0x1829
+                });
+    }
+
+    /**
+     * Standard characteristics, loaded on first lookup.
+     */
+    private static final class Characteristics {
+        private static final AttributeTable TABLE = new AttributeTable(
+                new int[]{
+                    0x2A00, 0x2A01, 0x2A02, 0x2A03, 0x2A04, 0x2A05, 0x2A06, 0x2A07,
+                    0x2A08, 0x2A09, 0x2A0A, 0x2A0B, 0x2A0C, 0x2A0D, 0x2A0E, 0x2A0F,
+                    0x2A10, 0x2A11, 0x2A12, 0x2A13, 0x2A14, 0x2A15, 0x2A16, 0x2A17,
+                    0x2A18, 0x2A19, 0x2A1A, 0x2A1B, 0x2A1C, 0x2A1D, 0x2A1E, 0x2A1F,
+                    0x2A20, 0x2A21, 0x2A22, 0x2A23, 0x2A24, 0x2A25, 0x2A26, 0x2A27,
+                    0x2A28, 0x2A29, 0x2A2A, 0x2A2B, 0x2A2C, 0x2A2F, 0x2A30, 0x2A31,
+                    0x2A32, 0x2A33, 0x2A34, 0x2A35, 0x2A36, 0x2A37, 0x2A38, 0x2A39,
+                    0x2A3A, 0x2A3B, 0x2A3C, 0x2A3D, 0x2A3E, 0x2A3F, 0x2A40, 0x2A41,
+                    0x2A42, 0x2A43, 0x2A44, 0x2A45, 0x2A46, 0x2A47, 0x2A48, 0x2A49,
+                    0x2A4A, 0x2A4B, 0x2A4C, 0x2A4D, 0x2A4E, 0x2A4F, 0x2A50, 0x2A51,
+                    0x2A52, 0x2A53, 0x2A54, 0x2A55, 0x2A56, 0x2A57, 0x2A58, 0x2A59,
+                    0x2A5A, 0x2A5B, 0x2A5C, 0x2A5D, 0x2A5E, 0x2A5F, 0x2A60, 0x2A62,
+                    0x2A63, 0x2A64, 0x2A65, 0x2A66, 0x2A67, 0x2A68, 0x2A69, 0x2A6A,
+                    0x2A6B, 0x2A6C, 0x2A6D, 0x2A6E, 0x2A6F, 0x2A70, 0x2A71, 0x2A72,
+                    0x2A73, 0x2A74, 0x2A75, 0x2A76, 0x2A77, 0x2A78, 0x2A79, 0x2A7A,
+                    0x2A7B, 0x2A7D, 0x2A7E, 0x2A7F, 0x2A80, 0x2A81, 0x2A82, 0x2A83,
+                    0x2A84, 0x2A85, 0x2A86, 0x2A87, 0x2A88, 0x2A89, 0x2A8A, 0x2A8B,
+                    0x2A8C, 0x2A8D, 0x2A8E, 0x2A8F, 0x2A90, 0x2A91, 0x2A92, 0x2A93,
+                    0x2A94, 0x2A95, 0x2A96, 0x2A97, 0x2A98, 0x2A99, 0x2A9A, 0x2A9B,
+                    0x2A9C, 0x2A9D, 0x2A9E, 0x2A9F, 0x2AA0, 0x2AA1, 0x2AA2, 0x2AA3,
+                    0x2AA4, 0x2AA5, 0x2AA6, 0x2AA8, 0x2AA9, 0x2AAA, 0x2AAB, 0x2AAC,
+                    0x2AAD, 0x2AAE, 0x2AAF, 0x2AB0, 0x2AB1, 0x2AB2, 0x2AB4, 0x2AB5,
+                    0x2AB6, 0x2AB7, 0x2AB8, 0x2AB9, 0x2ABA, 0x2ABB, 0x2ABC, 0x2ABD,
+                    0x2ABE, 0x2ABF, 0x2AC0, 0x2AC1, 0x2AC2, 0x2AC3, 0x2AC4, 0x2AC5,
+                    0x2AC6, 0x2AC7, 0x2AC8, 0x2AC9, 0x2ACC, 0x2ACD, 0x2ACE, 0x2ACF,
+                    0x2AD0, 0x2AD1, 0x2AD2, 0x2AD3, 0x2AD4, 0x2AD5, 0x2AD6, 0x2AD7,
+                    0x2AD8, 0x2AD9, 0x2ADA, 0x2B1D, 0x2B1E, 0x2B1F
+                },
+                new String[]{
+                    "Device Name", // 0x2A00
+                    "Appearance", // 0x2A01
+                    "Peripheral Privacy Flag", // 0x2A02
+                    "Reconnection Address", // 0x2A03
+                    "Peripheral Preferred Connection Parameters", // 0x2A04
+                    "Service Changed", // 0x2A05
+                    "Alert Level", // 0x2A06
+                    "Tx Power Level", // 0x2A07
+                    "Date Time", // 0x2A08
+                    "Day of Week", // 0x2A09
+                    "Day Date Time", // 0x2A0A
+                    "Exact Time 100", // 0x2A0B
+                    "Exact Time 256", // 0x2A0C
+                    "DST Offset", // 0x2A0D
+                    "Time Zone", // 0x2A0E
+                    "Local Time Information", // 0x2A0F
+                    "Secondary Time Zone", // 0x2A10
+                    "Time with DST", // 0x2A11
+                    "Time Accuracy", // 0x2A12
+                    "Time Source", // 0x2A13
+                    "Reference Time Information", // 0x2A14
+                    "Time Broadcast", // 0x2A15
+                    "Time Update Control Point", // 0x2A16
+                    "Time Update State", // 0x2A17
+                    "Glucose Measurement", // 0x2A18
+                    "Battery Level", // 0x2A19
+                    "Battery Power State", // 0x2A1A
+                    "Battery Level State", // 0x2A1B
+                    "Temperature Measurement", // 0x2A1C
+                    "Temperature Type", // 0x2A1D
+                    "Intermediate Temperature", // 0x2A1E
+                    "Temperature Celsius", // 0x2A1F
+                    "Temperature Fahrenheit", // 0x2A20
+                    "Measurement Interval", // 0x2A21
+                    "Boot Keyboard Input Report", // 0x2A22
+                    "System ID", // 0x2A23
+                    "Model Number String", // 0x2A24
+                    "Serial Number String", // 0x2A25
+                    "Firmware Revision String", // 0x2A26
+                    "Hardware Revision String", // 0x2A27
+                    "Software Revision String", // 0x2A28
+                    "Manufacturer Name String", // 0x2A29
+                    "IEEE 11073-20601 Regulatory Certification Data List", // 0x2A2A
+                    "Current Time", // 0x2A2B
+                    "Magnetic Declination", // 0x2A2C
+                    "Position 2D", // 0x2A2F
+                    "Position 3D", // 0x2A30
+                    "Scan Refresh", // 0x2A31
+                    "Boot Keyboard Output Report", // 0x2A32
+                    "Boot Mouse Input Report", // 0x2A33
+                    "Glucose Measurement Context", // 0x2A34
+                    "Blood Pressure Measurement", // 0x2A35
+                    "Intermediate Cuff Pressure", // 0x2A36
+                    "Heart Rate Measurement", // 0x2A37
+                    "Body Sensor Location", // 0x2A38
+                    "Heart Rate Control Point", // 0x2A39
+                    "Removable", // 0x2A3A
+                    "Service Required", // 0x2A3B
+                    "Scientific Temperature Celsius", // 0x2A3C
+                    "String", // 0x2A3D
+                    "Network Availability", // 0x2A3E
+                    "Altitude", // 0x2A3F
+                    "Ringer Control Point", // 0x2A40
+                    "Ringer Setting", // 0x2A41
+                    "Alert Category ID Bit Mask", // 0x2A42
+                    "Alert Category ID", // 0x2A43
+                    "Alert Notification Control Point", // 0x2A44
+                    "Unread Alert Status", // 0x2A45
+                    "New Alert", // 0x2A46
+                    "Supported New Alert Category", // 0x2A47
+                    "Supported Unread Alert Category", // 0x2A48
+                    "Blood Pressure Feature", // 0x2A49
+                    "HID Information", // 0x2A4A
+                    "Report Map", // 0x2A4B
+                    "HID Control Point", // 0x2A4C
+                    "Report", // 0x2A4D
+                    "Protocol Mode", // 0x2A4E
+                    "Scan Interval Window", // 0x2A4F
+                    "PnP ID", // 0x2A50
+                    "Glucose Feature", // 0x2A51
+                    "Record Access Control Point", // 0x2A52
+                    "RSC Measurement", // 0x2A53
+                    "RSC Feature", // 0x2A54
+                    "SC Control Point", // 0x2A55
+                    "Digital", // 0x2A56
+                    "Digital Output", // 0x2A57
+                    "Analog", // 0x2A58
+                    "Analog Output", // 0x2A59
+                    "Aggregate", // 0x2A5A
+                    "CSC Measurement", // 0x2A5B
+                    "CSC Feature", // 0x2A5C
+                    "Sensor Location", // 0x2A5D
+                    "PLX Spot-Check Measurement", // 0x2A5E
+                    "PLX Continuous Measurement Characteristic", // 0x2A5F
+                    "PLX Features", // 0x2A60
+                    "Pulse Oximetry Control Point", // 0x2A62
+                    "Cycling Power Measurement", // 0x2A63
+                    "Cycling Power Vector", // 0x2A64
+                    "Cycling Power Feature", // 0x2A65
+                    "Cycling Power Control Point", // 0x2A66
+                    "Location and Speed", // 0x2A67
+                    "Navigation", // 0x2A68
+                    "Position Quality", // 0x2A69
+                    "LN Feature", // 0x2A6A
+                    "LN Control Point", // 0x2A6B
+                    "Elevation", // 0x2A6C
+                    "Pressure", // 0x2A6D
+                    "Temperature", // 0x2A6E
+                    "Humidity", // 0x2A6F
+                    "True Wind Speed", // 0x2A70
+                    "True Wind Direction", // 0x2A71
+                    "Apparent Wind Speed", // 0x2A72
+                    "Apparent Wind Direction", // 0x2A73
+                    "Gust Factor", // 0x2A74
+                    "Pollen Concentration", // 0x2A75
+                    "UV Index", // 0x2A76
+                    "Irradiance", // 0x2A77
+                    "Rainfall", // 0x2A78
+                    "Wind Chill", // 0x2A79
+                    "Heat Index", // 0x2A7A
+                    "Dew Point", // 0x2A7B
+                    "Descriptor Value Changed", // 0x2A7D
+                    "Aerobic Heart Rate Lower Limit", // 0x2A7E
+                    "Aerobic Threshold", // 0x2A7F
+                    "Age", // 0x2A80
+                    "Anaerobic Heart Rate Lower Limit", // 0x2A81
+                    "Anaerobic Heart Rate Upper Limit", // 0x2A82
+                    "Anaerobic Threshold", // 0x2A83
+                    "Aerobic Heart Rate Upper Limit", // 0x2A84
+                    "Date of Birth", // 0x2A85
+                    "Date of Threshold Assessment", // 0x2A86
+                    "Email Address", // 0x2A87
+                    "Fat Burn Heart Rate Lower Limit", // 0x2A88
+                    "Fat Burn Heart Rate Upper Limit", // 0x2A89
+                    "First Name", // 0x2A8A
+                    "Five Zone Heart Rate Limits", // 0x2A8B
+                    "Gender", // 0x2A8C
+                    "Heart Rate Max", // 0x2A8D
+                    "Height", // 0x2A8E
+                    "Hip Circumference", // 0x2A8F
+                    "Last Name", // 0x2A90
+                    "Maximum Recommended Heart Rate", // 0x2A91
+                    "Resting Heart Rate", // 0x2A92
+                    "Sport Type for Aerobic and Anaerobic Thresholds", // 0x2A93
+                    "Three Zone Heart Rate Limits", // 0x2A94
+                    "Two Zone Heart Rate Limit", // 0x2A95
+                    "VO2 Max", // 0x2A96
+                    "Waist Circumference", // 0x2A97
+                    "Weight", // 0x2A98
+                    "Database Change Increment", // 0x2A99
+                    "User Index", // 0x2A9A
+                    "Body Composition Feature", // 0x2A9B
+                    "Body Composition Measurement", // 0x2A9C
+                    "Weight Measurement", // 0x2A9D
+                    "Weight Scale Feature", // 0x2A9E
+                    "User Control Point", // 0x2A9F
+                    "Magnetic Flux Density - 2D", // 0x2AA0
+                    "Magnetic Flux Density - 3D", // 0x2AA1
+                    "Language", // 0x2AA2
+                    "Barometric Pressure Trend", // 0x2AA3
+                    "Bond Management Control Point", // 0x2AA4
+                    "Bond Management Features", // 0x2AA5
+                    "Central Address Resolution", // 0x2AA6
+                    "CGM Measurement", // 0x2AA8
+                    "CGM Status", // 0x2AA9
+                    "CGM Session Start Time", // 0x2AAA
+                    "CGM Session Run Time", // 0x2AAB
+                    "CGM Specific Ops Control Point", // 0x2AAC
+                    "Indoor Positioning Configuration", // 0x2AAD
+                    "Latitude", // 0x2AAE
+                    "Longitude", // 0x2AAF
+                    "Local North Coordinate", // 0x2AB0
+                    "Local East Coordinate", // 0x2AB1
+                    "Floor Number", // 0x2AB2
+                    "Uncertainty", // 0x2AB4
+                    "Location Name", // 0x2AB5
+                    "URI", // 0x2AB6
+                    "HTTP Headers", // 0x2AB7
+                    "HTTP Status Code", // 0x2AB8
+                    "HTTP Entity Body", // 0x2AB9
+                    "HTTP Control Point", // 0x2ABA
+                    "HTTPS Security", // 0x2ABB
+                    "TDS Control Point", // 0x2ABC
+                    "OTS Feature", // 0x2ABD
+                    "Object Name", // 0x2ABE
+                    "Object Type", // 0x2ABF
+                    "Object Size", // 0x2AC0
+                    "Object First-Created", // 0x2AC1
+                    "Object Last-Modified", // 0x2AC2
+                    "Object ID", // 0x2AC3
+                    "Object Properties", // 0x2AC4
+                    "Object Action Control Point", // 0x2AC5
+                    "Object List Control Point", // 0x2AC6
+                    "Object List Filter", // 0x2AC7
+                    "Object Changed", // 0x2AC8
+                    "Resolvable Private Address Only", // 0x2AC9
+                    "Fitness Machine Feature", // 0x2ACC
+                    "Treadmill Data", // 0x2ACD
+                    "Cross Trainer Data", // 0x2ACE
+                    "Step Climber Data", // 0x2ACF
+                    "Stair Climber Data", // 0x2AD0
+                    "Rower Data", // 0x2AD1
+                    "Indoor Bike Data", // 0x2AD2
+                    "Training Status", // 0x2AD3
+                    "Supported Speed Range", // 0x2AD4
+                    "Supported Inclination Range", // 0x2AD5
+                    "Supported Resistance Level Range", // 0x2AD6
+                    "Supported Heart Rate Range", // 0x2AD7
+                    "Supported Power Range", // 0x2AD8
+                    "Fitness Machine Control Point", // 0x2AD9
+                    "Fitness Machine Status", // 0x2ADA
+                    "RC Feature", // 0x2B1D
+                    "RC Settings", // 0x2B1E
+                    "Reconnection Configuration Control Point" // 0x2B1F
+                });
+    }
+
+    /**
+     * Standard descriptors, loaded on first lookup.
+     */
+    private static final class Descriptors {
+        private static final AttributeTable TABLE = new AttributeTable(
+                new int[]{
+                    0x2900, 0x2901, 0x2902, 0x2903, 0x2904, 0x2905, 0x2906, 0x2907,
+                    0x2908, 0x2909, 0x290A, 0x290B, 0x290C, 0x290D, 0x290E
+                },
+                new String[]{
+                    "Characteristic Extended Properties", // 0x2900
+                    "Characteristic User Description", // 0x2901
+                    "Client Characteristic Configuration", // 0x2902
+                    "Server Characteristic Configuration", // 0x2903
+                    "Characteristic Presentation Format", // 0x2904
+                    "Characteristic Aggregate Format", // 0x2905
+                    "Valid Range", // 0x2906
+                    "External Report Reference", // 0x2907
+                    "Report Reference", // 0x2908
+                    "Number of Digitals", // 0x2909
+                    "Value Trigger Setting", // 0x290A
+                    "Environmental Sensing Configuration", // 0x290B
+                    "Environmental Sensing Measurement", // 0x290C
+                    "Environmental Sensing Trigger Setting", // 0x290D
+                    "Time Trigger Setting" // 0x290E
+                });
+    }
+
+    /**
+     * Custom attributes added at runtime, e.g. vendor-specific services of a sensor. These take precedence
+     * over the standard attributes.
+     */
+    private static final Map<UUID, String> sCustomServices = new ConcurrentHashMap<>();
+    private static final Map<UUID, String> sCustomCharacteristics = new ConcurrentHashMap<>();
+    private static final Map<UUID, String> sCustomDescriptors = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the 16 bit short UUID if the given UUID is based on the Bluetooth SIG base UUID, or -1 otherwise.
+     */
+    private static int toShortUuid(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        if (uuid.getLeastSignificantBits() != leastSigBits || (msb & 0xFFFF0000FFFFFFFFL) != 0x1000L) {
+            return -1;
+        }
+        return (int) ((msb >>> 32) & 0xFFFF);
+    }
+
+    private static String lookup(Map<UUID, String> customAttributes, AttributeTable table, UUID uuid) {
+        if (uuid == null) {
+            return "<unknown: null>";
+        }
+        String name = customAttributes.get(uuid);
+        if (name == null) {
+            int shortUuid = toShortUuid(uuid);
+            if (shortUuid >= 0) {
+                name = table.get(shortUuid);
+            }
+        }
         return name == null ? "<unknown: " + uuid + ">" : name;
     }
 
+    public static String lookupService(UUID uuid) {
+        return lookup(sCustomServices, Services.TABLE, uuid);
+    }
+
     public static String lookupCharacteristic(UUID uuid) {
-        String name = characteristics.get(uuid);
-        return name == null ? "<unknown: " + uuid + ">" : name;
+        return lookup(sCustomCharacteristics, Characteristics.TABLE, uuid);
     }
 
     public static String lookupDescriptor(UUID uuid) {
-        String name = descriptors.get(uuid);
-        return name == null ? "<unknown: " + uuid + ">" : name;
+        return lookup(sCustomDescriptors, Descriptors.TABLE, uuid);
     }
 
     public static void addService(UUID key, String value) {
-        services.put(key, value);
+        sCustomServices.put(key, value);
     }
 
     public static void addCharacteristic(UUID key, String value) {
-        characteristics.put(key, value);
+        sCustomCharacteristics.put(key, value);
     }
 
     public static void addDescriptor(UUID key, String value) {
-        descriptors.put(key, value);
+        sCustomDescriptors.put(key, value);
     }
 
 
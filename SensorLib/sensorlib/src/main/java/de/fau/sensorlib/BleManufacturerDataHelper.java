@@ -8,72 +8,117 @@
 package de.fau.sensorlib;
 
 
+import java.util.EnumMap;
+
 import de.fau.sensorlib.enums.KnownSensor;
 import de.fau.sensorlib.enums.SensorState;
 
+/**
+ * Decodes the manufacturer data of BLE advertisements using the {@link AdvertisementDecoder} registered for the
+ * sensor class.
+ */
 public class BleManufacturerDataHelper {
 
     private static final String TAG = BleManufacturerDataHelper.class.getSimpleName();
 
-    public static int getBatteryLevel(KnownSensor sensor, byte[] manuData) {
-        if (manuData == null || sensor == null) {
-            return 0;
-        }
+    private static final EnumMap<KnownSensor, AdvertisementDecoder> sDecoders = new EnumMap<>(KnownSensor.class);
 
-        switch (sensor) {
-            case NILSPOD:
-                return manuData[2];
+    /**
+     * NilsPod: [operation state, charging, battery level, number of recordings]
+     */
+    private static final AdvertisementDecoder NILSPOD_DECODER = (manuData, status) -> {
+        if (manuData.length < 4) {
+            return false;
+        }
+        switch (manuData[0]) {
+            case 1:
+                status.setState(SensorState.STREAMING);
+                break;
+            case 2:
+                status.setState(SensorState.LOGGING);
+                break;
+            case 3:
+            case 4:
+                status.setState(SensorState.DOWNLOADING);
+                break;
+            default:
+                status.setState(SensorState.UNDEFINED);
         }
+        status.setCharging(manuData[1] != 0);
+        status.setBatteryLevel(manuData[2]);
+        status.setNumRecordings(manuData[3]);
+        return true;
+    };
+
+    static {
+        sDecoders.put(KnownSensor.NILSPOD, NILSPOD_DECODER);
+    }
 
-        return 0;
+    /**
+     * Registers the decoder for the manufacturer data of the given sensor class, replacing an existing one.
+     */
+    public static synchronized void registerDecoder(KnownSensor sensor, AdvertisementDecoder decoder) {
+        sDecoders.put(sensor, decoder);
     }
 
-    public static boolean getChargingState(KnownSensor sensor, byte[] manuData) {
-        if (manuData == null || sensor == null) {
+    public static synchronized AdvertisementDecoder getDecoder(KnownSensor sensor) {
+        return (sensor != null) ? sDecoders.get(sensor) : null;
+    }
+
+    /**
+     * Decodes the given manufacturer data into the given status.
+     *
+     * @return true if a decoder is registered for the sensor class and the data could be decoded
+     */
+    public static boolean decode(KnownSensor sensor, byte[] manuData, AdvertisementStatus status) {
+        status.reset();
+        AdvertisementDecoder decoder = getDecoder(sensor);
+        if (manuData == null || decoder == null) {
             return false;
         }
-
-        switch (sensor) {
-            case NILSPOD:
-                return manuData[1] != 0;
+        boolean valid = decoder.decode(manuData, status);
+        if (!valid) {
+            status.reset();
         }
-
-        return false;
+        status.setValid(valid);
+        return valid;
     }
 
+    private static AdvertisementStatus decode(KnownSensor sensor, byte[] manuData) {
+        AdvertisementStatus status = new AdvertisementStatus();
+        decode(sensor, manuData, status);
+        return status;
+    }
 
-    public static SensorState getSensorState(KnownSensor sensor, byte[] manuData) {
-        if (manuData == null || sensor == null) {
-            return SensorState.UNDEFINED;
-        }
+    /**
+     * @deprecated use {@link SensorInfo#getBatteryLevel()} or {@link #decode(KnownSensor, byte[], AdvertisementStatus)}
+     */
+    @Deprecated
+    public static int getBatteryLevel(KnownSensor sensor, byte[] manuData) {
+        return decode(sensor, manuData).getBatteryLevel();
+    }
 
-        switch (sensor) {
-            case NILSPOD:
-                switch (manuData[0]) {
-                    case 1:
-                        return SensorState.STREAMING;
-                    case 2:
-                        return SensorState.LOGGING;
-                    case 3:
-                    case 4:
-                        return SensorState.DOWNLOADING;
-                }
-                return SensorState.UNDEFINED;
-        }
-        return SensorState.UNDEFINED;
+    /**
+     * @deprecated use {@link SensorInfo#getChargingState()} or {@link #decode(KnownSensor, byte[], AdvertisementStatus)}
+     */
+    @Deprecated
+    public static boolean getChargingState(KnownSensor sensor, byte[] manuData) {
+        return decode(sensor, manuData).isCharging();
     }
 
+    /**
+     * @deprecated use {@link SensorInfo#getAdvertisedState()} or {@link #decode(KnownSensor, byte[], AdvertisementStatus)}
+     */
+    @Deprecated
+    public static SensorState getSensorState(KnownSensor sensor, byte[] manuData) {
+        return decode(sensor, manuData).getState();
+    }
 
+    /**
+     * @deprecated use {@link SensorInfo#getNumRecordings()} or {@link #decode(KnownSensor, byte[], AdvertisementStatus)}
+     */
+    @Deprecated
     public static int getNumberOfRecordings(KnownSensor sensor, byte[] manuData) {
-        if (manuData == null || sensor == null) {
-            return 0;
-        }
-
-        switch (sensor) {
-            case NILSPOD:
-                return manuData[3];
-        }
-
-        return 0;
+        return decode(sensor, manuData).getNumRecordings();
     }
 }
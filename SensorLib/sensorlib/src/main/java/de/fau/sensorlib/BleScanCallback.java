@@ -14,9 +14,9 @@ import android.util.SparseArray;
 
 import androidx.annotation.CallSuper;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Callback implementation for the BLE scan callback.
@@ -30,7 +30,7 @@ public class BleScanCallback extends ScanCallback {
     /**
      * List of device-addresses that were already reported in the callback. Used to avoid double or triple reports of the same device.
      */
-    private List<String> mScannedAddresses = new ArrayList<>(20);
+    private Set<String> mScannedAddresses = new HashSet<>();
 
     public BleScanCallback(SensorFoundCallback sensorCallback) {
         mSensorCallback = sensorCallback;
@@ -40,11 +40,10 @@ public class BleScanCallback extends ScanCallback {
     @CallSuper
     public synchronized void onScanResult(int callbackType, ScanResult result) {
         // check if we already reported this device in this scan iteration
-        if (mScannedAddresses.contains(result.getDevice().getAddress())) {
+        if (!mScannedAddresses.add(result.getDevice().getAddress())) {
             //Log.d(TAG, "Skipping BLE device: already discovered.");
             return;
         }
-        mScannedAddresses.add(result.getDevice().getAddress());
 
         byte[] manuData;
         SensorInfo s;
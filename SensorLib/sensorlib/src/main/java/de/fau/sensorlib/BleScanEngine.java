@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.content.Context;
+import android.location.LocationManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import de.fau.sensorlib.SensorException.SensorExceptionType;
+import de.fau.sensorlib.enums.KnownSensor;
+
+/**
+ * Continuous BLE scan engine that maintains a table of all advertising devices.
+ * <p>
+ * In contrast to the one-shot scans of {@link BleSensorManager}, the engine is meant to run for a long time
+ * (e.g. while a sensor picker or a dashboard is visible) in crowded environments. Devices are kept in a
+ * hash table indexed by their address together with an exponentially smoothed RSSI and the time they were
+ * last seen, and are evicted once they were not seen within the TTL. Results are batched by the controller
+ * (see {@link ScanSettings.Builder#setReportDelay(long)}) if supported, and listeners are
+ * only notified when a device appears, changes its advertisement, or disappears – not for every advertisement.
+ */
+public class BleScanEngine {
+
+    private static final String TAG = BleScanEngine.class.getSimpleName();
+
+    /**
+     * Default time after which devices that were not seen anymore are evicted (in ms)
+     */
+    public static final long DEFAULT_TTL = 10000;
+
+    /**
+     * Default delay for batched scan results (in ms)
+     */
+    public static final long DEFAULT_REPORT_DELAY = 1000;
+
+    /**
+     * Default smoothing factor of the RSSI
+     */
+    public static final double DEFAULT_RSSI_ALPHA = 0.25;
+
+    private final Context mContext;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final HashMap<String, BleScannedDevice> mDevices = new HashMap<>();
+
+    private final List<BleScanListener> mListeners = new CopyOnWriteArrayList<>();
+
+    private List<ScanFilter> mScanFilters = new ArrayList<>();
+
+    /**
+     * Known sensors reported to the listeners, or null for all known sensors
+     */
+    private EnumSet<KnownSensor> mSensorFilter;
+
+    private boolean mReportUnknownDevices;
+
+    private int mScanMode = ScanSettings.SCAN_MODE_BALANCED;
+
+    private long mTtl = DEFAULT_TTL;
+
+    private long mReportDelay = DEFAULT_REPORT_DELAY;
+
+    private double mRssiAlpha = DEFAULT_RSSI_ALPHA;
+
+    private BluetoothLeScanner mScanner;
+
+    private boolean mIsScanning;
+
+
+    private final ScanCallback mScanCallback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            onResults(Collections.singletonList(result));
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            onResults(results);
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            Log.e(TAG, "BLE scan failed with error code " + errorCode);
+            synchronized (BleScanEngine.this) {
+                mIsScanning = false;
+                mHandler.removeCallbacks(mEvictionRunnable);
+            }
+            for (BleScanListener listener : mListeners) {
+                listener.onScanFailed(errorCode);
+            }
+        }
+    };
+
+    private final Runnable mEvictionRunnable = new Runnable() {
+        @Override
+        public void run() {
+            evictDevices();
+            mHandler.postDelayed(this, mTtl / 2);
+        }
+    };
+
+
+    public BleScanEngine(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    public void addListener(BleScanListener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(BleScanListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Sets hardware scan filters that are evaluated by the Bluetooth controller. Note that device name filters
+     * only match exact names, so they can not be used for sensors identified by a name prefix (e.g. NilsPods).
+     * Takes effect on the next call to {@link #start()}.
+     */
+    public synchronized void setScanFilters(List<ScanFilter> filters) {
+        mScanFilters = (filters != null) ? new ArrayList<>(filters) : new ArrayList<>();
+    }
+
+    /**
+     * Restricts the devices reported to the listeners to the given sensor classes.
+     *
+     * @param sensors the sensor classes to report, or null to report all known sensors
+     */
+    public synchronized void setSensorFilter(EnumSet<KnownSensor> sensors) {
+        mSensorFilter = (sensors != null) ? EnumSet.copyOf(sensors) : null;
+    }
+
+    /**
+     * @param reportUnknownDevices true to also report devices unknown to the sensorlib
+     */
+    public synchronized void setReportUnknownDevices(boolean reportUnknownDevices) {
+        mReportUnknownDevices = reportUnknownDevices;
+    }
+
+    /**
+     * @param scanMode one of the ScanSettings.SCAN_MODE_* constants. Takes effect on the next call to {@link #start()}.
+     */
+    public synchronized void setScanMode(int scanMode) {
+        mScanMode = scanMode;
+    }
+
+    /**
+     * @param ttl time after which devices that were not seen anymore are evicted (in ms)
+     */
+    public synchronized void setTtl(long ttl) {
+        mTtl = ttl;
+    }
+
+    /**
+     * @param reportDelay delay for batched scan results (in ms), or 0 to report every advertisement immediately.
+     *                    Takes effect on the next call to {@link #start()}.
+     */
+    public synchronized void setReportDelay(long reportDelay) {
+        mReportDelay = reportDelay;
+    }
+
+    /**
+     * @param alpha smoothing factor of the RSSI (0 &lt; alpha &lt;= 1, 1 means no smoothing)
+     */
+    public synchronized void setRssiSmoothingFactor(double alpha) {
+        if (alpha <= 0 || alpha > 1) {
+            throw new IllegalArgumentException("Smoothing factor must be in (0, 1]!");
+        }
+        mRssiAlpha = alpha;
+    }
+
+    /**
+     * Starts the continuous scan. A running scan is restarted with the current settings.
+     */
+    public synchronized void start() throws SensorException {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if (adapter == null) {
+            throw new SensorException(SensorExceptionType.btNotSupported);
+        }
+        if (!adapter.isEnabled()) {
+            throw new SensorException(SensorExceptionType.btNotActivated);
+        }
+        if (!checkLocationEnabled()) {
+            throw new SensorException(SensorExceptionType.locationDisabled);
+        }
+        mScanner = adapter.getBluetoothLeScanner();
+        if (mScanner == null) {
+            throw new SensorException(SensorExceptionType.bleScannerError);
+        }
+
+        if (mIsScanning) {
+            mScanner.stopScan(mScanCallback);
+        }
+
+        long reportDelay = adapter.isOffloadedScanBatchingSupported() ? mReportDelay : 0;
+        ScanSettings settings = new ScanSettings.Builder()
+                .setScanMode(mScanMode)
+                .setReportDelay(reportDelay)
+                .build();
+
+        Log.d(TAG, "Starting continuous BLE scan (report delay: " + reportDelay + " ms, filters: " + mScanFilters.size() + ")...");
+        mScanner.startScan(mScanFilters, settings, mScanCallback);
+        mIsScanning = true;
+
+        mHandler.removeCallbacks(mEvictionRunnable);
+        mHandler.postDelayed(mEvictionRunnable, mTtl / 2);
+    }
+
+    /**
+     * Stops the scan. The device table is kept, devices are evicted once the scan is started again.
+     */
+    public synchronized void stop() {
+        mHandler.removeCallbacks(mEvictionRunnable);
+        if (!mIsScanning) {
+            return;
+        }
+        mIsScanning = false;
+        Log.d(TAG, "...Stopping continuous BLE scan.");
+        if (mScanner != null) {
+            try {
+                mScanner.stopScan(mScanCallback);
+            } catch (IllegalStateException e) {
+                // Bluetooth was already turned off
+                Log.w(TAG, "Error stopping BLE scan: " + e.getMessage());
+            }
+        }
+    }
+
+    public synchronized boolean isScanning() {
+        return mIsScanning;
+    }
+
+    /**
+     * Clears the device table.
+     */
+    public synchronized void clear() {
+        mDevices.clear();
+    }
+
+    /**
+     * @return the device with the given address, or null if it is not in the device table
+     */
+    public synchronized BleScannedDevice getDevice(String address) {
+        return mDevices.get(address);
+    }
+
+    /**
+     * @return all reported devices, sorted by their smoothed RSSI (strongest first)
+     */
+    public synchronized List<BleScannedDevice> getDevices() {
+        List<BleScannedDevice> devices = new ArrayList<>(mDevices.size());
+        for (BleScannedDevice device : mDevices.values()) {
+            if (isReported(device)) {
+                devices.add(device);
+            }
+        }
+        Collections.sort(devices, (d1, d2) -> Double.compare(d2.getSmoothedRssi(), d1.getSmoothedRssi()));
+        return devices;
+    }
+
+    /**
+     * @return sensor info of all reported known sensors, sorted by their smoothed RSSI (strongest first)
+     */
+    public synchronized List<SensorInfo> getSensors() {
+        List<SensorInfo> sensors = new ArrayList<>();
+        for (BleScannedDevice device : getDevices()) {
+            if (device.isKnownSensor()) {
+                sensors.add(device.getSensorInfo());
+            }
+        }
+        return sensors;
+    }
+
+    private boolean isReported(BleScannedDevice device) {
+        if (device.isKnownSensor()) {
+            return mSensorFilter == null || mSensorFilter.contains(device.getDeviceClass());
+        }
+        return mReportUnknownDevices;
+    }
+
+    private void onResults(List<ScanResult> results) {
+        List<BleScannedDevice> found = new ArrayList<>();
+        // a device can be reported several times in one batch, but is updated only once
+        Set<BleScannedDevice> updated = new LinkedHashSet<>();
+        int[] statusChanges;
+
+        synchronized (this) {
+            for (ScanResult result : results) {
+                String address = result.getDevice().getAddress();
+                ScanRecord record = result.getScanRecord();
+                BleScannedDevice device = mDevices.get(address);
+                boolean isNew = (device == null);
+                if (isNew) {
+                    device = new BleScannedDevice(address);
+                    mDevices.put(address, device);
+                }
+
+                String name = null;
+                byte[] manufacturerData = null;
+                if (record != null) {
+                    // name from the advertisement avoids a binder call for every result
+                    name = record.getDeviceName();
+                    SparseArray<byte[]> data = record.getManufacturerSpecificData();
+                    if (data != null && data.size() > 0) {
+                        manufacturerData = data.valueAt(0);
+                    }
+                }
+                if (name == null && isNew) {
+                    name = result.getDevice().getName();
+                }
+
+                // timestamps of batched results are when the advertisement was received, not when it was reported
+                long timestamp = result.getTimestampNanos() / 1000000;
+                boolean changed = device.update(name, manufacturerData, result.getRssi(), timestamp, mRssiAlpha);
+                if (!isReported(device)) {
+                    continue;
+                }
+                if (isNew) {
+                    found.add(device);
+                    // initial status is part of the found event
+                    device.consumeStatusChanges();
+                } else if (changed) {
+                    updated.add(device);
+                }
+            }
+            statusChanges = new int[updated.size()];
+            int i = 0;
+            for (BleScannedDevice device : updated) {
+                statusChanges[i++] = device.consumeStatusChanges();
+            }
+        }
+
+        for (BleScanListener listener : mListeners) {
+            for (BleScannedDevice device : found) {
+                listener.onDeviceFound(device);
+            }
+            for (BleScannedDevice device : updated) {
+                listener.onDeviceUpdated(device);
+            }
+            int i = 0;
+            for (BleScannedDevice device : updated) {
+                if (statusChanges[i] != 0) {
+                    listener.onStatusChanged(device, statusChanges[i]);
+                }
+                i++;
+            }
+        }
+    }
+
+    private void evictDevices() {
+        List<BleScannedDevice> lost = new ArrayList<>();
+        synchronized (this) {
+            long now = SystemClock.elapsedRealtime();
+            Iterator<BleScannedDevice> it = mDevices.values().iterator();
+            while (it.hasNext()) {
+                BleScannedDevice device = it.next();
+                if (now - device.getLastSeen() > mTtl) {
+                    it.remove();
+                    if (isReported(device)) {
+                        lost.add(device);
+                    }
+                }
+            }
+        }
+
+        for (BleScanListener listener : mListeners) {
+            for (BleScannedDevice device : lost) {
+                listener.onDeviceLost(device);
+            }
+        }
+    }
+
+    private boolean checkLocationEnabled() {
+        LocationManager lm = (LocationManager) mContext.getSystemService(Context.LOCATION_SERVICE);
+        return lm.isProviderEnabled(LocationManager.GPS_PROVIDER) || lm.isProviderEnabled(LocationManager.NETWORK_PROVIDER);
+    }
+}
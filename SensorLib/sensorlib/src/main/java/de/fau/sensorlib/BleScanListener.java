@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib;
+
+/**
+ * Listener of the {@link BleScanEngine}. All methods are called on the main thread.
+ */
+public interface BleScanListener {
+
+    /**
+     * Called when a device was seen for the first time (or again after it was evicted).
+     */
+    void onDeviceFound(BleScannedDevice device);
+
+    /**
+     * Called when the advertised name or manufacturer data of a device changed.
+     */
+    default void onDeviceUpdated(BleScannedDevice device) {
+    }
+
+    /**
+     * Called when the status decoded from the manufacturer data of a device changed (see
+     * {@link BleManufacturerDataHelper#registerDecoder}). Only called for devices already reported via
+     * {@link #onDeviceFound(BleScannedDevice)}, and not for advertisements repeating the same status.
+     *
+     * @param changes CHANGED_* flags of {@link AdvertisementStatus}
+     */
+    default void onStatusChanged(BleScannedDevice device, int changes) {
+    }
+
+    /**
+     * Called when a device was not seen within the TTL and was evicted from the device table.
+     */
+    default void onDeviceLost(BleScannedDevice device) {
+    }
+
+    /**
+     * Called when the scan failed.
+     *
+     * @param errorCode one of the ScanCallback.SCAN_FAILED_* error codes
+     */
+    default void onScanFailed(int errorCode) {
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import de.fau.sensorlib.enums.KnownSensor;
+
+/**
+ * Entry of the device table of the {@link BleScanEngine}: one advertising device together with its
+ * smoothed RSSI and the time it was last seen.
+ */
+public class BleScannedDevice {
+
+    private final String mAddress;
+    private String mName;
+    private KnownSensor mDeviceClass;
+    private SensorInfo mSensorInfo;
+    private byte[] mManufacturerData;
+
+    /**
+     * Status decoded from the manufacturer data, and the status before the last change (reused for decoding)
+     */
+    private AdvertisementStatus mStatus = new AdvertisementStatus();
+    private AdvertisementStatus mPreviousStatus = new AdvertisementStatus();
+    private int mPendingStatusChanges;
+
+    private int mRssi;
+    private double mSmoothedRssi;
+    private long mFirstSeen;
+    private long mLastSeen;
+    private long mNumAdvertisements;
+
+
+    BleScannedDevice(String address) {
+        mAddress = address;
+    }
+
+    /**
+     * Updates the entry with a new advertisement.
+     *
+     * @param name             advertised name (may be null)
+     * @param manufacturerData advertised manufacturer data (may be null)
+     * @param rssi             RSSI of the advertisement
+     * @param timestamp        time the advertisement was received (elapsed realtime in ms)
+     * @param alpha            smoothing factor of the RSSI
+     * @return true if name or manufacturer data changed, i.e. the sensor info was updated
+     */
+    boolean update(String name, byte[] manufacturerData, int rssi, long timestamp, double alpha) {
+        boolean changed = false;
+        if (mNumAdvertisements == 0) {
+            mFirstSeen = timestamp;
+            mSmoothedRssi = rssi;
+            changed = true;
+        } else {
+            mSmoothedRssi += alpha * (rssi - mSmoothedRssi);
+        }
+        mRssi = rssi;
+        mLastSeen = timestamp;
+        mNumAdvertisements++;
+
+        if (name != null && !name.equals(mName)) {
+            mName = name;
+            // class is only inferred when the name changes
+            KnownSensor deviceClass = KnownSensor.inferSensorClass(name, mAddress);
+            if (deviceClass != mDeviceClass) {
+                mDeviceClass = deviceClass;
+                decodeStatus();
+            }
+            changed = true;
+        }
+        if (manufacturerData != null && !Arrays.equals(manufacturerData, mManufacturerData)) {
+            mManufacturerData = manufacturerData;
+            decodeStatus();
+            changed = true;
+        }
+        if (changed) {
+            mSensorInfo = new SensorInfo(mName, mAddress, mDeviceClass, -1, mManufacturerData, mStatus);
+        }
+        return changed;
+    }
+
+    /**
+     * Decodes the manufacturer data (only called if it changed) and accumulates the changed status values.
+     */
+    private void decodeStatus() {
+        AdvertisementStatus tmp = mPreviousStatus;
+        mPreviousStatus = mStatus;
+        mStatus = tmp;
+        BleManufacturerDataHelper.decode(mDeviceClass, mManufacturerData, mStatus);
+        if (mStatus.isValid()) {
+            mPendingStatusChanges |= mStatus.diff(mPreviousStatus);
+        }
+    }
+
+    /**
+     * @return the CHANGED_* flags of {@link AdvertisementStatus} accumulated since the last call, and clears them
+     */
+    int consumeStatusChanges() {
+        int changes = mPendingStatusChanges;
+        mPendingStatusChanges = 0;
+        return changes;
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return the sensor class inferred from the advertised name, or null if the device is unknown to the sensorlib
+     */
+    public KnownSensor getDeviceClass() {
+        return mDeviceClass;
+    }
+
+    public boolean isKnownSensor() {
+        return mDeviceClass != null;
+    }
+
+    public SensorInfo getSensorInfo() {
+        return mSensorInfo;
+    }
+
+    public byte[] getManufacturerData() {
+        return mManufacturerData;
+    }
+
+    /**
+     * @return the status decoded from the advertised manufacturer data. The returned object is reused, i.e. it
+     * must not be kept beyond the listener callback (see {@link AdvertisementStatus#copyFrom(AdvertisementStatus)}).
+     */
+    public AdvertisementStatus getStatus() {
+        return mStatus;
+    }
+
+    /**
+     * @return RSSI of the last advertisement
+     */
+    public int getRssi() {
+        return mRssi;
+    }
+
+    /**
+     * @return exponentially smoothed RSSI
+     */
+    public double getSmoothedRssi() {
+        return mSmoothedRssi;
+    }
+
+    public long getFirstSeen() {
+        return mFirstSeen;
+    }
+
+    /**
+     * @return time the last advertisement was received (elapsed realtime in ms)
+     */
+    public long getLastSeen() {
+        return mLastSeen;
+    }
+
+    public long getNumAdvertisements() {
+        return mNumAdvertisements;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.getDefault(), "%s <%s, %s, %s, rssi: %d (%.1f), seen: %d>", getClass().getSimpleName(),
+                mName, mAddress, mDeviceClass, mRssi, mSmoothedRssi, mNumAdvertisements);
+    }
+}
@@ -0,0 +1,589 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib;
+
+import android.content.Context;
+import android.util.Base64;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import de.fau.sensorlib.enums.HardwareSensor;
+import de.fau.sensorlib.enums.KnownSensor;
+import de.fau.sensorlib.sensors.AbstractSensor;
+import de.fau.sensorlib.sensors.FirmwareRevision;
+import de.fau.sensorlib.sensors.HardwareRevision;
+
+/**
+ * Persistent registry of all sensors this device was connected to, keyed by device address.
+ * <p>
+ * For every sensor the registry stores its identity (name, inferred {@link KnownSensor} class), the static
+ * device information (firmware/hardware revision, model number, ...), the available hardware sensors and the
+ * last sampling rate. Additionally, it caches the GATT layout (services and characteristics) and the values of
+ * static characteristics, valid for one firmware revision. Connection setup uses it to skip reading values that
+ * are already known, and sensor pickers can show known sensors before the first advertisement arrives. The
+ * registry is stored as a JSON file in the app's files directory. Updates are written on a background thread,
+ * updates arriving within {@link #SAVE_DELAY} ms are combined into one write that replaces the file atomically.
+ */
+public class KnownDeviceRegistry {
+
+    private static final String TAG = KnownDeviceRegistry.class.getSimpleName();
+
+    private static final String REGISTRY_FILE_NAME = "known_devices.json";
+
+    /**
+     * Delay before writing the registry after an update (in ms)
+     */
+    private static final long SAVE_DELAY = 500;
+
+    private static KnownDeviceRegistry sInstance;
+
+    /**
+     * Immutable GATT layout ("service/characteristic" keys) and static characteristic values of a sensor, valid for
+     * one firmware revision. Updates replace the whole cache, so it can be read without holding the registry lock.
+     */
+    private static class GattCache {
+        private static final GattCache EMPTY = new GattCache("", new ArrayList<>(), new HashMap<>());
+
+        private final String mFirmwareRevision;
+        private final List<String> mLayout;
+        private final Map<String, byte[]> mStaticValues;
+
+        private GattCache(String firmwareRevision, List<String> layout, Map<String, byte[]> staticValues) {
+            mFirmwareRevision = firmwareRevision;
+            mLayout = Collections.unmodifiableList(layout);
+            mStaticValues = Collections.unmodifiableMap(staticValues);
+        }
+
+        private GattCache withStaticValue(String gattKey, byte[] value) {
+            HashMap<String, byte[]> staticValues = new HashMap<>(mStaticValues);
+            staticValues.put(gattKey, value);
+            return new GattCache(mFirmwareRevision, new ArrayList<>(mLayout), staticValues);
+        }
+    }
+
+    /**
+     * One known sensor.
+     */
+    public static class Entry {
+        private final String mAddress;
+        private String mName;
+        private KnownSensor mDeviceClass;
+        private String mSerialNumber = "";
+        private String mManufacturer = "";
+        private String mModelNumber = "";
+        private String mHardwareRevision = "";
+        private String mFirmwareRevision = "";
+        private String mSoftwareRevision = "";
+        private EnumSet<HardwareSensor> mAvailableSensors = EnumSet.noneOf(HardwareSensor.class);
+        private double mSamplingRate = -1;
+        private long mLastConnected;
+
+        private volatile GattCache mGattCache = GattCache.EMPTY;
+
+        private Entry(String address) {
+            mAddress = address;
+        }
+
+        public String getAddress() {
+            return mAddress;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public KnownSensor getDeviceClass() {
+            return mDeviceClass;
+        }
+
+        public String getSerialNumber() {
+            return mSerialNumber;
+        }
+
+        public String getManufacturer() {
+            return mManufacturer;
+        }
+
+        public String getModelNumber() {
+            return mModelNumber;
+        }
+
+        public String getHardwareRevisionString() {
+            return mHardwareRevision;
+        }
+
+        public HardwareRevision getHardwareRevision() {
+            return new HardwareRevision(mHardwareRevision);
+        }
+
+        public String getFirmwareRevisionString() {
+            return mFirmwareRevision;
+        }
+
+        public FirmwareRevision getFirmwareRevision() {
+            return mFirmwareRevision.isEmpty() ? new FirmwareRevision() : new FirmwareRevision(mFirmwareRevision);
+        }
+
+        public String getSoftwareRevision() {
+            return mSoftwareRevision;
+        }
+
+        public EnumSet<HardwareSensor> getAvailableSensors() {
+            return EnumSet.copyOf(mAvailableSensors);
+        }
+
+        /**
+         * @return the last known sampling rate, or -1 if unknown
+         */
+        public double getSamplingRate() {
+            return mSamplingRate;
+        }
+
+        /**
+         * @return time of the last connection in ms since epoch
+         */
+        public long getLastConnected() {
+            return mLastConnected;
+        }
+
+        /**
+         * Returns the cached value of the given Device Information characteristic.
+         *
+         * @return the cached value, or null if the value is unknown or the characteristic is not cached
+         */
+        public String getDeviceInformation(UUID characteristic) {
+            String value = null;
+            if (BleGattAttributes.SERIAL_NUMBER_STRING.equals(characteristic)) {
+                value = mSerialNumber;
+            } else if (BleGattAttributes.MANUFACTURER_NAME_STRING.equals(characteristic)) {
+                value = mManufacturer;
+            } else if (BleGattAttributes.MODEL_NUMBER_STRING.equals(characteristic)) {
+                value = mModelNumber;
+            } else if (BleGattAttributes.HARDWARE_REVISION_STRING.equals(characteristic)) {
+                value = mHardwareRevision;
+            } else if (BleGattAttributes.FIRMWARE_REVISION_STRING.equals(characteristic)) {
+                value = mFirmwareRevision;
+            } else if (BleGattAttributes.SOFTWARE_REVISION_STRING.equals(characteristic)) {
+                value = mSoftwareRevision;
+            }
+            return (value == null || value.isEmpty()) ? null : value;
+        }
+
+        /**
+         * @return true if a GATT layout is cached for this sensor
+         */
+        public boolean hasGattCache() {
+            return !mGattCache.mLayout.isEmpty();
+        }
+
+        /**
+         * @return firmware revision the cached GATT layout and static values belong to
+         */
+        public String getGattCacheFirmwareRevision() {
+            return mGattCache.mFirmwareRevision;
+        }
+
+        /**
+         * @return cached GATT layout as list of "service/characteristic" keys (see {@link #gattKey(UUID, UUID)})
+         */
+        public List<String> getGattLayout() {
+            return mGattCache.mLayout;
+        }
+
+        /**
+         * @return cached value of the given static characteristic, or null if not cached
+         */
+        public byte[] getStaticValue(String gattKey) {
+            byte[] value = mGattCache.mStaticValues.get(gattKey);
+            return (value != null) ? value.clone() : null;
+        }
+
+        public SensorInfo toSensorInfo() {
+            return new SensorInfo(mName, mAddress, mDeviceClass, mSamplingRate, null);
+        }
+
+        private StoredEntry toStoredEntry() {
+            StoredEntry stored = new StoredEntry();
+            stored.address = mAddress;
+            stored.name = mName;
+            stored.device_class = (mDeviceClass != null) ? mDeviceClass.name() : null;
+            stored.serial_number = mSerialNumber;
+            stored.manufacturer = mManufacturer;
+            stored.model_number = mModelNumber;
+            stored.hardware_revision = mHardwareRevision;
+            stored.firmware_revision = mFirmwareRevision;
+            stored.software_revision = mSoftwareRevision;
+            stored.available_sensors = new ArrayList<>();
+            for (HardwareSensor sensor : mAvailableSensors) {
+                stored.available_sensors.add(sensor.name());
+            }
+            stored.sampling_rate = mSamplingRate;
+            stored.last_connected = mLastConnected;
+            GattCache gattCache = mGattCache;
+            if (!gattCache.mLayout.isEmpty()) {
+                stored.gatt_cache = new StoredGattCache();
+                stored.gatt_cache.firmware_revision = gattCache.mFirmwareRevision;
+                stored.gatt_cache.layout = new ArrayList<>(gattCache.mLayout);
+                stored.gatt_cache.static_values = new HashMap<>();
+                for (Map.Entry<String, byte[]> value : gattCache.mStaticValues.entrySet()) {
+                    stored.gatt_cache.static_values.put(value.getKey(), Base64.encodeToString(value.getValue(), Base64.NO_WRAP));
+                }
+            }
+            return stored;
+        }
+
+        private static Entry fromStoredEntry(StoredEntry stored) {
+            Entry entry = new Entry(stored.address);
+            entry.mName = stored.name;
+            if (stored.device_class != null) {
+                try {
+                    entry.mDeviceClass = KnownSensor.valueOf(stored.device_class);
+                } catch (IllegalArgumentException e) {
+                    // sensor class was removed
+                    entry.mDeviceClass = KnownSensor.inferSensorClass(entry.mName);
+                }
+            }
+            entry.mSerialNumber = nonNull(stored.serial_number);
+            entry.mManufacturer = nonNull(stored.manufacturer);
+            entry.mModelNumber = nonNull(stored.model_number);
+            entry.mHardwareRevision = nonNull(stored.hardware_revision);
+            entry.mFirmwareRevision = nonNull(stored.firmware_revision);
+            entry.mSoftwareRevision = nonNull(stored.software_revision);
+            if (stored.available_sensors != null) {
+                for (String sensor : stored.available_sensors) {
+                    try {
+                        entry.mAvailableSensors.add(HardwareSensor.valueOf(sensor));
+                    } catch (IllegalArgumentException | NullPointerException ignored) {
+                    }
+                }
+            }
+            entry.mSamplingRate = stored.sampling_rate;
+            entry.mLastConnected = stored.last_connected;
+            StoredGattCache gatt = stored.gatt_cache;
+            if (gatt != null && gatt.layout != null) {
+                HashMap<String, byte[]> staticValues = new HashMap<>();
+                if (gatt.static_values != null) {
+                    for (Map.Entry<String, String> value : gatt.static_values.entrySet()) {
+                        try {
+                            staticValues.put(value.getKey(), Base64.decode(value.getValue(), Base64.NO_WRAP));
+                        } catch (IllegalArgumentException | NullPointerException ignored) {
+                        }
+                    }
+                }
+                entry.mGattCache = new GattCache(nonNull(gatt.firmware_revision), new ArrayList<>(gatt.layout), staticValues);
+            }
+            return entry;
+        }
+
+        private static String nonNull(String value) {
+            return (value != null) ? value : "";
+        }
+    }
+
+    /**
+     * JSON representation of an {@link Entry}.
+     */
+    private static class StoredEntry {
+        private String address;
+        private String name;
+        private String device_class;
+        private String serial_number;
+        private String manufacturer;
+        private String model_number;
+        private String hardware_revision;
+        private String firmware_revision;
+        private String software_revision;
+        private List<String> available_sensors;
+        private double sampling_rate = -1;
+        private long last_connected;
+        private StoredGattCache gatt_cache;
+    }
+
+    /**
+     * JSON representation of the GATT cache of an {@link Entry}, static values are Base64 encoded.
+     */
+    private static class StoredGattCache {
+        private String firmware_revision;
+        private List<String> layout;
+        private HashMap<String, String> static_values;
+    }
+
+    /**
+     * @return key of the given characteristic in the GATT cache
+     */
+    public static String gattKey(UUID service, UUID characteristic) {
+        return service + "/" + characteristic;
+    }
+
+    private final File mRegistryFile;
+    private final HashMap<String, Entry> mEntries = new HashMap<>();
+
+    private final Gson mGson = new Gson();
+    private final ScheduledExecutorService mSaveExecutor = Executors.newSingleThreadScheduledExecutor();
+    private boolean mSaveScheduled;
+
+
+    /**
+     * Returns the registry of this app, loading it on first access.
+     */
+    public static synchronized KnownDeviceRegistry getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new KnownDeviceRegistry(new File(context.getApplicationContext().getFilesDir(), REGISTRY_FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    private KnownDeviceRegistry(File registryFile) {
+        mRegistryFile = registryFile;
+        load();
+    }
+
+    /**
+     * @return the entry of the sensor with the given address, or null if the sensor is not known
+     */
+    public synchronized Entry getEntry(String address) {
+        return mEntries.get(address);
+    }
+
+    public synchronized boolean isKnown(String address) {
+        return mEntries.containsKey(address);
+    }
+
+    /**
+     * @return all known sensors, most recently connected first
+     */
+    public synchronized List<Entry> getEntries() {
+        List<Entry> entries = new ArrayList<>(mEntries.values());
+        Collections.sort(entries, (e1, e2) -> Long.compare(e2.mLastConnected, e1.mLastConnected));
+        return entries;
+    }
+
+    /**
+     * @return sensor info of all known sensors, most recently connected first
+     */
+    public synchronized List<SensorInfo> getKnownSensors() {
+        List<SensorInfo> sensors = new ArrayList<>();
+        for (Entry entry : getEntries()) {
+            sensors.add(entry.toSensorInfo());
+        }
+        return sensors;
+    }
+
+    /**
+     * Stores (or updates) identity, device information, available hardware sensors and sampling rate of the
+     * given sensor. Device information that was not read (i.e. is empty) does not overwrite known values.
+     */
+    public synchronized void update(AbstractSensor sensor) {
+        String address = sensor.getDeviceAddress();
+        if (address == null) {
+            return;
+        }
+        Entry entry = mEntries.get(address);
+        if (entry == null) {
+            entry = new Entry(address);
+            mEntries.put(address, entry);
+        }
+
+        if (sensor.getDeviceName() != null) {
+            entry.mName = sensor.getDeviceName();
+        }
+        if (sensor.getDeviceClass() != null) {
+            entry.mDeviceClass = sensor.getDeviceClass();
+        }
+        entry.mSerialNumber = merge(entry.mSerialNumber, sensor.getSerialNumberString());
+        entry.mManufacturer = merge(entry.mManufacturer, sensor.getManufacturerString());
+        entry.mModelNumber = merge(entry.mModelNumber, sensor.getModelNumberString());
+        entry.mHardwareRevision = merge(entry.mHardwareRevision, sensor.getHardwareRevisionString());
+        entry.mFirmwareRevision = merge(entry.mFirmwareRevision, sensor.getFirmwareRevisionString());
+        entry.mSoftwareRevision = merge(entry.mSoftwareRevision, sensor.getSoftwareRevisionString());
+
+        EnumSet<HardwareSensor> availableSensors = EnumSet.noneOf(HardwareSensor.class);
+        for (HardwareSensor hwSensor : HardwareSensor.values()) {
+            if (sensor.hasHardwareSensor(hwSensor)) {
+                availableSensors.add(hwSensor);
+            }
+        }
+        entry.mAvailableSensors = availableSensors;
+        if (sensor.getSamplingRate() > 0) {
+            entry.mSamplingRate = sensor.getSamplingRate();
+        }
+        entry.mLastConnected = System.currentTimeMillis();
+        save();
+    }
+
+    private static String merge(String oldValue, String newValue) {
+        return (newValue == null || newValue.isEmpty()) ? oldValue : newValue;
+    }
+
+    /**
+     * Drops the cached device information and GATT cache of the given sensor (e.g. after a firmware upgrade), so
+     * it is read again on the next connection. Identity and last sampling rate are kept.
+     */
+    public synchronized void invalidateDeviceInformation(String address) {
+        Entry entry = mEntries.get(address);
+        if (entry == null) {
+            return;
+        }
+        entry.mSerialNumber = "";
+        entry.mManufacturer = "";
+        entry.mModelNumber = "";
+        entry.mHardwareRevision = "";
+        entry.mFirmwareRevision = "";
+        entry.mSoftwareRevision = "";
+        entry.mGattCache = GattCache.EMPTY;
+        save();
+    }
+
+    /**
+     * Stores the GATT layout and the static characteristic values of the given sensor. The cache is only valid
+     * as long as the sensor runs the given firmware revision.
+     *
+     * @param layout       all "service/characteristic" keys of the sensor
+     * @param staticValues values of all static characteristics, by key
+     */
+    public synchronized void updateGattCache(String address, String firmwareRevision, List<String> layout, Map<String, byte[]> staticValues) {
+        Entry entry = mEntries.get(address);
+        if (entry == null) {
+            entry = new Entry(address);
+            mEntries.put(address, entry);
+        }
+        HashMap<String, byte[]> values = new HashMap<>();
+        for (Map.Entry<String, byte[]> value : staticValues.entrySet()) {
+            values.put(value.getKey(), value.getValue().clone());
+        }
+        entry.mGattCache = new GattCache((firmwareRevision != null) ? firmwareRevision : "", new ArrayList<>(layout), values);
+        save();
+    }
+
+    /**
+     * Adds the value of a static characteristic that was read after the GATT cache was stored (e.g. on demand).
+     * The value is ignored if the cache belongs to a different firmware revision.
+     */
+    public synchronized void updateStaticValue(String address, String firmwareRevision, String gattKey, byte[] value) {
+        Entry entry = mEntries.get(address);
+        if (entry == null || !entry.hasGattCache() || value == null || !entry.mGattCache.mFirmwareRevision.equals(firmwareRevision)) {
+            return;
+        }
+        byte[] oldValue = entry.mGattCache.mStaticValues.get(gattKey);
+        if (oldValue == null || !Arrays.equals(oldValue, value)) {
+            entry.mGattCache = entry.mGattCache.withStaticValue(gattKey, value.clone());
+            save();
+        }
+    }
+
+    /**
+     * Drops the cached GATT layout and static characteristic values of the given sensor.
+     */
+    public synchronized void invalidateGattCache(String address) {
+        Entry entry = mEntries.get(address);
+        if (entry == null || !entry.hasGattCache()) {
+            return;
+        }
+        entry.mGattCache = GattCache.EMPTY;
+        save();
+    }
+
+    public synchronized void remove(String address) {
+        if (mEntries.remove(address) != null) {
+            save();
+        }
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        save();
+    }
+
+    private void load() {
+        if (!mRegistryFile.exists()) {
+            return;
+        }
+        try (Reader reader = new InputStreamReader(new FileInputStream(mRegistryFile), StandardCharsets.UTF_8)) {
+            Type type = new TypeToken<List<StoredEntry>>() {
+            }.getType();
+            List<StoredEntry> entries = mGson.fromJson(reader, type);
+            if (entries != null) {
+                for (StoredEntry stored : entries) {
+                    if (stored != null && stored.address != null) {
+                        Entry entry = Entry.fromStoredEntry(stored);
+                        mEntries.put(entry.mAddress, entry);
+                    }
+                }
+            }
+            Log.d(TAG, "Loaded " + mEntries.size() + " known devices.");
+        } catch (IOException | JsonParseException e) {
+            Log.e(TAG, "Error loading known device registry, starting with an empty registry!", e);
+            mEntries.clear();
+        }
+    }
+
+    /**
+     * Schedules writing the registry. Updates until the write starts are included in the same write.
+     */
+    private void save() {
+        if (mSaveScheduled) {
+            return;
+        }
+        mSaveScheduled = true;
+        mSaveExecutor.schedule(this::write, SAVE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes the registry to a temporary file and atomically replaces the old registry with it. Runs on the
+     * save executor, only the snapshot of the entries is taken while holding the registry lock.
+     */
+    private void write() {
+        List<StoredEntry> entries = new ArrayList<>();
+        synchronized (this) {
+            mSaveScheduled = false;
+            for (Entry entry : mEntries.values()) {
+                entries.add(entry.toStoredEntry());
+            }
+        }
+
+        File tmpFile = new File(mRegistryFile.getAbsolutePath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmpFile)) {
+            Writer writer = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
+            mGson.toJson(entries, writer);
+            writer.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Error saving known device registry!", e);
+            return;
+        }
+
+        if (!tmpFile.renameTo(mRegistryFile)) {
+            Log.e(TAG, "Error replacing known device registry!");
+        }
+    }
+}
@@ -35,6 +35,7 @@ public class SensorException extends Exception {
         sessionDownloadError("Error during session download."),
         noMemory("Sensor Memory full!"),
         maxNumSessions("Maximum number of sessions reached."),
+        linkBudgetExceeded("Required BLE throughput exceeds the available link budget."),
         unknown("");
 
         private String msg;
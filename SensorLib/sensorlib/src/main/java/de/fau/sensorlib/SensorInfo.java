@@ -62,6 +62,11 @@ public class SensorInfo implements Serializable {
 
     protected int mNumRecordings;
 
+    /**
+     * Sensor state advertised in the manufacturer data.
+     */
+    protected SensorState mAdvertisedState = SensorState.UNDEFINED;
+
 
     /**
      * @return a not necessarily unique, human readable name for this sensor.
@@ -117,6 +122,13 @@ public class SensorInfo implements Serializable {
         return mNumRecordings;
     }
 
+    /**
+     * @return the sensor state advertised in the manufacturer data, or {@link SensorState#UNDEFINED}
+     */
+    public SensorState getAdvertisedState() {
+        return mAdvertisedState;
+    }
+
     /**
      * Changes the sensor state.
      *
@@ -189,7 +201,7 @@ public class SensorInfo implements Serializable {
      * @param deviceAddress address of the device.
      */
     public SensorInfo(String deviceName, String deviceAddress) {
-        this(deviceName, deviceAddress, KnownSensor.inferSensorClass(deviceName), -1, null);
+        this(deviceName, deviceAddress, KnownSensor.inferSensorClass(deviceName, deviceAddress), -1, null);
     }
 
 
@@ -201,7 +213,7 @@ public class SensorInfo implements Serializable {
      * @param samplingRate  sampling rate of the sensor
      */
     public SensorInfo(String deviceName, String deviceAddress, double samplingRate) {
-        this(deviceName, deviceAddress, KnownSensor.inferSensorClass(deviceName), samplingRate, null);
+        this(deviceName, deviceAddress, KnownSensor.inferSensorClass(deviceName, deviceAddress), samplingRate, null);
     }
 
     /**
@@ -211,7 +223,7 @@ public class SensorInfo implements Serializable {
      * @param deviceAddress address of the device.
      */
     public SensorInfo(String deviceName, String deviceAddress, byte[] manufacturerData) {
-        this(deviceName, deviceAddress, KnownSensor.inferSensorClass(deviceName), -1, manufacturerData);
+        this(deviceName, deviceAddress, KnownSensor.inferSensorClass(deviceName, deviceAddress), -1, manufacturerData);
     }
 
     /**
@@ -226,14 +238,37 @@ public class SensorInfo implements Serializable {
     }
 
     public SensorInfo(String deviceName, String deviceAddress, KnownSensor deviceClass, double samplingRate, byte[] manufacturerData) {
+        this(deviceName, deviceAddress, deviceClass, samplingRate, manufacturerData, null);
+        if (manufacturerData != null) {
+            AdvertisementStatus status = new AdvertisementStatus();
+            if (BleManufacturerDataHelper.decode(deviceClass, manufacturerData, status)) {
+                setAdvertisementStatus(status);
+            }
+        }
+    }
+
+    /**
+     * Constructor for manufacturer data that was already decoded (e.g. by the {@link BleScanEngine}).
+     */
+    SensorInfo(String deviceName, String deviceAddress, KnownSensor deviceClass, double samplingRate, byte[] manufacturerData, AdvertisementStatus status) {
         mDeviceName = deviceName;
         mDeviceAddress = deviceAddress;
         mDeviceClass = deviceClass;
         mManufacturerData = manufacturerData;
         mSamplingRate = samplingRate;
-        mBatteryLevel = BleManufacturerDataHelper.getBatteryLevel(deviceClass, mManufacturerData);
-        mIsCharging = BleManufacturerDataHelper.getChargingState(deviceClass, mManufacturerData);
-        mNumRecordings = BleManufacturerDataHelper.getNumberOfRecordings(deviceClass, mManufacturerData);
+        if (status != null && status.isValid()) {
+            setAdvertisementStatus(status);
+        }
+    }
+
+    /**
+     * Takes over the values decoded from the manufacturer data.
+     */
+    private void setAdvertisementStatus(AdvertisementStatus status) {
+        mBatteryLevel = status.getBatteryLevel();
+        mIsCharging = status.isCharging();
+        mNumRecordings = status.getNumRecordings();
+        mAdvertisedState = status.getState();
     }
 
     @Override
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib.enums;
+
+import android.bluetooth.BluetoothGatt;
+
+/**
+ * BLE link parameters requested for a sensor connection.
+ */
+public enum BleThroughputProfile {
+
+    /**
+     * Maximum throughput with 2M PHY (if supported), e.g. for high sampling rate streaming or session downloads
+     */
+    HIGH_THROUGHPUT(247, BluetoothGatt.CONNECTION_PRIORITY_HIGH, true),
+    /**
+     * Android default connection parameters and 1M PHY, default for all sensors
+     */
+    BALANCED(247, BluetoothGatt.CONNECTION_PRIORITY_BALANCED, false),
+    /**
+     * Long connection interval and 1M PHY (better range), e.g. for idle or logging sensors
+     */
+    LOW_POWER(247, BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER, false);
+
+    private int mtu;
+    private int connectionPriority;
+    private boolean preferPhy2M;
+
+    BleThroughputProfile(int mtu, int connectionPriority, boolean preferPhy2M) {
+        this.mtu = mtu;
+        this.connectionPriority = connectionPriority;
+        this.preferPhy2M = preferPhy2M;
+    }
+
+    public int getMtu() {
+        return mtu;
+    }
+
+    public int getConnectionPriority() {
+        return connectionPriority;
+    }
+
+    public boolean isPhy2MPreferred() {
+        return preferPhy2M;
+    }
+}
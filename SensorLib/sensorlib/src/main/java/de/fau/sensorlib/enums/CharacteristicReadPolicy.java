@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib.enums;
+
+/**
+ * When the value of a discovered BLE characteristic is read.
+ */
+public enum CharacteristicReadPolicy {
+
+    /**
+     * Read during link setup, i.e. before the sensor reports to be connected (e.g. values needed to parse sensor data)
+     */
+    REQUIRED,
+    /**
+     * Read in the background as soon as the sensor started streaming
+     */
+    BACKGROUND,
+    /**
+     * Only read on first access (e.g. via the device information getters)
+     */
+    LAZY,
+    /**
+     * Never read automatically
+     */
+    NEVER
+}
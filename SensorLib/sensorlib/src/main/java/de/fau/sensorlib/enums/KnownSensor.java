@@ -218,6 +218,20 @@ public enum KnownSensor {
         return mSensorClass;
     }
 
+    /**
+     * Returns the keywords that identify this sensor type/class by its device name.
+     */
+    String[] getIdentifyingKeywords() {
+        return (mIdentifyingKeywords != null) ? mIdentifyingKeywords : new String[0];
+    }
+
+    /**
+     * Lazily compiled matcher for all identifying keywords.
+     */
+    private static class MatcherHolder {
+        private static final KnownSensorMatcher MATCHER = new KnownSensorMatcher(KnownSensor.values());
+    }
+
     /**
      * Infers the most likely sensor class based on the device name.
      *
@@ -225,19 +239,18 @@ public enum KnownSensor {
      * @return the KnownSensors enum corresponding to the given deviceName or null if it could not be associated with any entry.
      */
     public static KnownSensor inferSensorClass(String deviceName) {
-        for (KnownSensor s : KnownSensor.values()) {
-            if (s.mIdentifyingKeywords == null || s.mIdentifyingKeywords.length <= 0) {
-                continue;
-            }
-            for (String str : s.mIdentifyingKeywords) {
-                if (deviceName == null || deviceName.isEmpty()) {
-                    continue;
-                }
-                if (deviceName.contains(str)) {
-                    return s;
-                }
-            }
-        }
-        return null;
+        return MatcherHolder.MATCHER.match(deviceName);
+    }
+
+    /**
+     * Infers the most likely sensor class based on the device name. The result is memoized per device address,
+     * so this should be preferred when classifying scan results.
+     *
+     * @param deviceName    the device name of the sensor/device.
+     * @param deviceAddress the (MAC) address of the sensor/device.
+     * @return the KnownSensors enum corresponding to the given deviceName or null if it could not be associated with any entry.
+     */
+    public static KnownSensor inferSensorClass(String deviceName, String deviceAddress) {
+        return MatcherHolder.MATCHER.match(deviceName, deviceAddress);
     }
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib.enums;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Classifies device names by the identifying keywords of all {@link KnownSensor}s in a single pass.
+ * <p>
+ * The keywords are compiled once into an Aho-Corasick automaton (stored as a dense transition table over the
+ * characters occurring in any keyword), so classifying a name costs one table lookup per character, independent
+ * of the number of sensors and keywords. If several keywords match, the sensor declared first wins, which is
+ * the same result as checking the sensors in declaration order. Results are additionally memoized per device
+ * address, since the same devices advertise over and over again during a scan.
+ */
+final class KnownSensorMatcher {
+
+    private static final int NO_MATCH = Integer.MAX_VALUE;
+
+    /**
+     * Maximum number of device addresses whose classification is memoized
+     */
+    private static final int MAX_CACHE_SIZE = 512;
+
+    private final KnownSensor[] mSensors;
+
+    /**
+     * Alphabet index for ASCII characters (-1 if the character does not occur in any keyword)
+     */
+    private final int[] mAsciiIndex = new int[128];
+
+    /**
+     * Alphabet index for all other characters occurring in keywords
+     */
+    private final HashMap<Character, Integer> mExtendedIndex = new HashMap<>();
+
+    /**
+     * Transition table: state x alphabet index -> next state
+     */
+    private final int[][] mTransitions;
+
+    /**
+     * Lowest sensor ordinal matched when reaching a state (including all keywords ending in a suffix of the state)
+     */
+    private final int[] mOutput;
+
+    private static class CacheEntry {
+        private final String mName;
+        private final KnownSensor mSensor;
+
+        private CacheEntry(String name, KnownSensor sensor) {
+            mName = name;
+            mSensor = sensor;
+        }
+    }
+
+    private final LinkedHashMap<String, CacheEntry> mCache = new LinkedHashMap<String, CacheEntry>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            return size() > MAX_CACHE_SIZE;
+        }
+    };
+
+
+    KnownSensorMatcher(KnownSensor[] sensors) {
+        mSensors = sensors;
+
+        // build alphabet
+        Arrays.fill(mAsciiIndex, -1);
+        int alphabetSize = 0;
+        for (KnownSensor sensor : sensors) {
+            for (String keyword : sensor.getIdentifyingKeywords()) {
+                for (int i = 0; i < keyword.length(); i++) {
+                    char c = keyword.charAt(i);
+                    if (indexOf(c) < 0) {
+                        if (c < mAsciiIndex.length) {
+                            mAsciiIndex[c] = alphabetSize;
+                        } else {
+                            mExtendedIndex.put(c, alphabetSize);
+                        }
+                        alphabetSize++;
+                    }
+                }
+            }
+        }
+
+        // build trie
+        List<int[]> trie = new ArrayList<>();
+        List<Integer> output = new ArrayList<>();
+        trie.add(newState(alphabetSize));
+        output.add(NO_MATCH);
+        for (KnownSensor sensor : sensors) {
+            for (String keyword : sensor.getIdentifyingKeywords()) {
+                if (keyword.isEmpty()) {
+                    continue;
+                }
+                int state = 0;
+                for (int i = 0; i < keyword.length(); i++) {
+                    int idx = indexOf(keyword.charAt(i));
+                    if (trie.get(state)[idx] < 0) {
+                        trie.get(state)[idx] = trie.size();
+                        trie.add(newState(alphabetSize));
+                        output.add(NO_MATCH);
+                    }
+                    state = trie.get(state)[idx];
+                }
+                output.set(state, Math.min(output.get(state), sensor.ordinal()));
+            }
+        }
+
+        mTransitions = trie.toArray(new int[0][]);
+        mOutput = new int[mTransitions.length];
+        for (int i = 0; i < mOutput.length; i++) {
+            mOutput[i] = output.get(i);
+        }
+
+        // compute failure links (BFS) and turn the trie into a DFA
+        int[] failure = new int[mTransitions.length];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int a = 0; a < alphabetSize; a++) {
+            int next = mTransitions[0][a];
+            if (next < 0) {
+                mTransitions[0][a] = 0;
+            } else {
+                failure[next] = 0;
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            mOutput[state] = Math.min(mOutput[state], mOutput[failure[state]]);
+            for (int a = 0; a < alphabetSize; a++) {
+                int next = mTransitions[state][a];
+                if (next < 0) {
+                    mTransitions[state][a] = mTransitions[failure[state]][a];
+                } else {
+                    failure[next] = mTransitions[failure[state]][a];
+                    queue.add(next);
+                }
+            }
+        }
+    }
+
+    private static int[] newState(int alphabetSize) {
+        int[] state = new int[alphabetSize];
+        Arrays.fill(state, -1);
+        return state;
+    }
+
+    private int indexOf(char c) {
+        if (c < mAsciiIndex.length) {
+            return mAsciiIndex[c];
+        }
+        Integer idx = mExtendedIndex.get(c);
+        return (idx != null) ? idx : -1;
+    }
+
+    /**
+     * Classifies the given device name.
+     *
+     * @return the first sensor (in declaration order) with a keyword contained in the name, or null
+     */
+    KnownSensor match(String deviceName) {
+        if (deviceName == null || deviceName.isEmpty()) {
+            return null;
+        }
+        int state = 0;
+        int best = NO_MATCH;
+        for (int i = 0; i < deviceName.length(); i++) {
+            int idx = indexOf(deviceName.charAt(i));
+            // characters that do not occur in any keyword reset the automaton
+            state = (idx < 0) ? 0 : mTransitions[state][idx];
+            if (mOutput[state] < best) {
+                best = mOutput[state];
+                if (best == 0) {
+                    break;
+                }
+            }
+        }
+        return (best == NO_MATCH) ? null : mSensors[best];
+    }
+
+    /**
+     * Classifies the given device name, memoized per device address. The cached result is only used if the
+     * device still advertises the same name.
+     */
+    KnownSensor match(String deviceName, String deviceAddress) {
+        if (deviceAddress == null) {
+            return match(deviceName);
+        }
+        synchronized (mCache) {
+            CacheEntry entry = mCache.get(deviceAddress);
+            if (entry != null && (entry.mName == null ? deviceName == null : entry.mName.equals(deviceName))) {
+                return entry.mSensor;
+            }
+        }
+        KnownSensor sensor = match(deviceName);
+        synchronized (mCache) {
+            mCache.put(deviceAddress, new CacheEntry(deviceName, sensor));
+        }
+        return sensor;
+    }
+}
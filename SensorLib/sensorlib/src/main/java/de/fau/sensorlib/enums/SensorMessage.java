@@ -16,7 +16,8 @@ public enum SensorMessage {
     CHARGING_STATE_CHANGED("Charging State Changed"),
     SAMPLING_RATE_CHANGED("Sampling Rate Changed"),
     OPERATION_STATE_CHANGED("Operation State Changed"),
-    ACCURACY_CHANGED("Sensor Accuracy Changed");
+    ACCURACY_CHANGED("Sensor Accuracy Changed"),
+    CONNECTION_INTERRUPTED("Connection Interrupted");
 
     private String name;
 
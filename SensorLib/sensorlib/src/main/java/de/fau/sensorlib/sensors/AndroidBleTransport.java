@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib.sensors;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.os.Build;
+
+import java.util.List;
+import java.util.UUID;
+
+import de.fau.sensorlib.BleSensorManager;
+
+/**
+ * {@link BleTransport} using the Android Bluetooth stack.
+ */
+public class AndroidBleTransport implements BleTransport {
+
+    /**
+     * Opens connections via {@link BluetoothDevice#connectGatt}
+     */
+    public static final Factory FACTORY = (context, deviceAddress, callback) -> {
+        BluetoothDevice device = BleSensorManager.findBtDevice(deviceAddress);
+        if (device == null) {
+            return null;
+        }
+        BluetoothGatt gatt = device.connectGatt(context, false, callback);
+        return (gatt != null) ? new AndroidBleTransport(gatt) : null;
+    };
+
+    private final BluetoothGatt mGatt;
+
+
+    public AndroidBleTransport(BluetoothGatt gatt) {
+        mGatt = gatt;
+    }
+
+    public BluetoothGatt getGatt() {
+        return mGatt;
+    }
+
+    @Override
+    public String getDeviceName() {
+        return mGatt.getDevice().getName();
+    }
+
+    @Override
+    public boolean connect() {
+        return mGatt.connect();
+    }
+
+    @Override
+    public void disconnect() {
+        mGatt.disconnect();
+    }
+
+    @Override
+    public void close() {
+        mGatt.close();
+    }
+
+    @Override
+    public boolean discoverServices() {
+        return mGatt.discoverServices();
+    }
+
+    @Override
+    public List<BluetoothGattService> getServices() {
+        return mGatt.getServices();
+    }
+
+    @Override
+    public BluetoothGattService getService(UUID uuid) {
+        return mGatt.getService(uuid);
+    }
+
+    @Override
+    public boolean readCharacteristic(BluetoothGattCharacteristic characteristic) {
+        return mGatt.readCharacteristic(characteristic);
+    }
+
+    @Override
+    public boolean writeCharacteristic(BluetoothGattCharacteristic characteristic) {
+        return mGatt.writeCharacteristic(characteristic);
+    }
+
+    @Override
+    public boolean writeDescriptor(BluetoothGattDescriptor descriptor) {
+        return mGatt.writeDescriptor(descriptor);
+    }
+
+    @Override
+    public boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enable) {
+        return mGatt.setCharacteristicNotification(characteristic, enable);
+    }
+
+    @Override
+    public boolean requestMtu(int mtu) {
+        return mGatt.requestMtu(mtu);
+    }
+
+    @Override
+    public boolean requestConnectionPriority(int connectionPriority) {
+        return mGatt.requestConnectionPriority(connectionPriority);
+    }
+
+    @Override
+    public void setPreferredPhy(int txPhy, int rxPhy, int phyOptions) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            mGatt.setPreferredPhy(txPhy, rxPhy, phyOptions);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mGatt.toString();
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib.sensors;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import de.fau.sensorlib.BleGattAttributes;
+
+/**
+ * Bulk transfer of a large payload (e.g. a config blob or a command sequence) to one characteristic.
+ * <p>
+ * The payload is split into chunks of the negotiated maximum payload size and written using
+ * {@link BluetoothGattCharacteristic#WRITE_TYPE_NO_RESPONSE}. The BLE stack confirms every write without
+ * response via {@code onCharacteristicWrite} as soon as it has buffer space for the next packet, so each
+ * confirmation immediately releases the next chunk. A small window of chunks is kept queued in the
+ * {@link GattOperationScheduler} so the link never idles between chunks, while control operations (which
+ * have a higher priority) can still overtake the transfer at any time.
+ */
+public class BleBulkTransfer {
+
+    private static final String TAG = BleBulkTransfer.class.getSimpleName();
+
+    /**
+     * Default number of chunks queued at the same time
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 4;
+
+    /**
+     * Minimum interval between two progress notifications (in ms)
+     */
+    private static final long PROGRESS_INTERVAL = 250;
+
+    private enum TransferState {
+        RUNNING,
+        FINISHED,
+        FAILED,
+        CANCELLED
+    }
+
+    private final GattOperationScheduler mScheduler;
+    private final BluetoothGattCharacteristic mCharacteristic;
+    private final byte[] mPayload;
+    private final int mChunkSize;
+    private final int mWindowSize;
+    private final BleBulkTransferCallback mCallback;
+
+    private TransferState mState = TransferState.RUNNING;
+    private int mNumChunksQueued;
+    private int mBytesQueued;
+    private int mBytesWritten;
+    private long mStartTime;
+    private long mEndTime;
+    private long mLastProgressTime;
+    private String mErrorMessage;
+
+
+    BleBulkTransfer(GattOperationScheduler scheduler, BluetoothGattCharacteristic characteristic, byte[] payload, int chunkSize, int windowSize, BleBulkTransferCallback callback) {
+        if (chunkSize <= 0 || windowSize <= 0) {
+            throw new IllegalArgumentException("Chunk size and window size must be positive!");
+        }
+        mScheduler = scheduler;
+        mCharacteristic = characteristic;
+        mPayload = payload;
+        mChunkSize = chunkSize;
+        mWindowSize = windowSize;
+        mCallback = callback;
+    }
+
+    void start() {
+        boolean finished;
+        // same lock order as the scheduler callbacks (scheduler, then transfer)
+        synchronized (mScheduler) {
+            synchronized (this) {
+                mStartTime = SystemClock.elapsedRealtime();
+                mLastProgressTime = mStartTime;
+                Log.d(TAG, "Starting " + this + " (chunk size: " + mChunkSize + ")");
+                finished = fillWindow();
+            }
+        }
+        if (finished) {
+            // empty payload
+            onFinished();
+        }
+    }
+
+    /**
+     * Queues chunks until the window is full.
+     *
+     * @return true if the whole payload was already written
+     */
+    private boolean fillWindow() {
+        while (mNumChunksQueued < mWindowSize && mBytesQueued < mPayload.length) {
+            int end = Math.min(mBytesQueued + mChunkSize, mPayload.length);
+            byte[] chunk = Arrays.copyOfRange(mPayload, mBytesQueued, end);
+            mBytesQueued = end;
+            mNumChunksQueued++;
+            mScheduler.enqueue(GattOperationScheduler.GattOperation.write(mCharacteristic, chunk,
+                    BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE, GattOperationScheduler.Priority.BULK).setTag(this));
+        }
+        return mBytesWritten == mPayload.length;
+    }
+
+    /**
+     * Called when the scheduler finished one chunk of this transfer.
+     */
+    void onChunkWritten(GattOperationScheduler.GattOperation operation, boolean success) {
+        boolean finished = false;
+        boolean progress = false;
+        synchronized (this) {
+            if (mState != TransferState.RUNNING) {
+                return;
+            }
+            mNumChunksQueued--;
+            if (!success) {
+                mErrorMessage = "Chunk at offset " + mBytesWritten + " could not be written";
+            } else {
+                mBytesWritten += operation.getValue().length;
+                finished = fillWindow();
+                long now = SystemClock.elapsedRealtime();
+                if (!finished && now - mLastProgressTime >= PROGRESS_INTERVAL) {
+                    mLastProgressTime = now;
+                    progress = true;
+                }
+            }
+        }
+
+        if (!success) {
+            onFailed(mErrorMessage);
+        } else if (finished) {
+            onFinished();
+        } else if (progress && mCallback != null) {
+            mCallback.onBulkTransferProgress(this);
+        }
+    }
+
+    private void onFinished() {
+        synchronized (this) {
+            mState = TransferState.FINISHED;
+            mEndTime = SystemClock.elapsedRealtime();
+        }
+        Log.d(TAG, "Finished " + this);
+        if (mCallback != null) {
+            mCallback.onBulkTransferFinished(this);
+        }
+    }
+
+    /**
+     * Aborts the transfer, e.g. because a chunk could not be written or the connection was lost.
+     */
+    void onFailed(String message) {
+        synchronized (this) {
+            if (mState != TransferState.RUNNING) {
+                return;
+            }
+            mState = TransferState.FAILED;
+            mEndTime = SystemClock.elapsedRealtime();
+            mErrorMessage = message;
+        }
+        mScheduler.remove(this);
+        Log.e(TAG, "Failed " + this + ": " + message);
+        if (mCallback != null) {
+            mCallback.onBulkTransferFailed(this);
+        }
+    }
+
+    /**
+     * Cancels the transfer. Chunks that are not yet sent to the sensor are dropped, no callback is notified.
+     */
+    public void cancel() {
+        synchronized (this) {
+            if (mState != TransferState.RUNNING) {
+                return;
+            }
+            mState = TransferState.CANCELLED;
+            mEndTime = SystemClock.elapsedRealtime();
+        }
+        mScheduler.remove(this);
+    }
+
+    public BluetoothGattCharacteristic getCharacteristic() {
+        return mCharacteristic;
+    }
+
+    public int getPayloadSize() {
+        return mPayload.length;
+    }
+
+    public int getChunkSize() {
+        return mChunkSize;
+    }
+
+    public synchronized int getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    /**
+     * @return transfer progress in percent
+     */
+    public synchronized double getProgress() {
+        return (mPayload.length == 0) ? 100.0 : (100.0 * mBytesWritten) / mPayload.length;
+    }
+
+    public synchronized boolean isRunning() {
+        return mState == TransferState.RUNNING;
+    }
+
+    public synchronized boolean isFinished() {
+        return mState == TransferState.FINISHED;
+    }
+
+    /**
+     * @return the reason the transfer failed, or null
+     */
+    public synchronized String getErrorMessage() {
+        return mErrorMessage;
+    }
+
+    /**
+     * @return duration of the transfer so far (in ms)
+     */
+    public synchronized long getDuration() {
+        return ((mState == TransferState.RUNNING) ? SystemClock.elapsedRealtime() : mEndTime) - mStartTime;
+    }
+
+    /**
+     * @return effective payload throughput in Byte/s
+     */
+    public synchronized double getThroughput() {
+        long duration = getDuration();
+        return (duration > 0) ? (mBytesWritten * 1000.0) / duration : 0.0;
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.getDefault(), "%s <%s, %d/%d Byte, %.1f kB/s, %s>", getClass().getSimpleName(),
+                BleGattAttributes.lookupCharacteristic(mCharacteristic.getUuid()), mBytesWritten, mPayload.length, getThroughput() / 1024.0, mState);
+    }
+}
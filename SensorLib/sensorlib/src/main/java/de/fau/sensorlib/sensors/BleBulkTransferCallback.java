@@ -0,0 +1,21 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib.sensors;
+
+/**
+ * Callback for bulk transfers. Methods are called from the thread delivering the GATT callbacks.
+ */
+public interface BleBulkTransferCallback {
+
+    default void onBulkTransferProgress(BleBulkTransfer transfer) {
+    }
+
+    void onBulkTransferFinished(BleBulkTransfer transfer);
+
+    void onBulkTransferFailed(BleBulkTransfer transfer);
+}
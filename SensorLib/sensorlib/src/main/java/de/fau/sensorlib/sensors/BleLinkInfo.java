@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib.sensors;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+import de.fau.sensorlib.enums.BleThroughputProfile;
+
+/**
+ * Link parameters actually granted for a BLE connection together with the measured notification rate.
+ */
+public class BleLinkInfo {
+
+    /**
+     * Default ATT MTU before negotiation
+     */
+    public static final int DEFAULT_MTU = 23;
+
+    /**
+     * Length of the window the notification rate is computed over (in ms)
+     */
+    private static final long RATE_WINDOW = 1000;
+
+    /**
+     * Maximum ATT payload fitting into one link layer packet (251 Byte with data length extension)
+     */
+    private static final int MAX_PACKET_PAYLOAD = 244;
+
+    private BleThroughputProfile mProfile;
+    private int mMtu = DEFAULT_MTU;
+    private int mTxPhy = BluetoothDevice.PHY_LE_1M;
+    private int mRxPhy = BluetoothDevice.PHY_LE_1M;
+    private double mConnectionInterval = -1;
+
+    private long mNotificationCount;
+    private long mNotificationBytes;
+    private long mWindowStart;
+    private long mWindowCount;
+    private long mWindowBytes;
+    private double mNotificationRate;
+    private double mNotificationThroughput;
+
+    private long mConnectTime;
+    private long mSetupDuration = -1;
+    private long mTimeToStreaming = -1;
+    private boolean mGattCacheHit;
+    private int mNumSetupReads;
+    private int mNumCachedReads;
+
+
+    BleLinkInfo(BleThroughputProfile profile) {
+        mProfile = profile;
+    }
+
+    synchronized void reset() {
+        mMtu = DEFAULT_MTU;
+        mTxPhy = BluetoothDevice.PHY_LE_1M;
+        mRxPhy = BluetoothDevice.PHY_LE_1M;
+        mConnectionInterval = -1;
+        mNotificationCount = 0;
+        mNotificationBytes = 0;
+        mWindowStart = 0;
+        mWindowCount = 0;
+        mWindowBytes = 0;
+        mNotificationRate = 0;
+        mNotificationThroughput = 0;
+        // reset() is called when a new connection is initiated
+        mConnectTime = SystemClock.elapsedRealtime();
+        mSetupDuration = -1;
+        mTimeToStreaming = -1;
+        mGattCacheHit = false;
+        mNumSetupReads = 0;
+        mNumCachedReads = 0;
+    }
+
+    synchronized void setProfile(BleThroughputProfile profile) {
+        mProfile = profile;
+    }
+
+    synchronized void setMtu(int mtu) {
+        mMtu = mtu;
+    }
+
+    synchronized void setPhy(int txPhy, int rxPhy) {
+        mTxPhy = txPhy;
+        mRxPhy = rxPhy;
+    }
+
+    /**
+     * @param interval connection interval in units of 1.25 ms
+     */
+    synchronized void setConnectionInterval(int interval) {
+        mConnectionInterval = interval * 1.25;
+    }
+
+    synchronized void onSetupRead() {
+        mNumSetupReads++;
+    }
+
+    /**
+     * @param gattCacheHit   true if the GATT cache was valid for this connection
+     * @param numCachedReads number of reads required for the link setup that were skipped, because their
+     *                       value was taken from the GATT cache
+     */
+    synchronized void onLinkSetupFinished(boolean gattCacheHit, int numCachedReads) {
+        mSetupDuration = SystemClock.elapsedRealtime() - mConnectTime;
+        mGattCacheHit = gattCacheHit;
+        mNumCachedReads = numCachedReads;
+    }
+
+    synchronized void onStreamingStarted() {
+        if (mTimeToStreaming < 0) {
+            mTimeToStreaming = SystemClock.elapsedRealtime() - mConnectTime;
+        }
+    }
+
+    synchronized void onNotification(int numBytes) {
+        long now = SystemClock.elapsedRealtime();
+        if (mWindowStart == 0) {
+            mWindowStart = now;
+        }
+        mNotificationCount++;
+        mNotificationBytes += numBytes;
+        mWindowCount++;
+        mWindowBytes += numBytes;
+
+        long elapsed = now - mWindowStart;
+        if (elapsed >= RATE_WINDOW) {
+            mNotificationRate = (mWindowCount * 1000.0) / elapsed;
+            mNotificationThroughput = (mWindowBytes * 1000.0) / elapsed;
+            mWindowStart = now;
+            mWindowCount = 0;
+            mWindowBytes = 0;
+        }
+    }
+
+    public synchronized BleThroughputProfile getProfile() {
+        return mProfile;
+    }
+
+    /**
+     * @return the negotiated ATT MTU
+     */
+    public synchronized int getMtu() {
+        return mMtu;
+    }
+
+    /**
+     * @return maximum payload of one notification (MTU minus 3 Byte ATT header)
+     */
+    public synchronized int getMaxPayloadSize() {
+        return mMtu - 3;
+    }
+
+    /**
+     * @return the granted TX PHY, one of {@link BluetoothDevice#PHY_LE_1M}, {@link BluetoothDevice#PHY_LE_2M}, {@link BluetoothDevice#PHY_LE_CODED}
+     */
+    public synchronized int getTxPhy() {
+        return mTxPhy;
+    }
+
+    public synchronized int getRxPhy() {
+        return mRxPhy;
+    }
+
+    /**
+     * @return the connection interval reported by the controller (in ms), or -1 if unknown
+     */
+    public synchronized double getReportedConnectionInterval() {
+        return mConnectionInterval;
+    }
+
+    /**
+     * @return the connection interval (in ms). If the controller did not report it (only available from Android 8),
+     * the upper bound of the interval range Android requests for the current connection priority is used.
+     */
+    public synchronized double getConnectionInterval() {
+        if (mConnectionInterval > 0) {
+            return mConnectionInterval;
+        }
+        switch (mProfile.getConnectionPriority()) {
+            case BluetoothGatt.CONNECTION_PRIORITY_HIGH:
+                return 15.0;
+            case BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER:
+                return 125.0;
+            default:
+                return 50.0;
+        }
+    }
+
+    /**
+     * Estimates the payload throughput this link can carry.
+     *
+     * @param packetsPerEvent number of packets the controller transmits per connection event
+     * @return estimated capacity in Byte/s
+     */
+    public synchronized double getEstimatedCapacity(int packetsPerEvent) {
+        int packetPayload = Math.min(getMaxPayloadSize(), MAX_PACKET_PAYLOAD);
+        return (packetsPerEvent * packetPayload * 1000.0) / getConnectionInterval();
+    }
+
+    public synchronized long getNotificationCount() {
+        return mNotificationCount;
+    }
+
+    public synchronized long getNotificationBytes() {
+        return mNotificationBytes;
+    }
+
+    /**
+     * @return notifications per second, measured over the last complete window
+     */
+    public synchronized double getNotificationRate() {
+        return mNotificationRate;
+    }
+
+    /**
+     * @return notification payload throughput in Byte/s, measured over the last complete window
+     */
+    public synchronized double getNotificationThroughput() {
+        return mNotificationThroughput;
+    }
+
+    /**
+     * @return time the current connection was initiated ({@link SystemClock#elapsedRealtime()} in ms)
+     */
+    public synchronized long getConnectTime() {
+        return mConnectTime;
+    }
+
+    /**
+     * @return time from initiating the connection until the link setup (discovery and reading all
+     * characteristics) was finished (in ms), or -1 if the link setup is not finished yet
+     */
+    public synchronized long getSetupDuration() {
+        return mSetupDuration;
+    }
+
+    /**
+     * @return time from initiating the connection until streaming was started (in ms), or -1 if the
+     * sensor did not start streaming on this connection yet
+     */
+    public synchronized long getTimeToStreaming() {
+        return mTimeToStreaming;
+    }
+
+    /**
+     * @return true if static characteristic values were taken from the GATT cache instead of being read
+     */
+    public synchronized boolean isGattCacheHit() {
+        return mGattCacheHit;
+    }
+
+    /**
+     * @return number of characteristics read during the link setup
+     */
+    public synchronized int getNumSetupReads() {
+        return mNumSetupReads;
+    }
+
+    /**
+     * @return number of reads required for the link setup that were skipped, because the value was taken from
+     * the GATT cache. Values that are read lazily or in the background are not counted, the cache only saves
+     * their read when they are accessed later.
+     */
+    public synchronized int getNumCachedReads() {
+        return mNumCachedReads;
+    }
+
+    private static String phyToString(int phy) {
+        switch (phy) {
+            case BluetoothDevice.PHY_LE_2M:
+                return "2M";
+            case BluetoothDevice.PHY_LE_CODED:
+                return "Coded";
+            default:
+                return "1M";
+        }
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.getDefault(), "%s <profile: %s, mtu: %d, phy (tx/rx): %s/%s, interval: %.2f ms, setup: %d ms (%d reads, %d cached), to streaming: %d ms, notifications: %.1f/s, %.1f kB/s>",
+                getClass().getSimpleName(), mProfile, mMtu, phyToString(mTxPhy), phyToString(mRxPhy), getConnectionInterval(), mSetupDuration, mNumSetupReads, mNumCachedReads,
+                mTimeToStreaming, mNotificationRate, mNotificationThroughput / 1024.0);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib.sensors;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Policy for automatically reconnecting a {@link GenericBleSensor} after the connection was lost unexpectedly.
+ * <p>
+ * The delay before each attempt grows exponentially from the initial delay up to the maximum delay. Every delay
+ * is randomized by the jitter factor so that several sensors losing their connection at the same time (e.g.
+ * because the phone moved out of range) do not all reconnect at the same instant.
+ */
+public class BleReconnectPolicy {
+
+    /**
+     * Retry forever
+     */
+    public static final int UNLIMITED_ATTEMPTS = -1;
+
+    /**
+     * Default policy: 500 ms initial delay, doubled up to 30 s, ±25 % jitter, at most 10 attempts
+     */
+    public static final BleReconnectPolicy DEFAULT = new BleReconnectPolicy(500, 30000, 2.0, 0.25, 10);
+
+    private final long mInitialDelay;
+    private final long mMaxDelay;
+    private final double mMultiplier;
+    private final double mJitter;
+    private final int mMaxAttempts;
+
+
+    /**
+     * @param initialDelay delay before the first attempt (in ms)
+     * @param maxDelay     upper bound for the delay between two attempts (in ms)
+     * @param multiplier   factor the delay grows with after each failed attempt (>= 1)
+     * @param jitter       relative randomization of each delay (between 0 and 1)
+     * @param maxAttempts  maximum number of attempts before the connection is reported as lost,
+     *                     or {@link #UNLIMITED_ATTEMPTS}
+     */
+    public BleReconnectPolicy(long initialDelay, long maxDelay, double multiplier, double jitter, int maxAttempts) {
+        if (initialDelay < 0 || maxDelay < initialDelay || multiplier < 1.0 || jitter < 0.0 || jitter > 1.0) {
+            throw new IllegalArgumentException("Invalid reconnect policy parameters!");
+        }
+        mInitialDelay = initialDelay;
+        mMaxDelay = maxDelay;
+        mMultiplier = multiplier;
+        mJitter = jitter;
+        mMaxAttempts = maxAttempts;
+    }
+
+    public long getInitialDelay() {
+        return mInitialDelay;
+    }
+
+    public long getMaxDelay() {
+        return mMaxDelay;
+    }
+
+    public double getMultiplier() {
+        return mMultiplier;
+    }
+
+    public double getJitter() {
+        return mJitter;
+    }
+
+    public int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    /**
+     * @param attempt number of attempts already made
+     * @return true if another attempt is allowed
+     */
+    public boolean shouldRetry(int attempt) {
+        return mMaxAttempts == UNLIMITED_ATTEMPTS || attempt < mMaxAttempts;
+    }
+
+    /**
+     * Computes the randomized delay before the given attempt.
+     *
+     * @param attempt number of attempts already made
+     * @param random  source of the jitter
+     * @return delay in ms
+     */
+    public long getDelay(int attempt, Random random) {
+        double delay = mInitialDelay * Math.pow(mMultiplier, attempt);
+        delay = Math.min(delay, mMaxDelay);
+        if (mJitter > 0) {
+            delay *= 1.0 + mJitter * (2.0 * random.nextDouble() - 1.0);
+        }
+        return Math.max(0, Math.round(delay));
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.getDefault(), "%s <%d ms - %d ms, x%.1f, ±%.0f %%, %s attempts>", getClass().getSimpleName(),
+                mInitialDelay, mMaxDelay, mMultiplier, mJitter * 100, (mMaxAttempts == UNLIMITED_ATTEMPTS) ? "unlimited" : String.valueOf(mMaxAttempts));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib.sensors;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Notification sent by a {@link GenericBleSensor} after it was automatically reconnected (see
+ * {@link BleReconnectPolicy}). The data stream continues after the gap, i.e. processors receive no new
+ * connected/streaming events, but this notification instead.
+ * <p>
+ * If the sensor tracks sample counters, the counters after the gap continue the counters before the gap
+ * and {@link #getMissingSamples()} reports the number of samples lost during the gap.
+ */
+public class BleStreamGap {
+
+    /**
+     * Counter value if the sensor does not track sample counters
+     */
+    public static final long UNKNOWN_COUNTER = -1;
+
+    private final long mStartTime;
+    private long mEndTime;
+    private int mAttempts;
+    private final long mLastCounter;
+    private long mNextCounter = UNKNOWN_COUNTER;
+    private final boolean mWasStreaming;
+
+
+    BleStreamGap(long startTime, long lastCounter, boolean wasStreaming) {
+        mStartTime = startTime;
+        mLastCounter = lastCounter;
+        mWasStreaming = wasStreaming;
+    }
+
+    void onRestored(long endTime, int attempts) {
+        mEndTime = endTime;
+        mAttempts = attempts;
+    }
+
+    void setNextCounter(long nextCounter) {
+        mNextCounter = nextCounter;
+    }
+
+    /**
+     * @return time the connection was lost (system time in ms)
+     */
+    public long getStartTime() {
+        return mStartTime;
+    }
+
+    /**
+     * @return time the connection was restored (system time in ms)
+     */
+    public long getEndTime() {
+        return mEndTime;
+    }
+
+    /**
+     * @return duration of the gap (in ms)
+     */
+    public long getDuration() {
+        return mEndTime - mStartTime;
+    }
+
+    /**
+     * @return number of reconnect attempts until the connection was restored
+     */
+    public int getAttempts() {
+        return mAttempts;
+    }
+
+    /**
+     * @return true if the sensor was streaming when the connection was lost (streaming is restored automatically)
+     */
+    public boolean wasStreaming() {
+        return mWasStreaming;
+    }
+
+    /**
+     * @return counter of the last sample before the gap, or {@link #UNKNOWN_COUNTER}
+     */
+    public long getLastCounter() {
+        return mLastCounter;
+    }
+
+    /**
+     * @return counter of the first sample after the gap, or {@link #UNKNOWN_COUNTER}
+     */
+    public long getNextCounter() {
+        return mNextCounter;
+    }
+
+    /**
+     * @return number of samples missing in the stream, or {@link #UNKNOWN_COUNTER}
+     */
+    public long getMissingSamples() {
+        if (mLastCounter == UNKNOWN_COUNTER || mNextCounter == UNKNOWN_COUNTER) {
+            return UNKNOWN_COUNTER;
+        }
+        return Math.max(0, mNextCounter - mLastCounter - 1);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.getDefault(), "%s <%d ms, %d attempts, %d samples missing>", getClass().getSimpleName(),
+                getDuration(), mAttempts, getMissingSamples());
+    }
+}
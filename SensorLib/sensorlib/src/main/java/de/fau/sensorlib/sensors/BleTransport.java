@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib.sensors;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * GATT client connection used by {@link GenericBleSensor}. The methods mirror the subset of {@link BluetoothGatt}
+ * the sensors use, results are reported to the {@link BluetoothGattCallback} passed when opening the connection.
+ * Transports other than {@link AndroidBleTransport} may pass null as {@code gatt} argument to the callback.
+ */
+public interface BleTransport {
+
+    /**
+     * Opens transports to BLE devices.
+     */
+    interface Factory {
+        /**
+         * Opens a connection to the given device. The connection state is reported to the callback.
+         *
+         * @return the transport, or null if the device is not available
+         */
+        BleTransport connect(Context context, String deviceAddress, BluetoothGattCallback callback) throws Exception;
+    }
+
+    /**
+     * @return the name of the remote device
+     */
+    String getDeviceName();
+
+    /**
+     * Reconnects after the connection was disconnected.
+     */
+    boolean connect();
+
+    void disconnect();
+
+    /**
+     * Releases the transport, it must not be used afterwards.
+     */
+    void close();
+
+    boolean discoverServices();
+
+    List<BluetoothGattService> getServices();
+
+    BluetoothGattService getService(UUID uuid);
+
+    boolean readCharacteristic(BluetoothGattCharacteristic characteristic);
+
+    boolean writeCharacteristic(BluetoothGattCharacteristic characteristic);
+
+    boolean writeDescriptor(BluetoothGattDescriptor descriptor);
+
+    boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enable);
+
+    boolean requestMtu(int mtu);
+
+    boolean requestConnectionPriority(int connectionPriority);
+
+    void setPreferredPhy(int txPhy, int rxPhy, int phyOptions);
+}
@@ -0,0 +1,612 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib.sensors;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.UUID;
+
+import de.fau.sensorlib.BleGattAttributes;
+
+/**
+ * Schedules all GATT operations of one BLE connection.
+ * <p>
+ * Android only allows one outstanding GATT operation per connection, so operations are queued and executed
+ * one at a time. Operations are ordered by their {@link Priority} (and FIFO within the same priority), every
+ * operation has a timeout after which it is retried (or dropped once its retries are used up), so a lost
+ * callback can never stall the queue. Latency statistics are collected per {@link OperationType}.
+ * <p>
+ * GATT callbacks don't identify the request they belong to. If an attempt timed out and was retried, its
+ * callback may still arrive. The first callback completes the operation, callbacks of the other attempts are
+ * dropped instead of completing the next operation on the same attribute.
+ * The {@link OperationListener} is always called without holding the scheduler lock.
+ */
+public class GattOperationScheduler {
+
+    private static final String TAG = GattOperationScheduler.class.getSimpleName();
+
+    /**
+     * Default timeout of a single GATT operation (in ms)
+     */
+    public static final long DEFAULT_TIMEOUT = 2000;
+
+    /**
+     * Default number of retries after a timeout or a rejected operation
+     */
+    public static final int DEFAULT_MAX_RETRIES = 2;
+
+    /**
+     * Delay before retrying an operation that was rejected by the BLE stack (in ms)
+     */
+    private static final long RETRY_DELAY = 20;
+
+    public enum OperationType {
+        READ_CHARACTERISTIC,
+        WRITE_CHARACTERISTIC,
+        WRITE_DESCRIPTOR,
+        REQUEST_MTU
+    }
+
+    /**
+     * Priority classes of GATT operations. Operations with higher priority (lower ordinal) are always executed first.
+     */
+    public enum Priority {
+        /**
+         * Control writes, e.g. sensor commands (streaming critical)
+         */
+        CONTROL,
+        /**
+         * Notification setup (CCC descriptor writes)
+         */
+        NOTIFICATION_SETUP,
+        /**
+         * Metadata reads, e.g. device information
+         */
+        METADATA,
+        /**
+         * Deferred metadata reads, e.g. device information read while streaming
+         */
+        BACKGROUND,
+        /**
+         * Bulk data transfers, only executed when nothing else is pending
+         */
+        BULK
+    }
+
+    /**
+     * Listener notified whenever a GATT operation finished (successfully or not).
+     */
+    public interface OperationListener {
+        void onOperationFinished(GattOperation operation, boolean success);
+    }
+
+    /**
+     * One GATT operation.
+     */
+    public static class GattOperation {
+        private final OperationType mType;
+        private final Priority mPriority;
+        private final BluetoothGattCharacteristic mCharacteristic;
+        private final BluetoothGattDescriptor mDescriptor;
+        private final byte[] mValue;
+        private final int mWriteType;
+        private final int mMtu;
+        private long mTimeout = DEFAULT_TIMEOUT;
+        private int mMaxRetries = DEFAULT_MAX_RETRIES;
+        private Object mTag;
+
+        private long mSequence;
+        private int mAttempts;
+        private long mEnqueueTime;
+        private long mStartTime;
+        private int mOutstandingCallbacks;
+        private long mFinishTime;
+        private boolean mSuccess;
+
+        private GattOperation(OperationType type, Priority priority, BluetoothGattCharacteristic characteristic, BluetoothGattDescriptor descriptor, byte[] value, int writeType, int mtu) {
+            mType = type;
+            mPriority = priority;
+            mCharacteristic = characteristic;
+            mDescriptor = descriptor;
+            mValue = value;
+            mWriteType = writeType;
+            mMtu = mtu;
+        }
+
+        public static GattOperation read(BluetoothGattCharacteristic characteristic, Priority priority) {
+            return new GattOperation(OperationType.READ_CHARACTERISTIC, priority, characteristic, null, null, 0, 0);
+        }
+
+        public static GattOperation write(BluetoothGattCharacteristic characteristic, byte[] value, int writeType, Priority priority) {
+            return new GattOperation(OperationType.WRITE_CHARACTERISTIC, priority, characteristic, null, value, writeType, 0);
+        }
+
+        public static GattOperation writeDescriptor(BluetoothGattDescriptor descriptor, byte[] value, Priority priority) {
+            return new GattOperation(OperationType.WRITE_DESCRIPTOR, priority, descriptor.getCharacteristic(), descriptor, value, 0, 0);
+        }
+
+        public static GattOperation requestMtu(int mtu) {
+            return new GattOperation(OperationType.REQUEST_MTU, Priority.CONTROL, null, null, null, 0, mtu);
+        }
+
+        public GattOperation setTimeout(long timeout) {
+            mTimeout = timeout;
+            return this;
+        }
+
+        public GattOperation setMaxRetries(int maxRetries) {
+            mMaxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * Attaches an arbitrary object to this operation, e.g. the transfer it belongs to.
+         */
+        public GattOperation setTag(Object tag) {
+            mTag = tag;
+            return this;
+        }
+
+        public Object getTag() {
+            return mTag;
+        }
+
+        public OperationType getType() {
+            return mType;
+        }
+
+        public Priority getPriority() {
+            return mPriority;
+        }
+
+        public BluetoothGattCharacteristic getCharacteristic() {
+            return mCharacteristic;
+        }
+
+        public BluetoothGattDescriptor getDescriptor() {
+            return mDescriptor;
+        }
+
+        public byte[] getValue() {
+            return mValue;
+        }
+
+        public int getAttempts() {
+            return mAttempts;
+        }
+
+        private boolean matches(OperationType type, UUID characteristicUuid, UUID descriptorUuid) {
+            if (mType != type) {
+                return false;
+            }
+            switch (type) {
+                case READ_CHARACTERISTIC:
+                case WRITE_CHARACTERISTIC:
+                    return mCharacteristic.getUuid().equals(characteristicUuid);
+                case WRITE_DESCRIPTOR:
+                    return mCharacteristic.getUuid().equals(characteristicUuid) && mDescriptor.getUuid().equals(descriptorUuid);
+                default:
+                    return true;
+            }
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            String target = "";
+            if (mCharacteristic != null) {
+                target = " " + BleGattAttributes.lookupCharacteristic(mCharacteristic.getUuid());
+            } else if (mType == OperationType.REQUEST_MTU) {
+                target = " " + mMtu;
+            }
+            return mType + target + " [" + mPriority + "]";
+        }
+    }
+
+    /**
+     * Latency statistics of one operation type.
+     */
+    public static class OperationStats {
+        private long mCount;
+        private long mFailures;
+        private long mTimeouts;
+        private long mRetries;
+        private long mTotalLatency;
+        private long mMinLatency = Long.MAX_VALUE;
+        private long mMaxLatency;
+        private long mTotalQueueTime;
+
+        private void onFinished(GattOperation op, long now, boolean success) {
+            mCount++;
+            if (!success) {
+                mFailures++;
+                return;
+            }
+            long latency = now - op.mStartTime;
+            mTotalLatency += latency;
+            mMinLatency = Math.min(mMinLatency, latency);
+            mMaxLatency = Math.max(mMaxLatency, latency);
+            mTotalQueueTime += op.mStartTime - op.mEnqueueTime;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getFailures() {
+            return mFailures;
+        }
+
+        public long getTimeouts() {
+            return mTimeouts;
+        }
+
+        public long getRetries() {
+            return mRetries;
+        }
+
+        /**
+         * @return mean time between issuing the (last attempt of the) operation and its callback, in ms
+         */
+        public double getMeanLatency() {
+            long successful = mCount - mFailures;
+            return successful > 0 ? ((double) mTotalLatency) / successful : 0.0;
+        }
+
+        public long getMinLatency() {
+            return mCount > mFailures ? mMinLatency : 0;
+        }
+
+        public long getMaxLatency() {
+            return mMaxLatency;
+        }
+
+        /**
+         * @return mean time operations waited in the queue before being issued, in ms
+         */
+        public double getMeanQueueTime() {
+            long successful = mCount - mFailures;
+            return successful > 0 ? ((double) mTotalQueueTime) / successful : 0.0;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "n: " + mCount + ", failed: " + mFailures + ", timeouts: " + mTimeouts + ", retries: " + mRetries
+                    + ", latency (mean/min/max): " + String.format(Locale.US, "%.1f", getMeanLatency()) + "/" + getMinLatency() + "/" + getMaxLatency() + " ms"
+                    + ", queue time (mean): " + String.format(Locale.US, "%.1f", getMeanQueueTime()) + " ms";
+        }
+    }
+
+
+    private final String mName;
+
+    private final PriorityQueue<GattOperation> mQueue = new PriorityQueue<>(16, (o1, o2) -> {
+        int cmp = o1.mPriority.compareTo(o2.mPriority);
+        return (cmp != 0) ? cmp : Long.compare(o1.mSequence, o2.mSequence);
+    });
+
+    private GattOperation mCurrentOperation;
+
+    /**
+     * Finished operations with attempts that timed out, whose callbacks might still arrive
+     */
+    private final ArrayList<GattOperation> mLateCallbackOperations = new ArrayList<>();
+
+    /**
+     * Finished operations, the listener is notified after the scheduler lock was released
+     */
+    private final ArrayList<GattOperation> mFinishedOperations = new ArrayList<>();
+
+    private long mSequence;
+
+    private BleTransport mGatt;
+
+    private OperationListener mListener;
+
+    private final EnumMap<OperationType, OperationStats> mStats = new EnumMap<>(OperationType.class);
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final Runnable mTimeoutRunnable = this::onTimeout;
+
+    private final Runnable mRetryRunnable = this::retry;
+
+
+    /**
+     * @param name name of the connection (for logging)
+     */
+    public GattOperationScheduler(String name) {
+        mName = name;
+        for (OperationType type : OperationType.values()) {
+            mStats.put(type, new OperationStats());
+        }
+    }
+
+    public void setOperationListener(OperationListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Sets the GATT client used to execute operations. Setting the client to null (on disconnect) drops all
+     * queued operations.
+     */
+    public void setGatt(BleTransport gatt) {
+        synchronized (this) {
+            mGatt = gatt;
+            if (gatt == null) {
+                clear();
+            } else {
+                next();
+            }
+        }
+        dispatchFinished();
+    }
+
+    /**
+     * Queues an operation. Operations are only accepted while a GATT client is set.
+     *
+     * @return true if the operation was queued, false if there is no GATT client (i.e. the sensor is not connected)
+     */
+    public boolean enqueue(GattOperation operation) {
+        synchronized (this) {
+            if (mGatt == null) {
+                Log.w(TAG, "Dropping " + operation.mType + ", no GATT client.");
+                return false;
+            }
+            operation.mSequence = mSequence++;
+            operation.mEnqueueTime = SystemClock.elapsedRealtime();
+            mQueue.add(operation);
+            next();
+        }
+        dispatchFinished();
+        return true;
+    }
+
+    /**
+     * Drops all queued operations (the current operation is dropped as well).
+     */
+    public synchronized void clear() {
+        mHandler.removeCallbacks(mTimeoutRunnable);
+        mHandler.removeCallbacks(mRetryRunnable);
+        mQueue.clear();
+        mCurrentOperation = null;
+        mLateCallbackOperations.clear();
+    }
+
+    /**
+     * Drops all queued operations with the given tag. An operation already in flight is not affected.
+     *
+     * @return number of dropped operations
+     */
+    public synchronized int remove(Object tag) {
+        int numRemoved = 0;
+        Iterator<GattOperation> it = mQueue.iterator();
+        while (it.hasNext()) {
+            if (it.next().mTag == tag) {
+                it.remove();
+                numRemoved++;
+            }
+        }
+        return numRemoved;
+    }
+
+    /**
+     * Checks whether operations of the given type are still queued or in flight.
+     */
+    public synchronized boolean hasPending(OperationType type) {
+        if (mCurrentOperation != null && mCurrentOperation.mType == type) {
+            return true;
+        }
+        for (GattOperation op : mQueue) {
+            if (op.mType == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized boolean isIdle() {
+        return mCurrentOperation == null && mQueue.isEmpty();
+    }
+
+    public synchronized OperationStats getStats(OperationType type) {
+        return mStats.get(type);
+    }
+
+    private void next() {
+        if (mCurrentOperation != null || mGatt == null || mQueue.isEmpty()) {
+            return;
+        }
+        mCurrentOperation = mQueue.poll();
+        executeCurrent();
+    }
+
+    private synchronized void executeCurrent() {
+        GattOperation op = mCurrentOperation;
+        if (op == null || mGatt == null) {
+            return;
+        }
+
+        op.mAttempts++;
+        op.mStartTime = SystemClock.elapsedRealtime();
+
+        boolean started;
+        switch (op.mType) {
+            case READ_CHARACTERISTIC:
+                started = mGatt.readCharacteristic(op.mCharacteristic);
+                break;
+            case WRITE_CHARACTERISTIC:
+                op.mCharacteristic.setValue(op.mValue);
+                op.mCharacteristic.setWriteType(op.mWriteType);
+                started = mGatt.writeCharacteristic(op.mCharacteristic);
+                break;
+            case WRITE_DESCRIPTOR:
+                op.mDescriptor.setValue(op.mValue);
+                started = mGatt.writeDescriptor(op.mDescriptor);
+                break;
+            case REQUEST_MTU:
+                started = mGatt.requestMtu(op.mMtu);
+                break;
+            default:
+                started = false;
+        }
+
+        if (started) {
+            op.mOutstandingCallbacks++;
+            mHandler.postDelayed(mTimeoutRunnable, op.mTimeout);
+        } else {
+            retryOrDrop(op, "rejected");
+        }
+    }
+
+    private void retry() {
+        executeCurrent();
+        dispatchFinished();
+    }
+
+    private void retryOrDrop(GattOperation op, String reason) {
+        if (op.mAttempts <= op.mMaxRetries) {
+            mStats.get(op.mType).mRetries++;
+            Log.w(TAG, "<" + mName + "> " + op + " " + reason + ", retrying (" + op.mAttempts + "/" + op.mMaxRetries + ")...");
+            mHandler.postDelayed(mRetryRunnable, RETRY_DELAY);
+        } else {
+            Log.e(TAG, "<" + mName + "> " + op + " " + reason + ", dropped after " + op.mAttempts + " attempts!");
+            finish(false);
+        }
+    }
+
+    private void onTimeout() {
+        synchronized (this) {
+            GattOperation op = mCurrentOperation;
+            if (op != null) {
+                mStats.get(op.mType).mTimeouts++;
+                retryOrDrop(op, "timed out");
+            }
+        }
+        dispatchFinished();
+    }
+
+    private void finish(boolean success) {
+        mHandler.removeCallbacks(mTimeoutRunnable);
+        mHandler.removeCallbacks(mRetryRunnable);
+        GattOperation op = mCurrentOperation;
+        mCurrentOperation = null;
+        long now = SystemClock.elapsedRealtime();
+        mStats.get(op.mType).onFinished(op, now, success);
+        if (op.mOutstandingCallbacks > 0) {
+            op.mFinishTime = now;
+            mLateCallbackOperations.add(op);
+        }
+        op.mSuccess = success;
+        mFinishedOperations.add(op);
+        next();
+    }
+
+    /**
+     * Notifies the listener about finished operations. Must not be called while holding the scheduler lock.
+     */
+    private void dispatchFinished() {
+        ArrayList<GattOperation> finished;
+        synchronized (this) {
+            if (mFinishedOperations.isEmpty()) {
+                return;
+            }
+            finished = new ArrayList<>(mFinishedOperations);
+            mFinishedOperations.clear();
+        }
+        OperationListener listener = mListener;
+        if (listener != null) {
+            for (GattOperation op : finished) {
+                listener.onOperationFinished(op, op.mSuccess);
+            }
+        }
+    }
+
+    /**
+     * Checks whether the callback belongs to another attempt of an operation that is already finished. Such
+     * callbacks are expected for at most one timeout period after the operation finished, afterwards they are
+     * considered lost.
+     */
+    private boolean isLateCallback(OperationType type, UUID characteristicUuid, UUID descriptorUuid) {
+        long now = SystemClock.elapsedRealtime();
+        Iterator<GattOperation> it = mLateCallbackOperations.iterator();
+        while (it.hasNext()) {
+            GattOperation op = it.next();
+            if (now - op.mFinishTime > op.mTimeout) {
+                it.remove();
+            } else if (op.matches(type, characteristicUuid, descriptorUuid)) {
+                if (--op.mOutstandingCallbacks == 0) {
+                    it.remove();
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called from the GATT callback when an operation completed.
+     *
+     * @return true if the callback belonged to the current operation
+     */
+    private boolean onCompleted(OperationType type, UUID characteristicUuid, UUID descriptorUuid, int status) {
+        synchronized (this) {
+            if (isLateCallback(type, characteristicUuid, descriptorUuid)) {
+                Log.w(TAG, "<" + mName + "> Ignoring late callback of timed out " + type);
+                return false;
+            }
+            if (mCurrentOperation == null || !mCurrentOperation.matches(type, characteristicUuid, descriptorUuid)) {
+                return false;
+            }
+            mCurrentOperation.mOutstandingCallbacks--;
+            finish(status == BluetoothGatt.GATT_SUCCESS);
+        }
+        dispatchFinished();
+        return true;
+    }
+
+    public boolean onCharacteristicRead(BluetoothGattCharacteristic characteristic, int status) {
+        return onCompleted(OperationType.READ_CHARACTERISTIC, characteristic.getUuid(), null, status);
+    }
+
+    public boolean onCharacteristicWrite(BluetoothGattCharacteristic characteristic, int status) {
+        return onCompleted(OperationType.WRITE_CHARACTERISTIC, characteristic.getUuid(), null, status);
+    }
+
+    public boolean onDescriptorWrite(BluetoothGattDescriptor descriptor, int status) {
+        return onCompleted(OperationType.WRITE_DESCRIPTOR, descriptor.getCharacteristic().getUuid(), descriptor.getUuid(), status);
+    }
+
+    public boolean onMtuChanged(int status) {
+        return onCompleted(OperationType.REQUEST_MTU, null, null, status);
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder(TAG + " <" + mName + ">: " + mQueue.size() + " queued, current: " + mCurrentOperation);
+        for (OperationType type : OperationType.values()) {
+            sb.append("\n\t").append(type).append(": ").append(mStats.get(type));
+        }
+        return sb.toString();
+    }
+}
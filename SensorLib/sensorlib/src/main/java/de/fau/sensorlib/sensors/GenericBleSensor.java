@@ -7,6 +7,7 @@
  */
 package de.fau.sensorlib.sensors;
 
+import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCallback;
@@ -14,18 +15,30 @@ import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import de.fau.sensorlib.BleConnectionManager;
 import de.fau.sensorlib.BleGattAttributes;
-import de.fau.sensorlib.BleSensorManager;
+import de.fau.sensorlib.KnownDeviceRegistry;
 import de.fau.sensorlib.SensorDataProcessor;
+import de.fau.sensorlib.SensorException;
 import de.fau.sensorlib.SensorInfo;
+import de.fau.sensorlib.enums.BleThroughputProfile;
+import de.fau.sensorlib.enums.CharacteristicReadPolicy;
 import de.fau.sensorlib.enums.HardwareSensor;
 import de.fau.sensorlib.enums.SensorMessage;
 import de.fau.sensorlib.enums.SensorState;
@@ -45,9 +58,9 @@ public class GenericBleSensor extends AbstractSensor {
     protected EnumSet<HardwareSensor> mAvailableSensors = mDeviceClass.getAvailableSensors();
 
     /**
-     * Bluetooth device.
+     * Opens the GATT connection to the device
      */
-    private BluetoothDevice mBtDevice;
+    private BleTransport.Factory mTransportFactory = AndroidBleTransport.FACTORY;
 
     private enum BluetoothProfileState {
         STATE_DISCONNECTED,
@@ -93,13 +106,21 @@ public class GenericBleSensor extends AbstractSensor {
         MODE_NILSPOD
     }
 
-    private static final int MAX_MTU_SIZE = 247;
+    /**
+     * Throughput profile used for new connections
+     */
+    private BleThroughputProfile mThroughputProfile = BleThroughputProfile.BALANCED;
+
+    /**
+     * Link parameters granted for the current connection
+     */
+    private BleLinkInfo mLinkInfo = new BleLinkInfo(mThroughputProfile);
 
 
     /**
      * GATT client instance for the BLE connection.
      */
-    protected BluetoothGatt mGatt;
+    protected BleTransport mGatt;
 
     private BleGattAttributes.BodySenorLocation mBodyLocation;
 
@@ -125,22 +146,50 @@ public class GenericBleSensor extends AbstractSensor {
     }
 
     /**
-     * Since BLE characteristics should be read sequentially, this thread-safe queue stores all the characteristic-read-requests.
+     * Since GATT operations have to be executed sequentially, all reads and writes are issued by this scheduler.
      */
-    protected ConcurrentLinkedQueue<BluetoothGattCharacteristic> mCharacteristicsReadRequests;
+    protected GattOperationScheduler mGattScheduler;
+
+    private ConcurrentLinkedQueue<BluetoothGattCharacteristic> mNotificationsList;
 
     /**
-     * Since BLE descriptors should be written sequentially, this thread-safe queue stores all the descriptor-write-requests.
+     * Entry of this sensor in the known device registry (null if the sensor was never connected before)
      */
-    private ConcurrentLinkedQueue<BluetoothGattDescriptor> mDescriptorWriteRequests;
+    private KnownDeviceRegistry.Entry mKnownDevice;
+
+    private boolean mGattCacheEnabled = true;
 
     /**
-     * Since BLE characteristics should be written sequentially, this thread-safe queue stores all the characteristic-write-requests.
+     * True if the GATT layout of the current connection matches the cached layout, i.e. cached static values are used
      */
-    private ConcurrentLinkedQueue<BluetoothGattCharacteristic> mCharacteristicsWriteRequests;
+    private boolean mGattCacheValid = false;
 
+    /**
+     * GATT layout of the current connection ("service/characteristic" keys)
+     */
+    private List<String> mGattLayout = new ArrayList<>();
 
-    private ConcurrentLinkedQueue<BluetoothGattCharacteristic> mNotificationsList;
+    /**
+     * Static characteristics of the current connection, and the ones whose value was taken from the GATT cache
+     */
+    private List<BluetoothGattCharacteristic> mStaticCharacteristics = new ArrayList<>();
+    private List<BluetoothGattCharacteristic> mCachedCharacteristics = new ArrayList<>();
+
+    /**
+     * Characteristics whose value was not read yet, because they are read lazily or in the background
+     */
+    private final ConcurrentHashMap<UUID, BluetoothGattCharacteristic> mLazyReads = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<UUID, BluetoothGattCharacteristic> mBackgroundReads = new ConcurrentHashMap<>();
+
+    /**
+     * True while the getters must not trigger on-demand reads (e.g. while storing the sensor in the registry)
+     */
+    private boolean mSuppressOnDemandReads = false;
+
+    /**
+     * Bulk transfers that are currently running
+     */
+    private final List<BleBulkTransfer> mBulkTransfers = new CopyOnWriteArrayList<>();
 
     /**
      * Store references to the sensor's services
@@ -149,9 +198,51 @@ public class GenericBleSensor extends AbstractSensor {
 
     private boolean mWasDiscovered = false;
 
+    private boolean mLinkSetupFinished = false;
+
     private int mReconnectAttempts = 0;
     private static final int MAX_RECONNECT_ATTEMPTS = 2;
 
+    /**
+     * Policy for reconnecting after the connection was lost unexpectedly (null if auto-reconnect is disabled)
+     */
+    private BleReconnectPolicy mReconnectPolicy;
+
+    /**
+     * True while the sensor is automatically reconnecting
+     */
+    private boolean mAutoReconnecting = false;
+
+    /**
+     * True while streaming is restored after an automatic reconnect
+     */
+    private boolean mRestoringStreaming = false;
+
+    private boolean mDisconnectRequested = false;
+
+    private int mAutoReconnectAttempts = 0;
+
+    /**
+     * Gap in the data stream caused by the current (or last) automatic reconnect
+     */
+    private BleStreamGap mStreamGap;
+
+    /**
+     * Last logical sample counter of the stream and offset applied to the sensor's counters after a reconnect
+     */
+    private long mLastStreamCounter = BleStreamGap.UNKNOWN_COUNTER;
+    private long mStreamCounterOffset = 0;
+
+    private final Handler mReconnectHandler = new Handler(Looper.getMainLooper());
+    private final Random mRandom = new Random();
+
+    private final Runnable mReconnectRunnable = new Runnable() {
+        @Override
+        public void run() {
+            reconnect();
+        }
+    };
+
     /**
      * GATT callback instance.
      */
@@ -166,11 +257,20 @@ public class GenericBleSensor extends AbstractSensor {
             if (status == BluetoothGatt.GATT_SUCCESS) {
                 if (newState == BluetoothGatt.STATE_CONNECTED) {
                     // assign the custom name from the device
-                    mDeviceName = gatt.getDevice().getName();
+                    mDeviceName = mGatt.getDeviceName();
                     // discover provided services/sensors for this BLE device
                     mGatt.discoverServices();
                 } else if (newState == BluetoothGatt.STATE_DISCONNECTED) {
+                    if (shouldAutoReconnect()) {
+                        onUnexpectedConnectionLoss();
+                        return;
+                    }
+                    clearAutoReconnectState();
+                    updateKnownDevice();
+                    BleConnectionManager.getInstance().unregister(GenericBleSensor.this);
                     sendDisconnected();
+                    mGattScheduler.setGatt(null);
+                    failBulkTransfers("Sensor disconnected");
                     mGatt.close();
                     mGatt = null;
                 }
@@ -179,7 +279,14 @@ public class GenericBleSensor extends AbstractSensor {
                     mReconnectAttempts++;
                     Log.e(TAG, BluetoothGattStatus.lookup(status) + ", attempting to reconnect (" + mReconnectAttempts + "/" + MAX_RECONNECT_ATTEMPTS + ")...");
                     mGatt.connect();
+                } else if (shouldAutoReconnect()) {
+                    onUnexpectedConnectionLoss();
                 } else {
+                    clearAutoReconnectState();
+                    updateKnownDevice();
+                    BleConnectionManager.getInstance().unregister(GenericBleSensor.this);
+                    mGattScheduler.setGatt(null);
+                    failBulkTransfers("Connection lost");
                     mGatt.close();
                     mGatt = null;
                     if (getState() != SensorState.UPGRADING_FIRMWARE) {
@@ -194,7 +301,10 @@ public class GenericBleSensor extends AbstractSensor {
         public void onServicesDiscovered(BluetoothGatt gatt, int status) {
             super.onServicesDiscovered(gatt, status);
             if (status == BluetoothGatt.GATT_SUCCESS) {
-                Log.d(TAG, "<" + getDeviceName() + "> Gatt: " + gatt + "; " + mGatt);
+                Log.d(TAG, "<" + getDeviceName() + "> Gatt: " + mGatt);
+                // negotiate MTU first so that all following operations already benefit from it
+                mLinkSetupFinished = false;
+                mGattScheduler.enqueue(GattOperationScheduler.GattOperation.requestMtu(mThroughputProfile.getMtu()));
                 // find out what sensor flags can be set based on the provided services
                 discoverSensor();
             } else {
@@ -206,87 +316,31 @@ public class GenericBleSensor extends AbstractSensor {
         public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
             super.onCharacteristicRead(gatt, characteristic, status);
 
-            // Peek at the request queue and check if this was our request (which it always should be), then remove it from the queue.
-            BluetoothGattCharacteristic qc = mCharacteristicsReadRequests.peek();
-            if (qc != null && qc.equals(characteristic)) {
-                mCharacteristicsReadRequests.poll();
+            if (BleGattAttributes.FIRMWARE_REVISION_STRING.equals(characteristic.getUuid())) {
+                // must happen before the scheduler finishes the read, so link setup waits for the re-reads
+                validateGattCache(characteristic.getStringValue(0));
             }
-
             onNewCharacteristicValue(characteristic, false);
-
-            // request MTU update as soon as all read requests have been completed (sensor is considered 'connected' when receiving MTU callback)
-            if (!isConnected() && mCharacteristicsReadRequests.isEmpty()) {
-                mGatt.requestMtu(MAX_MTU_SIZE);
-                return;
-            }
-
-
-            // Poll the request queue until it is empty or we find the next readable characteristic. Unreadable characteristics are removed and ignored.
-            boolean ret = false;
-            while (!ret) {
-                boolean read = false;
-                qc = mCharacteristicsReadRequests.poll();
-
-                if (qc != null) {
-                    read = mGatt.readCharacteristic(qc);
-
-                }
-                // request MTU update if queue is empty and there is no more characteristic to be read
-                // otherwise request MTU update when last characteristic has been read (sensor is considered 'connected' when receiving MTU callback)
-                if (!isConnected() && mCharacteristicsReadRequests.isEmpty() && !read) {
-                    mGatt.requestMtu(MAX_MTU_SIZE);
-                    break;
-                }
-
-                ret = (qc == null) || read;
+            if (mLinkSetupFinished && status == BluetoothGatt.GATT_SUCCESS && isStaticCharacteristic(characteristic)) {
+                // value read on demand or in the background
+                KnownDeviceRegistry.getInstance(mContext).updateStaticValue(mDeviceAddress, mFirmwareRevisionString,
+                        KnownDeviceRegistry.gattKey(characteristic.getService().getUuid(), characteristic.getUuid()), characteristic.getValue());
             }
+            mGattScheduler.onCharacteristicRead(characteristic, status);
         }
 
         @Override
         public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
             super.onCharacteristicWrite(gatt, characteristic, status);
-
-            // Peek at the request queue and check if this was our request (which it always should be), then remove it from the queue.
-            BluetoothGattCharacteristic qc = mCharacteristicsWriteRequests.peek();
-            if (qc != null && qc.equals(characteristic)) {
-                mCharacteristicsWriteRequests.poll();
-            }
-
+            mGattScheduler.onCharacteristicWrite(characteristic, status);
             onNewCharacteristicWrite(characteristic, status);
-
-            if (mCharacteristicsWriteRequests.isEmpty()) {
-                return;
-            }
-
-            // Poll the request queue until it is empty or we find the next writable characteristic. Unwriteable characteristics are removed and ignored.
-            /*boolean ret = false;
-            while (!ret) {
-                boolean write = false;
-                qc = mCharacteristicsWriteRequests.poll();
-
-                if (qc != null) {
-                    write = mGatt.writeCharacteristic(qc);
-                }
-
-                ret = (qc == null) || write;
-            }*/
-
-            boolean ret = false;
-            while (!ret) {
-                qc = mCharacteristicsWriteRequests.peek();
-
-                if (qc == null) {
-                    mCharacteristicsWriteRequests.poll();
-                    ret = false;
-                } else {
-                    ret = mGatt.writeCharacteristic(qc);
-                }
-            }
         }
 
         @Override
         public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
             super.onCharacteristicChanged(gatt, characteristic);
+            byte[] value = characteristic.getValue();
+            mLinkInfo.onNotification(value != null ? value.length : 0);
             onNewCharacteristicValue(characteristic, true);
         }
 
@@ -299,42 +353,8 @@ public class GenericBleSensor extends AbstractSensor {
         @Override
         public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
             super.onDescriptorWrite(gatt, descriptor, status);
-
-            // Peek at the request queue and check if this was our request (which it always should be), then remove it from the queue.
-            BluetoothGattDescriptor qd = mDescriptorWriteRequests.peek();
-            if (qd != null && qd.equals(descriptor)) {
-                mDescriptorWriteRequests.poll();
-            }
-
             Log.d(TAG, "<" + getDeviceName() + "> onDescriptorWrite: " + BleGattAttributes.lookupCharacteristic(descriptor.getCharacteristic().getUuid()) + " -> " + BleGattAttributes.lookupDescriptor(descriptor.getUuid()) + " :: " + Arrays.toString(descriptor.getValue()));
-
-            // All descriptors were written and removed from the queue
-            if (mDescriptorWriteRequests.isEmpty() && descriptor.getValue().length > 0) {
-                if (Arrays.equals(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE, descriptor.getValue())) {
-                    onAllGattNotificationsEnabled();
-                } else if (Arrays.equals(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE, descriptor.getValue())) {
-                    onAllGattNotificationsDisabled();
-                }
-                return;
-            }
-
-            /*boolean ret = false;
-            while (!ret) {
-                qd = mDescriptorWriteRequests.peek();
-                ret = qd == null || mGatt.writeDescriptor(qd);
-            }*/
-
-            // Peek at the request queue until it is empty or we find the next writable descriptor. Unwritable descriptors are removed and ignored.
-            boolean ret = false;
-            while (!ret) {
-                qd = mDescriptorWriteRequests.peek();
-                if (qd == null) {
-                    mDescriptorWriteRequests.poll();
-                    ret = false;
-                } else {
-                    ret = mGatt.writeDescriptor(qd);
-                }
-            }
+            mGattScheduler.onDescriptorWrite(descriptor, status);
         }
 
         @Override
@@ -350,15 +370,77 @@ public class GenericBleSensor extends AbstractSensor {
         @Override
         public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
             super.onMtuChanged(gatt, mtu, status);
-            // request higher connection priority
-            // TODO commented out for testing purposes
-            //mGatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_HIGH);
-            if (mStateMachineMode == BleConnectionMode.MODE_DEFAULT) {
-                // Sensor is now connected
-                sendConnected();
-            } else {
-                // enable Gatt notifications
-                enableGattNotifications();
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                mLinkInfo.setMtu(mtu);
+            }
+            Log.d(TAG, "<" + getDeviceName() + "> onMtuChanged: " + mtu + " - success: " + (status == BluetoothGatt.GATT_SUCCESS));
+            mGattScheduler.onMtuChanged(status);
+            applyConnectionParameters();
+        }
+
+        @Override
+        public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+            super.onPhyUpdate(gatt, txPhy, rxPhy, status);
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                mLinkInfo.setPhy(txPhy, rxPhy);
+            }
+            Log.d(TAG, "<" + getDeviceName() + "> onPhyUpdate: " + mLinkInfo);
+        }
+
+        @Override
+        public void onPhyRead(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+            super.onPhyRead(gatt, txPhy, rxPhy, status);
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                mLinkInfo.setPhy(txPhy, rxPhy);
+            }
+        }
+
+        // hidden callback (Android 8+), called when the connection parameters were updated
+        public void onConnectionUpdated(BluetoothGatt gatt, int interval, int latency, int timeout, int status) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                mLinkInfo.setConnectionInterval(interval);
+            }
+            Log.d(TAG, "<" + getDeviceName() + "> onConnectionUpdated: interval " + (interval * 1.25) + " ms, latency " + latency + ", timeout " + (timeout * 10) + " ms");
+        }
+    };
+
+
+    /**
+     * Called by the GATT scheduler whenever an operation finished (successfully or not).
+     */
+    private GattOperationScheduler.OperationListener mOperationListener = new GattOperationScheduler.OperationListener() {
+        @Override
+        public void onOperationFinished(GattOperationScheduler.GattOperation operation, boolean success) {
+            switch (operation.getType()) {
+                case REQUEST_MTU:
+                case READ_CHARACTERISTIC:
+                    // link setup is finished as soon as the MTU was negotiated and all characteristics have been read
+                    if ((!isConnected() || mAutoReconnecting) && !mLinkSetupFinished
+                            && !mGattScheduler.hasPending(GattOperationScheduler.OperationType.REQUEST_MTU)
+                            && !mGattScheduler.hasPending(GattOperationScheduler.OperationType.READ_CHARACTERISTIC)) {
+                        mLinkSetupFinished = true;
+                        onLinkSetupFinished();
+                    }
+                    break;
+                case WRITE_DESCRIPTOR:
+                    // All descriptors were written
+                    if (!mGattScheduler.hasPending(GattOperationScheduler.OperationType.WRITE_DESCRIPTOR) && operation.getValue().length > 0) {
+                        if (Arrays.equals(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE, operation.getValue())) {
+                            onAllGattNotificationsEnabled();
+                        } else if (Arrays.equals(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE, operation.getValue())) {
+                            onAllGattNotificationsDisabled();
+                        }
+                    }
+                    break;
+                case WRITE_CHARACTERISTIC:
+                    if (operation.getTag() instanceof BleBulkTransfer) {
+                        BleBulkTransfer transfer = (BleBulkTransfer) operation.getTag();
+                        transfer.onChunkWritten(operation, success);
+                        if (!transfer.isRunning()) {
+                            mBulkTransfers.remove(transfer);
+                        }
+                    }
+                    break;
             }
         }
     };
@@ -375,6 +457,8 @@ public class GenericBleSensor extends AbstractSensor {
     public GenericBleSensor(Context context, String deviceName, String deviceAddress, SensorDataProcessor dataHandler, double desiredSamplingRate) {
         super(context, deviceName, deviceAddress, dataHandler, desiredSamplingRate);
         mNotificationsList = new ConcurrentLinkedQueue<>();
+        mGattScheduler = new GattOperationScheduler(deviceName);
+        mGattScheduler.setOperationListener(mOperationListener);
     }
 
     public GenericBleSensor(Context context, String deviceName, String deviceAddress, SensorDataProcessor dataHandler, double desiredSamplingRate, BleConnectionMode stateMachineMode) {
@@ -388,6 +472,10 @@ public class GenericBleSensor extends AbstractSensor {
 
     @Override
     public boolean connect() throws Exception {
+        mDisconnectRequested = false;
+        // a manual connect ends any (exhausted) automatic reconnect
+        mReconnectHandler.removeCallbacks(mReconnectRunnable);
+        clearAutoReconnectState();
         if (!super.connect()) {
             Log.e(TAG, "<" + getDeviceName() + "> BleSensor connect failed.");
             return false;
@@ -402,20 +490,37 @@ public class GenericBleSensor extends AbstractSensor {
             }
         }
 
-        mBtDevice = BleSensorManager.findBtDevice(mDeviceAddress);
-        if (mBtDevice == null) {
+        mKnownDevice = KnownDeviceRegistry.getInstance(mContext).getEntry(mDeviceAddress);
+
+        // connect GATT
+        mLinkInfo.reset();
+        mGatt = mTransportFactory.connect(mContext, mDeviceAddress, mGattCallback);
+        if (mGatt == null) {
             setState(SensorState.INITIALIZED);
             return false;
         }
-
-        // connect GATT
-        mGatt = mBtDevice.connectGatt(mContext, false, mGattCallback);
+        mGattScheduler.setGatt(mGatt);
 
         return true;
     }
 
     @Override
     public void disconnect() {
+        mDisconnectRequested = true;
+        if (mAutoReconnecting) {
+            // connection is already gone, abort reconnecting
+            mReconnectHandler.removeCallbacks(mReconnectRunnable);
+            mAutoReconnecting = false;
+            mRestoringStreaming = false;
+            BleConnectionManager.getInstance().unregister(this);
+            if (mGatt != null) {
+                mGattScheduler.setGatt(null);
+                mGatt.close();
+                mGatt = null;
+            }
+            sendDisconnected();
+            return;
+        }
         super.disconnect();
         mServiceList.clear();
 
@@ -431,6 +536,9 @@ public class GenericBleSensor extends AbstractSensor {
         }
 
         if (mStateMachineMode == BleConnectionMode.MODE_DEFAULT) {
+            if (!checkLinkBudget()) {
+                return;
+            }
             enableGattNotifications();
         }
     }
@@ -465,11 +573,11 @@ public class GenericBleSensor extends AbstractSensor {
         }
 
         mWasDiscovered = true;
-        mCharacteristicsReadRequests = new ConcurrentLinkedQueue<>();
-        mCharacteristicsWriteRequests = new ConcurrentLinkedQueue<>();
-        mDescriptorWriteRequests = new ConcurrentLinkedQueue<>();
         mNotificationsList = new ConcurrentLinkedQueue<>();
         mServiceList = new ArrayList<>();
+        mLazyReads.clear();
+        mBackgroundReads.clear();
+        loadGattCache();
 
         // manually discover Device Information Service first
         if (mGatt.getService(BleGattAttributes.DEVICE_INFORMATION_SERVICE) != null) {
@@ -522,12 +630,8 @@ public class GenericBleSensor extends AbstractSensor {
         BluetoothGattDescriptor desc = characteristic.getDescriptor(BleGattAttributes.CLIENT_CHARACTERISTIC_CONFIGURATION);
 
         if (mGatt != null && desc != null) {
-            desc.setValue(ENABLE_NOTIFICATION_VALUE);
-            mDescriptorWriteRequests.add(desc);
-            return mGatt.writeDescriptor(mDescriptorWriteRequests.peek());
-            /*if (mDescriptorWriteRequests.size() == 1) {
-                return mGatt.writeDescriptor(desc);
-            }*/
+            mGattScheduler.enqueue(GattOperationScheduler.GattOperation.writeDescriptor(desc, ENABLE_NOTIFICATION_VALUE, GattOperationScheduler.Priority.NOTIFICATION_SETUP));
+            return true;
         }
         return false;
     }
@@ -542,13 +646,9 @@ public class GenericBleSensor extends AbstractSensor {
             mGatt.setCharacteristicNotification(characteristic, false);
             BluetoothGattDescriptor desc = characteristic.getDescriptor(BleGattAttributes.CLIENT_CHARACTERISTIC_CONFIGURATION);
 
-            if (mGatt != null && desc != null) {
-                desc.setValue(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
-                mDescriptorWriteRequests.add(desc);
-                return mGatt.writeDescriptor(mDescriptorWriteRequests.peek());
-                /*if (mDescriptorWriteRequests.size() == 1) {
-                    return mGatt.writeDescriptor(desc);
-                }*/
+            if (desc != null) {
+                mGattScheduler.enqueue(GattOperationScheduler.GattOperation.writeDescriptor(desc, BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE, GattOperationScheduler.Priority.NOTIFICATION_SETUP));
+                return true;
             }
         }
         return false;
@@ -582,8 +682,24 @@ public class GenericBleSensor extends AbstractSensor {
     private void onDiscoveredCharacteristic(BluetoothGattService service, BluetoothGattCharacteristic characteristic) {
         String name = BleGattAttributes.lookupCharacteristic(characteristic.getUuid());
 
-        // add characteristic to read-requests
-        readCharacteristic(characteristic);
+        boolean isStatic = isStaticCharacteristic(characteristic);
+        byte[] cachedValue = null;
+        if (isStatic) {
+            mStaticCharacteristics.add(characteristic);
+            // the firmware revision is always read, it validates the cache
+            if (mGattCacheValid && !BleGattAttributes.FIRMWARE_REVISION_STRING.equals(characteristic.getUuid())) {
+                cachedValue = mKnownDevice.getStaticValue(KnownDeviceRegistry.gattKey(service.getUuid(), characteristic.getUuid()));
+            }
+        }
+
+        if (cachedValue != null) {
+            // value is already known from a previous connection, no need to read it again
+            characteristic.setValue(cachedValue);
+            mCachedCharacteristics.add(characteristic);
+            onNewCharacteristicValue(characteristic, false);
+        } else {
+            scheduleRead(characteristic);
+        }
 
         if (shouldEnableNotification(characteristic)) {
             mNotificationsList.add(characteristic);
@@ -593,31 +709,598 @@ public class GenericBleSensor extends AbstractSensor {
     }
 
 
+    /**
+     * Returns when the value of the given characteristic should be read. By default, firmware and hardware
+     * revision (needed to interpret sensor data) and all characteristics that are not part of the Device
+     * Information Service are read during link setup, the battery level is read in the background once
+     * streaming was started and all other device information is read on first access. Can be overriden by
+     * extended classes.
+     *
+     * @param c the characteristic which should be checked.
+     * @return the read policy for this characteristic.
+     */
+    protected CharacteristicReadPolicy getReadPolicy(BluetoothGattCharacteristic c) {
+        if ((c.getProperties() & BluetoothGattCharacteristic.PROPERTY_READ) == 0) {
+            return CharacteristicReadPolicy.NEVER;
+        }
+        UUID uuid = c.getUuid();
+        if (BleGattAttributes.FIRMWARE_REVISION_STRING.equals(uuid) || BleGattAttributes.HARDWARE_REVISION_STRING.equals(uuid)) {
+            return CharacteristicReadPolicy.REQUIRED;
+        } else if (BleGattAttributes.BATTERY_LEVEL.equals(uuid)) {
+            return CharacteristicReadPolicy.BACKGROUND;
+        } else if (c.getService() != null && BleGattAttributes.DEVICE_INFORMATION_SERVICE.equals(c.getService().getUuid())) {
+            return CharacteristicReadPolicy.LAZY;
+        }
+        return CharacteristicReadPolicy.REQUIRED;
+    }
+
+    private void scheduleRead(BluetoothGattCharacteristic characteristic) {
+        switch (getReadPolicy(characteristic)) {
+            case REQUIRED:
+                readCharacteristic(characteristic);
+                break;
+            case BACKGROUND:
+                mBackgroundReads.put(characteristic.getUuid(), characteristic);
+                break;
+            case LAZY:
+                mLazyReads.put(characteristic.getUuid(), characteristic);
+                break;
+            case NEVER:
+                break;
+        }
+    }
+
+    /**
+     * Reads the given characteristic if its value was deferred (see {@link #getReadPolicy(BluetoothGattCharacteristic)})
+     * and was not read yet. The new value is reported via {@link #onNewCharacteristicValue(BluetoothGattCharacteristic, boolean)}.
+     *
+     * @param uuid the characteristic to read.
+     */
+    protected void readOnDemand(UUID uuid) {
+        if (mSuppressOnDemandReads || mGatt == null || (mLazyReads.isEmpty() && mBackgroundReads.isEmpty())) {
+            return;
+        }
+        BluetoothGattCharacteristic c = mLazyReads.remove(uuid);
+        if (c == null) {
+            c = mBackgroundReads.remove(uuid);
+        }
+        if (c != null) {
+            Log.d(TAG, "<" + getDeviceName() + "> Reading " + BleGattAttributes.lookupCharacteristic(uuid) + " on demand");
+            readCharacteristic(c);
+        }
+    }
+
+    /**
+     * Reads all characteristics with {@link CharacteristicReadPolicy#BACKGROUND}, after streaming was started.
+     */
+    private void startBackgroundReads() {
+        for (BluetoothGattCharacteristic c : mBackgroundReads.values()) {
+            if (mBackgroundReads.remove(c.getUuid()) != null) {
+                readCharacteristic(c, GattOperationScheduler.Priority.BACKGROUND);
+            }
+        }
+    }
+
+    private void updateKnownDeviceRegistry() {
+        // the registry accesses the device information getters, which must not trigger on-demand reads
+        mSuppressOnDemandReads = true;
+        try {
+            KnownDeviceRegistry.getInstance(mContext).update(this);
+        } finally {
+            mSuppressOnDemandReads = false;
+        }
+    }
+
+    @Override
+    public String getSerialNumberString() {
+        readOnDemand(BleGattAttributes.SERIAL_NUMBER_STRING);
+        return super.getSerialNumberString();
+    }
+
+    @Override
+    public String getManufacturerString() {
+        readOnDemand(BleGattAttributes.MANUFACTURER_NAME_STRING);
+        return super.getManufacturerString();
+    }
+
+    @Override
+    public String getModelNumberString() {
+        readOnDemand(BleGattAttributes.MODEL_NUMBER_STRING);
+        return super.getModelNumberString();
+    }
+
+    @Override
+    public String getHardwareRevisionString() {
+        readOnDemand(BleGattAttributes.HARDWARE_REVISION_STRING);
+        return super.getHardwareRevisionString();
+    }
+
+    @Override
+    public HardwareRevision getHardwareRevision() {
+        readOnDemand(BleGattAttributes.HARDWARE_REVISION_STRING);
+        return super.getHardwareRevision();
+    }
+
+    @Override
+    public String getFirmwareRevisionString() {
+        readOnDemand(BleGattAttributes.FIRMWARE_REVISION_STRING);
+        return super.getFirmwareRevisionString();
+    }
+
+    @Override
+    public FirmwareRevision getFirmwareRevision() {
+        readOnDemand(BleGattAttributes.FIRMWARE_REVISION_STRING);
+        return super.getFirmwareRevision();
+    }
+
+    @Override
+    public String getSoftwareRevisionString() {
+        readOnDemand(BleGattAttributes.SOFTWARE_REVISION_STRING);
+        return super.getSoftwareRevisionString();
+    }
+
+    @Override
+    public int getBatteryLevel() {
+        readOnDemand(BleGattAttributes.BATTERY_LEVEL);
+        return super.getBatteryLevel();
+    }
+
+    /**
+     * Checks whether the value of the given characteristic only changes with the firmware, so it can be taken
+     * from the GATT cache instead of being read on every connection. By default, this is the case for the
+     * characteristics of the Device Information Service. Can be overriden by extended classes.
+     * <p>
+     * The cache only shortens the link setup by the static characteristics that are read during link setup
+     * (see {@link #getReadPolicy(BluetoothGattCharacteristic)}). The firmware revision is always read to validate
+     * the cache, so by default only the hardware revision read is saved, lazily read device information is taken
+     * from the cache on first access instead. {@link BleLinkInfo#getNumCachedReads()} reports the saved reads.
+     *
+     * @param c the characteristic which should be checked.
+     * @return true if the value of this characteristic is static.
+     */
+    protected boolean isStaticCharacteristic(BluetoothGattCharacteristic c) {
+        return c.getService() != null && BleGattAttributes.DEVICE_INFORMATION_SERVICE.equals(c.getService().getUuid());
+    }
+
+    /**
+     * Enables or disables the persisted GATT cache (enabled by default). If disabled, all characteristics are
+     * read on every connection.
+     */
+    public void setGattCacheEnabled(boolean enabled) {
+        mGattCacheEnabled = enabled;
+    }
+
+    public boolean isGattCacheEnabled() {
+        return mGattCacheEnabled;
+    }
+
+    /**
+     * Compares the GATT layout of the current connection with the cached layout. If the layout changed (most likely
+     * because of a firmware upgrade), the cache is dropped.
+     */
+    private void loadGattCache() {
+        mGattLayout = new ArrayList<>();
+        mStaticCharacteristics = new ArrayList<>();
+        mCachedCharacteristics = new ArrayList<>();
+        for (BluetoothGattService service : mGatt.getServices()) {
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                mGattLayout.add(KnownDeviceRegistry.gattKey(service.getUuid(), characteristic.getUuid()));
+            }
+        }
+
+        mGattCacheValid = false;
+        if (!mGattCacheEnabled || mKnownDevice == null || !mKnownDevice.hasGattCache()) {
+            return;
+        }
+        if (mKnownDevice.getGattLayout().equals(mGattLayout)) {
+            mGattCacheValid = true;
+        } else {
+            Log.d(TAG, "<" + getDeviceName() + "> GATT layout changed, invalidating GATT cache.");
+            KnownDeviceRegistry.getInstance(mContext).invalidateGattCache(mDeviceAddress);
+        }
+    }
+
+    /**
+     * Checks the firmware revision read from the sensor against the firmware revision of the GATT cache. If they
+     * differ, the cache is dropped and all values taken from the cache are read again.
+     */
+    private void validateGattCache(String firmwareRevision) {
+        if (!mGattCacheValid || mKnownDevice.getGattCacheFirmwareRevision().equals(firmwareRevision)) {
+            return;
+        }
+        Log.d(TAG, "<" + getDeviceName() + "> Firmware revision changed (" + mKnownDevice.getGattCacheFirmwareRevision() + " -> " + firmwareRevision + "), invalidating GATT cache.");
+        mGattCacheValid = false;
+        KnownDeviceRegistry.getInstance(mContext).invalidateGattCache(mDeviceAddress);
+        for (BluetoothGattCharacteristic characteristic : mCachedCharacteristics) {
+            scheduleRead(characteristic);
+        }
+        mCachedCharacteristics.clear();
+    }
+
+    /**
+     * Stores GATT layout and static values of the current connection if they were not taken from the cache.
+     */
+    private void updateGattCache() {
+        if (!mGattCacheEnabled || mGattCacheValid || mGattLayout.isEmpty()) {
+            return;
+        }
+        HashMap<String, byte[]> staticValues = new HashMap<>();
+        for (BluetoothGattCharacteristic characteristic : mStaticCharacteristics) {
+            if (characteristic.getValue() != null) {
+                staticValues.put(KnownDeviceRegistry.gattKey(characteristic.getService().getUuid(), characteristic.getUuid()), characteristic.getValue());
+            }
+        }
+        KnownDeviceRegistry.getInstance(mContext).updateGattCache(mDeviceAddress, mFirmwareRevisionString, mGattLayout, staticValues);
+    }
+
     protected void readCharacteristic(BluetoothGattCharacteristic c) {
-        mCharacteristicsReadRequests.add(c);
-        if (mGatt != null && mCharacteristicsReadRequests.size() == 1) {
-            mGatt.readCharacteristic(mCharacteristicsReadRequests.peek());
+        readCharacteristic(c, GattOperationScheduler.Priority.METADATA);
+    }
+
+    protected void readCharacteristic(BluetoothGattCharacteristic c, GattOperationScheduler.Priority priority) {
+        if (!mLinkSetupFinished) {
+            mLinkInfo.onSetupRead();
         }
-        /*if (mCharacteristicsReadRequests.size() == 1) {
-            mGatt.readCharacteristic(c);
-        }*/
+        mGattScheduler.enqueue(GattOperationScheduler.GattOperation.read(c, priority));
     }
 
     protected boolean writeCharacteristic(BluetoothGattCharacteristic c, byte[] value) {
+        return writeCharacteristic(c, value, GattOperationScheduler.Priority.CONTROL);
+    }
+
+    protected boolean writeCharacteristic(BluetoothGattCharacteristic c, byte[] value, GattOperationScheduler.Priority priority) {
         c.setValue(value);
         c.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
-        mCharacteristicsWriteRequests.add(c);
+        return mGattScheduler.enqueue(GattOperationScheduler.GattOperation.write(c, value, BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE, priority));
+    }
+
+    /**
+     * Writes a large payload to the given characteristic using pipelined writes without response. The payload
+     * is split into chunks of the negotiated maximum payload size, see {@link BleBulkTransfer}.
+     *
+     * @param c        the characteristic to write to
+     * @param payload  the payload
+     * @param callback callback notified about progress and completion of the transfer, or null
+     * @return the running transfer
+     */
+    protected BleBulkTransfer writeBulk(BluetoothGattCharacteristic c, byte[] payload, BleBulkTransferCallback callback) {
+        return writeBulk(c, payload, BleBulkTransfer.DEFAULT_WINDOW_SIZE, callback);
+    }
 
-        if (mGatt != null && mCharacteristicsWriteRequests.size() == 1) {
-            mGatt.writeCharacteristic(mCharacteristicsWriteRequests.peek());
+    /**
+     * @param windowSize maximum number of chunks queued at the same time
+     * @see #writeBulk(BluetoothGattCharacteristic, byte[], BleBulkTransferCallback)
+     */
+    protected BleBulkTransfer writeBulk(BluetoothGattCharacteristic c, byte[] payload, int windowSize, BleBulkTransferCallback callback) {
+        BleBulkTransfer transfer = new BleBulkTransfer(mGattScheduler, c, payload, mLinkInfo.getMaxPayloadSize(), windowSize, callback);
+        if (mGatt == null) {
+            transfer.onFailed("Sensor not connected");
+            return transfer;
         }
-        /*if (mCharacteristicsWriteRequests.size() == 1) {
-            return mGatt.writeCharacteristic(c);
-        }*/
+        mBulkTransfers.add(transfer);
+        transfer.start();
+        if (!transfer.isRunning()) {
+            mBulkTransfers.remove(transfer);
+        }
+        return transfer;
+    }
+
+    /**
+     * Stores the current device information and sampling rate in the {@link KnownDeviceRegistry} when the
+     * connection is closed.
+     */
+    private void updateKnownDevice() {
+        KnownDeviceRegistry registry = KnownDeviceRegistry.getInstance(mContext);
+        if (getState() == SensorState.UPGRADING_FIRMWARE) {
+            // device information changes with the new firmware
+            registry.invalidateDeviceInformation(mDeviceAddress);
+        } else if (mLinkSetupFinished) {
+            updateKnownDeviceRegistry();
+        }
+    }
+
+    /**
+     * Enables automatic reconnects after the connection was lost unexpectedly. While reconnecting, the sensor
+     * keeps its state, notifications are re-enabled and streaming is restored automatically. Instead of new
+     * connected/streaming events, processors receive {@link SensorMessage#CONNECTION_INTERRUPTED} when the
+     * connection is lost and a {@link BleStreamGap} when it is restored. Only if all attempts fail, the
+     * connection is reported as lost.
+     *
+     * @param policy the reconnect policy, or null to disable automatic reconnects (default)
+     */
+    public void setReconnectPolicy(BleReconnectPolicy policy) {
+        mReconnectPolicy = policy;
+    }
+
+    public BleReconnectPolicy getReconnectPolicy() {
+        return mReconnectPolicy;
+    }
+
+    /**
+     * @return true if the sensor is currently reconnecting automatically
+     */
+    public boolean isAutoReconnecting() {
+        return mAutoReconnecting;
+    }
+
+    private boolean shouldAutoReconnect() {
+        if (mReconnectPolicy == null || mDisconnectRequested || getState() == SensorState.UPGRADING_FIRMWARE) {
+            return false;
+        }
+        if (!mAutoReconnecting && getState().ordinal() < SensorState.CONNECTED.ordinal()) {
+            return false;
+        }
+        return mReconnectPolicy.shouldRetry(mAutoReconnectAttempts);
+    }
+
+    private void clearAutoReconnectState() {
+        mAutoReconnecting = false;
+        mRestoringStreaming = false;
+        mStreamGap = null;
+        mAutoReconnectAttempts = 0;
+    }
+
+    /**
+     * Called when the connection was lost and should be restored automatically.
+     */
+    private void onUnexpectedConnectionLoss() {
+        BleConnectionManager.getInstance().unregister(this);
+        mGattScheduler.setGatt(null);
+        failBulkTransfers("Connection lost");
+        if (mGatt != null) {
+            mGatt.close();
+            mGatt = null;
+        }
+
+        if (!mAutoReconnecting) {
+            updateKnownDevice();
+            mAutoReconnecting = true;
+            mAutoReconnectAttempts = 0;
+            mStreamGap = new BleStreamGap(System.currentTimeMillis(), mLastStreamCounter, getState() == SensorState.STREAMING);
+            Log.w(TAG, "<" + getDeviceName() + "> Connection lost, reconnecting using " + mReconnectPolicy);
+            sendNotification(SensorMessage.CONNECTION_INTERRUPTED);
+        }
+        // services and notifications have to be set up again on the new connection
+        mRestoringStreaming = false;
+        mLinkSetupFinished = false;
+        mWasDiscovered = false;
+
+        long delay = mReconnectPolicy.getDelay(mAutoReconnectAttempts, mRandom);
+        Log.d(TAG, "<" + getDeviceName() + "> Reconnect attempt " + (mAutoReconnectAttempts + 1) + " in " + delay + " ms");
+        mReconnectHandler.postDelayed(mReconnectRunnable, delay);
+    }
+
+    private void reconnect() {
+        if (!mAutoReconnecting) {
+            return;
+        }
+        mAutoReconnectAttempts++;
+        mKnownDevice = KnownDeviceRegistry.getInstance(mContext).getEntry(mDeviceAddress);
+        mLinkInfo.reset();
+        try {
+            mGatt = mTransportFactory.connect(mContext, mDeviceAddress, mGattCallback);
+        } catch (Exception e) {
+            e.printStackTrace();
+            mGatt = null;
+        }
+        mGattScheduler.setGatt(mGatt);
+        if (mGatt == null) {
+            Log.e(TAG, "<" + getDeviceName() + "> Reconnect failed, giving up.");
+            clearAutoReconnectState();
+            sendConnectionLost();
+        }
+    }
+
+    /**
+     * Called when the link was set up again after an automatic reconnect.
+     */
+    private void onAutoReconnected() {
+        mStreamGap.onRestored(System.currentTimeMillis(), mAutoReconnectAttempts);
+        Log.d(TAG, "<" + getDeviceName() + "> Reconnected after " + mStreamGap.getDuration() + " ms");
+        if (mStreamGap.wasStreaming()) {
+            mRestoringStreaming = true;
+            startStreaming();
+        } else {
+            onStreamRestored();
+        }
+    }
+
+    private void onStreamRestored() {
+        mAutoReconnecting = false;
+        mRestoringStreaming = false;
+        mAutoReconnectAttempts = 0;
+        startBackgroundReads();
+        if (!mStreamGap.wasStreaming() || mLastStreamCounter == BleStreamGap.UNKNOWN_COUNTER) {
+            sendNotification(mStreamGap);
+            mStreamGap = null;
+        }
+        // otherwise, the gap is reported together with the first sample after the gap (see trackStreamCounter())
+    }
+
+    /**
+     * Maps the sample counter reported by the sensor to a counter that is continuous across automatic reconnects.
+     * Sensors that restart their counters when streaming is started again should pass each sample counter
+     * through this method. The first counter after a gap completes the {@link BleStreamGap} notification.
+     *
+     * @param counter sample counter as reported by the sensor
+     * @return continuous sample counter
+     */
+    protected long trackStreamCounter(long counter) {
+        long logicalCounter = counter + mStreamCounterOffset;
+        if (mStreamGap != null && mStreamGap.getEndTime() > 0 && mLastStreamCounter != BleStreamGap.UNKNOWN_COUNTER) {
+            if (logicalCounter <= mLastStreamCounter) {
+                // sensor restarted its counter, continue after the samples estimated to be missing
+                long missing = (getSamplingRate() > 0) ? Math.round(mStreamGap.getDuration() * getSamplingRate() / 1000.0) : 0;
+                mStreamCounterOffset = mLastStreamCounter + 1 + missing - counter;
+                logicalCounter = counter + mStreamCounterOffset;
+            }
+            mStreamGap.setNextCounter(logicalCounter);
+            sendNotification(mStreamGap);
+            mStreamGap = null;
+        }
+        mLastStreamCounter = logicalCounter;
+        return logicalCounter;
+    }
+
+    @Override
+    protected void sendConnected() {
+        if (mAutoReconnecting && !mRestoringStreaming) {
+            // continue the existing session
+            onAutoReconnected();
+        } else {
+            super.sendConnected();
+        }
+    }
+
+    @Override
+    protected void sendStartStreaming() {
+        if (mRestoringStreaming) {
+            // continue the existing stream
+            onStreamRestored();
+        } else {
+            mLastStreamCounter = BleStreamGap.UNKNOWN_COUNTER;
+            mStreamCounterOffset = 0;
+            mLinkInfo.onStreamingStarted();
+            Log.d(TAG, "<" + getDeviceName() + "> Streaming started " + mLinkInfo.getTimeToStreaming() + " ms after connecting (GATT cache " + (mLinkInfo.isGattCacheHit() ? "hit" : "miss") + ").");
+            super.sendStartStreaming();
+            startBackgroundReads();
+        }
+    }
 
+    /**
+     * Returns the payload throughput this sensor requires while streaming with its current configuration. Used by
+     * the {@link BleConnectionManager} to check the link budget before streaming is started. Should be overriden
+     * by extended classes that know their sample size.
+     *
+     * @return required throughput in Byte/s, or -1 if unknown (the measured notification throughput is used then)
+     */
+    public double getRequiredThroughput() {
+        return -1;
+    }
+
+    /**
+     * Checks the link budget of all connected sensors before this sensor starts streaming. Processors are
+     * notified with the {@link BleConnectionManager.LinkBudget} if the budget is (nearly) exceeded, or with a
+     * {@link SensorException} if streaming is refused.
+     *
+     * @return false if streaming must not be started
+     */
+    protected boolean checkLinkBudget() {
+        if (mRestoringStreaming) {
+            // link was already accounted for before the reconnect
+            return true;
+        }
+        BleConnectionManager manager = BleConnectionManager.getInstance();
+        BleConnectionManager.LinkBudget budget = manager.checkStartStreaming(this);
+        if (budget == null || budget.getStatus() == BleConnectionManager.BudgetStatus.OK) {
+            return true;
+        }
+        if (manager.shouldRefuse(budget)) {
+            Log.e(TAG, "<" + getDeviceName() + "> Streaming refused: " + budget);
+            sendNotification(new SensorException(SensorException.SensorExceptionType.linkBudgetExceeded, budget.toString()));
+            return false;
+        }
+        sendNotification(budget);
         return true;
     }
 
+    private void failBulkTransfers(String reason) {
+        for (BleBulkTransfer transfer : mBulkTransfers) {
+            transfer.onFailed(reason);
+        }
+        mBulkTransfers.clear();
+    }
+
+    /**
+     * Called when the MTU was negotiated and all characteristics have been read.
+     */
+    private void onLinkSetupFinished() {
+        int numCachedReads = 0;
+        for (BluetoothGattCharacteristic characteristic : mCachedCharacteristics) {
+            if (getReadPolicy(characteristic) == CharacteristicReadPolicy.REQUIRED) {
+                numCachedReads++;
+            }
+        }
+        mLinkInfo.onLinkSetupFinished(mGattCacheValid, numCachedReads);
+        Log.d(TAG, "<" + getDeviceName() + "> Link setup finished: " + mLinkInfo);
+        BleConnectionManager.getInstance().register(this);
+        updateKnownDeviceRegistry();
+        updateGattCache();
+        if (mStateMachineMode == BleConnectionMode.MODE_DEFAULT) {
+            // Sensor is now connected
+            sendConnected();
+        } else {
+            // enable Gatt notifications
+            enableGattNotifications();
+        }
+    }
+
+    /**
+     * Sets the factory used to open the GATT connection (by default, the Android Bluetooth stack is used). Must be
+     * called before connecting, e.g. to connect the sensor to a simulated peripheral in tests.
+     */
+    public void setTransportFactory(BleTransport.Factory factory) {
+        mTransportFactory = factory;
+    }
+
+    /**
+     * Requests connection priority and PHY of the current throughput profile.
+     */
+    private void applyConnectionParameters() {
+        if (mGatt == null) {
+            return;
+        }
+        if (!mGatt.requestConnectionPriority(mThroughputProfile.getConnectionPriority())) {
+            Log.w(TAG, "<" + getDeviceName() + "> Connection priority request failed!");
+        }
+
+        // other profiles leave the PHY to the stack and the peripheral, they must not downgrade a 2M link
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && mThroughputProfile.isPhy2MPreferred()) {
+            BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+            if (adapter != null && adapter.isLe2MPhySupported()) {
+                mGatt.setPreferredPhy(BluetoothDevice.PHY_LE_2M_MASK, BluetoothDevice.PHY_LE_2M_MASK, BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+            }
+        }
+    }
+
+    /**
+     * Sets the throughput profile of this sensor. If the sensor is already connected, MTU, connection
+     * priority and PHY are renegotiated immediately, otherwise the profile is applied on the next connection.
+     * The PHY is only requested by profiles preferring 2M, other profiles keep the PHY of the link.
+     *
+     * @param profile the new throughput profile
+     */
+    public void setThroughputProfile(BleThroughputProfile profile) {
+        mThroughputProfile = profile;
+        mLinkInfo.setProfile(profile);
+        if (mGatt != null && isConnected()) {
+            if (profile.getMtu() != mLinkInfo.getMtu()) {
+                // connection parameters are applied after the MTU was changed
+                mGattScheduler.enqueue(GattOperationScheduler.GattOperation.requestMtu(profile.getMtu()));
+            } else {
+                applyConnectionParameters();
+            }
+        }
+    }
+
+    public BleThroughputProfile getThroughputProfile() {
+        return mThroughputProfile;
+    }
+
+    /**
+     * Returns the link parameters actually granted for the current connection and the measured notification rate.
+     */
+    public BleLinkInfo getLinkInfo() {
+        return mLinkInfo;
+    }
+
+    /**
+     * Returns the GATT operation scheduler of this sensor, e.g. to query latency statistics.
+     */
+    public GattOperationScheduler getGattScheduler() {
+        return mGattScheduler;
+    }
+
     /**
      * Called whenever a  characteristic has changed.
      *
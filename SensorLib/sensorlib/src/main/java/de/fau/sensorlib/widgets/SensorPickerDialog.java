@@ -45,7 +45,6 @@ import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
 
-import de.fau.sensorlib.BleManufacturerDataHelper;
 import de.fau.sensorlib.BleSensorManager;
 import de.fau.sensorlib.Constants;
 import de.fau.sensorlib.R;
@@ -599,7 +598,7 @@ public class SensorPickerDialog extends DialogFragment implements View.OnClickLi
         bundle.putString(Constants.KEY_SENSOR_ADDRESS, sensor.getDeviceAddress());
         bundle.putString(Constants.KEY_SENSOR_NAME, sensor.getDeviceName());
         bundle.putSerializable(Constants.KEY_KNOWN_SENSOR, sensor.getDeviceClass());
-        bundle.putSerializable(Constants.KEY_SENSOR_STATE, BleManufacturerDataHelper.getSensorState(sensor.getDeviceClass(), sensor.getManufacturerData()));
+        bundle.putSerializable(Constants.KEY_SENSOR_STATE, sensor.getAdvertisedState());
         bundle.putInt(Constants.KEY_BATTERY_LEVEL, sensor.getBatteryLevel());
         bundle.putBoolean(Constants.KEY_CHARGING_STATE, sensor.getChargingState());
         bundle.putInt(Constants.KEY_NUM_RECORDINGS, sensor.getNumRecordings());
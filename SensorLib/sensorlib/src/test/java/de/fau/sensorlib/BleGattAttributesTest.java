@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the name lookups of {@link BleGattAttributes} with the HashMap based registry it replaced
+ * ({@link LegacyBleGattAttributes}), and measures cold-start init time and retained heap of both.
+ */
+public class BleGattAttributesTest {
+
+    private static final int NUM_COLD_STARTS = 7;
+
+    private static List<UUID> getPublicConstants() throws IllegalAccessException {
+        List<UUID> uuids = new ArrayList<>();
+        for (Field field : BleGattAttributes.class.getFields()) {
+            int modifiers = field.getModifiers();
+            if (field.getType() == UUID.class && Modifier.isStatic(modifiers) && Modifier.isFinal(modifiers)) {
+                uuids.add((UUID) field.get(null));
+            }
+        }
+        return uuids;
+    }
+
+    private static void assertSameLookup(UUID uuid) {
+        assertEquals(String.valueOf(uuid), LegacyBleGattAttributes.lookupService(uuid), BleGattAttributes.lookupService(uuid));
+        assertEquals(String.valueOf(uuid), LegacyBleGattAttributes.lookupCharacteristic(uuid), BleGattAttributes.lookupCharacteristic(uuid));
+        assertEquals(String.valueOf(uuid), LegacyBleGattAttributes.lookupDescriptor(uuid), BleGattAttributes.lookupDescriptor(uuid));
+    }
+
+    @Test
+    public void lookupOfPublicConstantsMatchesLegacyRegistry() throws IllegalAccessException {
+        List<UUID> constants = getPublicConstants();
+        assertTrue("only " + constants.size() + " constants found", constants.size() > 250);
+        for (UUID uuid : constants) {
+            assertSameLookup(uuid);
+        }
+    }
+
+    @Test
+    public void lookupOfUnknownUuidsMatchesLegacyRegistry() {
+        Random random = new Random(3);
+        long sigLeastSigBits = BleGattAttributes.DEVICE_INFORMATION_SERVICE.getLeastSignificantBits();
+        for (int i = 0; i < 2000; i++) {
+            // random UUIDs and random short UUIDs based on the Bluetooth SIG base UUID
+            assertSameLookup(new UUID(random.nextLong(), random.nextLong()));
+            assertSameLookup(new UUID(((long) random.nextInt(0x10000) << 32) | 0x1000, sigLeastSigBits));
+        }
+        assertSameLookup(null);
+    }
+
+    @Test
+    public void addedNamesTakePrecedence() {
+        UUID custom = UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
+        BleGattAttributes.addService(custom, "Custom Service");
+        assertEquals("Custom Service", BleGattAttributes.lookupService(custom));
+
+        BleGattAttributes.addCharacteristic(BleGattAttributes.BATTERY_LEVEL, "Custom Battery Level");
+        assertEquals("Custom Battery Level", BleGattAttributes.lookupCharacteristic(BleGattAttributes.BATTERY_LEVEL));
+        BleGattAttributes.addCharacteristic(BleGattAttributes.BATTERY_LEVEL, LegacyBleGattAttributes.lookupCharacteristic(BleGattAttributes.BATTERY_LEVEL));
+    }
+
+    /**
+     * Loads a fresh copy of the given registry class, looks up one service, characteristic and descriptor name, and
+     * prints the median time and the retained heap. Nothing is asserted, since both depend on the JVM.
+     */
+    @Test
+    public void benchmarkColdStart() throws Exception {
+        long[][] legacy = measureColdStarts(LegacyBleGattAttributes.class.getName());
+        long[][] tables = measureColdStarts(BleGattAttributes.class.getName());
+        System.out.println(String.format(Locale.ROOT,
+                "BleGattAttributes cold start (median of %d): legacy HashMaps %.2f ms, %.1f kB retained; short UUID tables %.2f ms, %.1f kB retained",
+                NUM_COLD_STARTS, median(legacy[0]) / 1e6, median(legacy[1]) / 1024.0, median(tables[0]) / 1e6, median(tables[1]) / 1024.0));
+    }
+
+    private static long[][] measureColdStarts(String className) throws Exception {
+        long[] times = new long[NUM_COLD_STARTS];
+        long[] heap = new long[NUM_COLD_STARTS];
+        List<Object> retained = new ArrayList<>();
+        for (int i = 0; i < NUM_COLD_STARTS; i++) {
+            long usedBefore = usedMemory();
+            long start = System.nanoTime();
+            ClassLoader loader = new IsolatingClassLoader(BleGattAttributesTest.class.getClassLoader());
+            Class<?> registry = Class.forName(className, true, loader);
+            Class<?> constants = Class.forName(BleGattAttributes.class.getName(), true, loader);
+            lookup(registry, "lookupService", constants.getField("BATTERY_SERVICE").get(null));
+            lookup(registry, "lookupCharacteristic", constants.getField("BATTERY_LEVEL").get(null));
+            lookup(registry, "lookupDescriptor", constants.getField("CLIENT_CHARACTERISTIC_CONFIGURATION").get(null));
+            times[i] = System.nanoTime() - start;
+            // keep the loader (and with it all static data) reachable while measuring the heap
+            retained.add(loader);
+            heap[i] = usedMemory() - usedBefore;
+        }
+        assertEquals(NUM_COLD_STARTS, retained.size());
+        return new long[][]{times, heap};
+    }
+
+    private static void lookup(Class<?> registry, String method, Object uuid) throws Exception {
+        Method m = registry.getMethod(method, UUID.class);
+        m.setAccessible(true);
+        m.invoke(null, uuid);
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static double median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    /**
+     * Defines its own copies of the registry classes, so their static initializers run again.
+     */
+    private static final class IsolatingClassLoader extends ClassLoader {
+
+        private IsolatingClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        private static boolean isIsolated(String name) {
+            return name.startsWith(BleGattAttributes.class.getName()) || name.startsWith(LegacyBleGattAttributes.class.getName());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!isIsolated(name)) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> c = findLoadedClass(name);
+                if (c == null) {
+                    byte[] bytes = readClass(name);
+                    c = defineClass(name, bytes, 0, bytes.length);
+                }
+                if (resolve) {
+                    resolveClass(c);
+                }
+                return c;
+            }
+        }
+
+        private byte[] readClass(String name) throws ClassNotFoundException {
+            try (InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+                if (in == null) {
+                    throw new ClassNotFoundException(name);
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int len;
+                while ((len = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, len);
+                }
+                return out.toByteArray();
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib;
+
+import java.util.HashMap;
+import java.util.UUID;
+
+import static de.fau.sensorlib.BleGattAttributes.*;
+
+/**
+ * Name registry of {@link BleGattAttributes} before it was replaced by sorted short UUID tables: three HashMaps
+ * filled in the static initializer. Only used to compare lookups, init time and heap usage in
+ * {@link BleGattAttributesTest}.
+ */
+final class LegacyBleGattAttributes {
+
+    private static final HashMap<UUID, String> services = new HashMap<>();
+    private static final HashMap<UUID, String> characteristics = new HashMap<>();
+    private static final HashMap<UUID, String> descriptors = new HashMap<>();
+
+    static {
+        services.put(GENERIC_ACCESS_SERVICE, "Generic Access Service");
+        services.put(ALERT_NOTIFICATION_SERVICE, "Alert Notification Service");
+        services.put(AUTOMATION_IO_SERVICE, "Automation IO Service");
+        services.put(BATTERY_SERVICE, "Battery Service");
+        services.put(BLOOD_PRESSURE_SERVICE, "Blood Pressure Service");
+        services.put(BODY_COMPOSITION_SERVICE, "Body Composition Service");
+        services.put(BOND_MANAGEMENT_SERVICE_SERVICE, "Bond Management Service");
+        services.put(CONTINUOUS_GLUCOSE_MONITORING_SERVICE, "Continuous Glucose Monitoring Service");
+        services.put(CURRENT_TIME_SERVICE_SERVICE, "Current Time Service");
+        services.put(CYCLING_POWER_SERVICE, "Cycling Power Service");
+        services.put(CYCLING_SPEED_AND_CADENCE_SERVICE, "Cycling Speed and Cadence Service");
+        services.put(DEVICE_INFORMATION_SERVICE, "Device Information Service");
+        services.put(ENVIRONMENTAL_SENSING_SERVICE, "Environmental Sensing Service");
+        services.put(FITNESS_MACHINE_SERVICE, "Fitness Machine Service");
+        services.put(GENERIC_ATTRIBUTE_SERVICE, "Generic Attribute Service");
+        services.put(GLUCOSE_SERVICE, "Glucose Service");
+        services.put(HEALTH_THERMOMETER_SERVICE, "Health Thermometer Service");
+        services.put(HEART_RATE_SERVICE, "Heart Rate Service");
+        services.put(HTTP_PROXY_SERVICE, "HTTP Proxy Service");
+        services.put(HUMAN_INTERFACE_DEVICE_SERVICE, "Human Interface Device Service");
+        services.put(IMMEDIATE_ALERT_SERVICE, "Immediate Alert Service");
+        services.put(INDOOR_POSITIONING_SERVICE, "Indoor Positioning Service");
+        services.put(INTERNET_PROTOCOL_SUPPORT_SERVICE, "Internet Protocol Support Service");
+        services.put(LINK_LOSS_SERVICE, "Link Loss Service");
+        services.put(LOCATION_AND_NAVIGATION_SERVICE, "Location and Navigation Service");
+        services.put(MESH_PROVISIONING_SERVICE, "Mesh Provisioning Service");
+        services.put(MESH_PROXY_SERVICE, "Mesh Proxy Service");
+        services.put(NEXT_DST_CHANGE_SERVICE, "Next DST Change Service");
+        services.put(OBJECT_TRANSFER_SERVICE, "Object Transfer Service");
+        services.put(PHONE_ALERT_STATUS_SERVICE, "Phone Alert Status Service");
+        services.put(PULSE_OXIMETER_SERVICE, "Pulse Oximeter Service");
+        services.put(RECONNECTION_CONFIGURATION_SERVICE, "Reconnection Configuration Service");
+        services.put(REFERENCE_TIME_UPDATE_SERVICE, "Reference Time Update Service");
+        services.put(RUNNING_SPEED_AND_CADENCE_SERVICE, "Running Speed and Cadence Service");
+        services.put(SCAN_PARAMETER_SERVICE, "Scan Parameter Service");
+        services.put(TRANSPORT_DISCOVERY_SERVICE, "Transport Discovery Service");
+        services.put(TX_POWER_SERVICE, "Tx Power Service");
+        services.put(USER_DATA_SERVICE, "User Data Service");
+        services.put(WEIGHT_SCALE_SERVICE, "Weight Scale Service");
+
+        characteristics.put(AEROBIC_HEART_RATE_LOWER_LIMIT, "Aerobic Heart Rate Lower Limit");
+        characteristics.put(AEROBIC_HEART_RATE_UPPER_LIMIT, "Aerobic Heart Rate Upper Limit");
+        characteristics.put(AEROBIC_THRESHOLD, "Aerobic Threshold");
+        characteristics.put(AGE, "Age");
+        characteristics.put(AGGREGATE, "Aggregate");
+        characteristics.put(ALERT_CATEGORY_ID, "Alert Category ID");
+        characteristics.put(ALERT_CATEGORY_ID_BIT_MASK, "Alert Category ID Bit Mask");
+        characteristics.put(ALERT_LEVEL, "Alert Level");
+        characteristics.put(ALERT_NOTIFICATION_CONTROL_POINT, "Alert Notification Control Point");
+        characteristics.put(ALERT_STATUS, "Alert Status");
+        characteristics.put(ALTITUDE, "Altitude");
+        characteristics.put(ANAEROBIC_HEART_RATE_LOWER_LIMIT, "Anaerobic Heart Rate Lower Limit");
+        characteristics.put(ANAEROBIC_HEART_RATE_UPPER_LIMIT, "Anaerobic Heart Rate Upper Limit");
+        characteristics.put(ANAEROBIC_THRESHOLD, "Anaerobic Threshold");
+        characteristics.put(ANALOG, "Analog");
+        characteristics.put(ANALOG_OUTPUT, "Analog Output");
+        characteristics.put(APPARENT_WIND_DIRECTION, "Apparent Wind Direction");
+        characteristics.put(APPARENT_WIND_SPEED, "Apparent Wind Speed");
+        characteristics.put(APPEARANCE, "Appearance");
+        characteristics.put(BAROMETRIC_PRESSURE_TREND, "Barometric Pressure Trend");
+        characteristics.put(BATTERY_LEVEL, "Battery Level");
+        characteristics.put(BATTERY_LEVEL_STATE, "Battery Level State");
+        characteristics.put(BATTERY_POWER_STATE, "Battery Power State");
+        characteristics.put(BLOOD_PRESSURE_FEATURE, "Blood Pressure Feature");
+        characteristics.put(BLOOD_PRESSURE_MEASUREMENT, "Blood Pressure Measurement");
+        characteristics.put(BODY_COMPOSITION_FEATURE, "Body Composition Feature");
+        characteristics.put(BODY_COMPOSITION_MEASUREMENT, "Body Composition Measurement");
+        characteristics.put(BODY_SENSOR_LOCATION, "Body Sensor Location");
+        characteristics.put(BOND_MANAGEMENT_CONTROL_POINT, "Bond Management Control Point");
+        characteristics.put(BOND_MANAGEMENT_FEATURES, "Bond Management Features");
+        characteristics.put(BOOT_KEYBOARD_INPUT_REPORT, "Boot Keyboard Input Report");
+        characteristics.put(BOOT_KEYBOARD_OUTPUT_REPORT, "Boot Keyboard Output Report");
+        characteristics.put(BOOT_MOUSE_INPUT_REPORT, "Boot Mouse Input Report");
+        characteristics.put(CENTRAL_ADDRESS_RESOLUTION, "Central Address Resolution");
+        characteristics.put(CGM_FEATURE, "CGM Feature");
+        characteristics.put(CGM_MEASUREMENT, "CGM Measurement");
+        characteristics.put(CGM_SESSION_RUN_TIME, "CGM Session Run Time");
+        characteristics.put(CGM_SESSION_START_TIME, "CGM Session Start Time");
+        characteristics.put(CGM_SPECIFIC_OPS_CONTROL_POINT, "CGM Specific Ops Control Point");
+        characteristics.put(CGM_STATUS, "CGM Status");
+        characteristics.put(CROSS_TRAINER_DATA, "Cross Trainer Data");
+        characteristics.put(CSC_FEATURE, "CSC Feature");
+        characteristics.put(CSC_MEASUREMENT, "CSC Measurement");
+        characteristics.put(CURRENT_TIME, "Current Time");
+        characteristics.put(CYCLING_POWER_CONTROL_POINT, "Cycling Power Control Point");
+        characteristics.put(CYCLING_POWER_FEATURE, "Cycling Power Feature");
+        characteristics.put(CYCLING_POWER_MEASUREMENT, "Cycling Power Measurement");
+        characteristics.put(CYCLING_POWER_VECTOR, "Cycling Power Vector");
+        characteristics.put(DATABASE_CHANGE_INCREMENT, "Database Change Increment");
+        characteristics.put(DATE_OF_BIRTH, "Date of Birth");
+        characteristics.put(DATE_OF_THRESHOLD_ASSESSMENT, "Date of Threshold Assessment");
+        characteristics.put(DATE_TIME, "Date Time");
+        characteristics.put(DAY_DATE_TIME, "Day Date Time");
+        characteristics.put(DAY_OF_WEEK, "Day of Week");
+        characteristics.put(DESCRIPTOR_VALUE_CHANGED, "Descriptor Value Changed");
+        characteristics.put(DEVICE_NAME, "Device Name");
+        characteristics.put(DEW_POINT, "Dew Point");
+        characteristics.put(DIGITAL, "Digital");
+        characteristics.put(DIGITAL_OUTPUT, "Digital Output");
+        characteristics.put(DST_OFFSET, "DST Offset");
+        characteristics.put(ELEVATION, "Elevation");
+        characteristics.put(EMAIL_ADDRESS, "Email Address");
+        characteristics.put(EXACT_TIME_100, "Exact Time 100");
+        characteristics.put(EXACT_TIME_256, "Exact Time 256");
+        characteristics.put(FAT_BURN_HEART_RATE_LOWER_LIMIT, "Fat Burn Heart Rate Lower Limit");
+        characteristics.put(FAT_BURN_HEART_RATE_UPPER_LIMIT, "Fat Burn Heart Rate Upper Limit");
+        characteristics.put(FIRMWARE_REVISION_STRING, "Firmware Revision String");
+        characteristics.put(FIRST_NAME, "First Name");
+        characteristics.put(FITNESS_MACHINE_CONTROL_POINT, "Fitness Machine Control Point");
+        characteristics.put(FITNESS_MACHINE_FEATURE, "Fitness Machine Feature");
+        characteristics.put(FITNESS_MACHINE_STATUS, "Fitness Machine Status");
+        characteristics.put(FIVE_ZONE_HEART_RATE_LIMITS, "Five Zone Heart Rate Limits");
+        characteristics.put(FLOOR_NUMBER, "Floor Number");
+        characteristics.put(GENDER, "Gender");
+        characteristics.put(GLUCOSE_FEATURE, "Glucose Feature");
+        characteristics.put(GLUCOSE_MEASUREMENT, "Glucose Measurement");
+        characteristics.put(GLUCOSE_MEASUREMENT_CONTEXT, "Glucose Measurement Context");
+        characteristics.put(GUST_FACTOR, "Gust Factor");
+        characteristics.put(HARDWARE_REVISION_STRING, "Hardware Revision String");
+        characteristics.put(HEART_RATE_CONTROL_POINT, "Heart Rate Control Point");
+        characteristics.put(HEART_RATE_MAX, "Heart Rate Max");
+        characteristics.put(HEART_RATE_MEASUREMENT, "Heart Rate Measurement");
+        characteristics.put(HEAT_INDEX, "Heat Index");
+        characteristics.put(HEIGHT, "Height");
+        characteristics.put(HID_CONTROL_POINT, "HID Control Point");
+        characteristics.put(HID_INFORMATION, "HID Information");
+        characteristics.put(HIP_CIRCUMFERENCE, "Hip Circumference");
+        characteristics.put(HTTP_CONTROL_POINT, "HTTP Control Point");
+        characteristics.put(HTTP_ENTITIY_BODY, "HTTP Entity Body");
+        characteristics.put(HTTP_HEADERS, "HTTP Headers");
+        characteristics.put(HTTP_STATUS_CODE, "HTTP Status Code");
+        characteristics.put(HTTPS_SECURITY, "HTTPS Security");
+        characteristics.put(HUMIDITY, "Humidity");
+        characteristics.put(IEEE11073_20601_REGULATORY_CERTIFICATION_DATA_LIST, "IEEE 11073-20601 Regulatory Certification Data List");
+        characteristics.put(INDOOR_BIKE_DATA, "Indoor Bike Data");
+        characteristics.put(INDOOR_POSITIONING_CONFIGURATION, "Indoor Positioning Configuration");
+        characteristics.put(INTERMEDIATE_CUFF_PRESSURE, "Intermediate Cuff Pressure");
+        characteristics.put(INTERMEDIATE_TEMPERATURE, "Intermediate Temperature");
+        characteristics.put(IRRADIANCE, "Irradiance");
+        characteristics.put(LANGUAGE, "Language");
+        characteristics.put(LAST_NAME, "Last Name");
+        characteristics.put(LATITUDE, "Latitude");
+        characteristics.put(LN_CONTROL_POINT, "LN Control Point");
+        characteristics.put(LN_FEATURE, "LN Feature");
+        characteristics.put(LOCAL_EAST_COORDINATE, "Local East Coordinate");
+        characteristics.put(LOCAL_NORTH_COORDINATE, "Local North Coordinate");
+        characteristics.put(LOCAL_TIME_INFORMATION, "Local Time Information");
+        characteristics.put(LOCATION_AND_SPEED, "Location and Speed");
+        characteristics.put(LOCATION_NAME, "Location Name");
+        characteristics.put(LONGITUDE, "Longitude");
+        characteristics.put(MAGNETIC_DECLINATION, "Magnetic Declination");
+        characteristics.put(MAGNETIC_FLUX_DENSITY_2D, "Magnetic Flux Density - 2D");
+        characteristics.put(MAGNETIC_FLUX_DENSITY_3D, "Magnetic Flux Density - 3D");
+        characteristics.put(MANUFACTURER_NAME_STRING, "Manufacturer Name String");
+        characteristics.put(MAXIMUM_RECOMMENDED_HEART_RATE, "Maximum Recommended Heart Rate");
+        characteristics.put(MEASUREMENT_INTERVAL, "Measurement Interval");
+        characteristics.put(MODEL_NUMBER_STRING, "Model Number String");
+        characteristics.put(NAVIGATION, "Navigation");
+        characteristics.put(NETWORK_AVAILABILITY, "Network Availability");
+        characteristics.put(NEW_ALERT, "New Alert");
+        characteristics.put(OBJECT_ACTION_CONTROL_POINT, "Object Action Control Point");
+        characteristics.put(OBJECT_CHANGED, "Object Changed");
+        characteristics.put(OBJECT_FIRST_CREATED, "Object First-Created");
+        characteristics.put(OBJECT_ID, "Object ID");
+        characteristics.put(OBJECT_LAST_MODIFIED, "Object Last-Modified");
+        characteristics.put(OBJECT_LIST_CONTROL_POINT, "Object List Control Point");
+        characteristics.put(OBJECT_LIST_FILTER, "Object List Filter");
+        characteristics.put(OBJECT_NAME, "Object Name");
+        characteristics.put(OBJECT_PROPERTIES, "Object Properties");
+        characteristics.put(OBJECT_SIZE, "Object Size");
+        characteristics.put(OBJECT_TYPE, "Object Type");
+        characteristics.put(OTS_FEATURE, "OTS Feature");
+        characteristics.put(PERIPHERAL_PREFERRED_CONNECTION_PARAMETERS, "Peripheral Preferred Connection Parameters");
+        characteristics.put(PERIPHERAL_PRIVACY_FLAG, "Peripheral Privacy Flag");
+        characteristics.put(PLX_CONTINUOUS_MEASUREMENT, "PLX Continuous Measurement Characteristic");
+        characteristics.put(PLX_FEATURES, "PLX Features");
+        characteristics.put(PLX_SPOT_CHECK_MEASUREMENT, "PLX Spot-Check Measurement");
+        characteristics.put(PNP_ID, "PnP ID");
+        characteristics.put(POLLEN_CONCENTRATION, "Pollen Concentration");
+        characteristics.put(POSITION_2D, "Position 2D");
+        characteristics.put(POSITION_3D, "Position 3D");
+        characteristics.put(POSITION_QUALITY, "Position Quality");
+        characteristics.put(PRESSURE, "Pressure");
+        characteristics.put(PROTOCOL_MODE, "Protocol Mode");
+        characteristics.put(PULSE_OXIMETRY_CONTROL_POINT, "Pulse Oximetry Control Point");
+        characteristics.put(RAINFALL, "Rainfall");
+        characteristics.put(RC_FEATURE, "RC Feature");
+        characteristics.put(RC_SETTINGS, "RC Settings");
+        characteristics.put(RECONNECTION_ADDRESS, "Reconnection Address");
+        characteristics.put(RECONNECTION_CONFIGURATION_CONTROL_POINT, "Reconnection Configuration Control Point");
+        characteristics.put(RECORD_ACCESS_CONTROL_POINT, "Record Access Control Point");
+        characteristics.put(REFERENCE_TIME_INFORMATION, "Reference Time Information");
+        characteristics.put(REMOVABLE, "Removable");
+        characteristics.put(REPORT, "Report");
+        characteristics.put(REPORT_MAP, "Report Map");
+        characteristics.put(RESOLVABLE_PRIVATE_ADDRESS_ONLY, "Resolvable Private Address Only");
+        characteristics.put(RESTING_HEART_RATE, "Resting Heart Rate");
+        characteristics.put(RINGER_CONTROL_POINT, "Ringer Control Point");
+        characteristics.put(RINGER_SETTING, "Ringer Setting");
+        characteristics.put(ROWER_DATA, "Rower Data");
+        characteristics.put(RSC_FEATURE, "RSC Feature");
+        characteristics.put(RSC_MEASUREMENT, "RSC Measurement");
+        characteristics.put(SC_CONTROL_POINT, "SC Control Point");
+        characteristics.put(SCAN_INTERVAL_WINDOW, "Scan Interval Window");
+        characteristics.put(SCAN_REFRESH, "Scan Refresh");
+        characteristics.put(SCIENTIFIC_TEMPERATURE_CELSIUS, "Scientific Temperature Celsius");
+        characteristics.put(SECONDARY_TIME_ZONE, "Secondary Time Zone");
+        characteristics.put(SENSOR_LOCATION, "Sensor Location");
+        characteristics.put(SERIAL_NUMBER_STRING, "Serial Number String");
+        characteristics.put(SERVICE_CHANGED, "Service Changed");
+        characteristics.put(SERVICE_REQUIRED, "Service Required");
+        characteristics.put(SOFTWARE_REVISION_STRING, "Software Revision String");
+        characteristics.put(SPORT_TYPE_FOR_AEROBIC_AND_ANAEROBIC_THRESHOLDS, "Sport Type for Aerobic and Anaerobic Thresholds");
+        characteristics.put(STAIR_CLIMBER_DATA, "Stair Climber Data");
+        characteristics.put(STEP_CLIMBER_DATA, "Step Climber Data");
+        characteristics.put(STRING, "String");
+        characteristics.put(SUPPORTED_HEART_RATE_RANGE, "Supported Heart Rate Range");
+        characteristics.put(SUPPORTED_INCLINATION_RANGE, "Supported Inclination Range");
+        characteristics.put(SUPPORTED_NEW_ALERT_CATEGORY, "Supported New Alert Category");
+        characteristics.put(SUPPORTED_POWER_RANGE, "Supported Power Range");
+        characteristics.put(SUPPORTED_RESISTANCE_LEVEL_RANGE, "Supported Resistance Level Range");
+        characteristics.put(SUPPORTED_SPEED_RANGE, "Supported Speed Range");
+        characteristics.put(SUPPORTED_UNREAD_ALERT_CATEGORY, "Supported Unread Alert Category");
+        characteristics.put(SYSTEM_ID, "System ID");
+        characteristics.put(TDS_CONTROL_POINT, "TDS Control Point");
+        characteristics.put(TEMPERATURE, "Temperature");
+        characteristics.put(TEMPERATURE_CELSIUS, "Temperature Celsius");
+        characteristics.put(TEMPERATURE_FAHRENHEIT, "Temperature Fahrenheit");
+        characteristics.put(TEMPERATURE_MEASUREMENT, "Temperature Measurement");
+        characteristics.put(TEMPERATURE_TYPE, "Temperature Type");
+        characteristics.put(THREE_ZONE_HEART_RATE_LIMITS, "Three Zone Heart Rate Limits");
+        characteristics.put(TIME_ACCURACY, "Time Accuracy");
+        characteristics.put(TIME_BROADCAST, "Time Broadcast");
+        characteristics.put(TIME_SOURCE, "Time Source");
+        characteristics.put(TIME_UPDATE_CONTROL_POINT, "Time Update Control Point");
+        characteristics.put(TIME_UPDATE_STATE, "Time Update State");
+        characteristics.put(TIME_WITH_DST, "Time with DST");
+        characteristics.put(TIME_ZONE, "Time Zone");
+        characteristics.put(TRAINING_STATUS, "Training Status");
+        characteristics.put(TREADMILL_DATA, "Treadmill Data");
+        characteristics.put(TRUE_WIND_DIRECTION, "True Wind Direction");
+        characteristics.put(TRUE_WIND_SPEED, "True Wind Speed");
+        characteristics.put(TWO_ZONE_HEART_RATE_LIMIT, "Two Zone Heart Rate Limit");
+        characteristics.put(TX_POWER_LEVEL, "Tx Power Level");
+        characteristics.put(UNCERTAINTY, "Uncertainty");
+        characteristics.put(UNREAD_ALERT_STATUS, "Unread Alert Status");
+        characteristics.put(URI, "URI");
+        characteristics.put(USER_CONTROL_POINT, "User Control Point");
+        characteristics.put(USER_INDEX, "User Index");
+        characteristics.put(UV_INDEX, "UV Index");
+        characteristics.put(VO2_MAX, "VO2 Max");
+        characteristics.put(WAIST_CIRCUMFERENCE, "Waist Circumference");
+        characteristics.put(WEIGHT, "Weight");
+        characteristics.put(WEIGHT_MEASUREMENT, "Weight Measurement");
+        characteristics.put(WEIGHT_SCALE_FEATURE, "Weight Scale Feature");
+        characteristics.put(WIND_CHILL, "Wind Chill");
+
+        // Descriptors
+        descriptors.put(CHARACTERISTIC_AGGREGATE_FORMAT, "Characteristic Aggregate Format");
+        descriptors.put(CHARACTERISTIC_EXTENDED_PROPERTIES, "Characteristic Extended Properties");
+        descriptors.put(CHARACTERISTIC_PRESENTATION_FORMAT, "Characteristic Presentation Format");
+        descriptors.put(CHARACTERISTIC_USER_DESCRIPTION, "Characteristic User Description");
+        descriptors.put(CLIENT_CHARACTERISTIC_CONFIGURATION, "Client Characteristic Configuration");
+        descriptors.put(ENVIRONMENTAL_SENSING_CONFIGURATION, "Environmental Sensing Configuration");
+        descriptors.put(ENVIRONMENTAL_SENSING_MEASUREMENT, "Environmental Sensing Measurement");
+        descriptors.put(ENVIRONMENTAL_SENSING_TRIGGER_SETTING, "Environmental Sensing Trigger Setting");
+        descriptors.put(EXTERNAL_REPORT_REFERENCE, "External Report Reference");
+        descriptors.put(NUMBER_OF_DIGITALS, "Number of Digitals");
+        descriptors.put(REPORT_REFERENCE, "Report Reference");
+        descriptors.put(SERVER_CHARACTERISTIC_CONFIGURATION, "Server Characteristic Configuration");
+        descriptors.put(TIME_TRIGGER_SETTING, "Time Trigger Setting");
+        descriptors.put(VALID_RANGE, "Valid Range");
+        descriptors.put(VALUE_TRIGGER_SETTING, "Value Trigger Setting");
+    }
+
+    public static String lookupService(UUID uuid) {
+        String name = services.get(uuid);
+        return name == null ? "<unknown: " + uuid + ">" : name;
+    }
+
+    public static String lookupCharacteristic(UUID uuid) {
+        String name = characteristics.get(uuid);
+        return name == null ? "<unknown: " + uuid + ">" : name;
+    }
+
+    public static String lookupDescriptor(UUID uuid) {
+        String name = descriptors.get(uuid);
+        return name == null ? "<unknown: " + uuid + ">" : name;
+    }
+}
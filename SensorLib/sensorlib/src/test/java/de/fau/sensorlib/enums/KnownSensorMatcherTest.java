@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib.enums;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks {@link KnownSensorMatcher} against the linear keyword scan it replaced and compares the time both need
+ * to classify bursts of scan results.
+ */
+public class KnownSensorMatcherTest {
+
+    private static final String[] DEVICE_NAMES = {
+            "NilsPod-%04x", "NilsPodX-%04x", "Polar H10 %08X", "Polar OH1 %08X", "miCoach HRM %d", "FSv3_%d",
+            "Shimmer3-%04X", "RN42-%04X", "Empatica E4 %d", "Muse-%04X", "PRM-TECH %d", "SWR12 %d", "Moto 360 %d",
+            "HOOP_%d", "Portabiles %d", "HDBDG%d", "DfuTarg", "Myo Raw %d", "Myo %d", "Simblee %d", "POSTAGE %d",
+            // devices that are seen in every scan, but are no sensors
+            "Galaxy Buds (%04X)", "[TV] Samsung 7 Series (%d)", "Mi Smart Band %d", "JBL Flip %d", "LE-Bose QC35 %d",
+            "Apple Watch %d", "Tile %d", "Fitbit Charge %d", "WH-1000XM%d", "HUAWEI Band 4-%03X", "Äpfel Gerät %d",
+    };
+
+    /**
+     * Classification before the keyword automaton was introduced: first sensor (in declaration order) with a
+     * keyword contained in the device name.
+     */
+    private static KnownSensor inferSensorClassLinear(String deviceName) {
+        for (KnownSensor s : KnownSensor.values()) {
+            for (String str : s.getIdentifyingKeywords()) {
+                if (deviceName == null || deviceName.isEmpty()) {
+                    continue;
+                }
+                if (deviceName.contains(str)) {
+                    return s;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static List<String> createScanBurst(Random random, int numDevices) {
+        List<String> names = new ArrayList<>(numDevices);
+        for (int i = 0; i < numDevices; i++) {
+            String pattern = DEVICE_NAMES[random.nextInt(DEVICE_NAMES.length)];
+            names.add(String.format(Locale.ROOT, pattern, random.nextInt(0x10000)));
+        }
+        return names;
+    }
+
+    private static String createRandomName(Random random) {
+        // alphabet with all keyword characters, so partial keyword matches are frequent
+        String alphabet = "NilsPod-XBLEMyoRawShmer3SWR12FSv3PRM-TECHHOOPbadgeDfuTarg äöü_ ";
+        StringBuilder sb = new StringBuilder();
+        int length = random.nextInt(24);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void matchesLinearScanForAllKeywords() {
+        KnownSensorMatcher matcher = new KnownSensorMatcher(KnownSensor.values());
+        for (KnownSensor sensor : KnownSensor.values()) {
+            for (String keyword : sensor.getIdentifyingKeywords()) {
+                for (String name : new String[]{keyword, "x" + keyword, keyword + "-1234", "a " + keyword + " b"}) {
+                    assertEquals(name, inferSensorClassLinear(name), matcher.match(name));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void matchesLinearScanForScanBursts() {
+        KnownSensorMatcher matcher = new KnownSensorMatcher(KnownSensor.values());
+        Random random = new Random(42);
+        for (String name : createScanBurst(random, 100000)) {
+            assertEquals(name, inferSensorClassLinear(name), matcher.match(name));
+        }
+    }
+
+    @Test
+    public void matchesLinearScanForRandomNames() {
+        KnownSensorMatcher matcher = new KnownSensorMatcher(KnownSensor.values());
+        Random random = new Random(7);
+        for (int i = 0; i < 200000; i++) {
+            String name = createRandomName(random);
+            assertEquals(name, inferSensorClassLinear(name), matcher.match(name));
+        }
+    }
+
+    @Test
+    public void handlesEmptyNames() {
+        KnownSensorMatcher matcher = new KnownSensorMatcher(KnownSensor.values());
+        assertNull(matcher.match(null));
+        assertNull(matcher.match(""));
+        assertNull(matcher.match(null, "00:11:22:33:44:55"));
+    }
+
+    @Test
+    public void cachedResultFollowsNameChanges() {
+        KnownSensorMatcher matcher = new KnownSensorMatcher(KnownSensor.values());
+        String address = "00:11:22:33:44:55";
+        assertEquals(KnownSensor.DFU_TARG, matcher.match("DfuTarg", address));
+        assertEquals(KnownSensor.NILSPOD, matcher.match("NilsPod-1a2b", address));
+        assertEquals(KnownSensor.NILSPOD, matcher.match("NilsPod-1a2b", address));
+        assertNull(matcher.match("Galaxy Buds", address));
+    }
+
+    /**
+     * Classifies bursts of realistic scan results with the linear scan and with the automaton (with and without the
+     * per-address cache) and prints the time per name. Nothing is asserted, since timings depend on the machine.
+     */
+    @Test
+    public void benchmarkScanBursts() {
+        final int numDevices = 40;
+        final int numBursts = 5000;
+        Random random = new Random(1);
+        List<String> names = createScanBurst(random, numDevices);
+        List<String> addresses = new ArrayList<>(numDevices);
+        for (int i = 0; i < numDevices; i++) {
+            addresses.add(String.format(Locale.ROOT, "00:11:22:33:%02X:%02X", i / 256, i % 256));
+        }
+        KnownSensorMatcher matcher = new KnownSensorMatcher(KnownSensor.values());
+
+        int checksum = 0;
+        long[] linear = new long[3];
+        long[] automaton = new long[3];
+        long[] cached = new long[3];
+        // first round is warm-up
+        for (int round = 0; round < 4; round++) {
+            long start = System.nanoTime();
+            for (int b = 0; b < numBursts; b++) {
+                for (String name : names) {
+                    KnownSensor sensor = inferSensorClassLinear(name);
+                    checksum += (sensor != null) ? sensor.ordinal() : -1;
+                }
+            }
+            long t1 = System.nanoTime();
+            for (int b = 0; b < numBursts; b++) {
+                for (String name : names) {
+                    KnownSensor sensor = matcher.match(name);
+                    checksum -= (sensor != null) ? sensor.ordinal() : -1;
+                }
+            }
+            long t2 = System.nanoTime();
+            for (int b = 0; b < numBursts; b++) {
+                for (int i = 0; i < numDevices; i++) {
+                    KnownSensor sensor = matcher.match(names.get(i), addresses.get(i));
+                    checksum += (sensor != null) ? sensor.ordinal() : -1;
+                }
+            }
+            long t3 = System.nanoTime();
+            if (round > 0) {
+                linear[round - 1] = t1 - start;
+                automaton[round - 1] = t2 - t1;
+                cached[round - 1] = t3 - t2;
+            }
+        }
+
+        double numNames = (double) numDevices * numBursts;
+        System.out.println(String.format(Locale.ROOT,
+                "KnownSensor classification of %d bursts x %d devices (ns/name, best of 3): linear %.1f, automaton %.1f, automaton + cache %.1f (checksum %d)",
+                numBursts, numDevices, min(linear) / numNames, min(automaton) / numNames, min(cached) / numNames, checksum));
+    }
+
+    private static long min(long[] values) {
+        long min = Long.MAX_VALUE;
+        for (long value : values) {
+            min = Math.min(min, value);
+        }
+        return min;
+    }
+}
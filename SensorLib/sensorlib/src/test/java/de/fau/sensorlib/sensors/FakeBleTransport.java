@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib.sensors;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import de.fau.sensorlib.BleGattAttributes;
+
+/**
+ * In-memory {@link BleTransport} simulating a BLE peripheral, e.g. for load tests of connection, discovery and
+ * streaming flows without real sensors.
+ * <p>
+ * The peripheral is scripted before connecting: its services and characteristics (with their initial values),
+ * notification sources with a fixed rate, handlers answering writes (e.g. sensor commands), the latency of
+ * every GATT operation, the probability that a notification is lost and scheduled connection losses. All
+ * callbacks are invoked from one single thread in the order the operations were issued, packet loss is drawn
+ * from a seeded random generator, so runs with the same script and seed are reproducible.
+ */
+public class FakeBleTransport implements BleTransport {
+
+    /**
+     * Generates the payload of the n-th notification of a notification source.
+     */
+    public interface PayloadGenerator {
+        byte[] generate(long index);
+    }
+
+    /**
+     * Answers writes to a characteristic, e.g. by sending notifications via {@link #notify(UUID, byte[])}.
+     */
+    public interface WriteHandler {
+        void onWrite(FakeBleTransport transport, BluetoothGattCharacteristic characteristic, byte[] value);
+    }
+
+    private static class NotificationSource {
+        private final double mRate;
+        private final PayloadGenerator mGenerator;
+        private ScheduledFuture<?> mFuture;
+        private long mIndex;
+
+        private NotificationSource(double rate, PayloadGenerator generator) {
+            mRate = rate;
+            mGenerator = generator;
+        }
+    }
+
+    private final String mDeviceName;
+    private final Random mRandom;
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "FakeBleTransport");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final List<BluetoothGattService> mServices = new ArrayList<>();
+    private final HashMap<UUID, NotificationSource> mNotificationSources = new HashMap<>();
+    private final HashMap<UUID, WriteHandler> mWriteHandlers = new HashMap<>();
+
+    private BluetoothGattCallback mCallback;
+    private long mLatency = 0;
+    private long mConnectionDelay = 0;
+    private double mPacketLoss = 0.0;
+    private int mMaxMtu = 247;
+
+    private boolean mConnected;
+    private boolean mClosed;
+    private long mNotificationsSent;
+    private long mNotificationsLost;
+
+
+    /**
+     * @param deviceName name of the simulated device
+     * @param seed       seed for packet loss
+     */
+    public FakeBleTransport(String deviceName, long seed) {
+        mDeviceName = deviceName;
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * @return a factory that connects every sensor to this peripheral (also when reconnecting)
+     */
+    public Factory getFactory() {
+        return (context, deviceAddress, callback) -> {
+            open(callback);
+            return this;
+        };
+    }
+
+    public synchronized FakeBleTransport addService(BluetoothGattService service) {
+        mServices.add(service);
+        return this;
+    }
+
+    /**
+     * Sets the delay of every GATT operation (in ms).
+     */
+    public synchronized FakeBleTransport setLatency(long latency) {
+        mLatency = latency;
+        return this;
+    }
+
+    /**
+     * Sets the time until the connection is established (in ms).
+     */
+    public synchronized FakeBleTransport setConnectionDelay(long connectionDelay) {
+        mConnectionDelay = connectionDelay;
+        return this;
+    }
+
+    /**
+     * Sets the probability that a notification is lost (between 0 and 1).
+     */
+    public synchronized FakeBleTransport setPacketLoss(double packetLoss) {
+        mPacketLoss = packetLoss;
+        return this;
+    }
+
+    /**
+     * Sets the maximum MTU the peripheral accepts.
+     */
+    public synchronized FakeBleTransport setMaxMtu(int maxMtu) {
+        mMaxMtu = maxMtu;
+        return this;
+    }
+
+    /**
+     * Sends notifications of the given characteristic with a fixed rate as long as they are enabled by the client.
+     *
+     * @param rate notifications per second
+     */
+    public synchronized FakeBleTransport addNotificationSource(UUID characteristic, double rate, PayloadGenerator generator) {
+        mNotificationSources.put(characteristic, new NotificationSource(rate, generator));
+        return this;
+    }
+
+    public synchronized FakeBleTransport setWriteHandler(UUID characteristic, WriteHandler handler) {
+        mWriteHandlers.put(characteristic, handler);
+        return this;
+    }
+
+    /**
+     * Simulates losing the connection (e.g. out of range) after the given delay.
+     *
+     * @param status status reported to the client, e.g. 8 (connection timeout)
+     */
+    public void scheduleConnectionLoss(long delay, int status) {
+        mExecutor.schedule(() -> {
+            synchronized (this) {
+                if (!mConnected) {
+                    return;
+                }
+                mConnected = false;
+                stopNotifications();
+            }
+            mCallback.onConnectionStateChange(null, status, BluetoothGatt.STATE_DISCONNECTED);
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends a notification of the given characteristic (subject to packet loss), e.g. from a {@link WriteHandler}.
+     */
+    public void notify(UUID characteristic, byte[] value) {
+        BluetoothGattCharacteristic c = findCharacteristic(characteristic);
+        if (c == null) {
+            return;
+        }
+        mExecutor.execute(() -> sendNotification(c, value));
+    }
+
+    public synchronized long getNotificationsSent() {
+        return mNotificationsSent;
+    }
+
+    public synchronized long getNotificationsLost() {
+        return mNotificationsLost;
+    }
+
+    private synchronized void open(BluetoothGattCallback callback) {
+        mCallback = callback;
+        mClosed = false;
+        connect();
+    }
+
+    private void sendNotification(BluetoothGattCharacteristic c, byte[] value) {
+        synchronized (this) {
+            if (!mConnected) {
+                return;
+            }
+            if (mPacketLoss > 0 && mRandom.nextDouble() < mPacketLoss) {
+                mNotificationsLost++;
+                return;
+            }
+            mNotificationsSent++;
+            c.setValue(value);
+        }
+        mCallback.onCharacteristicChanged(null, c);
+    }
+
+    private void startNotifications(BluetoothGattCharacteristic c) {
+        NotificationSource source = mNotificationSources.get(c.getUuid());
+        if (source == null || source.mFuture != null) {
+            return;
+        }
+        long period = Math.max(1, Math.round(1000000.0 / source.mRate));
+        source.mFuture = mExecutor.scheduleAtFixedRate(() -> sendNotification(c, source.mGenerator.generate(source.mIndex++)), period, period, TimeUnit.MICROSECONDS);
+    }
+
+    private void stopNotifications(UUID characteristic) {
+        NotificationSource source = mNotificationSources.get(characteristic);
+        if (source != null && source.mFuture != null) {
+            source.mFuture.cancel(false);
+            source.mFuture = null;
+        }
+    }
+
+    private void stopNotifications() {
+        for (UUID characteristic : mNotificationSources.keySet()) {
+            stopNotifications(characteristic);
+        }
+    }
+
+    private BluetoothGattCharacteristic findCharacteristic(UUID uuid) {
+        for (BluetoothGattService service : getServices()) {
+            BluetoothGattCharacteristic c = service.getCharacteristic(uuid);
+            if (c != null) {
+                return c;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs the given callback after the configured latency, if the peripheral is still connected.
+     */
+    private boolean respond(Runnable callback) {
+        synchronized (this) {
+            if (!mConnected || mClosed) {
+                return false;
+            }
+        }
+        mExecutor.schedule(() -> {
+            synchronized (this) {
+                if (!mConnected) {
+                    return;
+                }
+            }
+            callback.run();
+        }, mLatency, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    @Override
+    public String getDeviceName() {
+        return mDeviceName;
+    }
+
+    @Override
+    public synchronized boolean connect() {
+        if (mClosed || mCallback == null) {
+            return false;
+        }
+        mExecutor.schedule(() -> {
+            synchronized (this) {
+                if (mClosed || mConnected) {
+                    return;
+                }
+                mConnected = true;
+            }
+            mCallback.onConnectionStateChange(null, BluetoothGatt.GATT_SUCCESS, BluetoothGatt.STATE_CONNECTED);
+        }, mConnectionDelay, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    @Override
+    public void disconnect() {
+        mExecutor.schedule(() -> {
+            synchronized (this) {
+                if (!mConnected) {
+                    return;
+                }
+                mConnected = false;
+                stopNotifications();
+            }
+            mCallback.onConnectionStateChange(null, BluetoothGatt.GATT_SUCCESS, BluetoothGatt.STATE_DISCONNECTED);
+        }, mLatency, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        mClosed = true;
+        mConnected = false;
+        stopNotifications();
+    }
+
+    @Override
+    public boolean discoverServices() {
+        return respond(() -> mCallback.onServicesDiscovered(null, BluetoothGatt.GATT_SUCCESS));
+    }
+
+    @Override
+    public synchronized List<BluetoothGattService> getServices() {
+        return new ArrayList<>(mServices);
+    }
+
+    @Override
+    public synchronized BluetoothGattService getService(UUID uuid) {
+        for (BluetoothGattService service : mServices) {
+            if (service.getUuid().equals(uuid)) {
+                return service;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean readCharacteristic(BluetoothGattCharacteristic characteristic) {
+        return respond(() -> mCallback.onCharacteristicRead(null, characteristic, BluetoothGatt.GATT_SUCCESS));
+    }
+
+    @Override
+    public boolean writeCharacteristic(BluetoothGattCharacteristic characteristic) {
+        byte[] value = characteristic.getValue();
+        byte[] copy = (value != null) ? Arrays.copyOf(value, value.length) : new byte[0];
+        return respond(() -> {
+            WriteHandler handler;
+            synchronized (this) {
+                handler = mWriteHandlers.get(characteristic.getUuid());
+            }
+            mCallback.onCharacteristicWrite(null, characteristic, BluetoothGatt.GATT_SUCCESS);
+            if (handler != null) {
+                handler.onWrite(this, characteristic, copy);
+            }
+        });
+    }
+
+    @Override
+    public boolean writeDescriptor(BluetoothGattDescriptor descriptor) {
+        byte[] value = descriptor.getValue();
+        return respond(() -> {
+            if (BleGattAttributes.CLIENT_CHARACTERISTIC_CONFIGURATION.equals(descriptor.getUuid())) {
+                synchronized (this) {
+                    if (Arrays.equals(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE, value)) {
+                        stopNotifications(descriptor.getCharacteristic().getUuid());
+                    } else {
+                        startNotifications(descriptor.getCharacteristic());
+                    }
+                }
+            }
+            mCallback.onDescriptorWrite(null, descriptor, BluetoothGatt.GATT_SUCCESS);
+        });
+    }
+
+    @Override
+    public boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enable) {
+        return true;
+    }
+
+    @Override
+    public boolean requestMtu(int mtu) {
+        int grantedMtu;
+        synchronized (this) {
+            grantedMtu = Math.min(mtu, mMaxMtu);
+        }
+        return respond(() -> mCallback.onMtuChanged(null, grantedMtu, BluetoothGatt.GATT_SUCCESS));
+    }
+
+    @Override
+    public boolean requestConnectionPriority(int connectionPriority) {
+        return true;
+    }
+
+    @Override
+    public void setPreferredPhy(int txPhy, int rxPhy, int phyOptions) {
+        int phy = (txPhy & BluetoothDevice.PHY_LE_2M_MASK) != 0 ? BluetoothDevice.PHY_LE_2M : BluetoothDevice.PHY_LE_1M;
+        respond(() -> mCallback.onPhyUpdate(null, phy, phy, BluetoothGatt.GATT_SUCCESS));
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " <" + mDeviceName + ">";
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib.sensors;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import de.fau.sensorlib.BleGattAttributes;
+import de.fau.sensorlib.SensorDataProcessor;
+import de.fau.sensorlib.dataframe.SensorDataFrame;
+import de.fau.sensorlib.enums.SensorMessage;
+import de.fau.sensorlib.enums.SensorState;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Drives {@link GenericBleSensor} through connection setup, streaming, connection loss and disconnect, using a
+ * {@link FakeBleTransport} as peripheral.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class GenericBleSensorFakeTransportTest {
+
+    private static final String DEVICE_ADDRESS = "00:11:22:33:44:55";
+    /**
+     * The known device registry is shared by all tests, the GATT cache test uses its own sensor
+     */
+    private static final String CACHE_TEST_ADDRESS = "00:11:22:33:44:66";
+    private static final double NOTIFICATION_RATE = 200;
+    private static final long TIMEOUT = 10000;
+
+    /**
+     * Heart rate sensor, counting the received heart rate notifications.
+     */
+    private static class HeartRateSensor extends GenericBleSensor {
+
+        private final AtomicInteger mNumNotifications = new AtomicInteger();
+
+        private HeartRateSensor(Context context, String address, SensorDataProcessor processor) {
+            super(context, "Fake BLE HR", address, processor);
+        }
+
+        @Override
+        protected boolean shouldEnableNotification(BluetoothGattCharacteristic c) {
+            return BleGattAttributes.HEART_RATE_MEASUREMENT.equals(c.getUuid()) || super.shouldEnableNotification(c);
+        }
+
+        @Override
+        protected boolean onNewCharacteristicValue(BluetoothGattCharacteristic characteristic, boolean isChange) {
+            if (BleGattAttributes.HEART_RATE_MEASUREMENT.equals(characteristic.getUuid())) {
+                if (isChange) {
+                    mNumNotifications.incrementAndGet();
+                }
+                return true;
+            }
+            return super.onNewCharacteristicValue(characteristic, isChange);
+        }
+    }
+
+    private static class RecordingProcessor implements SensorDataProcessor {
+
+        private final AtomicInteger mNumConnected = new AtomicInteger();
+        private final AtomicInteger mNumStartStreaming = new AtomicInteger();
+        private final AtomicInteger mNumDisconnected = new AtomicInteger();
+        private final List<Object> mNotifications = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onNewData(SensorDataFrame data) {
+        }
+
+        @Override
+        public void onConnected(AbstractSensor sensor) {
+            mNumConnected.incrementAndGet();
+        }
+
+        @Override
+        public void onStartStreaming(AbstractSensor sensor) {
+            mNumStartStreaming.incrementAndGet();
+        }
+
+        @Override
+        public void onDisconnected(AbstractSensor sensor) {
+            mNumDisconnected.incrementAndGet();
+        }
+
+        @Override
+        public void onNotify(AbstractSensor sensor, Object notification) {
+            mNotifications.add(notification);
+        }
+
+        private boolean hasNotification(Class<?> type) {
+            for (Object notification : mNotifications) {
+                if (type.isInstance(notification)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static BluetoothGattCharacteristic createCharacteristic(UUID uuid, int properties, byte[] value) {
+        BluetoothGattCharacteristic c = new BluetoothGattCharacteristic(uuid, properties, BluetoothGattCharacteristic.PERMISSION_READ);
+        if ((properties & BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0) {
+            c.addDescriptor(new BluetoothGattDescriptor(BleGattAttributes.CLIENT_CHARACTERISTIC_CONFIGURATION,
+                    BluetoothGattDescriptor.PERMISSION_READ | BluetoothGattDescriptor.PERMISSION_WRITE));
+        }
+        c.setValue(value);
+        return c;
+    }
+
+    private static FakeBleTransport createHeartRatePeripheral(long seed) {
+        BluetoothGattService deviceInfo = new BluetoothGattService(BleGattAttributes.DEVICE_INFORMATION_SERVICE, BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        deviceInfo.addCharacteristic(createCharacteristic(BleGattAttributes.MANUFACTURER_NAME_STRING, BluetoothGattCharacteristic.PROPERTY_READ, "FAU".getBytes()));
+        deviceInfo.addCharacteristic(createCharacteristic(BleGattAttributes.FIRMWARE_REVISION_STRING, BluetoothGattCharacteristic.PROPERTY_READ, "1.2.3".getBytes()));
+        deviceInfo.addCharacteristic(createCharacteristic(BleGattAttributes.HARDWARE_REVISION_STRING, BluetoothGattCharacteristic.PROPERTY_READ, "r2".getBytes()));
+
+        BluetoothGattService battery = new BluetoothGattService(BleGattAttributes.BATTERY_SERVICE, BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        battery.addCharacteristic(createCharacteristic(BleGattAttributes.BATTERY_LEVEL,
+                BluetoothGattCharacteristic.PROPERTY_READ | BluetoothGattCharacteristic.PROPERTY_NOTIFY, new byte[]{87}));
+
+        BluetoothGattService heartRate = new BluetoothGattService(BleGattAttributes.HEART_RATE_SERVICE, BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        heartRate.addCharacteristic(createCharacteristic(BleGattAttributes.HEART_RATE_MEASUREMENT, BluetoothGattCharacteristic.PROPERTY_NOTIFY, new byte[]{0, 0}));
+
+        return new FakeBleTransport("Fake BLE HR", seed)
+                .addService(deviceInfo)
+                .addService(battery)
+                .addService(heartRate)
+                .setLatency(2)
+                .setConnectionDelay(20)
+                .addNotificationSource(BleGattAttributes.HEART_RATE_MEASUREMENT, NOTIFICATION_RATE, index -> new byte[]{0, (byte) (60 + index % 60)});
+    }
+
+    /**
+     * Runs the main looper (and advances its clock) until the condition is met. GATT callbacks are invoked from
+     * the thread of the fake transport, messages to the sensor's handlers are processed here.
+     */
+    private static void waitFor(String what, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timeout waiting for " + what);
+            }
+            ShadowLooper.idleMainLooper(5, TimeUnit.MILLISECONDS);
+            Thread.sleep(5);
+        }
+    }
+
+    private static HeartRateSensor connect(FakeBleTransport transport, RecordingProcessor processor) throws Exception {
+        return connect(transport, processor, DEVICE_ADDRESS);
+    }
+
+    private static HeartRateSensor connect(FakeBleTransport transport, RecordingProcessor processor, String address) throws Exception {
+        HeartRateSensor sensor = new HeartRateSensor(RuntimeEnvironment.application, address, processor);
+        sensor.setTransportFactory(transport.getFactory());
+        assertTrue(sensor.connect());
+        waitFor("connected", () -> sensor.getState() == SensorState.CONNECTED);
+        return sensor;
+    }
+
+    @Test
+    public void connectsStreamsAndDisconnects() throws Exception {
+        FakeBleTransport transport = createHeartRatePeripheral(1);
+        RecordingProcessor processor = new RecordingProcessor();
+        HeartRateSensor sensor = connect(transport, processor);
+
+        assertEquals(1, processor.mNumConnected.get());
+        assertEquals("1.2.3", sensor.getFirmwareRevisionString());
+        assertEquals(247, sensor.getLinkInfo().getMtu());
+
+        sensor.startStreaming();
+        waitFor("streaming", () -> sensor.getState() == SensorState.STREAMING);
+        waitFor("notifications", () -> sensor.mNumNotifications.get() >= 100);
+        // battery level is read in the background once streaming was started
+        waitFor("battery level", () -> sensor.getBatteryLevel() == 87);
+
+        sensor.stopStreaming();
+        waitFor("streaming stopped", () -> sensor.getState() == SensorState.CONNECTED);
+        // notifications sent before they were disabled may still be in flight
+        waitFor("pending notifications", () -> sensor.mNumNotifications.get() == transport.getNotificationsSent());
+        long sent = transport.getNotificationsSent();
+        Thread.sleep(100);
+        assertEquals(sent, transport.getNotificationsSent());
+
+        sensor.disconnect();
+        waitFor("disconnected", () -> sensor.getState() == SensorState.DISCONNECTED);
+        assertEquals(1, processor.mNumDisconnected.get());
+    }
+
+    @Test
+    public void countsLostNotifications() throws Exception {
+        FakeBleTransport transport = createHeartRatePeripheral(7);
+        transport.setPacketLoss(0.1);
+        RecordingProcessor processor = new RecordingProcessor();
+        HeartRateSensor sensor = connect(transport, processor);
+
+        sensor.startStreaming();
+        waitFor("notifications", () -> transport.getNotificationsSent() + transport.getNotificationsLost() >= 400);
+        sensor.stopStreaming();
+        waitFor("streaming stopped", () -> sensor.getState() == SensorState.CONNECTED);
+        waitFor("pending notifications", () -> sensor.mNumNotifications.get() == transport.getNotificationsSent());
+
+        assertTrue(transport.getNotificationsLost() > 0);
+        sensor.disconnect();
+        waitFor("disconnected", () -> sensor.getState() == SensorState.DISCONNECTED);
+    }
+
+    @Test
+    public void resumesStreamingAfterConnectionLoss() throws Exception {
+        FakeBleTransport transport = createHeartRatePeripheral(3);
+        RecordingProcessor processor = new RecordingProcessor();
+        HeartRateSensor sensor = connect(transport, processor);
+        sensor.setReconnectPolicy(new BleReconnectPolicy(100, 1000, 2.0, 0, 3));
+
+        sensor.startStreaming();
+        waitFor("notifications", () -> sensor.mNumNotifications.get() >= 50);
+
+        // connection timeout
+        transport.scheduleConnectionLoss(0, 8);
+        waitFor("connection loss", () -> processor.mNotifications.contains(SensorMessage.CONNECTION_INTERRUPTED));
+        waitFor("stream restored", () -> processor.hasNotification(BleStreamGap.class));
+        int received = sensor.mNumNotifications.get();
+        waitFor("notifications after reconnect", () -> sensor.mNumNotifications.get() >= received + 50);
+
+        // the reconnect continues the session
+        assertEquals(SensorState.STREAMING, sensor.getState());
+        assertFalse(sensor.isAutoReconnecting());
+        assertEquals(1, processor.mNumConnected.get());
+        assertEquals(1, processor.mNumStartStreaming.get());
+        assertEquals(0, processor.mNumDisconnected.get());
+
+        sensor.disconnect();
+        waitFor("disconnected", () -> sensor.getState() == SensorState.DISCONNECTED);
+    }
+
+    /**
+     * The second connection takes the hardware revision from the GATT cache. The firmware revision is read again
+     * to validate the cache, the manufacturer name is read lazily and not at all during link setup.
+     */
+    @Test
+    public void takesStaticValuesFromGattCache() throws Exception {
+        HeartRateSensor sensor = connect(createHeartRatePeripheral(5), new RecordingProcessor(), CACHE_TEST_ADDRESS);
+        BleLinkInfo linkInfo = sensor.getLinkInfo();
+        assertFalse(linkInfo.isGattCacheHit());
+        assertEquals(0, linkInfo.getNumCachedReads());
+        int numSetupReads = linkInfo.getNumSetupReads();
+        sensor.disconnect();
+        waitFor("disconnected", () -> sensor.getState() == SensorState.DISCONNECTED);
+
+        HeartRateSensor cachedSensor = connect(createHeartRatePeripheral(5), new RecordingProcessor(), CACHE_TEST_ADDRESS);
+        linkInfo = cachedSensor.getLinkInfo();
+        assertTrue(linkInfo.isGattCacheHit());
+        assertEquals(1, linkInfo.getNumCachedReads());
+        assertEquals(numSetupReads - 1, linkInfo.getNumSetupReads());
+        assertEquals("r2", cachedSensor.getHardwareRevisionString());
+        assertEquals("1.2.3", cachedSensor.getFirmwareRevisionString());
+        cachedSensor.disconnect();
+        waitFor("disconnected", () -> cachedSensor.getState() == SensorState.DISCONNECTED);
+    }
+}
@@ -12,7 +12,6 @@ import android.bluetooth.BluetoothSocket;
 import android.content.Context;
 import android.util.Log;
 
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
@@ -35,20 +34,24 @@ public class FitnessShirt extends AbstractSensor {
     //generic UUID for serial port protocol
     private static final UUID SPP_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
 
-    private static final double ADC_BASELINE_IN_V = 1.65;
-    private static final double ADC_TO_V_MULTIPLIER = 3.3 / 4095d;
+    /**
+     * Maximum number of frames decoded before they are sent to the data processors
+     */
+    private static final int FRAMES_PER_BLOCK = 8;
 
     private BluetoothDevice btDevice;
     private BluetoothSocket btSocket;
     private InputStream btInputStream;
-    private DataInputStream mBtDataInStream;
+    /**
+     * Created by the reading thread, read by getFrameReader()
+     */
+    private volatile FitnessShirtFrameReader mFrameReader;
     private ConnectedThread commThread;
     private double samplingIntervalMillis = 0;
     private long startStreamingTimestamp = 0;
 
 
     public static class FitnessShirtDataFrame extends SensorDataFrame implements EcgDataFrame, AccelDataFrame, RespirationDataFrame, RespirationRateDataFrame, HeartRateIbiDataFrame {
-        double[] ecgSamples = new double[16];
         double ecg;
         long respiration;
         long respirationRate;
@@ -215,7 +218,6 @@ public class FitnessShirt extends AbstractSensor {
             }
 
             btInputStream = btSocket.getInputStream();
-            mBtDataInStream = new DataInputStream(btInputStream);
 
             startStreamingTimestamp = System.nanoTime();
 
@@ -231,8 +233,6 @@ public class FitnessShirt extends AbstractSensor {
     @Override
     public void stopStreaming() {
         try {
-            if (mBtDataInStream != null)
-                mBtDataInStream.close();
             if (btInputStream != null)
                 btInputStream.close();
             sendStopStreaming();
@@ -247,61 +247,44 @@ public class FitnessShirt extends AbstractSensor {
         return false;
     }
 
+    /**
+     * @return the frame reader of the current stream (with corrupt frame and throughput statistics), or null
+     */
+    public FitnessShirtFrameReader getFrameReader() {
+        return mFrameReader;
+    }
+
     private class ConnectedThread extends Thread {
         public synchronized void run() {
-            byte[] buffer = new byte[46];  // buffer store for the stream
-
-            // Keep listening to the InputStream while connected
-            while (true) {
-                try {
-                    // read 46 byte data frames
-                    //bytes = btInputStream.read( buffer );
-                    mBtDataInStream.readFully(buffer, 0, 46);
-
-                    //Log.d( this.getClass().getSimpleName(), "@" + System.currentTimeMillis() + " --> BT read: " + numBytesRead );
-
-                    FitnessShirtDataFrame df = extractDataFrame(buffer);
-                    if (df == null)
-                        continue;
-
-                    for (int i = 0; i < df.ecgSamples.length; i++) {
-                        FitnessShirtDataFrame fdf = new FitnessShirtDataFrame(FitnessShirt.this, df.getTimestamp() + i * samplingIntervalMillis);
-                        fdf.ax = df.ax;
-                        fdf.ay = df.ay;
-                        fdf.az = df.az;
-                        fdf.ecg = df.ecgSamples[i];
-                        fdf.respiration = df.respiration;
-                        fdf.respirationRate = df.respirationRate;
-                        fdf.heartRate = df.heartRate;
-
-                        sendNewData(fdf);
-
-                        //fsdf.ecg = fsdf.ecgSamples[i];
-                        //fsdf.setTimestamp( fsdf.getTimestamp() + samplingIntervalMillis );
-                        //mExternalHandler.onNewData( fsdf );
+            mFrameReader = new FitnessShirtFrameReader(btInputStream, getSamplingRate(), FRAMES_PER_BLOCK, new FitnessShirtFrameReader.FrameBlockListener() {
+                @Override
+                public void onFrames(FitnessShirtFrameReader reader, int numFrames) {
+                    for (int frame = 0; frame < numFrames; frame++) {
+                        double timestamp = (reader.getTimestamp(frame) - startStreamingTimestamp) / 1.0e6;
+                        // each data frame contains 16 consecutive ecg samples, they are sent separately
+                        for (int i = 0; i < FitnessShirtFrameReader.ECG_SAMPLES_PER_FRAME; i++) {
+                            FitnessShirtDataFrame fdf = new FitnessShirtDataFrame(FitnessShirt.this, timestamp + i * samplingIntervalMillis);
+                            fdf.ax = reader.getAccel(frame, 0);
+                            fdf.ay = reader.getAccel(frame, 1);
+                            fdf.az = reader.getAccel(frame, 2);
+                            fdf.ecg = reader.getEcgSample(frame, i);
+                            fdf.respiration = reader.getRespiration(frame);
+                            fdf.respirationRate = reader.getRespirationRate(frame);
+                            fdf.heartRate = reader.getHeartRate(frame);
+                            sendNewData(fdf);
+                        }
                     }
-
-/*
-                    // dispatch message with data to UI
-                    // each data frame contains 16 consecutive ecg samples, we reuse the same dataframe to send them separately
-                    for (int i = 0; i < df.ecgSamples.length; i++)
-                    {
-                        FitnessShirtDataFrame fdf = new FitnessShirtDataFrame( getThis(), df.getTimestamp() + i * samplingIntervalMillis );
-                        fdf.ecg = df.ecgSamples[i];
-                        fdf.respiration = df.respiration;
-                        //fdf.setTimestamp( df.getTimestamp() + samplingIntervalMillis );
-                        //mInternalHandler.obtainMessage( MESSAGE_NEW_DATA, df ).sendToTarget();
-                        mExternalHandler.onNewData( fdf );
-                    }*/
-
-                } catch (IOException e) {
-                    Log.i(this.getClass().getSimpleName(), "Datastream read failed, probably BT connection terminated.");
-                    //e.printStackTrace();
-                    //notifyExternalHandler( "Connection closed by remote sensor." );
-                    sendConnectionLost();
-                    disconnect();
-                    break;
                 }
+            });
+
+            try {
+                mFrameReader.run();
+            } catch (IOException e) {
+                Log.i(this.getClass().getSimpleName(), "Datastream read failed, probably BT connection terminated.");
+                Log.i(this.getClass().getSimpleName(), "Frames: " + mFrameReader.getNumFrames() + ", corrupt: " + mFrameReader.getNumCorruptFrames()
+                        + ", resyncs: " + mFrameReader.getNumResyncs() + ", throughput: " + Math.round(mFrameReader.getThroughput()) + " B/s");
+                sendConnectionLost();
+                disconnect();
             }
         }
 
@@ -309,70 +292,4 @@ public class FitnessShirt extends AbstractSensor {
             // TODO: cleanup
         }
     }
-
-
-    /**
-     * @param lowByte  lower Byte
-     * @param highByte upper Byte
-     * @return merged value.
-     */
-    private static long mergeLowHigh16BitUnsigned(byte lowByte, byte highByte) {
-        return (lowByte & 0xFF) | (highByte & 0xFF) << 8;
-    }
-
-    /**
-     * @param lowByte  lower Byte
-     * @param highByte upper Byte
-     * @return merged value.
-     */
-    private static int mergeLowHigh12BitSigned(byte lowByte, byte highByte) {
-        // since the 12 bit "shorts" are actually signed, we need to check for that negative sign bit and fill
-        // the 4 high bits in the 16-bit Java short to correctly compensate.
-        if ((highByte & 0x8) == 0)
-            // positive value
-            return (lowByte & 0xFF) | (highByte & 0xFF) << 8;
-        // negative 12-bit value, shift fill the highest 4 bits in the 16 bit short
-        return (lowByte & 0xFF) | (highByte & 0xF) << 8 | (0xFFFFF << 12);
-    }
-
-    /**
-     * Extracts the data from the dataframe byte buffer.
-     *
-     * @param buffer byte data buffer.
-     * @return extracted FitnessSHIRT data frame.
-     */
-    private FitnessShirtDataFrame extractDataFrame(byte[] buffer) {
-        //ByteBuffer buf = ByteBuffer.wrap(buffer);
-        //if (buf.get() != -1 || buf.get() != -1)
-
-
-        if (buffer[0] != -1 || buffer[1] != -1) {
-            // invalid data frame
-            Log.d(this.getClass().getSimpleName(), "Invalid data frame (" + buffer[0] + " " + buffer[1] + ")");
-            return null;
-        }
-
-        FitnessShirtDataFrame df = new FitnessShirtDataFrame(this, (System.nanoTime() - startStreamingTimestamp) / 1.0e6);
-
-        // each value is encoded in a low and following high-byte.
-
-        // 16 ECG samples are 16-bit unsigned
-        for (int i = 0; i < 16; i++) {
-            df.ecgSamples[i] = mergeLowHigh16BitUnsigned(buffer[2 + i * 2], buffer[3 + i * 2]);
-            // convert from ADC units to Volt and subtract baseline
-            df.ecgSamples[i] = df.ecgSamples[i] * ADC_TO_V_MULTIPLIER - ADC_BASELINE_IN_V;
-        }
-
-        // respiration, respRate and heartRate are all 16-bit unsigned
-        df.respiration = mergeLowHigh16BitUnsigned(buffer[34], buffer[35]);
-        df.respirationRate = mergeLowHigh16BitUnsigned(buffer[36], buffer[37]);
-        df.heartRate = mergeLowHigh16BitUnsigned(buffer[38], buffer[39]);
-
-        // acceleration is 12-bit signed
-        df.ax = mergeLowHigh12BitSigned(buffer[40], buffer[41]);
-        df.ay = mergeLowHigh12BitSigned(buffer[42], buffer[43]);
-        df.az = mergeLowHigh12BitSigned(buffer[44], buffer[45]);
-
-        return df;
-    }
 }
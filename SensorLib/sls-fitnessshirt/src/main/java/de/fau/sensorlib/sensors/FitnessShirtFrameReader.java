@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib.sensors;
+
+import android.util.Log;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads FitnessSHIRT data frames from the RFCOMM stream.
+ * <p>
+ * The stream is read in large chunks into a reusable buffer, and frames are decoded directly into preallocated
+ * arrays holding one block of frames. The listener is notified once a block is full or all data read so far was
+ * decoded; the decoded values are only valid during the callback.
+ * <p>
+ * All frames decoded from one chunk arrive at the same time, so they are timestamped by their position in the chunk:
+ * the last frame gets the time the chunk was read and earlier frames are back-dated by one frame duration each.
+ * Timestamps never decrease and are never later than the time the frame was read.
+ * <p>
+ * Every frame starts with the header 0xFF 0xFF. A frame with an invalid header or implausible ECG values (the ADC
+ * only has 12 bit) is counted as corrupt, and the reader resynchronizes on the next valid frame whose header is
+ * followed by another header one frame later. Candidates rejected while resynchronizing are not counted again.
+ */
+public class FitnessShirtFrameReader {
+
+    private static final String TAG = FitnessShirtFrameReader.class.getSimpleName();
+
+    public static final int FRAME_SIZE = 46;
+    public static final int ECG_SAMPLES_PER_FRAME = 16;
+
+    private static final int BUFFER_SIZE = 64 * FRAME_SIZE;
+    private static final int MAX_ECG_VALUE = 0x0FFF;
+
+    private static final double ADC_BASELINE_IN_V = 1.65;
+    private static final double ADC_TO_V_MULTIPLIER = 3.3 / 4095d;
+
+    public interface FrameBlockListener {
+        /**
+         * Called (on the reading thread) when a block of frames was decoded.
+         *
+         * @param numFrames number of frames in the block
+         */
+        void onFrames(FitnessShirtFrameReader reader, int numFrames);
+    }
+
+    private final InputStream mInputStream;
+    private final FrameBlockListener mListener;
+    private final int mFramesPerBlock;
+    private final long mFrameDuration;
+
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mStart;
+    private int mEnd;
+    private boolean mSynchronized = true;
+
+    // frames in the chunk currently decoded
+    private long mChunkReadTime;
+    private int mNumChunkFrames;
+    private int mChunkFrame;
+    private long mLastTimestamp = Long.MIN_VALUE;
+
+    // decoded block
+    private final double[] mEcg;
+    private final int[] mRespiration;
+    private final int[] mRespirationRate;
+    private final int[] mHeartRate;
+    private final int[] mAccel;
+    private final long[] mTimestamps;
+    private int mNumBlockFrames;
+
+    // statistics
+    private long mStartTime;
+    private long mNumBytes;
+    private long mNumFrames;
+    private long mNumCorruptFrames;
+    private long mNumResyncs;
+    private long mNumSkippedBytes;
+
+
+    /**
+     * @param in             RFCOMM input stream
+     * @param samplingRate   ECG sampling rate (in Hz), used to back-date frames read at once
+     * @param framesPerBlock maximum number of frames delivered at once (1 to deliver every frame on its own)
+     * @param listener       listener receiving the decoded frames
+     */
+    public FitnessShirtFrameReader(InputStream in, double samplingRate, int framesPerBlock, FrameBlockListener listener) {
+        mInputStream = in;
+        mListener = listener;
+        mFramesPerBlock = Math.max(1, framesPerBlock);
+        mFrameDuration = (samplingRate > 0) ? Math.round(ECG_SAMPLES_PER_FRAME * 1e9 / samplingRate) : 0;
+        mEcg = new double[mFramesPerBlock * ECG_SAMPLES_PER_FRAME];
+        mRespiration = new int[mFramesPerBlock];
+        mRespirationRate = new int[mFramesPerBlock];
+        mHeartRate = new int[mFramesPerBlock];
+        mAccel = new int[mFramesPerBlock * 3];
+        mTimestamps = new long[mFramesPerBlock];
+    }
+
+    /**
+     * Reads and decodes frames until the stream is closed.
+     *
+     * @throws IOException if reading fails or the stream was closed
+     */
+    public void run() throws IOException {
+        mStartTime = System.nanoTime();
+        while (true) {
+            if (mStart > 0) {
+                // move the incomplete frame to the front
+                System.arraycopy(mBuffer, mStart, mBuffer, 0, mEnd - mStart);
+                mEnd -= mStart;
+                mStart = 0;
+            }
+            int len = mInputStream.read(mBuffer, mEnd, mBuffer.length - mEnd);
+            if (len < 0) {
+                throw new EOFException("RFCOMM stream closed");
+            }
+            mEnd += len;
+            mNumBytes += len;
+            decode(System.nanoTime());
+            deliverBlock();
+        }
+    }
+
+    private void decode(long readTime) {
+        mChunkReadTime = readTime;
+        mNumChunkFrames = (mEnd - mStart) / FRAME_SIZE;
+        mChunkFrame = 0;
+        while (mEnd - mStart >= FRAME_SIZE) {
+            if (!mSynchronized && !findHeader()) {
+                return;
+            }
+            if (isValidFrame(mStart)) {
+                if (!mSynchronized) {
+                    mSynchronized = true;
+                    mNumResyncs++;
+                    Log.d(TAG, "Resynchronized after " + mNumSkippedBytes + " skipped bytes in total.");
+                }
+                decodeFrame(mStart);
+                mStart += FRAME_SIZE;
+            } else {
+                if (mSynchronized) {
+                    // one corrupt frame per loss of synchronization, not per candidate header tried afterwards
+                    mNumCorruptFrames++;
+                    mSynchronized = false;
+                }
+                // skip the header of the corrupt frame, search the next one
+                mStart++;
+                mNumSkippedBytes++;
+            }
+        }
+    }
+
+    /**
+     * Searches the next frame header. A header is only accepted if the following frame also starts with a header
+     * (or the following frame was not received yet), since the payload may contain 0xFF 0xFF as well.
+     *
+     * @return true if a candidate frame starts at the current position, false if more data is needed
+     */
+    private boolean findHeader() {
+        while (mEnd - mStart >= 2) {
+            if (isHeader(mStart) && (mEnd - mStart < FRAME_SIZE + 2 || isHeader(mStart + FRAME_SIZE))) {
+                if (mEnd - mStart < FRAME_SIZE + 2) {
+                    // wait for the next frame to confirm
+                    return false;
+                }
+                return true;
+            }
+            mStart++;
+            mNumSkippedBytes++;
+        }
+        return false;
+    }
+
+    private boolean isHeader(int offset) {
+        return mBuffer[offset] == (byte) 0xFF && mBuffer[offset + 1] == (byte) 0xFF;
+    }
+
+    private boolean isValidFrame(int offset) {
+        if (!isHeader(offset)) {
+            return false;
+        }
+        for (int i = 0; i < ECG_SAMPLES_PER_FRAME; i++) {
+            if (merge16BitUnsigned(offset + 2 + i * 2) > MAX_ECG_VALUE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void decodeFrame(int offset) {
+        int frame = mNumBlockFrames;
+        // each value is encoded in a low and following high-byte
+        for (int i = 0; i < ECG_SAMPLES_PER_FRAME; i++) {
+            // convert from ADC units to Volt and subtract baseline
+            mEcg[frame * ECG_SAMPLES_PER_FRAME + i] = merge16BitUnsigned(offset + 2 + i * 2) * ADC_TO_V_MULTIPLIER - ADC_BASELINE_IN_V;
+        }
+        mRespiration[frame] = merge16BitUnsigned(offset + 34);
+        mRespirationRate[frame] = merge16BitUnsigned(offset + 36);
+        mHeartRate[frame] = merge16BitUnsigned(offset + 38);
+        for (int i = 0; i < 3; i++) {
+            mAccel[frame * 3 + i] = merge12BitSigned(offset + 40 + i * 2);
+        }
+        mTimestamps[frame] = getFrameTimestamp();
+        mNumFrames++;
+        if (++mNumBlockFrames == mFramesPerBlock) {
+            deliverBlock();
+        }
+    }
+
+    /**
+     * Back-dates the current frame by the duration of the frames following it in the chunk. After a stall of the
+     * reading thread the back-dated frames may overlap the previous chunk, so the timestamp is kept between the
+     * timestamp of the previous frame plus one frame duration and the time the chunk was read.
+     */
+    private long getFrameTimestamp() {
+        int framesAfter = Math.max(0, mNumChunkFrames - 1 - mChunkFrame++);
+        long timestamp = mChunkReadTime - framesAfter * mFrameDuration;
+        if (mLastTimestamp != Long.MIN_VALUE && timestamp < mLastTimestamp + mFrameDuration) {
+            timestamp = Math.min(mLastTimestamp + mFrameDuration, mChunkReadTime);
+        }
+        mLastTimestamp = timestamp;
+        return timestamp;
+    }
+
+    private void deliverBlock() {
+        if (mNumBlockFrames > 0) {
+            mListener.onFrames(this, mNumBlockFrames);
+            mNumBlockFrames = 0;
+        }
+    }
+
+    private int merge16BitUnsigned(int offset) {
+        return (mBuffer[offset] & 0xFF) | (mBuffer[offset + 1] & 0xFF) << 8;
+    }
+
+    private int merge12BitSigned(int offset) {
+        int value = (mBuffer[offset] & 0xFF) | (mBuffer[offset + 1] & 0x0F) << 8;
+        // sign extension of the 12 bit value
+        return (value << 20) >> 20;
+    }
+
+    /**
+     * @return ECG sample of the given frame in the current block (in V)
+     */
+    public double getEcgSample(int frame, int sample) {
+        return mEcg[frame * ECG_SAMPLES_PER_FRAME + sample];
+    }
+
+    public int getRespiration(int frame) {
+        return mRespiration[frame];
+    }
+
+    public int getRespirationRate(int frame) {
+        return mRespirationRate[frame];
+    }
+
+    public int getHeartRate(int frame) {
+        return mHeartRate[frame];
+    }
+
+    /**
+     * @param axis 0 (x), 1 (y) or 2 (z)
+     */
+    public int getAccel(int frame, int axis) {
+        return mAccel[frame * 3 + axis];
+    }
+
+    /**
+     * @return estimated time the given frame of the current block was sent (System.nanoTime()), i.e. the time it
+     * was received minus the duration of the frames received together with it after this frame
+     */
+    public long getTimestamp(int frame) {
+        return mTimestamps[frame];
+    }
+
+    public long getNumFrames() {
+        return mNumFrames;
+    }
+
+    /**
+     * @return number of times the stream lost synchronization because of a corrupt frame
+     */
+    public long getNumCorruptFrames() {
+        return mNumCorruptFrames;
+    }
+
+    public long getNumResyncs() {
+        return mNumResyncs;
+    }
+
+    public long getNumSkippedBytes() {
+        return mNumSkippedBytes;
+    }
+
+    public long getNumBytes() {
+        return mNumBytes;
+    }
+
+    /**
+     * @return average throughput since the reader was started (in bytes/s)
+     */
+    public double getThroughput() {
+        long elapsed = System.nanoTime() - mStartTime;
+        return (mStartTime > 0 && elapsed > 0) ? mNumBytes * 1e9 / elapsed : 0;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib.sensors;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Feeds {@link FitnessShirtFrameReader} with synthetic RFCOMM streams: frames split across read chunks at arbitrary
+ * positions, corrupt frames and payloads containing the frame header.
+ */
+public class FitnessShirtFrameReaderTest {
+
+    private static final double SAMPLING_RATE = 256;
+    private static final int FRAMES_PER_BLOCK = 8;
+
+    /**
+     * Returns the given chunks one per read, then reports the end of the stream.
+     */
+    private static class ChunkedInputStream extends InputStream {
+        private final byte[] mData;
+        private final int[] mChunkSizes;
+        private int mChunk;
+        private int mPos;
+
+        private ChunkedInputStream(byte[] data, int[] chunkSizes) {
+            mData = data;
+            mChunkSizes = chunkSizes;
+        }
+
+        @Override
+        public int read() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (mPos == mData.length) {
+                return -1;
+            }
+            int size = (mChunk < mChunkSizes.length) ? mChunkSizes[mChunk++] : mData.length - mPos;
+            size = Math.min(Math.min(size, len), mData.length - mPos);
+            System.arraycopy(mData, mPos, b, off, size);
+            mPos += size;
+            return size;
+        }
+    }
+
+    /**
+     * Collects the frame numbers (sent as respiration rate) and checks the decoded values of every frame.
+     */
+    private static class Collector implements FitnessShirtFrameReader.FrameBlockListener {
+        private final List<Integer> mFrames = new ArrayList<>();
+        private long mLastTimestamp = Long.MIN_VALUE;
+
+        @Override
+        public void onFrames(FitnessShirtFrameReader reader, int numFrames) {
+            assertTrue(numFrames > 0 && numFrames <= FRAMES_PER_BLOCK);
+            for (int frame = 0; frame < numFrames; frame++) {
+                int n = reader.getRespirationRate(frame);
+                for (int i = 0; i < FitnessShirtFrameReader.ECG_SAMPLES_PER_FRAME; i++) {
+                    double expected = ecgValue(n, i) * 3.3 / 4095d - 1.65;
+                    assertEquals(expected, reader.getEcgSample(frame, i), 1e-9);
+                }
+                assertEquals(RESPIRATION, reader.getRespiration(frame));
+                assertEquals(n % 200, reader.getHeartRate(frame));
+                assertEquals(-100, reader.getAccel(frame, 0));
+                assertEquals(n % 2048, reader.getAccel(frame, 1));
+                assertEquals(2047, reader.getAccel(frame, 2));
+                assertTrue(reader.getTimestamp(frame) >= mLastTimestamp);
+                mLastTimestamp = reader.getTimestamp(frame);
+                mFrames.add(n);
+            }
+        }
+    }
+
+    /**
+     * The respiration value of every frame is 0xFFFF, so the payload contains the frame header one frame before the
+     * respiration value of the next frame.
+     */
+    private static final int RESPIRATION = 0xFFFF;
+
+    private static int ecgValue(int frame, int sample) {
+        return (frame * 16 + sample * 255) % 4096;
+    }
+
+    private static void put16Bit(byte[] frame, int offset, int value) {
+        frame[offset] = (byte) value;
+        frame[offset + 1] = (byte) (value >> 8);
+    }
+
+    private static byte[] createFrame(int n) {
+        byte[] frame = new byte[FitnessShirtFrameReader.FRAME_SIZE];
+        frame[0] = (byte) 0xFF;
+        frame[1] = (byte) 0xFF;
+        for (int i = 0; i < FitnessShirtFrameReader.ECG_SAMPLES_PER_FRAME; i++) {
+            put16Bit(frame, 2 + i * 2, ecgValue(n, i));
+        }
+        put16Bit(frame, 34, RESPIRATION);
+        put16Bit(frame, 36, n);
+        put16Bit(frame, 38, n % 200);
+        put16Bit(frame, 40, -100 & 0x0FFF);
+        put16Bit(frame, 42, n % 2048);
+        put16Bit(frame, 44, 2047);
+        return frame;
+    }
+
+    private static Collector read(byte[] data, int[] chunkSizes, FitnessShirtFrameReader[] readerOut) {
+        Collector collector = new Collector();
+        FitnessShirtFrameReader reader = new FitnessShirtFrameReader(new ChunkedInputStream(data, chunkSizes), SAMPLING_RATE, FRAMES_PER_BLOCK, collector);
+        readerOut[0] = reader;
+        try {
+            reader.run();
+            fail("Reader returned without end of stream");
+        } catch (EOFException e) {
+            // end of stream
+        } catch (IOException e) {
+            fail(e.toString());
+        }
+        return collector;
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> list = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            list.add(i);
+        }
+        return list;
+    }
+
+    @Test
+    public void decodesFramesSplitAcrossChunks() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int n = 0; n < 500; n++) {
+            stream.write(createFrame(n), 0, FitnessShirtFrameReader.FRAME_SIZE);
+        }
+        byte[] data = stream.toByteArray();
+
+        // splits within the header, the payload and exactly at frame borders
+        int[][] chunkings = {{1, 1, 45, 46, 47, 91}, {7, 13, 100, 3, 46 * 10, 1000}, {46, 46, 46}};
+        for (int[] chunkSizes : chunkings) {
+            FitnessShirtFrameReader[] reader = new FitnessShirtFrameReader[1];
+            Collector collector = read(data, chunkSizes, reader);
+            assertEquals(range(0, 500), collector.mFrames);
+            assertEquals(500, reader[0].getNumFrames());
+            assertEquals(0, reader[0].getNumCorruptFrames());
+            assertEquals(0, reader[0].getNumResyncs());
+            assertEquals(data.length, reader[0].getNumBytes());
+        }
+
+        // random chunk sizes
+        Random random = new Random(42);
+        int[] chunkSizes = new int[1000];
+        for (int i = 0; i < chunkSizes.length; i++) {
+            chunkSizes[i] = 1 + random.nextInt(120);
+        }
+        FitnessShirtFrameReader[] reader = new FitnessShirtFrameReader[1];
+        assertEquals(range(0, 500), read(data, chunkSizes, reader).mFrames);
+        assertEquals(0, reader[0].getNumCorruptFrames());
+    }
+
+    /**
+     * After a frame lost part of its payload, the respiration value of that frame is a candidate header confirmed by
+     * the respiration value of the next frame, but it is rejected as frame. The loss of synchronization is counted
+     * once, not once per rejected candidate.
+     */
+    @Test
+    public void countsCorruptFrameOncePerResync() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int n = 0; n < 100; n++) {
+            byte[] frame = createFrame(n);
+            if (n == 50) {
+                // 20 bytes of ECG data lost
+                stream.write(frame, 0, 2);
+                stream.write(frame, 22, FitnessShirtFrameReader.FRAME_SIZE - 22);
+            } else {
+                stream.write(frame, 0, FitnessShirtFrameReader.FRAME_SIZE);
+            }
+        }
+        FitnessShirtFrameReader[] reader = new FitnessShirtFrameReader[1];
+        Collector collector = read(stream.toByteArray(), new int[]{30, 500, 17, 1000}, reader);
+
+        List<Integer> expected = range(0, 50);
+        expected.addAll(range(51, 100));
+        assertEquals(expected, collector.mFrames);
+        assertEquals(1, reader[0].getNumCorruptFrames());
+        assertEquals(1, reader[0].getNumResyncs());
+        assertEquals(FitnessShirtFrameReader.FRAME_SIZE - 20, reader[0].getNumSkippedBytes());
+    }
+
+    @Test
+    public void skipsFramesWithInvalidEcgValues() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        List<Integer> expected = new ArrayList<>();
+        for (int n = 0; n < 200; n++) {
+            byte[] frame = createFrame(n);
+            if (n == 20 || n == 120) {
+                // ECG values above 12 bit
+                Arrays.fill(frame, 2, 34, (byte) 0xF0);
+            } else {
+                expected.add(n);
+            }
+            stream.write(frame, 0, FitnessShirtFrameReader.FRAME_SIZE);
+        }
+        FitnessShirtFrameReader[] reader = new FitnessShirtFrameReader[1];
+        Collector collector = read(stream.toByteArray(), new int[]{100, 100, 100}, reader);
+
+        assertEquals(expected, collector.mFrames);
+        assertEquals(2, reader[0].getNumCorruptFrames());
+        assertEquals(2, reader[0].getNumResyncs());
+        assertEquals(2 * FitnessShirtFrameReader.FRAME_SIZE, reader[0].getNumSkippedBytes());
+    }
+
+    @Test
+    public void synchronizesOnStreamStartingWithinFrame() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int n = 0; n < 50; n++) {
+            stream.write(createFrame(n), 0, FitnessShirtFrameReader.FRAME_SIZE);
+        }
+        byte[] data = stream.toByteArray();
+        // the first frame was partially received before the reader was started
+        byte[] truncated = Arrays.copyOfRange(data, 10, data.length);
+        FitnessShirtFrameReader[] reader = new FitnessShirtFrameReader[1];
+        Collector collector = read(truncated, new int[]{5, 40, 200}, reader);
+
+        assertEquals(range(1, 50), collector.mFrames);
+        assertEquals(1, reader[0].getNumCorruptFrames());
+        assertEquals(FitnessShirtFrameReader.FRAME_SIZE - 10, reader[0].getNumSkippedBytes());
+    }
+}
@@ -107,6 +107,8 @@ public abstract class AbstractNilsPodSensor extends GenericBleSensor implements
     protected static final int MESSAGE_SESSION_DOWNLOAD_PROGRESS = 2004;
     protected static final int MESSAGE_SESSION_DOWNLOAD_FINISHED = 2005;
     protected static final int MESSAGE_SENSOR_CONFIG_CHANGED = 2006;
+    protected static final int MESSAGE_SESSION_DOWNLOAD_ERROR = 2007;
+    protected static final int MESSAGE_SENSOR_CONFIG_READ = 2008;
 
     /**
      * UUID for Data Streaming Service of NilsPod sensor
@@ -231,6 +233,18 @@ public abstract class AbstractNilsPodSensor extends GenericBleSensor implements
 
     private NilsPodOperationState mOperationState = NilsPodOperationState.IDLE;
 
+    /**
+     * Timeout for commands without a specific timeout (in ms)
+     */
+    protected static final long DEFAULT_COMMAND_TIMEOUT = 5000;
+
+    /**
+     * Timeout for writing and saving a config (in ms)
+     */
+    protected static final long CONFIG_TIMEOUT = 5000;
+
+    private final NilsPodCommandQueue mCommandQueue = new NilsPodCommandQueue(this);
+
     private boolean mMotionInterruptEnabled = false;
 
     private boolean mIndicationLedEnabled = true;
@@ -412,36 +426,36 @@ public abstract class AbstractNilsPodSensor extends GenericBleSensor implements
         /**
          * Stop Streaming Command
          */
-        STOP_STREAMING(new byte[]{(byte) 0xC1}),
+        STOP_STREAMING(new byte[]{(byte) 0xC1}, NilsPodOperationState.STREAMING, NilsPodOperationState.IDLE),
         /**
          * Start Streaming Command
          */
-        START_STREAMING(new byte[]{(byte) 0xC2}),
+        START_STREAMING(new byte[]{(byte) 0xC2}, null, NilsPodOperationState.STREAMING),
         /**
          * Stop Logging Command
          */
-        STOP_LOGGING(new byte[]{(byte) 0xC3}),
+        STOP_LOGGING(new byte[]{(byte) 0xC3}, NilsPodOperationState.LOGGING, NilsPodOperationState.IDLE),
         /**
          * Start Logging Command
          */
-        START_LOGGING(new byte[]{(byte) 0xC4}),
+        START_LOGGING(new byte[]{(byte) 0xC4}, null, NilsPodOperationState.LOGGING),
         // FLASH COMMANDS
         /**
          * Flash Full Erase Command
          */
-        FLASH_FULL_ERASE(new byte[]{(byte) 0xF0}),
+        FLASH_FULL_ERASE(new byte[]{(byte) 0xF0}, NilsPodOperationState.FLASH_ERASE, NilsPodOperationState.IDLE, 120000),
         /**
          * Flash Clear Sessions Command
          */
-        FLASH_CLEAR_SESSIONS(new byte[]{(byte) 0xF1}),
+        FLASH_CLEAR_SESSIONS(new byte[]{(byte) 0xF1}, NilsPodOperationState.FLASH_ERASE, NilsPodOperationState.IDLE, 60000),
         /**
          * Flash Read Session List Command
          */
-        FLASH_READ_SESSION_LIST(new byte[]{(byte) 0xF2}),
+        FLASH_READ_SESSION_LIST(new byte[]{(byte) 0xF2}, NilsPodOperationState.SESSION_LIST, NilsPodOperationState.IDLE, 30000),
         /**
          * Flash Transmit Session Command
          */
-        FLASH_TRANSMIT_SESSION(new byte[]{(byte) 0xF3, 0x00}),
+        FLASH_TRANSMIT_SESSION(new byte[]{(byte) 0xF3, 0x00}, null, NilsPodOperationState.SESSION_DOWNLOAD),
         /**
          * Flash Transmit Pages Command (only for debugging)
          */
@@ -458,14 +472,46 @@ public abstract class AbstractNilsPodSensor extends GenericBleSensor implements
         RESET(new byte[]{(byte) 0xCF, (byte) 0xFF});
 
         private byte[] cmd;
+        /**
+         * Operation state transition acknowledging the command. Commands without state transition
+         * (ackToState == null) are acknowledged by the confirmed write.
+         */
+        private NilsPodOperationState ackFromState;
+        private NilsPodOperationState ackToState;
+        private long timeout;
 
         NilsPodSensorCommand(byte[] cmd) {
+            this(cmd, null, null);
+        }
+
+        NilsPodSensorCommand(byte[] cmd, NilsPodOperationState ackFromState, NilsPodOperationState ackToState) {
+            this(cmd, ackFromState, ackToState, DEFAULT_COMMAND_TIMEOUT);
+        }
+
+        NilsPodSensorCommand(byte[] cmd, NilsPodOperationState ackFromState, NilsPodOperationState ackToState, long timeout) {
             this.cmd = cmd;
+            this.ackFromState = ackFromState;
+            this.ackToState = ackToState;
+            this.timeout = timeout;
         }
 
         public byte[] getByteCmd() {
             return cmd;
         }
+
+        /**
+         * Returns the error codes in the system state that reject this command. Every command can be unknown,
+         * have invalid arguments or not be allowed in the current state, only starting a session can fail
+         * because the flash is full.
+         */
+        EnumSet<NilsPodErrorCode> getErrorCodes() {
+            EnumSet<NilsPodErrorCode> errorCodes = NilsPodErrorCode.getCommandErrors();
+            if (this == START_LOGGING) {
+                errorCodes.add(NilsPodErrorCode.NO_MEMORY);
+                errorCodes.add(NilsPodErrorCode.MAX_NUM_SESSIONS);
+            }
+            return errorCodes;
+        }
     }
 
 
@@ -526,7 +572,14 @@ public abstract class AbstractNilsPodSensor extends GenericBleSensor implements
         INVALID_STATE,
         INVALID_ARGUMENT,
         NO_MEMORY,
-        MAX_NUM_SESSIONS
+        MAX_NUM_SESSIONS;
+
+        /**
+         * @return the error codes that can reject any command
+         */
+        static EnumSet<NilsPodErrorCode> getCommandErrors() {
+            return EnumSet.of(UNKNOWN_COMMAND, INVALID_STATE, INVALID_ARGUMENT);
+        }
     }
 
     /**
@@ -639,6 +692,9 @@ public abstract class AbstractNilsPodSensor extends GenericBleSensor implements
 
     @Override
     public void startStreaming() {
+        if (!checkLinkBudget()) {
+            return;
+        }
         super.startStreaming();
         // send START_STREAMING command to NilsPod
         if (send(NilsPodSensorCommand.START_STREAMING)) {
@@ -648,6 +704,11 @@ public abstract class AbstractNilsPodSensor extends GenericBleSensor implements
         }
     }
 
+    @Override
+    public double getRequiredThroughput() {
+        return mSampleSize * getSamplingRate();
+    }
+
     @Override
     public void stopStreaming() {
         super.stopStreaming();
@@ -673,6 +734,10 @@ public abstract class AbstractNilsPodSensor extends GenericBleSensor implements
     protected void onStateChange(SensorState oldState, SensorState newState) {
         super.onStateChange(oldState, newState);
 
+        if (newState == SensorState.DISCONNECTED || newState == SensorState.CONNECTION_LOST) {
+            mCommandQueue.clear(new SensorException(SensorException.SensorExceptionType.sensorNotResponding, "Sensor disconnected"));
+        }
+
         if (newState == SensorState.CONNECTED) {
             if (oldState == SensorState.STREAMING && mShouldDisconnect) {
                 mShouldDisconnect = false;
@@ -719,10 +784,25 @@ public abstract class AbstractNilsPodSensor extends GenericBleSensor implements
         return mOperationState;
     }
 
+    /**
+     * Returns the battery level reported in the last system state. Unlike {@link #getBatteryLevel()}, this never
+     * triggers a read. The system state is read when connecting and notified on every change, so the value is
+     * current while the sensor is connected.
+     *
+     * @return battery level in %
+     */
+    public int getReportedBatteryLevel() {
+        return mBatteryLevel;
+    }
+
     protected void setOperationState(NilsPodOperationState operationState) throws SensorException {
         NilsPodOperationState oldState = mOperationState;
         mOperationState = operationState;
-        onOperationStateChanged(oldState, mOperationState);
+        try {
+            onOperationStateChanged(oldState, mOperationState);
+        } finally {
+            mCommandQueue.onOperationStateChanged(oldState, operationState);
+        }
     }
 
     public NilsPodSyncRole getSyncRole() {
@@ -753,43 +833,76 @@ public abstract class AbstractNilsPodSensor extends GenericBleSensor implements
      * Send command to sensor via Config Characteristic
      *
      * @param cmd Sensor Command
-     * @return true if data has been successfully sent, false otherwise
+     * @return true if the command has been successfully queued, false otherwise
      */
     protected boolean send(NilsPodSensorCommand cmd) {
-        Log.d(TAG, "Sending " + cmd + " command to " + getDeviceName());
-        if (!send(cmd.cmd)) {
-            Log.e(TAG, cmd + " failed!");
-            return false;
-        }
-        return true;
+        NilsPodCommandFuture future = submit(cmd);
+        return !future.isDone() || future.isSuccessful();
     }
 
     protected boolean send(byte[] data) {
+        NilsPodCommandFuture future = submit("COMMAND " + Arrays.toString(data), data, null, null, NilsPodErrorCode.getCommandErrors(), DEFAULT_COMMAND_TIMEOUT);
+        return !future.isDone() || future.isSuccessful();
+    }
+
+    /**
+     * Queues a command for the sensor.
+     *
+     * @param cmd Sensor Command
+     * @return future that completes when the sensor acknowledged the command
+     */
+    protected NilsPodCommandFuture submit(NilsPodSensorCommand cmd) {
+        return submit(cmd, cmd.cmd);
+    }
+
+    /**
+     * Queues a command with additional arguments for the sensor.
+     *
+     * @param cmd  Sensor Command
+     * @param data Command bytes (including arguments)
+     * @return future that completes when the sensor acknowledged the command
+     */
+    protected NilsPodCommandFuture submit(NilsPodSensorCommand cmd, byte[] data) {
+        return submit(cmd.toString(), data, cmd.ackFromState, cmd.ackToState, cmd.getErrorCodes(), cmd.timeout);
+    }
+
+    private NilsPodCommandFuture submit(String name, byte[] data, NilsPodOperationState ackFromState, NilsPodOperationState ackToState,
+                                        EnumSet<NilsPodErrorCode> errorCodes, long timeout) {
         if (getStreamingService() == null) {
             Log.w(TAG, "Service not found");
-            return false;
+            return NilsPodCommandFuture.failed(this, name, new SensorException(SensorException.SensorExceptionType.sensorStateError, "Service not found"));
         }
         BluetoothGattCharacteristic characteristic = getStreamingService().getCharacteristic(NILS_POD_COMMANDS);
         if (characteristic == null) {
             Log.w(TAG, "Send characteristic not found");
-            return false;
+            return NilsPodCommandFuture.failed(this, name, new SensorException(SensorException.SensorExceptionType.sensorStateError, "Send characteristic not found"));
         }
 
-        while (getOperationState() == NilsPodOperationState.SAVING_CONFIG) {
-            try {
-                Thread.sleep(1);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
+        Log.d(TAG, "Queueing " + name + " command to " + getDeviceName());
+        return mCommandQueue.submit(new NilsPodCommandFuture(this, name, characteristic, data, ackFromState, ackToState, errorCodes, timeout));
+    }
 
-        return writeCharacteristic(characteristic, data);
+    /**
+     * Queues a config write for the sensor. The write is acknowledged when the sensor finished saving the config.
+     *
+     * @param configChara Config characteristic
+     * @param value       New config value
+     * @return future that completes when the sensor saved the new config
+     */
+    protected NilsPodCommandFuture submitConfig(BluetoothGattCharacteristic configChara, byte[] value) {
+        String name = "CONFIG " + BleGattAttributes.lookupCharacteristic(configChara.getUuid());
+        return mCommandQueue.submit(new NilsPodCommandFuture(this, name, configChara, value, NilsPodOperationState.SAVING_CONFIG, NilsPodOperationState.IDLE,
+                NilsPodErrorCode.getCommandErrors(), CONFIG_TIMEOUT));
     }
 
     public void addNilsPodCallback(NilsPodCallback callback) {
         mCallbacks.add(callback);
     }
 
+    public void removeNilsPodCallback(NilsPodCallback callback) {
+        mCallbacks.remove(callback);
+    }
+
     public void setSensorRecorderListener(SensorRecorderListener listener) {
         mSensorRecorderListener = listener;
     }
@@ -897,6 +1010,7 @@ public abstract class AbstractNilsPodSensor extends GenericBleSensor implements
     @Override
     protected void onNewCharacteristicWrite(BluetoothGattCharacteristic characteristic, int status) {
         super.onNewCharacteristicWrite(characteristic, status);
+        mCommandQueue.onCharacteristicWrite(characteristic, status);
         if (NILS_POD_SENSOR_CONFIG.equals(characteristic.getUuid()) || NILS_POD_SYNC_CONFIG.equals(characteristic.getUuid()) || NILS_POD_SYSTEM_SETTINGS_CONFIG.equals(characteristic.getUuid()) || NILS_POD_SAMPLING_RATE_CONFIG.equals(characteristic.getUuid())) {
             // sensor config was changed from app side => read characteristic to update
             readConfigCharacteristic(characteristic.getUuid());
@@ -941,11 +1055,22 @@ public abstract class AbstractNilsPodSensor extends GenericBleSensor implements
         try {
             errorCode = NilsPodErrorCode.values()[values[offset++]];
             operationState = NilsPodOperationState.values()[values[offset++]];
-            NilsPodOperationState oldState = mOperationState;
-            // set new state
-            mOperationState = operationState;
-            // call callback
-            onOperationStateChanged(oldState, mOperationState);
+            switch (errorCode) {
+                case UNKNOWN_COMMAND:
+                case INVALID_ARGUMENT:
+                case INVALID_STATE:
+                    // sensor rejected the last command
+                    mCommandQueue.onCommandRejected(errorCode, new SensorException(SensorException.SensorExceptionType.sensorStateError, errorCode.toString()));
+                    break;
+                case NO_MEMORY:
+                    mCommandQueue.onCommandRejected(errorCode, new SensorException(SensorException.SensorExceptionType.noMemory));
+                    break;
+                case MAX_NUM_SESSIONS:
+                    mCommandQueue.onCommandRejected(errorCode, new SensorException(SensorException.SensorExceptionType.maxNumSessions));
+                    break;
+            }
+            // set new state and call callback
+            setOperationState(operationState);
             powerState = NilsPodPowerState.inferPowerState(values[offset++]);
             setChargingState(powerState != NilsPodPowerState.NO_POWER);
             errorFlags = values[offset++] & 0xFF;
@@ -1257,7 +1382,8 @@ public abstract class AbstractNilsPodSensor extends GenericBleSensor implements
         starter.start(getContext(), NilsPodDfuService.class);
 
         DfuServiceListenerHelper.registerLogListener(getContext(), mDfuLogListener);
-        DfuServiceListenerHelper.registerProgressListener(getContext(), mDfuProgressListener);
+        // only listen to the progress of this sensor, other sensors might be updated at the same time
+        DfuServiceListenerHelper.registerProgressListener(getContext(), mDfuProgressListener, getDeviceAddress());
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             DfuServiceInitiator.createDfuNotificationChannel(getContext());
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+
+package de.fau.sensorlib.sensors;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import java.util.EnumSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import de.fau.sensorlib.SensorException;
+import de.fau.sensorlib.sensors.AbstractNilsPodSensor.NilsPodErrorCode;
+import de.fau.sensorlib.sensors.AbstractNilsPodSensor.NilsPodOperationState;
+
+/**
+ * Pending command (or config write) to a NilsPod sensor.
+ * <p>
+ * The future completes when the sensor acknowledges the command, i.e. when the expected operation state
+ * transition was observed (or, for commands without state transition, when the write was confirmed), and
+ * fails with a {@link SensorException} if the sensor rejected the command or did not respond in time.
+ * The callback is notified on completion and on cancellation.
+ */
+public class NilsPodCommandFuture implements Future<Void> {
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private enum CommandState {
+        PENDING,
+        RUNNING,
+        DONE
+    }
+
+    private final AbstractNilsPodSensor mSensor;
+    private final String mName;
+    private final BluetoothGattCharacteristic mCharacteristic;
+    private final byte[] mValue;
+    private final NilsPodOperationState mAckFromState;
+    private final NilsPodOperationState mAckToState;
+    private final EnumSet<NilsPodErrorCode> mErrorCodes;
+    private final long mTimeout;
+
+    private final CountDownLatch mLatch = new CountDownLatch(1);
+    private CommandState mState = CommandState.PENDING;
+    private boolean mCancelled;
+    private SensorException mException;
+    private NilsPodCommandCallback mCallback;
+
+
+    /**
+     * @param sensor         the sensor the command is sent to
+     * @param name           command name (for logging)
+     * @param characteristic characteristic the command is written to
+     * @param value          command bytes
+     * @param ackFromState   operation state the sensor has to leave to acknowledge the command, or null for any state
+     * @param ackToState     operation state the sensor has to enter to acknowledge the command, or null if the
+     *                       command is already acknowledged by the confirmed write
+     * @param errorCodes     error codes in the system state that reject the command
+     * @param timeout        timeout in ms
+     */
+    NilsPodCommandFuture(AbstractNilsPodSensor sensor, String name, BluetoothGattCharacteristic characteristic, byte[] value,
+                         NilsPodOperationState ackFromState, NilsPodOperationState ackToState, EnumSet<NilsPodErrorCode> errorCodes, long timeout) {
+        mSensor = sensor;
+        mName = name;
+        mCharacteristic = characteristic;
+        mValue = value;
+        mAckFromState = ackFromState;
+        mAckToState = ackToState;
+        mErrorCodes = errorCodes;
+        mTimeout = timeout;
+    }
+
+    /**
+     * Returns an already completed command, e.g. for config writes that would not change anything.
+     */
+    static NilsPodCommandFuture completed(AbstractNilsPodSensor sensor, String name) {
+        NilsPodCommandFuture future = new NilsPodCommandFuture(sensor, name, null, null, null, null, EnumSet.noneOf(NilsPodErrorCode.class), 0);
+        future.complete(null);
+        return future;
+    }
+
+    /**
+     * Returns an already failed command, e.g. if the required characteristic is not available.
+     */
+    static NilsPodCommandFuture failed(AbstractNilsPodSensor sensor, String name, SensorException e) {
+        NilsPodCommandFuture future = new NilsPodCommandFuture(sensor, name, null, null, null, null, EnumSet.noneOf(NilsPodErrorCode.class), 0);
+        future.complete(e);
+        return future;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    BluetoothGattCharacteristic getCharacteristic() {
+        return mCharacteristic;
+    }
+
+    byte[] getValue() {
+        return mValue;
+    }
+
+    long getTimeout() {
+        return mTimeout;
+    }
+
+    boolean isAcknowledgedByWrite() {
+        return mAckToState == null;
+    }
+
+    boolean isAcknowledgedBy(NilsPodOperationState oldState, NilsPodOperationState newState) {
+        return mAckToState == newState && (mAckFromState == null || mAckFromState == oldState);
+    }
+
+    boolean isRejectedBy(NilsPodErrorCode errorCode) {
+        return mErrorCodes.contains(errorCode);
+    }
+
+    /**
+     * Marks the command as running.
+     *
+     * @return false if the command was cancelled before
+     */
+    synchronized boolean start() {
+        if (mState != CommandState.PENDING) {
+            return false;
+        }
+        mState = CommandState.RUNNING;
+        return true;
+    }
+
+    /**
+     * Completes the command.
+     *
+     * @param e the error, or null if the command was successful
+     */
+    void complete(SensorException e) {
+        NilsPodCommandCallback callback;
+        synchronized (this) {
+            if (mState == CommandState.DONE) {
+                return;
+            }
+            mState = CommandState.DONE;
+            mException = e;
+            callback = mCallback;
+        }
+        mLatch.countDown();
+        if (callback != null) {
+            dispatchCompleted(callback);
+        }
+    }
+
+    private void dispatchCompleted(final NilsPodCommandCallback callback) {
+        sMainHandler.post(() -> callback.onCommandCompleted(mSensor, this));
+    }
+
+    /**
+     * Sets the callback notified when the command completes. If the command is already completed, the callback
+     * is notified immediately.
+     */
+    public NilsPodCommandFuture setCallback(NilsPodCommandCallback callback) {
+        boolean done;
+        synchronized (this) {
+            mCallback = callback;
+            done = mState == CommandState.DONE;
+        }
+        if (done && callback != null) {
+            dispatchCompleted(callback);
+        }
+        return this;
+    }
+
+    /**
+     * Cancels the command if it was not sent to the sensor yet. Commands already sent can't be cancelled.
+     * The callback is notified about the cancellation.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        NilsPodCommandCallback callback;
+        synchronized (this) {
+            if (mState != CommandState.PENDING) {
+                return false;
+            }
+            mCancelled = true;
+            mState = CommandState.DONE;
+            callback = mCallback;
+        }
+        mLatch.countDown();
+        if (callback != null) {
+            dispatchCompleted(callback);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mState == CommandState.DONE;
+    }
+
+    /**
+     * @return true if the command was acknowledged by the sensor
+     */
+    public synchronized boolean isSuccessful() {
+        return mState == CommandState.DONE && !mCancelled && mException == null;
+    }
+
+    /**
+     * @return the reason the command failed, or null
+     */
+    public synchronized SensorException getException() {
+        return mException;
+    }
+
+    @Override
+    public Void get() throws InterruptedException, ExecutionException {
+        mLatch.await();
+        return getResult();
+    }
+
+    @Override
+    public Void get(long timeout, @NonNull TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!mLatch.await(timeout, unit)) {
+            throw new TimeoutException(mName + " not completed after " + timeout + " " + unit);
+        }
+        return getResult();
+    }
+
+    private synchronized Void getResult() throws ExecutionException {
+        if (mCancelled) {
+            throw new CancellationException(mName + " cancelled");
+        }
+        if (mException != null) {
+            throw new ExecutionException(mException);
+        }
+        return null;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "<" + mSensor.getDeviceName() + "> " + mName + " [" + (mCancelled ? "CANCELLED" : mState) + "]";
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+
+package de.fau.sensorlib.sensors;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+
+import de.fau.sensorlib.SensorException;
+import de.fau.sensorlib.sensors.AbstractNilsPodSensor.NilsPodErrorCode;
+import de.fau.sensorlib.sensors.AbstractNilsPodSensor.NilsPodOperationState;
+
+/**
+ * Serializes the commands and config writes sent to one NilsPod sensor.
+ * <p>
+ * A command is only written once the previous one was acknowledged, rejected or timed out, so callers never
+ * have to wait (e.g. while the sensor is saving its config). Every sensor has its own queue, so commands to
+ * different sensors are processed independently.
+ * <p>
+ * Timeouts run on a separate thread, so a command still times out while the main thread is blocked waiting for it
+ * (see {@link NilsPodCommandFuture#get()}).
+ */
+class NilsPodCommandQueue {
+
+    private static final String TAG = NilsPodCommandQueue.class.getSimpleName();
+
+    private static HandlerThread sTimeoutThread;
+
+    private final AbstractNilsPodSensor mSensor;
+
+    private final ArrayDeque<NilsPodCommandFuture> mPendingCommands = new ArrayDeque<>();
+
+    private NilsPodCommandFuture mCurrentCommand;
+
+    private final Handler mHandler = new Handler(getTimeoutThread().getLooper());
+
+    private final Runnable mTimeoutRunnable = this::onTimeout;
+
+
+    NilsPodCommandQueue(AbstractNilsPodSensor sensor) {
+        mSensor = sensor;
+    }
+
+    private static synchronized HandlerThread getTimeoutThread() {
+        if (sTimeoutThread == null) {
+            sTimeoutThread = new HandlerThread(TAG);
+            sTimeoutThread.start();
+        }
+        return sTimeoutThread;
+    }
+
+    synchronized NilsPodCommandFuture submit(NilsPodCommandFuture command) {
+        mPendingCommands.add(command);
+        if (mCurrentCommand == null) {
+            startNext();
+        }
+        return command;
+    }
+
+    private void startNext() {
+        while (mCurrentCommand == null && !mPendingCommands.isEmpty()) {
+            NilsPodCommandFuture command = mPendingCommands.poll();
+            if (!command.start()) {
+                // command was cancelled
+                continue;
+            }
+
+            mCurrentCommand = command;
+            Log.d(TAG, "Sending " + command);
+            if (!mSensor.writeCharacteristic(command.getCharacteristic(), command.getValue())) {
+                finish(new SensorException(SensorException.SensorExceptionType.sensorNotResponding, command.getName() + " could not be written"));
+            } else {
+                mHandler.postDelayed(mTimeoutRunnable, command.getTimeout());
+            }
+        }
+    }
+
+    private void finish(SensorException e) {
+        mHandler.removeCallbacks(mTimeoutRunnable);
+        NilsPodCommandFuture command = mCurrentCommand;
+        mCurrentCommand = null;
+        if (e != null) {
+            Log.e(TAG, command + " failed: " + e.getMessage());
+        }
+        command.complete(e);
+    }
+
+    synchronized void onCharacteristicWrite(BluetoothGattCharacteristic characteristic, int status) {
+        if (mCurrentCommand == null || !mCurrentCommand.getCharacteristic().getUuid().equals(characteristic.getUuid())) {
+            return;
+        }
+        if (status != BluetoothGatt.GATT_SUCCESS) {
+            finish(new SensorException(SensorException.SensorExceptionType.sensorNotResponding, mCurrentCommand.getName() + " write failed with status " + status));
+        } else if (mCurrentCommand.isAcknowledgedByWrite()) {
+            finish(null);
+        } else {
+            return;
+        }
+        startNext();
+    }
+
+    synchronized void onOperationStateChanged(NilsPodOperationState oldState, NilsPodOperationState newState) {
+        if (mCurrentCommand != null && oldState != newState && mCurrentCommand.isAcknowledgedBy(oldState, newState)) {
+            finish(null);
+            startNext();
+        }
+    }
+
+    /**
+     * Called when the sensor reported an error in its system state. The current command fails if the error code
+     * is one that can reject it.
+     */
+    synchronized void onCommandRejected(NilsPodErrorCode errorCode, SensorException e) {
+        if (mCurrentCommand != null && mCurrentCommand.isRejectedBy(errorCode)) {
+            finish(e);
+            startNext();
+        }
+    }
+
+    private synchronized void onTimeout() {
+        if (mCurrentCommand != null) {
+            finish(new SensorException(SensorException.SensorExceptionType.sensorNotResponding, mCurrentCommand.getName() + " timed out"));
+            startNext();
+        }
+    }
+
+    /**
+     * Fails the current and all pending commands, e.g. when the connection to the sensor was lost.
+     */
+    synchronized void clear(SensorException e) {
+        mHandler.removeCallbacks(mTimeoutRunnable);
+        if (mCurrentCommand != null) {
+            mCurrentCommand.complete(e);
+            mCurrentCommand = null;
+        }
+        while (!mPendingCommands.isEmpty()) {
+            mPendingCommands.poll().complete(e);
+        }
+    }
+
+    synchronized boolean isEmpty() {
+        return mCurrentCommand == null && mPendingCommands.isEmpty();
+    }
+}
@@ -8,7 +8,16 @@
 
 package de.fau.sensorlib.sensors;
 
+import java.util.UUID;
+
 public interface NilsPodConfigCallback {
 
     void onSensorConfigChanged(NilsPodSensor sensor);
+
+    /**
+     * Called when a config characteristic was read from the sensor and {@link NilsPodSensor#getCurrentConfig()}
+     * was updated accordingly.
+     */
+    default void onSensorConfigRead(NilsPodSensor sensor, UUID characteristic) {
+    }
 }
@@ -0,0 +1,464 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+
+package de.fau.sensorlib.sensors;
+
+import android.bluetooth.BluetoothGattService;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+import de.fau.sensorlib.SensorException;
+import de.fau.sensorlib.SensorException.SensorExceptionType;
+import de.fau.sensorlib.sensors.AbstractNilsPodSensor.NilsPodOperationState;
+import de.fau.sensorlib.sensors.logging.Session;
+import de.fau.sensorlib.sensors.logging.SessionDownloader;
+
+/**
+ * Applies the same configuration to a fleet of connected NilsPods.
+ * <p>
+ * The target configuration uses the keys of {@link NilsPodSensor#getCurrentConfig()} (i.e. the config map of the
+ * {@link de.fau.sensorlib.widgets.config.SensorConfigDialog} of one pod can be rolled out to all pods) and may only
+ * contain a subset of the keys. For every pod, the config characteristics are read first, only the values differing
+ * from the target are changed, and only the config characteristics whose value actually changes are written.
+ * Afterwards, the config is read back from the pod and compared against the target.
+ * <p>
+ * Up to {@link #setMaxConcurrentPods(int)} pods are configured in parallel. The results are reported per pod and,
+ * once all pods are done, as a list (see {@link #formatResults(List)}).
+ */
+public class NilsPodFleetConfigurator implements NilsPodCallback {
+
+    private static final String TAG = NilsPodFleetConfigurator.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_CONCURRENT_PODS = 3;
+
+    /**
+     * Default time to wait for the config characteristics to be read (in ms)
+     */
+    public static final long DEFAULT_READ_TIMEOUT = 10000;
+
+    public enum PodStatus {
+        PENDING,
+        READING,
+        WRITING,
+        VERIFYING,
+        /**
+         * Pod already had the target config, nothing was written
+         */
+        UNCHANGED,
+        /**
+         * Config was written and verified
+         */
+        APPLIED,
+        /**
+         * Config was written, but the config read back does not match the target
+         */
+        VERIFICATION_FAILED,
+        FAILED
+    }
+
+    /**
+     * Result of configuring one pod.
+     */
+    public static class PodResult {
+        private final NilsPodSensor mSensor;
+        private PodStatus mStatus = PodStatus.PENDING;
+        private final List<String> mChangedKeys = new ArrayList<>();
+        private final List<String> mUnsupportedKeys = new ArrayList<>();
+        private final List<String> mMismatchedKeys = new ArrayList<>();
+        private int mNumWrites;
+        private SensorException mException;
+        private long mStartTime;
+        private long mEndTime;
+
+        private PodResult(NilsPodSensor sensor) {
+            mSensor = sensor;
+        }
+
+        public NilsPodSensor getSensor() {
+            return mSensor;
+        }
+
+        public PodStatus getStatus() {
+            return mStatus;
+        }
+
+        /**
+         * @return true if the pod has the target config
+         */
+        public boolean isSuccessful() {
+            return mStatus == PodStatus.UNCHANGED || mStatus == PodStatus.APPLIED;
+        }
+
+        /**
+         * @return config keys whose value differed from the target
+         */
+        public List<String> getChangedKeys() {
+            return mChangedKeys;
+        }
+
+        /**
+         * @return config keys of the target not supported by the pod (e.g. because of its firmware revision)
+         */
+        public List<String> getUnsupportedKeys() {
+            return mUnsupportedKeys;
+        }
+
+        /**
+         * @return config keys whose value read back after writing does not match the target
+         */
+        public List<String> getMismatchedKeys() {
+            return mMismatchedKeys;
+        }
+
+        /**
+         * @return number of config characteristics written
+         */
+        public int getNumWrites() {
+            return mNumWrites;
+        }
+
+        /**
+         * @return the reason configuring the pod failed, or null
+         */
+        public SensorException getException() {
+            return mException;
+        }
+
+        /**
+         * @return time needed to configure the pod (in ms)
+         */
+        public long getDuration() {
+            return mEndTime - mStartTime;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.getDefault(), "%-16s %-20s %2d changed, %d written, %d mismatched, %5d ms%s",
+                    mSensor.getDeviceName(), mStatus, mChangedKeys.size(), mNumWrites, mMismatchedKeys.size(), getDuration(),
+                    (mException != null) ? " (" + mException.getMessage() + ")" : "");
+        }
+    }
+
+    private static class PodJob {
+        private final NilsPodSensor sensor;
+        private final PodResult result;
+        private final HashSet<UUID> pendingReads = new HashSet<>();
+        private int pendingWrites;
+
+        private PodJob(NilsPodSensor sensor) {
+            this.sensor = sensor;
+            this.result = new PodResult(sensor);
+        }
+    }
+
+    private static final UUID[] CONFIG_CHARACTERISTICS = {
+            AbstractNilsPodSensor.NILS_POD_SAMPLING_RATE_CONFIG,
+            AbstractNilsPodSensor.NILS_POD_SYNC_CONFIG,
+            AbstractNilsPodSensor.NILS_POD_SENSOR_CONFIG,
+            AbstractNilsPodSensor.NILS_POD_SYSTEM_SETTINGS_CONFIG,
+            AbstractNilsPodSensor.NILS_POD_TIMER_CONFIG
+    };
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final NilsPodFleetConfigCallback mCallback;
+
+    private final LinkedHashMap<NilsPodSensor, PodJob> mJobs = new LinkedHashMap<>();
+    private final ArrayDeque<PodJob> mPendingJobs = new ArrayDeque<>();
+    private HashMap<String, Object> mTargetConfig = new HashMap<>();
+
+    private int mMaxConcurrentPods = DEFAULT_MAX_CONCURRENT_PODS;
+    private long mReadTimeout = DEFAULT_READ_TIMEOUT;
+
+    private int mNumActive;
+    private boolean mRunning;
+
+
+    public NilsPodFleetConfigurator(NilsPodFleetConfigCallback callback) {
+        mCallback = callback;
+    }
+
+    public void setMaxConcurrentPods(int maxConcurrentPods) {
+        mMaxConcurrentPods = Math.max(1, maxConcurrentPods);
+    }
+
+    public int getMaxConcurrentPods() {
+        return mMaxConcurrentPods;
+    }
+
+    /**
+     * @param readTimeout time to wait for the config characteristics to be read (in ms)
+     */
+    public void setReadTimeout(long readTimeout) {
+        mReadTimeout = readTimeout;
+    }
+
+    /**
+     * Applies the target config to the given pods. The pods must be connected and idle (i.e. not streaming,
+     * logging or downloading). Must be called on the main thread.
+     *
+     * @param sensors      pods to configure
+     * @param targetConfig config values to apply, with the keys of {@link NilsPodSensor#getCurrentConfig()}
+     */
+    public void apply(List<NilsPodSensor> sensors, HashMap<String, Object> targetConfig) {
+        if (mRunning) {
+            throw new IllegalStateException("Fleet configuration already running!");
+        }
+        mRunning = true;
+        mTargetConfig = new HashMap<>(targetConfig);
+        mJobs.clear();
+        mPendingJobs.clear();
+        mNumActive = 0;
+        for (NilsPodSensor sensor : sensors) {
+            if (!mJobs.containsKey(sensor)) {
+                PodJob job = new PodJob(sensor);
+                mJobs.put(sensor, job);
+                mPendingJobs.add(job);
+            }
+        }
+        Log.d(TAG, "Applying config " + mTargetConfig.keySet() + " to " + mJobs.size() + " pods...");
+        scheduleNextPods();
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * @return results of all pods of the last (or current) fleet configuration
+     */
+    public List<PodResult> getResults() {
+        List<PodResult> results = new ArrayList<>();
+        for (PodJob job : mJobs.values()) {
+            results.add(job.result);
+        }
+        return results;
+    }
+
+    /**
+     * @return the results as table, one row per pod
+     */
+    public static String formatResults(List<PodResult> results) {
+        StringBuilder sb = new StringBuilder();
+        int numSuccessful = 0;
+        for (PodResult result : results) {
+            sb.append(result).append("\n");
+            if (result.isSuccessful()) {
+                numSuccessful++;
+            }
+        }
+        sb.append(numSuccessful).append("/").append(results.size()).append(" pods configured successfully.");
+        return sb.toString();
+    }
+
+    private void scheduleNextPods() {
+        while (mNumActive < mMaxConcurrentPods && !mPendingJobs.isEmpty()) {
+            startPod(mPendingJobs.poll());
+        }
+        if (mRunning && mNumActive == 0 && mPendingJobs.isEmpty()) {
+            mRunning = false;
+            List<PodResult> results = getResults();
+            Log.d(TAG, "Fleet configuration finished:\n" + formatResults(results));
+            if (mCallback != null) {
+                mCallback.onFleetConfigured(this, results);
+            }
+        }
+    }
+
+    private void startPod(PodJob job) {
+        mNumActive++;
+        job.result.mStartTime = SystemClock.elapsedRealtime();
+        if (!job.sensor.isConnected() || job.sensor.getOperationState() != NilsPodOperationState.IDLE) {
+            Log.e(TAG, "<" + job.sensor.getDeviceName() + "> not connected or not idle.");
+            finishPod(job, PodStatus.FAILED, new SensorException(SensorExceptionType.configError));
+            return;
+        }
+        job.sensor.addNilsPodCallback(this);
+        job.result.mStatus = PodStatus.READING;
+        readConfig(job);
+    }
+
+    /**
+     * Reads all config characteristics of the pod. {@link #onConfigRead(PodJob)} is called once all reads completed.
+     */
+    private void readConfig(PodJob job) {
+        job.pendingReads.clear();
+        BluetoothGattService service = job.sensor.getConfigurationService();
+        if (service != null) {
+            for (UUID uuid : CONFIG_CHARACTERISTICS) {
+                if (service.getCharacteristic(uuid) != null) {
+                    job.pendingReads.add(uuid);
+                }
+            }
+        }
+        if (job.pendingReads.isEmpty()) {
+            finishPod(job, PodStatus.FAILED, new SensorException(SensorExceptionType.readConfigError));
+            return;
+        }
+        for (UUID uuid : new ArrayList<>(job.pendingReads)) {
+            job.sensor.readConfigCharacteristic(uuid);
+        }
+        final PodStatus status = job.result.mStatus;
+        mHandler.postDelayed(() -> {
+            if (job.result.mStatus == status && !job.pendingReads.isEmpty()) {
+                Log.e(TAG, "<" + job.sensor.getDeviceName() + "> config not read within " + mReadTimeout + " ms.");
+                finishPod(job, PodStatus.FAILED, new SensorException(SensorExceptionType.readConfigError));
+            }
+        }, mReadTimeout);
+    }
+
+    private void onConfigRead(PodJob job) {
+        HashMap<String, Object> currentConfig = job.sensor.getCurrentConfig();
+        switch (job.result.mStatus) {
+            case READING:
+                HashMap<String, Object> changes = new HashMap<>();
+                for (Map.Entry<String, Object> entry : mTargetConfig.entrySet()) {
+                    if (!currentConfig.containsKey(entry.getKey())) {
+                        job.result.mUnsupportedKeys.add(entry.getKey());
+                    } else if (!isEqual(currentConfig.get(entry.getKey()), entry.getValue())) {
+                        job.result.mChangedKeys.add(entry.getKey());
+                        changes.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                if (changes.isEmpty()) {
+                    finishPod(job, PodStatus.UNCHANGED, null);
+                    return;
+                }
+                Log.d(TAG, "<" + job.sensor.getDeviceName() + "> changing " + changes.keySet());
+                job.result.mStatus = PodStatus.WRITING;
+                job.sensor.setCurrentConfig(changes);
+                // config characteristics whose value does not change are already completed
+                List<NilsPodCommandFuture> futures = job.sensor.writeConfigAsync();
+                job.pendingWrites = futures.size();
+                for (NilsPodCommandFuture future : futures) {
+                    if (!future.isDone()) {
+                        job.result.mNumWrites++;
+                    }
+                    future.setCallback((sensor, command) -> onConfigWritten(job, command));
+                }
+                break;
+            case VERIFYING:
+                for (String key : job.result.mChangedKeys) {
+                    if (!isEqual(currentConfig.get(key), mTargetConfig.get(key))) {
+                        job.result.mMismatchedKeys.add(key);
+                    }
+                }
+                if (job.result.mMismatchedKeys.isEmpty()) {
+                    finishPod(job, PodStatus.APPLIED, null);
+                } else {
+                    Log.e(TAG, "<" + job.sensor.getDeviceName() + "> config mismatch after writing: " + job.result.mMismatchedKeys);
+                    finishPod(job, PodStatus.VERIFICATION_FAILED, null);
+                }
+                break;
+        }
+    }
+
+    private void onConfigWritten(PodJob job, NilsPodCommandFuture command) {
+        if (job.result.mStatus != PodStatus.WRITING) {
+            return;
+        }
+        if (!command.isSuccessful()) {
+            SensorException e = command.getException();
+            finishPod(job, PodStatus.FAILED, (e != null) ? e : new SensorException(SensorExceptionType.configError));
+            // re-read config, so the current config of the pod reflects the values that were actually saved
+            for (UUID uuid : CONFIG_CHARACTERISTICS) {
+                job.sensor.readConfigCharacteristic(uuid);
+            }
+            return;
+        }
+        if (--job.pendingWrites == 0) {
+            job.result.mStatus = PodStatus.VERIFYING;
+            readConfig(job);
+        }
+    }
+
+    private void finishPod(PodJob job, PodStatus status, SensorException e) {
+        job.result.mStatus = status;
+        job.result.mException = e;
+        job.result.mEndTime = SystemClock.elapsedRealtime();
+        job.pendingReads.clear();
+        // not removed while the sensor is dispatching callbacks
+        mHandler.post(() -> job.sensor.removeNilsPodCallback(this));
+        mNumActive--;
+        if (mCallback != null) {
+            mCallback.onPodConfigured(this, job.result);
+        }
+        scheduleNextPods();
+    }
+
+    private static boolean isEqual(Object current, Object target) {
+        if (current instanceof Calendar && target instanceof Calendar) {
+            // timer config only has minute resolution
+            Calendar c1 = (Calendar) current;
+            Calendar c2 = (Calendar) target;
+            return c1.get(Calendar.HOUR_OF_DAY) == c2.get(Calendar.HOUR_OF_DAY) && c1.get(Calendar.MINUTE) == c2.get(Calendar.MINUTE);
+        }
+        if (current instanceof Collection && target instanceof Collection) {
+            // enabled sensors: order does not matter
+            return new HashSet<>((Collection<?>) current).equals(new HashSet<>((Collection<?>) target));
+        }
+        return Objects.equals(current, target);
+    }
+
+    @Override
+    public void onSensorConfigRead(NilsPodSensor sensor, UUID characteristic) {
+        PodJob job = mJobs.get(sensor);
+        if (job == null || job.pendingReads.isEmpty()) {
+            return;
+        }
+        if (job.pendingReads.remove(characteristic) && job.pendingReads.isEmpty()) {
+            onConfigRead(job);
+        }
+    }
+
+    @Override
+    public void onOperationStateChanged(AbstractNilsPodSensor sensor, NilsPodOperationState operationState) {
+    }
+
+    @Override
+    public void onSensorConfigChanged(NilsPodSensor sensor) {
+    }
+
+    @Override
+    public void onSessionListRead(NilsPodSensor sensor, List<Session> sessionList) {
+    }
+
+    @Override
+    public void onClearSessions(NilsPodSensor sensor) {
+    }
+
+    @Override
+    public void onSessionDownloadStarted(NilsPodSensor sensor, SessionDownloader sessionDownloader) {
+    }
+
+    @Override
+    public void onSessionDownloadProgress(NilsPodSensor sensor, SessionDownloader sessionDownloader) {
+    }
+
+    @Override
+    public void onSessionDownloadFinished(NilsPodSensor sensor, SessionDownloader sessionDownloader) {
+    }
+}
@@ -10,6 +10,7 @@ package de.fau.sensorlib.sensors;
 
 import java.util.List;
 
+import de.fau.sensorlib.SensorException;
 import de.fau.sensorlib.sensors.logging.Session;
 import de.fau.sensorlib.sensors.logging.SessionDownloader;
 
@@ -25,4 +26,8 @@ public interface NilsPodLoggingCallback {
 
     void onSessionDownloadFinished(NilsPodSensor sensor, SessionDownloader sessionDownloader);
 
+    default void onSessionDownloadError(NilsPodSensor sensor, SessionDownloader sessionDownloader, SensorException e) {
+
+    }
+
 }
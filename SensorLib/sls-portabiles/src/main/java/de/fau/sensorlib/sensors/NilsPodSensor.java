@@ -23,9 +23,10 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
+import de.fau.sensorlib.BleGattAttributes;
 import de.fau.sensorlib.HwSensorNotAvailableException;
 import de.fau.sensorlib.SensorDataProcessor;
 import de.fau.sensorlib.SensorException;
@@ -36,6 +37,7 @@ import de.fau.sensorlib.dataframe.EcgDataFrame;
 import de.fau.sensorlib.dataframe.MagnetometerDataFrame;
 import de.fau.sensorlib.dataframe.PpgDataFrame;
 import de.fau.sensorlib.dataframe.TemperatureDataFrame;
+import de.fau.sensorlib.enums.CharacteristicReadPolicy;
 import de.fau.sensorlib.enums.HardwareSensor;
 import de.fau.sensorlib.enums.SensorState;
 import de.fau.sensorlib.sensors.enums.NilsPodAccRange;
@@ -91,6 +93,12 @@ public class NilsPodSensor extends AbstractNilsPodSensor implements NilsPodLogga
                     case MESSAGE_SENSOR_CONFIG_CHANGED:
                         sensor.dispatchSensorConfigChanged();
                         break;
+                    case MESSAGE_SENSOR_CONFIG_READ:
+                        sensor.dispatchSensorConfigRead((UUID) msg.obj);
+                        break;
+                    case MESSAGE_SESSION_DOWNLOAD_ERROR:
+                        sensor.dispatchSessionDownloadError((SessionDownloader) msg.obj, (SensorException) msg.getData().getSerializable(KEY_SESSION_DOWNLOAD_ERROR));
+                        break;
                 }
             }
         }
@@ -99,6 +107,8 @@ public class NilsPodSensor extends AbstractNilsPodSensor implements NilsPodLogga
 
     private static final String TAG = NilsPodSensor.class.getSimpleName();
 
+    private static final String KEY_SESSION_DOWNLOAD_ERROR = "session_download_error";
+
     /**
      * Global counter for incoming packages (local counter only has 15 bit)
      */
@@ -114,12 +124,9 @@ public class NilsPodSensor extends AbstractNilsPodSensor implements NilsPodLogga
     private SessionDownloader mSessionDownloader;
     private boolean mCsvExportEnabled = false;
 
-    private ConcurrentLinkedQueue<BluetoothGattCharacteristic> mConfigWriteRequests = new ConcurrentLinkedQueue<>();
-
 
     public NilsPodSensor(Context context, SensorInfo info, SensorDataProcessor dataHandler) {
         super(context, info, dataHandler);
-        mConfigWriteRequests.clear();
         mInternalHandler = new NilsPodInternalHandler(this);
     }
 
@@ -130,9 +137,21 @@ public class NilsPodSensor extends AbstractNilsPodSensor implements NilsPodLogga
         globalCounter = 0;
     }
 
+    @Override
+    protected CharacteristicReadPolicy getReadPolicy(BluetoothGattCharacteristic c) {
+        // model number encodes the flash size, needed as soon as the sensor is idle
+        if (BleGattAttributes.MODEL_NUMBER_STRING.equals(c.getUuid())) {
+            return CharacteristicReadPolicy.REQUIRED;
+        }
+        return super.getReadPolicy(c);
+    }
+
     @Override
     protected boolean onNewCharacteristicValue(BluetoothGattCharacteristic characteristic, boolean isChange) {
         if (super.onNewCharacteristicValue(characteristic, isChange)) {
+            if (isConfigCharacteristic(characteristic.getUuid())) {
+                sendSensorConfigRead(characteristic.getUuid());
+            }
             return true;
         } else {
             if (NILS_POD_STREAMING.equals(characteristic.getUuid())) {
@@ -169,6 +188,10 @@ public class NilsPodSensor extends AbstractNilsPodSensor implements NilsPodLogga
     }
 
     protected void extractSessionData(BluetoothGattCharacteristic characteristic) {
+        if (mSessionDownloader == null) {
+            // download was aborted, ignore data still sent by the sensor
+            return;
+        }
         byte[] values = characteristic.getValue();
         mSessionDownloader.onNewData(values);
         sendSessionDownloadProgress(mSessionDownloader);
@@ -277,7 +300,7 @@ public class NilsPodSensor extends AbstractNilsPodSensor implements NilsPodLogga
             }
 
 
-            long timestamp = globalCounter * (2 << 15) + localCounter;
+            long timestamp = trackStreamCounter(globalCounter * (2 << 15) + localCounter);
             NilsPodDataFrame df;
             if (isSensorEnabled(HardwareSensor.ANALOG)) {
                 df = new NilsPodAnalogDataFrame(this, timestamp, accel, gyro, baro, temp, mag, analog);
@@ -351,18 +374,20 @@ public class NilsPodSensor extends AbstractNilsPodSensor implements NilsPodLogga
                         }
                         break;
                     case SESSION_DOWNLOAD:
-                        mSessionDownloader.completeDownload();
+                        if (mSessionDownloader == null) {
+                            // download was aborted
+                            break;
+                        }
+                        try {
+                            mSessionDownloader.completeDownload();
+                        } catch (SensorException e) {
+                            sendSessionDownloadError(mSessionDownloader, e);
+                            throw e;
+                        }
                         sendSessionDownloadFinished(mSessionDownloader);
                         break;
                     case SAVING_CONFIG:
-                        // remove last written item
-                        mConfigWriteRequests.poll();
-                        if (!mConfigWriteRequests.isEmpty()) {
-                            BluetoothGattCharacteristic chara = mConfigWriteRequests.peek();
-                            if (!writeCharacteristic(chara, chara.getValue())) {
-                                throw new SensorException(SensorException.SensorExceptionType.configError);
-                            }
-                        }
+                        // next config write (if any) is sent by the command queue
                         sendSensorConfigChanged();
                         break;
                 }
@@ -379,7 +404,9 @@ public class NilsPodSensor extends AbstractNilsPodSensor implements NilsPodLogga
             case SESSION_DOWNLOAD:
                 switch (oldState) {
                     case IDLE:
-                        sendSessionDownloadStarted(mSessionDownloader);
+                        if (mSessionDownloader != null) {
+                            sendSessionDownloadStarted(mSessionDownloader);
+                        }
                         break;
                 }
                 break;
@@ -388,29 +415,77 @@ public class NilsPodSensor extends AbstractNilsPodSensor implements NilsPodLogga
 
     @Override
     public void readSessionList() {
+        readSessionListAsync();
+    }
+
+    /**
+     * Reads the session list from the sensor.
+     *
+     * @return future that completes when the session list was read
+     */
+    public NilsPodCommandFuture readSessionListAsync() {
         // clear session list (if there was some before)
         mSessionHandler = new SessionHandler();
-        send(NilsPodSensorCommand.FLASH_READ_SESSION_LIST);
+        return submit(NilsPodSensorCommand.FLASH_READ_SESSION_LIST);
     }
 
     @Override
     public void startLogging() {
-        send(NilsPodSensorCommand.START_LOGGING);
+        startLoggingAsync();
+    }
+
+    public NilsPodCommandFuture startLoggingAsync() {
+        return submit(NilsPodSensorCommand.START_LOGGING);
     }
 
     @Override
     public void stopLogging() {
-        send(NilsPodSensorCommand.STOP_LOGGING);
+        stopLoggingAsync();
+    }
+
+    public NilsPodCommandFuture stopLoggingAsync() {
+        return submit(NilsPodSensorCommand.STOP_LOGGING);
     }
 
     @Override
     public void downloadSession(int sessionId) throws SensorException {
+        downloadSessionAsync(sessionId);
+    }
+
+    /**
+     * Starts downloading the given session.
+     *
+     * @param sessionId Session id
+     * @return future that completes when the sensor started transmitting the session
+     */
+    public NilsPodCommandFuture downloadSessionAsync(int sessionId) throws SensorException {
         mSessionDownloader = new SessionDownloader(this, mSessionHandler.getSessionById(sessionId));
         mSessionDownloader.setCsvExportEnabled(mCsvExportEnabled);
 
-        byte[] cmd = NilsPodSensorCommand.FLASH_TRANSMIT_SESSION.getByteCmd();
+        byte[] cmd = NilsPodSensorCommand.FLASH_TRANSMIT_SESSION.getByteCmd().clone();
         cmd[1] = (byte) sessionId;
-        send(cmd);
+        return submit(NilsPodSensorCommand.FLASH_TRANSMIT_SESSION, cmd);
+    }
+
+    /**
+     * Aborts the running session download. The partially downloaded session is discarded and data still sent by the
+     * sensor is ignored. The firmware has no command to stop a session transmission, so the sensor is reset if it is
+     * still transmitting.
+     *
+     * @return true if the sensor was reset. It disconnects then and can only be used again after it was reconnected.
+     */
+    public boolean abortSessionDownload() {
+        SessionDownloader sessionDownloader = mSessionDownloader;
+        mSessionDownloader = null;
+        if (sessionDownloader != null) {
+            sessionDownloader.abortDownload();
+        }
+        if (getOperationState() == NilsPodOperationState.SESSION_DOWNLOAD) {
+            Log.w(TAG, getDeviceName() + " >> Resetting sensor to abort session transmission");
+            reset();
+            return true;
+        }
+        return false;
     }
 
     @Override
@@ -422,8 +497,17 @@ public class NilsPodSensor extends AbstractNilsPodSensor implements NilsPodLogga
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public void writeConfig() {
+        writeConfigAsync();
+    }
+
+    /**
+     * Writes the current config to the sensor. The config characteristics are written one after another.
+     *
+     * @return one future per config characteristic, completing when the sensor saved the respective config
+     */
+    @SuppressWarnings("unchecked")
+    public List<NilsPodCommandFuture> writeConfigAsync() {
         double samplingRate = 0.0;
         ArrayList<HardwareSensor> sensors = (ArrayList<HardwareSensor>) mCurrentConfigMap.get(KEY_HARDWARE_SENSORS);
         NilsPodAccRange accRange = (NilsPodAccRange) mCurrentConfigMap.get(KEY_ACC_RANGE);
@@ -448,17 +532,20 @@ public class NilsPodSensor extends AbstractNilsPodSensor implements NilsPodLogga
             samplingRate = sAvailableSamplingRates.get(sr);
         }
 
+        List<NilsPodCommandFuture> futures = new ArrayList<>();
         try {
-            writeSamplingRateConfig(samplingRate);
-            writeSyncConfig(syncRole, syncGroup);
-            writeSensorConfig(sensors, accRange, gyroRange);
-            writeSystemSettingsConfig(sensorPosition, operationMode, interrupt, indicationLed);
+            futures.add(writeSamplingRateConfig(samplingRate));
+            futures.add(writeSyncConfig(syncRole, syncGroup));
+            futures.add(writeSensorConfig(sensors, accRange, gyroRange));
+            futures.add(writeSystemSettingsConfig(sensorPosition, operationMode, interrupt, indicationLed));
             if (getFirmwareRevision().isAtLeast(NilsPodFirmwareRevisions.FW_0_17_0) && timerConfig != null) {
-                writeTimerConfig(timerConfig);
+                futures.add(writeTimerConfig(timerConfig));
             }
         } catch (SensorException e) {
             e.printStackTrace();
+            futures.add(NilsPodCommandFuture.failed(this, "CONFIG", e));
         }
+        return futures;
     }
 
     @Override
@@ -524,6 +611,18 @@ public class NilsPodSensor extends AbstractNilsPodSensor implements NilsPodLogga
         }
     }
 
+    private void sendSessionDownloadError(SessionDownloader sessionDownloader, SensorException e) {
+        Message msg = mInternalHandler.obtainMessage(MESSAGE_SESSION_DOWNLOAD_ERROR, sessionDownloader);
+        msg.getData().putSerializable(KEY_SESSION_DOWNLOAD_ERROR, e);
+        msg.sendToTarget();
+    }
+
+    private void dispatchSessionDownloadError(SessionDownloader sessionDownloader, SensorException e) {
+        for (NilsPodLoggingCallback callback : mCallbacks) {
+            callback.onSessionDownloadError(this, sessionDownloader, e);
+        }
+    }
+
     private void sendSensorConfigChanged() {
         mInternalHandler.obtainMessage(MESSAGE_SENSOR_CONFIG_CHANGED).sendToTarget();
     }
@@ -534,6 +633,25 @@ public class NilsPodSensor extends AbstractNilsPodSensor implements NilsPodLogga
         }
     }
 
+    private void sendSensorConfigRead(UUID characteristic) {
+        mInternalHandler.obtainMessage(MESSAGE_SENSOR_CONFIG_READ, characteristic).sendToTarget();
+    }
+
+    private void dispatchSensorConfigRead(UUID characteristic) {
+        for (NilsPodConfigCallback callback : mCallbacks) {
+            callback.onSensorConfigRead(this, characteristic);
+        }
+    }
+
+    /**
+     * @return true if the given characteristic holds (a part of) the sensor config, i.e. its value is reflected
+     * in {@link #getCurrentConfig()}
+     */
+    protected static boolean isConfigCharacteristic(UUID uuid) {
+        return NILS_POD_SAMPLING_RATE_CONFIG.equals(uuid) || NILS_POD_SYNC_CONFIG.equals(uuid) || NILS_POD_SENSOR_CONFIG.equals(uuid)
+                || NILS_POD_SYSTEM_SETTINGS_CONFIG.equals(uuid) || NILS_POD_TIMER_CONFIG.equals(uuid);
+    }
+
 
     /**
      * Returns the remaining storage capacity.
@@ -611,24 +729,15 @@ public class NilsPodSensor extends AbstractNilsPodSensor implements NilsPodLogga
     }
 
 
-    protected void writeNilsPodConfig(BluetoothGattCharacteristic configChara, byte[] oldValue, byte[] value) throws SensorException {
+    protected NilsPodCommandFuture writeNilsPodConfig(BluetoothGattCharacteristic configChara, byte[] oldValue, byte[] value) {
         if (Arrays.equals(oldValue, value)) {
-            return;
+            return NilsPodCommandFuture.completed(this, "CONFIG " + configChara.getUuid());
         }
 
-        configChara.setValue(value);
-        configChara.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
-        mConfigWriteRequests.add(configChara);
-
-        if (mConfigWriteRequests.size() == 1) {
-            BluetoothGattCharacteristic chara = mConfigWriteRequests.peek();
-            if (chara != null && !writeCharacteristic(chara, chara.getValue())) {
-                throw new SensorException(SensorException.SensorExceptionType.configError);
-            }
-        }
+        return submitConfig(configChara, value);
     }
 
-    protected void writeSamplingRateConfig(double samplingRate) throws SensorException {
+    protected NilsPodCommandFuture writeSamplingRateConfig(double samplingRate) throws SensorException {
         BluetoothGattCharacteristic config = getConfigurationService().getCharacteristic(NILS_POD_SAMPLING_RATE_CONFIG);
         byte[] oldValue = config.getValue();
         byte[] value = oldValue.clone();
@@ -647,11 +756,11 @@ public class NilsPodSensor extends AbstractNilsPodSensor implements NilsPodLogga
         }
 
         value[0] = (byte) command;
-        writeNilsPodConfig(config, oldValue, value);
+        return writeNilsPodConfig(config, oldValue, value);
     }
 
 
-    protected void writeSyncConfig(NilsPodSyncRole syncRole, NilsPodSyncGroup syncGroup) throws SensorException {
+    protected NilsPodCommandFuture writeSyncConfig(NilsPodSyncRole syncRole, NilsPodSyncGroup syncGroup) throws SensorException {
         BluetoothGattCharacteristic config = getConfigurationService().getCharacteristic(NILS_POD_SYNC_CONFIG);
         byte[] oldValue = config.getValue();
         byte[] value = oldValue.clone();
@@ -665,12 +774,12 @@ public class NilsPodSensor extends AbstractNilsPodSensor implements NilsPodLogga
             System.arraycopy(syncGroup.getSyncAddress(), 0, value, offset, 5);
         }
 
-        writeNilsPodConfig(config, oldValue, value);
+        return writeNilsPodConfig(config, oldValue, value);
     }
 
-    protected void writeSensorConfig(ArrayList<HardwareSensor> sensors, NilsPodAccRange accRange, NilsPodGyroRange gyroRange) throws SensorException {
+    protected NilsPodCommandFuture writeSensorConfig(ArrayList<HardwareSensor> sensors, NilsPodAccRange accRange, NilsPodGyroRange gyroRange) throws SensorException {
         if (sensors == null) {
-            return;
+            return NilsPodCommandFuture.completed(this, "CONFIG " + NILS_POD_SENSOR_CONFIG);
         }
 
         BluetoothGattCharacteristic config = getConfigurationService().getCharacteristic(NILS_POD_SENSOR_CONFIG);
@@ -724,13 +833,13 @@ public class NilsPodSensor extends AbstractNilsPodSensor implements NilsPodLogga
         }
 
         if (getFirmwareRevision().isAtLeast(NilsPodFirmwareRevisions.FW_0_16_0)) {
-            writeNilsPodConfig(config, new byte[]{oldValue[0], oldValue[1], oldValue[2]}, value);
+            return writeNilsPodConfig(config, new byte[]{oldValue[0], oldValue[1], oldValue[2]}, value);
         } else {
-            writeNilsPodConfig(config, new byte[]{oldValue[0], oldValue[1]}, value);
+            return writeNilsPodConfig(config, new byte[]{oldValue[0], oldValue[1]}, value);
         }
     }
 
-    protected void writeSystemSettingsConfig(NilsPodSensorPosition sensorPosition, NilsPodOperationMode operationMode, NilsPodMotionInterrupt motionInterrupt, NilsPodIndicationLed indicationLed) throws SensorException {
+    protected NilsPodCommandFuture writeSystemSettingsConfig(NilsPodSensorPosition sensorPosition, NilsPodOperationMode operationMode, NilsPodMotionInterrupt motionInterrupt, NilsPodIndicationLed indicationLed) throws SensorException {
         BluetoothGattCharacteristic config = getConfigurationService().getCharacteristic(NILS_POD_SYSTEM_SETTINGS_CONFIG);
         byte[] oldValue = config.getValue();
         byte[] value = oldValue.clone();
@@ -754,10 +863,10 @@ public class NilsPodSensor extends AbstractNilsPodSensor implements NilsPodLogga
 
         value[offset] = (byte) byteVal;
 
-        writeNilsPodConfig(config, oldValue, value);
+        return writeNilsPodConfig(config, oldValue, value);
     }
 
-    protected void writeTimerConfig(NilsPodTimer timerConfig) throws SensorException {
+    protected NilsPodCommandFuture writeTimerConfig(NilsPodTimer timerConfig) throws SensorException {
         BluetoothGattCharacteristic config = getConfigurationService().getCharacteristic(NILS_POD_TIMER_CONFIG);
         byte[] oldValue = config.getValue();
         byte[] value = oldValue.clone();
@@ -769,7 +878,7 @@ public class NilsPodSensor extends AbstractNilsPodSensor implements NilsPodLogga
         value[offset++] = (byte) timerConfig.getStopMinute();
         value[offset] = (byte) (timerConfig.isTimerEnabled() ? 0x01 : 0x00);
 
-        writeNilsPodConfig(config, oldValue, value);
+        return writeNilsPodConfig(config, oldValue, value);
     }
 
 
@@ -794,17 +903,29 @@ public class NilsPodSensor extends AbstractNilsPodSensor implements NilsPodLogga
 
     @Override
     public void clearData() {
-        send(NilsPodSensorCommand.FLASH_CLEAR_SESSIONS);
+        clearDataAsync();
+    }
+
+    public NilsPodCommandFuture clearDataAsync() {
+        return submit(NilsPodSensorCommand.FLASH_CLEAR_SESSIONS);
     }
 
     @Override
     public void fullErase() {
-        send(NilsPodSensorCommand.FLASH_FULL_ERASE);
+        fullEraseAsync();
+    }
+
+    public NilsPodCommandFuture fullEraseAsync() {
+        return submit(NilsPodSensorCommand.FLASH_FULL_ERASE);
     }
 
     @Override
     public void setDefaultConfig() {
-        send(NilsPodSensorCommand.SET_DEFAULT_CONFIG);
+        setDefaultConfigAsync();
+    }
+
+    public NilsPodCommandFuture setDefaultConfigAsync() {
+        return submit(NilsPodSensorCommand.SET_DEFAULT_CONFIG);
     }
 
 
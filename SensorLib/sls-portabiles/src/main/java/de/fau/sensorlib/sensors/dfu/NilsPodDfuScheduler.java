@@ -0,0 +1,647 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+
+package de.fau.sensorlib.sensors.dfu;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import de.fau.sensorlib.KnownDeviceRegistry;
+import de.fau.sensorlib.SensorInfo;
+import de.fau.sensorlib.sensors.AbstractSensor;
+import de.fau.sensorlib.sensors.FirmwareRevision;
+import no.nordicsemi.android.dfu.DfuBaseService;
+import no.nordicsemi.android.dfu.DfuProgressListener;
+import no.nordicsemi.android.dfu.DfuProgressListenerAdapter;
+import no.nordicsemi.android.dfu.DfuServiceController;
+import no.nordicsemi.android.dfu.DfuServiceInitiator;
+import no.nordicsemi.android.dfu.DfuServiceListenerHelper;
+
+/**
+ * Updates the firmware of several NilsPods with the same firmware package.
+ * <p>
+ * Pods that already run the target firmware revision (or a newer one) are skipped. The revision is taken from the
+ * connected sensor or, if not available, from the {@link KnownDeviceRegistry}. Up to
+ * {@link #setMaxConcurrentUpdates(int)} pods are updated in parallel (each using its own DFU service, see
+ * {@link NilsPodDfuService}), failed updates are retried up to {@link #setMaxRetries(int)} times after {@link #setRetryDelay(long)}.
+ * <p>
+ * The state of every pod is persisted in the app's files directory, so a rollout interrupted by an app restart
+ * can be continued with {@link #resume()}. Updates that were running when the app was stopped are restarted.
+ * <p>
+ * All methods must be called on the main thread.
+ */
+public class NilsPodDfuScheduler {
+
+    private static final String TAG = NilsPodDfuScheduler.class.getSimpleName();
+
+    private static final String STATE_FILE_NAME = "nilspod_dfu.json";
+
+    public static final int DEFAULT_MAX_CONCURRENT_UPDATES = 2;
+    public static final int DEFAULT_MAX_RETRIES = 2;
+    public static final long DEFAULT_RETRY_DELAY = 5000;
+
+    /**
+     * DFU services available for concurrent updates
+     */
+    private static final List<Class<? extends DfuBaseService>> DFU_SERVICES = new ArrayList<>();
+
+    static {
+        DFU_SERVICES.add(NilsPodDfuService.class);
+        DFU_SERVICES.add(NilsPodDfuService.Slot1.class);
+        DFU_SERVICES.add(NilsPodDfuService.Slot2.class);
+    }
+
+    public enum DfuStatus {
+        PENDING,
+        /**
+         * Pod already runs the target firmware revision
+         */
+        SKIPPED,
+        UPDATING,
+        /**
+         * Last attempt failed, waiting for the retry delay before the pod is updated again
+         */
+        RETRY_WAIT,
+        COMPLETED,
+        FAILED,
+        CANCELLED
+    }
+
+    /**
+     * Firmware update of one pod.
+     */
+    public static class DfuJob {
+        private final String mAddress;
+        private final String mName;
+        private final String mFromRevision;
+        private DfuStatus mStatus = DfuStatus.PENDING;
+        private int mAttempts;
+        private int mProgress;
+        private float mAvgSpeed;
+        private long mStartTime;
+        private long mEndTime;
+        private String mLastError;
+
+        // not persisted
+        private int mSlot = -1;
+        private DfuServiceController mController;
+        private DfuProgressListener mListener;
+
+        private DfuJob(String address, String name, String fromRevision) {
+            mAddress = address;
+            mName = name;
+            mFromRevision = fromRevision;
+        }
+
+        public String getAddress() {
+            return mAddress;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return firmware revision before the update, or null if unknown
+         */
+        public String getFromRevision() {
+            return mFromRevision;
+        }
+
+        public DfuStatus getStatus() {
+            return mStatus;
+        }
+
+        public int getAttempts() {
+            return mAttempts;
+        }
+
+        /**
+         * @return progress of the current attempt in %
+         */
+        public int getProgress() {
+            return mProgress;
+        }
+
+        /**
+         * @return average transfer speed of the last attempt (in kB/s)
+         */
+        public float getAvgSpeed() {
+            return mAvgSpeed;
+        }
+
+        /**
+         * @return duration of the last attempt (in ms)
+         */
+        public long getDuration() {
+            return ((mEndTime > 0) ? mEndTime : System.currentTimeMillis()) - mStartTime;
+        }
+
+        /**
+         * @return error of the last failed attempt, or null
+         */
+        public String getLastError() {
+            return mLastError;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.getDefault(), "%-16s %-10s %3d %%, %d attempts, %.1f kB/s, %d s%s", mName, mStatus, mProgress,
+                    mAttempts, mAvgSpeed, (mStartTime > 0) ? getDuration() / 1000 : 0, (mLastError != null) ? " (" + mLastError + ")" : "");
+        }
+
+        private JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("address", mAddress);
+            json.put("name", mName);
+            json.put("from_revision", mFromRevision);
+            json.put("status", mStatus.name());
+            json.put("attempts", mAttempts);
+            json.put("progress", mProgress);
+            json.put("avg_speed", mAvgSpeed);
+            json.put("start_time", mStartTime);
+            json.put("end_time", mEndTime);
+            json.put("last_error", mLastError);
+            return json;
+        }
+
+        private static DfuJob fromJson(JSONObject json) throws JSONException {
+            DfuJob job = new DfuJob(json.getString("address"), json.optString("name"), json.optString("from_revision", null));
+            job.mStatus = DfuStatus.valueOf(json.getString("status"));
+            job.mAttempts = json.optInt("attempts");
+            job.mProgress = json.optInt("progress");
+            job.mAvgSpeed = (float) json.optDouble("avg_speed", 0);
+            job.mStartTime = json.optLong("start_time");
+            job.mEndTime = json.optLong("end_time");
+            job.mLastError = json.optString("last_error", null);
+            return job;
+        }
+    }
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final File mStateFile;
+
+    private NilsPodDfuSchedulerCallback mCallback;
+
+    private final LinkedHashMap<String, DfuJob> mJobs = new LinkedHashMap<>();
+    private final boolean[] mSlotsInUse = new boolean[DFU_SERVICES.size()];
+
+    private String mFirmwarePath;
+    private FirmwareRevision mTargetRevision;
+
+    private int mMaxConcurrentUpdates = DEFAULT_MAX_CONCURRENT_UPDATES;
+    private int mMaxRetries = DEFAULT_MAX_RETRIES;
+    private long mRetryDelay = DEFAULT_RETRY_DELAY;
+
+    private boolean mRunning;
+    private int mNumActive;
+    private int mNumRetrying;
+    private long mRolloutStartTime;
+
+    /**
+     * Number of failed attempts per error type
+     */
+    private final LinkedHashMap<String, Integer> mFailureCounts = new LinkedHashMap<>();
+
+
+    public NilsPodDfuScheduler(Context context, NilsPodDfuSchedulerCallback callback) {
+        mContext = context.getApplicationContext();
+        mCallback = callback;
+        mStateFile = new File(mContext.getFilesDir(), STATE_FILE_NAME);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            DfuServiceInitiator.createDfuNotificationChannel(mContext);
+        }
+    }
+
+    /**
+     * @param maxConcurrentUpdates number of pods updated in parallel (at most the number of available DFU services)
+     */
+    public void setMaxConcurrentUpdates(int maxConcurrentUpdates) {
+        mMaxConcurrentUpdates = Math.max(1, Math.min(DFU_SERVICES.size(), maxConcurrentUpdates));
+    }
+
+    public int getMaxConcurrentUpdates() {
+        return mMaxConcurrentUpdates;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        mMaxRetries = Math.max(0, maxRetries);
+    }
+
+    public void setRetryDelay(long retryDelay) {
+        mRetryDelay = retryDelay;
+    }
+
+    /**
+     * Starts updating the given pods. Pods that already run the target revision are skipped.
+     *
+     * @param firmwarePath   path to the firmware package (zip file)
+     * @param targetRevision firmware revision contained in the package
+     * @param pods           pods to update (connected sensors or sensors found during a scan)
+     */
+    public void start(String firmwarePath, FirmwareRevision targetRevision, List<? extends SensorInfo> pods) {
+        if (mRunning) {
+            throw new IllegalStateException("Firmware update already running!");
+        }
+        mFirmwarePath = firmwarePath;
+        mTargetRevision = targetRevision;
+        mJobs.clear();
+        mFailureCounts.clear();
+        mRolloutStartTime = System.currentTimeMillis();
+
+        KnownDeviceRegistry registry = KnownDeviceRegistry.getInstance(mContext);
+        for (SensorInfo pod : pods) {
+            if (mJobs.containsKey(pod.getDeviceAddress())) {
+                continue;
+            }
+            FirmwareRevision revision = null;
+            if (pod instanceof AbstractSensor) {
+                revision = ((AbstractSensor) pod).getFirmwareRevision();
+            }
+            if ((revision == null || revision.versionCode == 0) && registry.getEntry(pod.getDeviceAddress()) != null) {
+                revision = registry.getEntry(pod.getDeviceAddress()).getFirmwareRevision();
+            }
+            boolean known = revision != null && revision.versionCode != 0;
+            DfuJob job = new DfuJob(pod.getDeviceAddress(), pod.getDeviceName(), known ? revision.toString() : null);
+            if (known && revision.isAtLeast(targetRevision)) {
+                job.mStatus = DfuStatus.SKIPPED;
+                Log.d(TAG, "<" + pod.getDeviceName() + "> already runs " + revision + ", skipping.");
+            }
+            mJobs.put(job.mAddress, job);
+        }
+        Log.d(TAG, "Updating " + mJobs.size() + " pods to " + targetRevision + "...");
+        mRunning = true;
+        saveState();
+        scheduleNextUpdates();
+    }
+
+    /**
+     * Continues a rollout interrupted by an app restart.
+     *
+     * @return true if an unfinished rollout was found and continued
+     */
+    public boolean resume() {
+        if (mRunning || !loadState()) {
+            return false;
+        }
+        boolean unfinished = false;
+        for (DfuJob job : mJobs.values()) {
+            if (job.mStatus == DfuStatus.UPDATING || job.mStatus == DfuStatus.RETRY_WAIT) {
+                // the DFU service was stopped together with the app
+                job.mStatus = DfuStatus.PENDING;
+            }
+            unfinished |= job.mStatus == DfuStatus.PENDING;
+        }
+        if (!unfinished || !new File(mFirmwarePath).exists()) {
+            return false;
+        }
+        Log.d(TAG, "Resuming firmware update to " + mTargetRevision + "...");
+        mRunning = true;
+        scheduleNextUpdates();
+        return true;
+    }
+
+    /**
+     * Aborts all running updates, pending updates are cancelled.
+     */
+    public void cancel() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        mHandler.removeCallbacksAndMessages(null);
+        for (DfuJob job : mJobs.values()) {
+            if (job.mStatus == DfuStatus.UPDATING && job.mController != null) {
+                job.mController.abort();
+            }
+            if (job.mStatus == DfuStatus.PENDING || job.mStatus == DfuStatus.UPDATING || job.mStatus == DfuStatus.RETRY_WAIT) {
+                job.mStatus = DfuStatus.CANCELLED;
+                releaseJob(job);
+            }
+        }
+        mNumActive = 0;
+        mNumRetrying = 0;
+        saveState();
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * Removes the persisted state of the last rollout.
+     */
+    public void clearState() {
+        if (!mRunning && mStateFile.exists() && !mStateFile.delete()) {
+            Log.e(TAG, "Error deleting DFU state!");
+        }
+    }
+
+    public List<DfuJob> getJobs() {
+        return new ArrayList<>(mJobs.values());
+    }
+
+    public int getNumJobs(DfuStatus status) {
+        int count = 0;
+        for (DfuJob job : mJobs.values()) {
+            if (job.mStatus == status) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return mean transfer speed of all completed updates (in kB/s)
+     */
+    public double getMeanTransferSpeed() {
+        double sum = 0;
+        int count = 0;
+        for (DfuJob job : mJobs.values()) {
+            if (job.mStatus == DfuStatus.COMPLETED) {
+                sum += job.mAvgSpeed;
+                count++;
+            }
+        }
+        return (count > 0) ? sum / count : 0;
+    }
+
+    /**
+     * @return mean duration of all completed updates (in ms)
+     */
+    public double getMeanUpdateDuration() {
+        double sum = 0;
+        int count = 0;
+        for (DfuJob job : mJobs.values()) {
+            if (job.mStatus == DfuStatus.COMPLETED) {
+                sum += job.getDuration();
+                count++;
+            }
+        }
+        return (count > 0) ? sum / count : 0;
+    }
+
+    /**
+     * @return time since the rollout was started (in ms)
+     */
+    public long getRolloutDuration() {
+        return System.currentTimeMillis() - mRolloutStartTime;
+    }
+
+    /**
+     * @return number of failed attempts per error type (including attempts that succeeded on retry)
+     */
+    public Map<String, Integer> getFailureCounts() {
+        return new LinkedHashMap<>(mFailureCounts);
+    }
+
+    /**
+     * @return the state of all pods and the statistics of the rollout, one row per pod
+     */
+    public String formatResults() {
+        StringBuilder sb = new StringBuilder();
+        for (DfuJob job : mJobs.values()) {
+            sb.append(job).append("\n");
+        }
+        sb.append(String.format(Locale.getDefault(), "%d completed, %d skipped, %d failed | %.1f kB/s, %.0f s per pod, %d s total | failures: %s",
+                getNumJobs(DfuStatus.COMPLETED), getNumJobs(DfuStatus.SKIPPED), getNumJobs(DfuStatus.FAILED),
+                getMeanTransferSpeed(), getMeanUpdateDuration() / 1000, getRolloutDuration() / 1000, mFailureCounts));
+        return sb.toString();
+    }
+
+    private void scheduleNextUpdates() {
+        if (!mRunning) {
+            return;
+        }
+        for (DfuJob job : mJobs.values()) {
+            if (mNumActive >= mMaxConcurrentUpdates) {
+                break;
+            }
+            if (job.mStatus == DfuStatus.PENDING && job.mSlot < 0) {
+                startUpdate(job);
+            }
+        }
+        if (mNumActive == 0 && mNumRetrying == 0) {
+            mRunning = false;
+            saveState();
+            Log.d(TAG, "Firmware update finished:\n" + formatResults());
+            if (mCallback != null) {
+                mCallback.onAllDfusFinished(this);
+            }
+        }
+    }
+
+    private void startUpdate(DfuJob job) {
+        int slot = 0;
+        while (mSlotsInUse[slot]) {
+            slot++;
+        }
+        mSlotsInUse[slot] = true;
+        job.mSlot = slot;
+        job.mStatus = DfuStatus.UPDATING;
+        job.mAttempts++;
+        job.mProgress = 0;
+        job.mAvgSpeed = 0;
+        job.mStartTime = System.currentTimeMillis();
+        job.mEndTime = 0;
+        mNumActive++;
+        saveState();
+
+        Log.d(TAG, "<" + job.mName + "> starting update (attempt " + job.mAttempts + ", service " + slot + ")...");
+        job.mListener = new DfuProgressListenerAdapter() {
+            @Override
+            public void onProgressChanged(@NonNull String deviceAddress, int percent, float speed, float avgSpeed, int currentPart, int partsTotal) {
+                boolean save = percent / 10 != job.mProgress / 10;
+                job.mProgress = percent;
+                job.mAvgSpeed = avgSpeed;
+                if (save) {
+                    saveState();
+                }
+                if (mCallback != null) {
+                    mCallback.onDfuProgress(NilsPodDfuScheduler.this, job);
+                }
+            }
+
+            @Override
+            public void onDfuCompleted(@NonNull String deviceAddress) {
+                onUpdateFinished(job, null);
+            }
+
+            @Override
+            public void onError(@NonNull String deviceAddress, int error, int errorType, String message) {
+                onUpdateFinished(job, getErrorTypeString(errorType) + ": " + message);
+            }
+
+            @Override
+            public void onDfuAborted(@NonNull String deviceAddress) {
+                onUpdateFinished(job, "ABORTED");
+            }
+        };
+        DfuServiceListenerHelper.registerProgressListener(mContext, job.mListener, job.mAddress);
+
+        DfuServiceInitiator starter = new DfuServiceInitiator(job.mAddress)
+                .setDeviceName(job.mName)
+                .setKeepBond(true);
+        starter.setZip(mFirmwarePath);
+        job.mController = starter.start(mContext, DFU_SERVICES.get(slot));
+    }
+
+    private void onUpdateFinished(DfuJob job, String error) {
+        if (job.mStatus != DfuStatus.UPDATING) {
+            return;
+        }
+        job.mEndTime = System.currentTimeMillis();
+        releaseJob(job);
+        mNumActive--;
+
+        if (error == null) {
+            job.mStatus = DfuStatus.COMPLETED;
+            job.mLastError = null;
+            Log.d(TAG, "<" + job.mName + "> updated to " + mTargetRevision + " (" + job.getDuration() / 1000 + " s).");
+        } else {
+            String type = error.contains(":") ? error.substring(0, error.indexOf(':')) : error;
+            Integer count = mFailureCounts.get(type);
+            mFailureCounts.put(type, (count != null) ? count + 1 : 1);
+            job.mLastError = error;
+            if (mRunning && job.mAttempts <= mMaxRetries) {
+                Log.w(TAG, "<" + job.mName + "> update failed (" + error + "), retrying in " + mRetryDelay + " ms...");
+                // keep the job out of scheduleNextUpdates() until the delay elapsed, the pod needs time to reboot
+                job.mStatus = DfuStatus.RETRY_WAIT;
+                mNumRetrying++;
+                mHandler.postDelayed(() -> {
+                    mNumRetrying--;
+                    if (job.mStatus == DfuStatus.RETRY_WAIT) {
+                        job.mStatus = DfuStatus.PENDING;
+                        saveState();
+                    }
+                    scheduleNextUpdates();
+                }, mRetryDelay);
+            } else {
+                Log.e(TAG, "<" + job.mName + "> update failed (" + error + ").");
+                job.mStatus = DfuStatus.FAILED;
+            }
+        }
+        saveState();
+        if (mCallback != null) {
+            mCallback.onDfuFinished(this, job);
+        }
+        scheduleNextUpdates();
+    }
+
+    private void releaseJob(DfuJob job) {
+        if (job.mListener != null) {
+            DfuServiceListenerHelper.unregisterProgressListener(mContext, job.mListener);
+            job.mListener = null;
+        }
+        if (job.mSlot >= 0) {
+            mSlotsInUse[job.mSlot] = false;
+            job.mSlot = -1;
+        }
+        job.mController = null;
+    }
+
+    private static String getErrorTypeString(int errorType) {
+        switch (errorType) {
+            case DfuBaseService.ERROR_TYPE_COMMUNICATION_STATE:
+                return "COMMUNICATION_STATE";
+            case DfuBaseService.ERROR_TYPE_COMMUNICATION:
+                return "COMMUNICATION";
+            case DfuBaseService.ERROR_TYPE_DFU_REMOTE:
+                return "DFU_REMOTE";
+            default:
+                return "OTHER";
+        }
+    }
+
+    private boolean loadState() {
+        if (!mStateFile.exists()) {
+            return false;
+        }
+        try (InputStream is = new FileInputStream(mStateFile)) {
+            byte[] buffer = new byte[(int) mStateFile.length()];
+            int offset = 0;
+            int len;
+            while (offset < buffer.length && (len = is.read(buffer, offset, buffer.length - offset)) > 0) {
+                offset += len;
+            }
+            JSONObject state = new JSONObject(new String(buffer, 0, offset, StandardCharsets.UTF_8));
+            mFirmwarePath = state.getString("firmware_path");
+            mTargetRevision = new FirmwareRevision(state.getString("target_revision"));
+            mRolloutStartTime = state.optLong("start_time");
+            mJobs.clear();
+            JSONArray jobs = state.getJSONArray("jobs");
+            for (int i = 0; i < jobs.length(); i++) {
+                DfuJob job = DfuJob.fromJson(jobs.getJSONObject(i));
+                mJobs.put(job.mAddress, job);
+            }
+            mFailureCounts.clear();
+            JSONObject failures = state.optJSONObject("failures");
+            if (failures != null) {
+                JSONArray types = failures.names();
+                for (int i = 0; types != null && i < types.length(); i++) {
+                    mFailureCounts.put(types.getString(i), failures.getInt(types.getString(i)));
+                }
+            }
+            return true;
+        } catch (IOException | JSONException | IllegalArgumentException e) {
+            Log.e(TAG, "Error loading DFU state!");
+            e.printStackTrace();
+            mJobs.clear();
+            return false;
+        }
+    }
+
+    private void saveState() {
+        File tmpFile = new File(mStateFile.getAbsolutePath() + ".tmp");
+        try {
+            JSONObject state = new JSONObject();
+            state.put("firmware_path", mFirmwarePath);
+            state.put("target_revision", mTargetRevision.toString());
+            state.put("start_time", mRolloutStartTime);
+            JSONArray jobs = new JSONArray();
+            for (DfuJob job : mJobs.values()) {
+                jobs.put(job.toJson());
+            }
+            state.put("jobs", jobs);
+            state.put("failures", new JSONObject(mFailureCounts));
+            try (FileOutputStream fos = new FileOutputStream(tmpFile)) {
+                fos.write(state.toString().getBytes(StandardCharsets.UTF_8));
+                fos.getFD().sync();
+            }
+            if (!tmpFile.renameTo(mStateFile)) {
+                Log.e(TAG, "Error replacing DFU state!");
+            }
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Error saving DFU state!");
+            e.printStackTrace();
+        }
+    }
+}
@@ -21,4 +21,14 @@ public class NilsPodDfuService extends DfuBaseService {
         // make sure you return true or your.app.BuildConfig.DEBUG here.
         return true;
     }
+
+    /**
+     * Additional DFU services. The DFU library processes all updates of one service class one after another,
+     * so updating several sensors in parallel needs one service class per concurrent update.
+     */
+    public static class Slot1 extends NilsPodDfuService {
+    }
+
+    public static class Slot2 extends NilsPodDfuService {
+    }
 }
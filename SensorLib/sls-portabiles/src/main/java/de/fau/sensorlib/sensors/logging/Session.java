@@ -146,4 +146,9 @@ public class Session {
     public boolean equals(Object obj) {
         return (obj instanceof Session) && (getSessionId() == ((Session) obj).getSessionId());
     }
+
+    @Override
+    public int hashCode() {
+        return getSessionId();
+    }
 }
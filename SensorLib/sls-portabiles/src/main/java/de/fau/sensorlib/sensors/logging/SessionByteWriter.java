@@ -43,6 +43,8 @@ public class SessionByteWriter {
 
     private boolean mFileCreated;
 
+    private final SessionIntegrityChecker mIntegrityChecker = new SessionIntegrityChecker();
+
 
     public SessionByteWriter(AbstractSensor sensor, Session session, Context context) throws SensorException {
         mContext = context;
@@ -170,6 +172,7 @@ public class SessionByteWriter {
     public void writeData(byte[] data) {
         try {
             mBufferedOutputStream.write(data);
+            mIntegrityChecker.update(data);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -209,6 +212,17 @@ public class SessionByteWriter {
         return mFilename;
     }
 
+    public File getFile() {
+        return mFileHandler;
+    }
+
+    /**
+     * @return integrity checker that was fed with all bytes written to the session file
+     */
+    public SessionIntegrityChecker getIntegrityChecker() {
+        return mIntegrityChecker;
+    }
+
 
     public void checkFileSize() throws SensorException {
         if (mSession.getSessionSize() != mFileHandler.length()) {
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+
+package de.fau.sensorlib.sensors.logging;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Persistent catalog of downloaded NilsPod sessions, keyed by device address and session start time.
+ * <p>
+ * The catalog is stored as a JSON file next to the downloaded sessions and replaced atomically on every
+ * update, so a crash during a download never leaves a half-written catalog behind.
+ */
+public class SessionCatalog {
+
+    private static final String TAG = SessionCatalog.class.getSimpleName();
+
+    private static final String CATALOG_FILE_NAME = "session_catalog.json";
+
+    private static final HashMap<String, SessionCatalog> sInstances = new HashMap<>();
+
+    public enum DownloadState {
+        DOWNLOADING,
+        DOWNLOADED,
+        FAILED
+    }
+
+    public enum ConversionState {
+        NOT_CONVERTED,
+        CONVERTED
+    }
+
+    /**
+     * One catalog entry describing a downloaded session.
+     */
+    public static class Entry {
+        private String device_name;
+        private String device_address;
+        private long session_start;
+        private String file_name;
+        private long size_bytes;
+        private long checksum = -1;
+        private DownloadState download_state = DownloadState.DOWNLOADING;
+        private ConversionState conversion_state = ConversionState.NOT_CONVERTED;
+
+        private Entry(String deviceName, String deviceAddress, long sessionStart, String fileName) {
+            this.device_name = deviceName;
+            this.device_address = deviceAddress;
+            this.session_start = sessionStart;
+            this.file_name = fileName;
+        }
+
+        public String getDeviceName() {
+            return device_name;
+        }
+
+        public String getDeviceAddress() {
+            return device_address;
+        }
+
+        /**
+         * @return session start time in seconds since epoch
+         */
+        public long getSessionStart() {
+            return session_start;
+        }
+
+        public String getFileName() {
+            return file_name;
+        }
+
+        public long getSize() {
+            return size_bytes;
+        }
+
+        /**
+         * @return checksum of the downloaded session file, or -1 if unknown
+         */
+        public long getChecksum() {
+            return checksum;
+        }
+
+        public DownloadState getDownloadState() {
+            return download_state;
+        }
+
+        public ConversionState getConversionState() {
+            return conversion_state;
+        }
+    }
+
+    private final File mCatalogFile;
+    private final File mDirectory;
+    private HashMap<String, Entry> mEntries = new HashMap<>();
+
+    private final Gson mGson = new Gson();
+
+
+    /**
+     * Returns the catalog stored in the given directory, loading it on first access.
+     *
+     * @param directory directory containing the downloaded sessions
+     * @return the session catalog of this directory
+     */
+    public static synchronized SessionCatalog getInstance(File directory) {
+        String key = directory.getAbsolutePath();
+        SessionCatalog catalog = sInstances.get(key);
+        if (catalog == null) {
+            catalog = new SessionCatalog(directory);
+            sInstances.put(key, catalog);
+        }
+        return catalog;
+    }
+
+    private SessionCatalog(File directory) {
+        mDirectory = directory;
+        mCatalogFile = new File(directory, CATALOG_FILE_NAME);
+        load();
+    }
+
+    public static String getKey(String deviceAddress, Session session) {
+        return getKey(deviceAddress, session.getStartDate().getTime() / 1000);
+    }
+
+    public static String getKey(String deviceAddress, long sessionStart) {
+        return deviceAddress + "_" + sessionStart;
+    }
+
+    public synchronized Entry getEntry(String deviceAddress, Session session) {
+        return mEntries.get(getKey(deviceAddress, session));
+    }
+
+    /**
+     * Checks whether the given session was completely downloaded and its file still exists.
+     */
+    public synchronized boolean isDownloaded(String deviceAddress, Session session) {
+        Entry entry = getEntry(deviceAddress, session);
+        return entry != null && entry.download_state == DownloadState.DOWNLOADED && new File(mDirectory, entry.file_name).exists();
+    }
+
+    /**
+     * Returns all sessions of the given list that are not (completely) downloaded yet.
+     */
+    public synchronized List<Session> getMissingSessions(String deviceAddress, List<Session> sessions) {
+        List<Session> missing = new ArrayList<>();
+        for (Session session : sessions) {
+            if (!isDownloaded(deviceAddress, session)) {
+                missing.add(session);
+            }
+        }
+        return missing;
+    }
+
+    public synchronized void onDownloadStarted(String deviceName, String deviceAddress, Session session, String fileName) {
+        Entry entry = new Entry(deviceName, deviceAddress, session.getStartDate().getTime() / 1000, fileName);
+        mEntries.put(getKey(deviceAddress, session), entry);
+        save();
+    }
+
+    public synchronized void onDownloadFinished(String deviceAddress, Session session, long size, long checksum, boolean success) {
+        Entry entry = getEntry(deviceAddress, session);
+        if (entry == null) {
+            Log.w(TAG, "No catalog entry for " + session + " of " + deviceAddress);
+            return;
+        }
+        entry.size_bytes = size;
+        entry.checksum = checksum;
+        entry.download_state = success ? DownloadState.DOWNLOADED : DownloadState.FAILED;
+        save();
+    }
+
+    public synchronized void onSessionConverted(String deviceAddress, Session session) {
+        Entry entry = getEntry(deviceAddress, session);
+        if (entry != null) {
+            entry.conversion_state = ConversionState.CONVERTED;
+            save();
+        }
+    }
+
+    /**
+     * Adds a session that was downloaded before the catalog existed.
+     */
+    synchronized Entry importSession(String deviceName, String deviceAddress, Session session, String fileName, long size) {
+        Entry entry = new Entry(deviceName, deviceAddress, session.getStartDate().getTime() / 1000, fileName);
+        entry.size_bytes = size;
+        entry.download_state = (size == session.getSessionSize()) ? DownloadState.DOWNLOADED : DownloadState.FAILED;
+        mEntries.put(getKey(deviceAddress, session), entry);
+        save();
+        return entry;
+    }
+
+    public synchronized void remove(String deviceAddress, Session session) {
+        if (mEntries.remove(getKey(deviceAddress, session)) != null) {
+            save();
+        }
+    }
+
+    private void load() {
+        if (!mCatalogFile.exists()) {
+            return;
+        }
+        try (Reader reader = new InputStreamReader(new FileInputStream(mCatalogFile), StandardCharsets.UTF_8)) {
+            Type type = new TypeToken<HashMap<String, Entry>>() {
+            }.getType();
+            HashMap<String, Entry> entries = mGson.fromJson(reader, type);
+            if (entries != null) {
+                mEntries = entries;
+            }
+        } catch (IOException | JsonParseException e) {
+            Log.e(TAG, "Error reading session catalog, starting with an empty catalog!", e);
+            mEntries = new HashMap<>();
+        }
+    }
+
+    /**
+     * Writes the catalog to a temporary file and atomically replaces the old catalog with it.
+     */
+    private void save() {
+        File tmpFile = new File(mDirectory, CATALOG_FILE_NAME + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmpFile)) {
+            Writer writer = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
+            mGson.toJson(mEntries, writer);
+            writer.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing session catalog!", e);
+            return;
+        }
+
+        if (!tmpFile.renameTo(mCatalogFile)) {
+            Log.e(TAG, "Error replacing session catalog!");
+        }
+    }
+}
@@ -14,7 +14,6 @@ import android.util.Log;
 
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
 
 import de.fau.sensorlib.SensorDataRecorder;
 import de.fau.sensorlib.SensorException;
@@ -25,9 +24,6 @@ import de.fau.sensorlib.sensors.AbstractSensor;
 import de.fau.sensorlib.sensors.FirmwareRevision;
 import de.fau.sensorlib.sensors.NilsPodSensor;
 import de.fau.sensorlib.sensors.enums.NilsPodGyroRange;
-import de.fau.sensorlib.sensors.enums.NilsPodSensorPosition;
-import de.fau.sensorlib.sensors.enums.NilsPodSyncRole;
-import de.fau.sensorlib.sensors.enums.NilsPodTerminationSource;
 
 public class SessionCsvConverter {
 
@@ -74,161 +70,14 @@ public class SessionCsvConverter {
     }
 
     private synchronized void extractHeader(byte[] values) throws SensorException {
-        BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(null, 0, 0);
-        characteristic.setValue(values);
-
-        mHeader = new SessionHeader();
-
-        try {
-            int offset = 1;
-            // Byte 1
-            int sampleSize = values[offset++];
-
-            mByteBuffer = ByteBuffer.allocate(sampleSize * 1000);
-
-            // Byte 2-3
-            ArrayList<HardwareSensor> enabledSensorList = new ArrayList<>();
-            int sensors = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT16, offset);
-            offset += 2;
-            if ((sensors & 0x0001) != 0) {
-                enabledSensorList.add(HardwareSensor.ACCELEROMETER);
-            }
-            if ((sensors & 0x0002) != 0) {
-                enabledSensorList.add(HardwareSensor.GYROSCOPE);
-            }
-            if ((sensors & 0x0004) != 0) {
-                enabledSensorList.add(HardwareSensor.MAGNETOMETER);
-            }
-            if ((sensors & 0x0008) != 0) {
-                enabledSensorList.add(HardwareSensor.BAROMETER);
-            }
-            if ((sensors & 0x0010) != 0) {
-                enabledSensorList.add(HardwareSensor.ANALOG);
-            }
-            if ((sensors & 0x0020) != 0) {
-                enabledSensorList.add(HardwareSensor.ECG);
-            }
-            if ((sensors & 0x0040) != 0) {
-                enabledSensorList.add(HardwareSensor.PPG);
-            }
-            if ((sensors & 0x0080) != 0) {
-                enabledSensorList.add(HardwareSensor.TEMPERATURE);
-            }
-
-            // Byte 4
-            double samplingRate = NilsPodSensor.inferSamplingRate(values[offset++]);
-
-            // Byte 5
-            NilsPodTerminationSource terminationSource = NilsPodTerminationSource.inferTerminationSource(values[offset++]);
-
-            // Byte 6
-            NilsPodSyncRole syncRole = NilsPodSyncRole.values()[values[offset++]];
-
-            // Byte 7
-            int syncDistance = values[offset++] * 100; // in ms
-
-            // Byte 8
-            int accRange = values[offset++]; // in g
-
-            // Byte 9
-            int gyroRange = values[offset++] * 125; // in dps
+        mHeader = SessionHeader.fromByteArray(values);
 
-            // Bytes 10-14: System Settings
-            // Byte 10: Sensor Position
-            NilsPodSensorPosition sensorPosition = NilsPodSensorPosition.values()[values[offset++]];
+        mByteBuffer = ByteBuffer.allocate(mHeader.getSampleSize() * 1000);
 
-            // Byte 11: Operation Modes (Motion Interrupt, Home Monitoring, etc.)
-            boolean dockMode = (values[offset] & 0x40) != 0;
-            boolean motionInterrupt = (values[offset++] & 0x80) != 0;
-
-            // Bytes 12-14: Custom Meta Data
-            byte[] customMetaData = new byte[3];
-            System.arraycopy(values, offset, customMetaData, 0, 3);
-            offset += 3;
-
-            // Bytes 15-18
-            int startTime = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT32, offset);
-            offset += 4;
-
-            // Bytes 19-22
-            int endTime = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT32, offset);
-            offset += 4;
-
-            // Bytes 23-26: Session Size (number of samples)
-            int sessionSize = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT32, offset);
-            offset += 4;
-
-            // Bytes 27-30
-            int syncIndexStart = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT32, offset);
-            offset += 4;
-            // Bytes 31-34
-            int syncIndexEnd = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT32, offset);
-            offset += 4;
-
-            // Bytes 35-40: 6 Byte MAC Address
-            StringBuilder sb = new StringBuilder();
-            for (int i = 5; i >= 0; i--) {
-                byte val = values[offset + i];
-                sb.append(String.format("%02x", val).toUpperCase());
-                if (i != 0) {
-                    sb.append(":");
-                }
-            }
-            String macAddress = sb.toString();
-            offset += 6;
-
-            // Bytes 41-45: 5 Byte RF Address used for synchronization packages
-            sb = new StringBuilder();
-            for (int i = 4; i >= 0; i--) {
-                byte val = values[offset + i];
-                sb.append("0x").append(String.format("%02x", val).toUpperCase());
-                if (i != 0) {
-                    sb.append(" ");
-                }
-            }
-            String syncAddress = sb.toString();
-            offset += 5;
-
-            // Byte 46
-            int syncChannel = values[offset++];
-
-            // Bytes 47-48
-            String hardwareVersion = Integer.toString(characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT16, offset));
-            offset += 2;
-
-            // Bytes 49-51
-            String firmwareVersion = "v" + characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT8, offset++) + "." + characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT8, offset++) + "." + characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT8, offset);
-
-            mHeader.setSampleSize(sampleSize);
-            mHeader.setSamplingRate(samplingRate);
-            mHeader.setEnabledSensors(enabledSensorList);
-            mHeader.setTerminationSource(terminationSource);
-            mHeader.setSyncRole(syncRole);
-            mHeader.setSyncDistance(syncDistance);
-            mHeader.setSyncIndex(syncIndexStart, syncIndexEnd);
-            mHeader.setSyncAddress(syncAddress, syncChannel);
-            mHeader.setAccRange(accRange);
-            mHeader.setGyroRange(gyroRange);
-            mHeader.setSensorPosition(sensorPosition);
-            mHeader.setDockModeEnabled(dockMode);
-            mHeader.setMotionInterruptEnabled(motionInterrupt);
-            mHeader.setCustomMetaData(customMetaData);
-            mHeader.setStartTime(startTime);
-            mHeader.setEndTime(endTime);
-            mHeader.setSessionSize(sessionSize);
-            mHeader.setHardwareVersion(hardwareVersion);
-            mHeader.setMacAddress(macAddress);
-            mHeader.setFirmwareVersion(firmwareVersion);
-
-            // acc scaling factor for conversion from raw values to m/s^2
-            accScalingFactor = (AbstractNilsPodSensor.BASE_SCALING_FACTOR_ACC / mHeader.getAccRange()) / SensorManager.GRAVITY_EARTH;
-            // gyro scaling factor for conversion from raw values to dps
-            gyroScalingFactor = (AbstractNilsPodSensor.BASE_SCALING_FACTOR_GYRO * NilsPodGyroRange.GYRO_RANGE_2000_DPS.getRangeDps()) / mHeader.getGyroRange();
-
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new SensorException(SensorException.SensorExceptionType.readHeaderError);
-        }
+        // acc scaling factor for conversion from raw values to m/s^2
+        accScalingFactor = (AbstractNilsPodSensor.BASE_SCALING_FACTOR_ACC / mHeader.getAccRange()) / SensorManager.GRAVITY_EARTH;
+        // gyro scaling factor for conversion from raw values to dps
+        gyroScalingFactor = (AbstractNilsPodSensor.BASE_SCALING_FACTOR_GYRO * NilsPodGyroRange.GYRO_RANGE_2000_DPS.getRangeDps()) / mHeader.getGyroRange();
 
         Log.d(TAG, mHeader.toString());
 
@@ -18,8 +18,11 @@ import android.widget.Toast;
 import androidx.core.content.ContextCompat;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 
 import de.fau.sensorlib.SensorException;
 import de.fau.sensorlib.sensors.AbstractSensor;
@@ -44,9 +47,15 @@ public class SessionDownloadChecker {
     private String mAbsoluteDirPath = "";
 
     private AbstractSensor mSensor;
+    private static final String SESSION_FILE_SUFFIX = ".bin";
+    /**
+     * Length of the session start string (yyyyMMdd_HHmmss) in session file names
+     */
+    private static final int SESSION_START_STRING_LENGTH = 15;
+
     private ArrayList<Session> mSessionList;
-    private ArrayList<SessionDownloadFlag> mAlreadyDownloadedList;
-    private ArrayList<String> mFileList = new ArrayList<>();
+    private HashMap<Session, SessionDownloadFlag> mDownloadFlags;
+    private SessionCatalog mCatalog;
 
     public SessionDownloadChecker(Context context) throws SensorException {
         this(context, null);
@@ -56,13 +65,15 @@ public class SessionDownloadChecker {
         mContext = context;
         mSensor = sensor;
         mSessionList = new ArrayList<>();
-        mAlreadyDownloadedList = new ArrayList<>();
+        mDownloadFlags = new HashMap<>();
 
         if (checkPermissions()) {
             File directory = getDirectory();
             if (directory != null) {
                 mPath = directory;
-                mFileList = listFiles();
+                if (mSensor != null) {
+                    mCatalog = SessionCatalog.getInstance(directory);
+                }
             }
         } else {
             throw new SensorException(SensorException.SensorExceptionType.permissionsMissing);
@@ -139,6 +150,7 @@ public class SessionDownloadChecker {
                         Log.i(TAG, "Working directory is " + directory.getAbsolutePath());
                     }
                 } else {
+                    mAbsoluteDirPath = directory.getAbsolutePath();
                     Log.i(TAG, "Directory created at " + directory.getAbsolutePath());
                 }
             } catch (Exception e) {
@@ -174,75 +186,187 @@ public class SessionDownloadChecker {
         return fileList;
     }
 
+    /**
+     * Indexes all session files in the download directory by their file key (see {@link #getFileKey(Session)}).
+     * Without a sensor, files of different sensors with the same session start string can't be told apart, so they
+     * are left out of the index.
+     *
+     * @return map from file key to file name
+     */
+    private HashMap<String, String> indexSessionFiles() {
+        HashMap<String, String> index = new HashMap<>();
+        HashSet<String> ambiguousKeys = new HashSet<>();
+        for (String filename : listFiles()) {
+            int end = filename.length() - SESSION_FILE_SUFFIX.length();
+            if (!filename.endsWith(SESSION_FILE_SUFFIX) || end < SESSION_START_STRING_LENGTH) {
+                continue;
+            }
+            String key;
+            if (mSensor != null) {
+                // file name stem: <device name>_<session start string>
+                key = filename.substring(0, end);
+            } else {
+                key = filename.substring(end - SESSION_START_STRING_LENGTH, end);
+            }
+            if (index.put(key, filename) != null) {
+                ambiguousKeys.add(key);
+            }
+        }
+        for (String key : ambiguousKeys) {
+            Log.w(TAG, "Several session files for " + key + ", ignoring them.");
+            index.remove(key);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the key of the session in the file index: the file name stem if a sensor is specified, otherwise
+     * only the session start string.
+     */
+    private String getFileKey(Session session) {
+        if (mSensor != null) {
+            return mSensor.getDeviceName() + "_" + session.getSessionStartString();
+        }
+        return session.getSessionStartString();
+    }
+
+    /**
+     * Looks up the catalog entry for the given session. Sessions that were downloaded before the catalog
+     * existed are found by their file name and added to the catalog.
+     *
+     * @param session   the session to look up
+     * @param fileIndex lazily created index of session files, only used for sessions missing in the catalog
+     * @return the catalog entry, or null if the session was not downloaded yet
+     */
+    private SessionCatalog.Entry lookupSession(Session session, HashMap<String, String> fileIndex) {
+        SessionCatalog.Entry entry = null;
+        if (mCatalog != null) {
+            entry = mCatalog.getEntry(mSensor.getDeviceAddress(), session);
+        }
+        if (entry == null && fileIndex != null) {
+            // only files of this sensor are imported, sensors of one sync group start sessions at the same time
+            String filename = fileIndex.get(getFileKey(session));
+            if (filename != null && mCatalog != null) {
+                entry = mCatalog.importSession(mSensor.getDeviceName(), mSensor.getDeviceAddress(), session, filename, new File(mPath, filename).length());
+            }
+        }
+        return entry;
+    }
+
+    private SessionDownloadFlag getDownloadFlag(Session session, SessionCatalog.Entry entry, HashMap<String, String> fileIndex) {
+        if (entry != null) {
+            if (!new File(mPath, entry.getFileName()).exists()) {
+                return SessionDownloadFlag.NOT_DOWNLOADED;
+            }
+            return entry.getDownloadState() == SessionCatalog.DownloadState.DOWNLOADED ? SessionDownloadFlag.DOWNLOAD_SUCCESS : SessionDownloadFlag.DOWNLOAD_FAILED;
+        }
+
+        // no catalog available (no sensor specified) => fall back to the file index
+        String filename = (fileIndex != null) ? fileIndex.get(getFileKey(session)) : null;
+        if (filename == null) {
+            return SessionDownloadFlag.NOT_DOWNLOADED;
+        }
+        return new File(mPath, filename).length() == session.getSessionSize() ? SessionDownloadFlag.DOWNLOAD_SUCCESS : SessionDownloadFlag.DOWNLOAD_FAILED;
+    }
+
     public void addSessions(ArrayList<Session> sessionList) {
         mSessionList = sessionList;
-        mAlreadyDownloadedList = new ArrayList<>();
-
-        // reload file list
-        mFileList = listFiles();
+        mDownloadFlags = new HashMap<>();
 
+        // the directory is only scanned if the catalog does not know all sessions
+        HashMap<String, String> fileIndex = null;
         for (Session session : mSessionList) {
-            mAlreadyDownloadedList.add(SessionDownloadFlag.NOT_DOWNLOADED);
-            for (String filename : mFileList) {
-                if (filename.contains(session.getSessionStartString())) {
-                    File f = new File(getAbsolutePathForSession(session));
-                    if (f.length() != session.getSessionSize()) {
-                        mAlreadyDownloadedList.set(mSessionList.indexOf(session), SessionDownloadFlag.DOWNLOAD_FAILED);
-                    } else {
-                        mAlreadyDownloadedList.set(mSessionList.indexOf(session), SessionDownloadFlag.DOWNLOAD_SUCCESS);
-                    }
-                    break;
+            SessionCatalog.Entry entry = lookupSession(session, null);
+            if (entry == null) {
+                if (fileIndex == null) {
+                    fileIndex = indexSessionFiles();
                 }
+                entry = lookupSession(session, fileIndex);
             }
+            mDownloadFlags.put(session, getDownloadFlag(session, entry, fileIndex));
         }
     }
 
     public void setSessionDownloaded(Session session) {
-        File f = new File(getAbsolutePathForSession(session));
-        if (f.length() == session.getSessionSize()) {
-            mAlreadyDownloadedList.set(mSessionList.indexOf(session), SessionDownloadFlag.DOWNLOAD_SUCCESS);
+        SessionCatalog.Entry entry = lookupSession(session, null);
+        if (entry != null) {
+            mDownloadFlags.put(session, getDownloadFlag(session, entry, null));
+            return;
+        }
+
+        String path = getAbsolutePathForSession(session);
+        if (path != null && new File(path).length() == session.getSessionSize()) {
+            mDownloadFlags.put(session, SessionDownloadFlag.DOWNLOAD_SUCCESS);
         } else {
-            mAlreadyDownloadedList.set(mSessionList.indexOf(session), SessionDownloadFlag.DOWNLOAD_FAILED);
+            mDownloadFlags.put(session, SessionDownloadFlag.DOWNLOAD_FAILED);
         }
     }
 
     public void clear() {
         mSessionList.clear();
-        mAlreadyDownloadedList.clear();
+        mDownloadFlags.clear();
     }
 
     public SessionDownloadFlag getSessionDownloadStatus(Session session) {
-        return mAlreadyDownloadedList.get(mSessionList.indexOf(session));
+        SessionDownloadFlag flag = mDownloadFlags.get(session);
+        return (flag != null) ? flag : SessionDownloadFlag.NOT_DOWNLOADED;
     }
 
 
+    /**
+     * Verifies a downloaded session file by checking its header, length and - if recorded during download - its
+     * checksum. Like after a download, counter gaps are only logged (see {@link SessionIntegrityChecker#isValid()}).
+     *
+     * @param session the downloaded session
+     * @return true if the session file is intact, false otherwise
+     */
+    public boolean verifySession(Session session) {
+        String path = getAbsolutePathForSession(session);
+        if (path == null) {
+            return false;
+        }
+        try {
+            SessionIntegrityChecker checker = SessionIntegrityChecker.verify(new File(path));
+            SessionCatalog.Entry entry = lookupSession(session, null);
+            long checksum = (entry != null) ? entry.getChecksum() : -1;
+            Log.d(TAG, session + ": " + checker);
+            if (!checker.isCounterContinuous()) {
+                Log.w(TAG, session + ": " + checker.getCounterGaps() + " counter gaps, first at sample " + checker.getFirstGapSample());
+            }
+            return checker.isValid() && checker.matchesChecksum(checksum);
+        } catch (IOException e) {
+            Log.e(TAG, "Error verifying " + path, e);
+            return false;
+        }
+    }
+
     public String getFullDirectoryPath() {
         return mAbsoluteDirPath;
     }
 
     public String getAbsolutePathForSession(Session session) {
-        // reload file list
-        mFileList = listFiles();
-
-        for (String filename : mFileList) {
-            if (filename.contains(session.getSessionStartString())) {
-                return getFullDirectoryPath() + "/" + filename;
-            }
+        String filename = findFileNameForSession(session);
+        if (filename == null) {
+            return null;
         }
+        return getFullDirectoryPath() + "/" + filename;
+    }
 
-        return null;
+    private String findFileNameForSession(Session session) {
+        SessionCatalog.Entry entry = lookupSession(session, null);
+        if (entry != null) {
+            return entry.getFileName();
+        }
+        // reload file list
+        return indexSessionFiles().get(getFileKey(session));
     }
 
 
     public String getFileNameForSession(Session session) {
-        // reload file list
-        mFileList = listFiles();
-
         if (getSessionDownloadStatus(session) == SessionDownloadFlag.DOWNLOAD_SUCCESS) {
-            for (String filename : mFileList) {
-                if (filename.contains(session.getSessionStartString())) {
-                    return filename;
-                }
+            String filename = findFileNameForSession(session);
+            if (filename != null) {
+                return filename;
             }
         }
         // this should never happen
@@ -0,0 +1,573 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+
+package de.fau.sensorlib.sensors.logging;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import de.fau.sensorlib.SensorException;
+import de.fau.sensorlib.SensorInfo;
+import de.fau.sensorlib.sensors.AbstractNilsPodSensor;
+import de.fau.sensorlib.sensors.AbstractNilsPodSensor.NilsPodOperationState;
+import de.fau.sensorlib.sensors.BleLinkInfo;
+import de.fau.sensorlib.sensors.NilsPodCallback;
+import de.fau.sensorlib.sensors.NilsPodCommandFuture;
+import de.fau.sensorlib.sensors.NilsPodSensor;
+
+/**
+ * Downloads sessions from several NilsPods concurrently.
+ * <p>
+ * Each NilsPod can only transmit one session at a time, so at most one download per pod is active.
+ * Up to {@link #setMaxConcurrentDownloads(int)} pods are downloading in parallel. Pending downloads
+ * are ordered by battery level (pods with low battery first, so they are emptied before they die)
+ * and then by session size (largest first, which keeps the total download time short).
+ * Failed or stalled downloads are retried up to {@link #setMaxRetries(int)} times. A stalled pod has to be
+ * reset to stop the transfer, its retry waits until the pod was reconnected (at most
+ * {@link #setReconnectTimeout(long)}).
+ */
+public class SessionDownloadScheduler implements NilsPodCallback {
+
+    private static final String TAG = SessionDownloadScheduler.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_CONCURRENT_DOWNLOADS = 3;
+    public static final int DEFAULT_MAX_RETRIES = 2;
+    public static final long DEFAULT_STALL_TIMEOUT = 15000;
+    public static final long DEFAULT_RETRY_DELAY = 2000;
+    public static final long DEFAULT_RECONNECT_TIMEOUT = 60000;
+
+    private static final long WATCHDOG_INTERVAL = 1000;
+
+    private static class DownloadJob {
+        private final NilsPodSensor sensor;
+        private final Session session;
+        private final int batteryLevel;
+        private int attempts;
+        private long lastProgressTime;
+        private SessionDownloader downloader;
+        // time the sensor was reset to abort this download (elapsed realtime), or -1
+        private long resetTime = -1;
+
+        private DownloadJob(NilsPodSensor sensor, Session session, int batteryLevel) {
+            this.sensor = sensor;
+            this.session = session;
+            this.batteryLevel = batteryLevel;
+        }
+    }
+
+    private static final Comparator<DownloadJob> sJobComparator = (o1, o2) -> {
+        if (o1.batteryLevel != o2.batteryLevel) {
+            return Integer.compare(o1.batteryLevel, o2.batteryLevel);
+        }
+        return Integer.compare(o2.session.getSessionSize(), o1.session.getSessionSize());
+    };
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final ArrayList<DownloadJob> mPendingJobs = new ArrayList<>();
+    private final HashMap<String, DownloadJob> mActiveJobs = new HashMap<>();
+    private final HashSet<NilsPodSensor> mSensors = new HashSet<>();
+
+    private SessionDownloadSchedulerCallback mCallback;
+
+    private int mMaxConcurrentDownloads = DEFAULT_MAX_CONCURRENT_DOWNLOADS;
+    private int mMaxRetries = DEFAULT_MAX_RETRIES;
+    private long mStallTimeout = DEFAULT_STALL_TIMEOUT;
+    private long mRetryDelay = DEFAULT_RETRY_DELAY;
+    private long mReconnectTimeout = DEFAULT_RECONNECT_TIMEOUT;
+
+    private boolean mRunning;
+    private boolean mScheduling;
+    private int mNumRetryingJobs;
+
+    // in Byte
+    private long mTotalBytes;
+    private long mCompletedBytes;
+
+    private int mNumCompleted;
+    private int mNumFailed;
+
+    private long mStartTime;
+
+    private DecimalFormat mDf = new DecimalFormat("##.##");
+
+    private final Runnable mWatchdog = new Runnable() {
+        @Override
+        public void run() {
+            checkStalledDownloads();
+            if (mRunning) {
+                mHandler.postDelayed(this, WATCHDOG_INTERVAL);
+            }
+        }
+    };
+
+
+    public SessionDownloadScheduler(SessionDownloadSchedulerCallback callback) {
+        mCallback = callback;
+    }
+
+    public void setMaxConcurrentDownloads(int maxConcurrentDownloads) {
+        mMaxConcurrentDownloads = Math.max(1, maxConcurrentDownloads);
+    }
+
+    public int getMaxConcurrentDownloads() {
+        return mMaxConcurrentDownloads;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        mMaxRetries = Math.max(0, maxRetries);
+    }
+
+    /**
+     * Sets the time after which a download without any progress is considered failed.
+     *
+     * @param stallTimeout timeout in ms
+     */
+    public void setStallTimeout(long stallTimeout) {
+        mStallTimeout = stallTimeout;
+    }
+
+    public void setRetryDelay(long retryDelay) {
+        mRetryDelay = retryDelay;
+    }
+
+    /**
+     * Sets how long the retry of a download waits for the sensor to reconnect after it was reset to abort
+     * the stalled transfer. The download fails if the sensor does not reconnect in time.
+     *
+     * @param reconnectTimeout timeout in ms
+     */
+    public void setReconnectTimeout(long reconnectTimeout) {
+        mReconnectTimeout = reconnectTimeout;
+    }
+
+    /**
+     * Adds sessions of the given sensor to the download queue. The battery level used for ordering is
+     * the one reported in the system state of the connected sensor.
+     *
+     * @param sensor   connected NilsPod whose session list has already been read
+     * @param sessions sessions to download
+     */
+    public synchronized void enqueue(NilsPodSensor sensor, List<Session> sessions) {
+        enqueue(sensor, sessions, sensor.getReportedBatteryLevel());
+    }
+
+    /**
+     * Adds sessions of the given sensor to the download queue. The battery level used for ordering is
+     * taken from the advertisement data found during the BLE scan.
+     *
+     * @param sensor        connected NilsPod whose session list has already been read
+     * @param sessions      sessions to download
+     * @param advertisement SensorInfo received during the BLE scan
+     */
+    public synchronized void enqueue(NilsPodSensor sensor, List<Session> sessions, SensorInfo advertisement) {
+        int batteryLevel = sensor.getReportedBatteryLevel();
+        if (advertisement != null && advertisement.getManufacturerData() != null) {
+            batteryLevel = advertisement.getBatteryLevel();
+        }
+        enqueue(sensor, sessions, batteryLevel);
+    }
+
+    private void enqueue(NilsPodSensor sensor, List<Session> sessions, int batteryLevel) {
+        if (mSensors.add(sensor)) {
+            sensor.addNilsPodCallback(this);
+        }
+        for (Session session : sessions) {
+            mPendingJobs.add(new DownloadJob(sensor, session, batteryLevel));
+            mTotalBytes += session.getSessionSize();
+        }
+        Collections.sort(mPendingJobs, sJobComparator);
+
+        if (mRunning) {
+            scheduleNext();
+        }
+    }
+
+    /**
+     * Starts processing the download queue.
+     */
+    public synchronized void start() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        mStartTime = System.currentTimeMillis();
+        mHandler.postDelayed(mWatchdog, WATCHDOG_INTERVAL);
+        scheduleNext();
+    }
+
+    /**
+     * Cancels all pending downloads. Downloads that are already running on a sensor are not aborted,
+     * but their results are no longer reported.
+     */
+    public synchronized void cancel() {
+        mRunning = false;
+        mHandler.removeCallbacksAndMessages(null);
+        mPendingJobs.clear();
+        mActiveJobs.clear();
+        mNumRetryingJobs = 0;
+        mTotalBytes = 0;
+        mCompletedBytes = 0;
+        for (NilsPodSensor sensor : mSensors) {
+            sensor.removeNilsPodCallback(this);
+        }
+        mSensors.clear();
+    }
+
+    public synchronized boolean isRunning() {
+        return mRunning;
+    }
+
+    private void scheduleNext() {
+        if (mScheduling) {
+            return;
+        }
+        mScheduling = true;
+        try {
+            startPendingJobs();
+        } finally {
+            mScheduling = false;
+        }
+
+        if (mPendingJobs.isEmpty() && mActiveJobs.isEmpty() && mNumRetryingJobs == 0 && mRunning) {
+            finish();
+        }
+    }
+
+    private void startPendingJobs() {
+        ArrayList<DownloadJob> started = new ArrayList<>();
+        for (DownloadJob job : mPendingJobs) {
+            if (mActiveJobs.size() >= mMaxConcurrentDownloads) {
+                break;
+            }
+            String address = job.sensor.getDeviceAddress();
+            if (mActiveJobs.containsKey(address) || !isSensorReady(job)) {
+                // only one download per sensor at a time
+                continue;
+            }
+            mActiveJobs.put(address, job);
+            started.add(job);
+        }
+        mPendingJobs.removeAll(started);
+
+        for (DownloadJob job : started) {
+            startJob(job);
+        }
+    }
+
+    /**
+     * Checks whether the sensor of the job is connected and idle. After the sensor was reset to abort a
+     * previous attempt, it additionally has to be reconnected after the reset.
+     */
+    private static boolean isSensorReady(DownloadJob job) {
+        NilsPodSensor sensor = job.sensor;
+        if (!sensor.isConnected() || sensor.isAutoReconnecting() || sensor.getOperationState() != NilsPodOperationState.IDLE) {
+            return false;
+        }
+        if (job.resetTime < 0) {
+            return true;
+        }
+        BleLinkInfo linkInfo = sensor.getLinkInfo();
+        return linkInfo.getConnectTime() > job.resetTime && linkInfo.getSetupDuration() >= 0;
+    }
+
+    private void startJob(DownloadJob job) {
+        job.attempts++;
+        job.lastProgressTime = System.currentTimeMillis();
+        job.downloader = null;
+        job.resetTime = -1;
+        Log.d(TAG, "Downloading " + job.session + " from " + job.sensor.getDeviceName() + " (attempt " + job.attempts + ")");
+        try {
+            job.sensor.downloadSessionAsync(job.session.getSessionId()).setCallback((sensor, command) -> {
+                if (!command.isSuccessful()) {
+                    onJobStartFailed(job, command);
+                }
+            });
+        } catch (SensorException e) {
+            Log.e(TAG, "Download of " + job.session + " from " + job.sensor.getDeviceName() + " could not be started: " + e.getMessage());
+            // handle the failure after the scheduling loop, the job stays active until then
+            mHandler.post(() -> onJobStartFailed(job, null));
+        }
+    }
+
+    /**
+     * Called (on the main thread) when the sensor rejected the download command or did not acknowledge it.
+     */
+    private synchronized void onJobStartFailed(DownloadJob job, NilsPodCommandFuture command) {
+        if (!mRunning || mActiveJobs.get(job.sensor.getDeviceAddress()) != job) {
+            return;
+        }
+        if (command != null) {
+            Log.e(TAG, "Download of " + job.session + " from " + job.sensor.getDeviceName() + " was not started: " +
+                    (command.getException() != null ? command.getException().getMessage() : "cancelled"));
+        }
+        onJobFailed(job);
+    }
+
+    private void onJobFailed(DownloadJob job) {
+        mActiveJobs.remove(job.sensor.getDeviceAddress());
+
+        if (job.attempts <= mMaxRetries && mRunning) {
+            Log.w(TAG, "Retrying " + job.session + " from " + job.sensor.getDeviceName() + " in " + mRetryDelay + " ms");
+            mNumRetryingJobs++;
+            mHandler.postDelayed(() -> {
+                synchronized (SessionDownloadScheduler.this) {
+                    if (!mRunning) {
+                        return;
+                    }
+                    mNumRetryingJobs--;
+                    mPendingJobs.add(job);
+                    Collections.sort(mPendingJobs, sJobComparator);
+                    scheduleNext();
+                }
+            }, mRetryDelay);
+        } else {
+            Log.e(TAG, "Giving up on " + job.session + " from " + job.sensor.getDeviceName() + " after " + job.attempts + " attempts");
+            giveUp(job);
+        }
+        scheduleNext();
+    }
+
+    private void giveUp(DownloadJob job) {
+        mNumFailed++;
+        mTotalBytes -= job.session.getSessionSize();
+        if (mCallback != null) {
+            mCallback.onSessionDownloadFailed(this, job.sensor, job.session, job.attempts);
+        }
+    }
+
+    private synchronized void checkStalledDownloads() {
+        long now = System.currentTimeMillis();
+        for (DownloadJob job : new ArrayList<>(mActiveJobs.values())) {
+            if (now - job.lastProgressTime > mStallTimeout) {
+                Log.e(TAG, job.session + " from " + job.sensor.getDeviceName() + " stalled for " + (now - job.lastProgressTime) + " ms");
+                // stop the transfer, otherwise the sensor stays busy and the retry can't start
+                if (job.sensor.abortSessionDownload()) {
+                    job.resetTime = SystemClock.elapsedRealtime();
+                }
+                onJobFailed(job);
+            }
+        }
+        long elapsedRealtime = SystemClock.elapsedRealtime();
+        for (DownloadJob job : new ArrayList<>(mPendingJobs)) {
+            if (job.resetTime >= 0 && elapsedRealtime - job.resetTime > mReconnectTimeout) {
+                Log.e(TAG, "Giving up on " + job.session + ", " + job.sensor.getDeviceName() + " did not reconnect after reset");
+                mPendingJobs.remove(job);
+                giveUp(job);
+            }
+        }
+        // sensors might have returned to IDLE in the meantime
+        scheduleNext();
+    }
+
+    private void finish() {
+        mRunning = false;
+        mHandler.removeCallbacks(mWatchdog);
+        for (NilsPodSensor sensor : mSensors) {
+            sensor.removeNilsPodCallback(this);
+        }
+        mSensors.clear();
+        Log.d(TAG, "All downloads finished: " + mNumCompleted + " succeeded, " + mNumFailed + " failed.");
+        if (mCallback != null) {
+            mCallback.onAllDownloadsFinished(this);
+        }
+    }
+
+    private DownloadJob getActiveJob(NilsPodSensor sensor, SessionDownloader sessionDownloader) {
+        DownloadJob job = mActiveJobs.get(sensor.getDeviceAddress());
+        if (job == null || sessionDownloader == null || !job.session.equals(sessionDownloader.getSession())) {
+            // not scheduled by us
+            return null;
+        }
+        return job;
+    }
+
+    @Override
+    public synchronized void onSessionDownloadStarted(NilsPodSensor sensor, SessionDownloader sessionDownloader) {
+        DownloadJob job = getActiveJob(sensor, sessionDownloader);
+        if (job != null) {
+            job.downloader = sessionDownloader;
+            job.lastProgressTime = System.currentTimeMillis();
+        }
+    }
+
+    @Override
+    public synchronized void onSessionDownloadProgress(NilsPodSensor sensor, SessionDownloader sessionDownloader) {
+        DownloadJob job = getActiveJob(sensor, sessionDownloader);
+        if (job != null) {
+            job.downloader = sessionDownloader;
+            job.lastProgressTime = System.currentTimeMillis();
+            if (mCallback != null) {
+                mCallback.onSchedulerProgress(this);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onSessionDownloadFinished(NilsPodSensor sensor, SessionDownloader sessionDownloader) {
+        DownloadJob job = getActiveJob(sensor, sessionDownloader);
+        if (job == null) {
+            return;
+        }
+        mActiveJobs.remove(sensor.getDeviceAddress());
+        mCompletedBytes += job.session.getSessionSize();
+        mNumCompleted++;
+        if (mCallback != null) {
+            mCallback.onSessionDownloaded(this, sensor, job.session);
+        }
+        scheduleNext();
+    }
+
+    @Override
+    public synchronized void onSessionDownloadError(NilsPodSensor sensor, SessionDownloader sessionDownloader, SensorException e) {
+        DownloadJob job = getActiveJob(sensor, sessionDownloader);
+        if (job != null) {
+            Log.e(TAG, job.session + " from " + sensor.getDeviceName() + " failed: " + e.getMessage());
+            onJobFailed(job);
+        }
+    }
+
+    @Override
+    public synchronized void onOperationStateChanged(AbstractNilsPodSensor sensor, NilsPodOperationState operationState) {
+        if (mRunning && operationState == NilsPodOperationState.IDLE) {
+            scheduleNext();
+        }
+    }
+
+    @Override
+    public void onSessionListRead(NilsPodSensor sensor, List<Session> sessionList) {
+
+    }
+
+    @Override
+    public void onClearSessions(NilsPodSensor sensor) {
+
+    }
+
+    @Override
+    public void onSensorConfigChanged(NilsPodSensor sensor) {
+
+    }
+
+    public synchronized int getNumPendingDownloads() {
+        return mPendingJobs.size() + mNumRetryingJobs;
+    }
+
+    public synchronized int getNumActiveDownloads() {
+        return mActiveJobs.size();
+    }
+
+    public synchronized int getNumCompletedDownloads() {
+        return mNumCompleted;
+    }
+
+    public synchronized int getNumFailedDownloads() {
+        return mNumFailed;
+    }
+
+    /**
+     * Returns the number of bytes downloaded so far, including the progress of running downloads.
+     *
+     * @return downloaded bytes
+     */
+    public synchronized long getProgress() {
+        long progress = mCompletedBytes;
+        for (DownloadJob job : mActiveJobs.values()) {
+            if (job.downloader != null) {
+                progress += job.downloader.getProgress();
+            }
+        }
+        return progress;
+    }
+
+    public synchronized long getTotalSize() {
+        return mTotalBytes;
+    }
+
+    public double getProgressPercent() {
+        long total = getTotalSize();
+        if (total == 0) {
+            return 100.0;
+        }
+        return ((double) getProgress() / total) * 100.0;
+    }
+
+    /**
+     * Returns the aggregate download rate of all currently running downloads.
+     *
+     * @return download rate in Byte/s
+     */
+    public synchronized double getDownloadRate() {
+        double rate = 0.0;
+        for (DownloadJob job : mActiveJobs.values()) {
+            if (job.downloader != null && !Double.isInfinite(job.downloader.getDownloadRate()) && !Double.isNaN(job.downloader.getDownloadRate())) {
+                rate += job.downloader.getDownloadRate();
+            }
+        }
+        if (rate == 0.0) {
+            // fall back to average rate since start
+            long elapsed = System.currentTimeMillis() - mStartTime;
+            if (mStartTime > 0 && elapsed > 0) {
+                rate = ((double) getProgress() / elapsed) * 1000;
+            }
+        }
+        return rate;
+    }
+
+    public String getDownloadRatekB() {
+        return mDf.format(SessionDownloader.toKiloByte(getDownloadRate()));
+    }
+
+    /**
+     * Returns the estimated time until all queued sessions are downloaded, based on the current aggregate download rate.
+     *
+     * @return estimated remaining time in ms, or -1 if no estimate is available yet
+     */
+    public long getEstimatedRemainingTime() {
+        double rate = getDownloadRate();
+        if (rate <= 0) {
+            return -1;
+        }
+        long remainingBytes = getTotalSize() - getProgress();
+        return (long) ((remainingBytes / rate) * 1000);
+    }
+
+    public String getEstimatedRemainingTimeString() {
+        long remaining = getEstimatedRemainingTime();
+        if (remaining < 0) {
+            return "n/a";
+        }
+        long hours = TimeUnit.MILLISECONDS.toHours(remaining);
+        long minutes = TimeUnit.MILLISECONDS.toMinutes(remaining) - TimeUnit.HOURS.toMinutes(hours);
+        long seconds = TimeUnit.MILLISECONDS.toSeconds(remaining) - TimeUnit.MINUTES.toSeconds(minutes) - TimeUnit.HOURS.toSeconds(hours);
+        return String.format(Locale.getDefault(), "%02dh:%02dm:%02ds", hours, minutes, seconds);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "DOWNLOADING " + getNumActiveDownloads() + " active, " + getNumPendingDownloads() + " pending: " +
+                mDf.format(SessionDownloader.toKiloByte(getProgress())) + "/" + mDf.format(SessionDownloader.toKiloByte(getTotalSize())) +
+                " kByte (" + mDf.format(getProgressPercent()) + "%), download rate: " + getDownloadRatekB() +
+                " kByte/s, ETA: " + getEstimatedRemainingTimeString();
+    }
+}
@@ -0,0 +1,22 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+
+package de.fau.sensorlib.sensors.logging;
+
+import de.fau.sensorlib.sensors.NilsPodSensor;
+
+public interface SessionDownloadSchedulerCallback {
+
+    void onSchedulerProgress(SessionDownloadScheduler scheduler);
+
+    void onSessionDownloaded(SessionDownloadScheduler scheduler, NilsPodSensor sensor, Session session);
+
+    void onSessionDownloadFailed(SessionDownloadScheduler scheduler, NilsPodSensor sensor, Session session, int attempts);
+
+    void onAllDownloadsFinished(SessionDownloadScheduler scheduler);
+}
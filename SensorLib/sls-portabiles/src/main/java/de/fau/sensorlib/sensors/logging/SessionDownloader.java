@@ -32,6 +32,7 @@ public class SessionDownloader {
     private SessionByteWriter mSessionWriter;
     private boolean mCsvExportEnabled = false;
     private SessionCsvConverter mSessionCsvConverter;
+    private SessionCatalog mSessionCatalog;
 
     // in Byte
     private int mProgress;
@@ -68,6 +69,10 @@ public class SessionDownloader {
 
     public void setSessionWriter() throws SensorException {
         mSessionWriter = new SessionByteWriter(mSensor, mSession, mSensor.getContext());
+        if (mSessionWriter.getFile() != null) {
+            mSessionCatalog = SessionCatalog.getInstance(mSessionWriter.getFile().getParentFile());
+            mSessionCatalog.onDownloadStarted(mSensor.getDeviceName(), mSensor.getDeviceAddress(), mSession, mSessionWriter.getFilename());
+        }
     }
 
     public void setCsvExportEnabled(boolean enable) {
@@ -139,15 +144,57 @@ public class SessionDownloader {
         mProgress = mSession.getSessionSize();
 
         mSessionWriter.completeWriter();
-        mSessionWriter.checkFileSize();
+        try {
+            mSessionWriter.checkFileSize();
+            checkIntegrity();
+        } catch (SensorException e) {
+            updateCatalog(false);
+            throw e;
+        }
+        updateCatalog(true);
 
         if (mCsvExportEnabled) {
             mSessionCsvConverter.completeBuilder();
+            if (mSessionCatalog != null) {
+                mSessionCatalog.onSessionConverted(mSensor.getDeviceAddress(), mSession);
+            }
         }
         mElapsedTime = System.currentTimeMillis() - mStartTime;
         mDownloadRate = ((double) mSessionSize) / mElapsedTime;
     }
 
+    /**
+     * Aborts the download, closes the session file and marks the download as failed in the catalog.
+     */
+    public void abortDownload() {
+        mSessionWriter.completeWriter();
+        updateCatalog(false);
+        if (mCsvExportEnabled) {
+            mSessionCsvConverter.completeBuilder();
+        }
+    }
+
+    private void checkIntegrity() throws SensorException {
+        SessionIntegrityChecker checker = mSessionWriter.getIntegrityChecker();
+        Log.d(TAG, checker.toString());
+        if (!checker.isHeaderValid()) {
+            throw new SensorException(SensorException.SensorExceptionType.sessionDownloadError, "Invalid session header: " + checker.getHeaderError());
+        }
+        if (!checker.isLengthConsistent()) {
+            throw new SensorException(SensorException.SensorExceptionType.sessionDownloadError, "Number of samples does not match session header!\nExpected: " + checker.getExpectedNumSamples() + ", Actual: " + checker.getNumSamples());
+        }
+        // counter gaps are allowed, see SessionIntegrityChecker#isValid()
+        if (!checker.isCounterContinuous()) {
+            Log.w(TAG, mSession + ": " + checker.getCounterGaps() + " counter gaps, first at sample " + checker.getFirstGapSample());
+        }
+    }
+
+    private void updateCatalog(boolean success) {
+        if (mSessionCatalog != null) {
+            mSessionCatalog.onDownloadFinished(mSensor.getDeviceAddress(), mSession, mSessionWriter.getFile().length(), mSessionWriter.getIntegrityChecker().getChecksum(), success);
+        }
+    }
+
     public static double toKiloByte(double valueByte) {
         return valueByte / 1024.0;
     }
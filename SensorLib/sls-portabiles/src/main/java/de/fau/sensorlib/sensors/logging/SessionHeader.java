@@ -8,12 +8,16 @@
 
 package de.fau.sensorlib.sensors.logging;
 
+import android.bluetooth.BluetoothGattCharacteristic;
+
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
 import java.util.ArrayList;
 
+import de.fau.sensorlib.SensorException;
 import de.fau.sensorlib.enums.HardwareSensor;
+import de.fau.sensorlib.sensors.AbstractNilsPodSensor;
 import de.fau.sensorlib.sensors.enums.NilsPodSensorPosition;
 import de.fau.sensorlib.sensors.enums.NilsPodSyncRole;
 import de.fau.sensorlib.sensors.enums.NilsPodTerminationSource;
@@ -223,6 +227,166 @@ public class SessionHeader {
         return mac_address;
     }
 
+    /**
+     * Parses the binary session header as stored at the beginning of every session (.bin) file.
+     *
+     * @param values header bytes, starting with the header size
+     * @return the parsed session header
+     * @throws SensorException if the header could not be parsed
+     */
+    public static SessionHeader fromByteArray(byte[] values) throws SensorException {
+        BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(null, 0, 0);
+        characteristic.setValue(values);
+
+        SessionHeader header = new SessionHeader();
+
+        try {
+            int offset = 1;
+            // Byte 1
+            int sampleSize = values[offset++];
+
+            // Byte 2-3
+            ArrayList<HardwareSensor> enabledSensorList = new ArrayList<>();
+            int sensors = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT16, offset);
+            offset += 2;
+            if ((sensors & 0x0001) != 0) {
+                enabledSensorList.add(HardwareSensor.ACCELEROMETER);
+            }
+            if ((sensors & 0x0002) != 0) {
+                enabledSensorList.add(HardwareSensor.GYROSCOPE);
+            }
+            if ((sensors & 0x0004) != 0) {
+                enabledSensorList.add(HardwareSensor.MAGNETOMETER);
+            }
+            if ((sensors & 0x0008) != 0) {
+                enabledSensorList.add(HardwareSensor.BAROMETER);
+            }
+            if ((sensors & 0x0010) != 0) {
+                enabledSensorList.add(HardwareSensor.ANALOG);
+            }
+            if ((sensors & 0x0020) != 0) {
+                enabledSensorList.add(HardwareSensor.ECG);
+            }
+            if ((sensors & 0x0040) != 0) {
+                enabledSensorList.add(HardwareSensor.PPG);
+            }
+            if ((sensors & 0x0080) != 0) {
+                enabledSensorList.add(HardwareSensor.TEMPERATURE);
+            }
+
+            // Byte 4
+            double samplingRate = AbstractNilsPodSensor.inferSamplingRate(values[offset++]);
+
+            // Byte 5
+            NilsPodTerminationSource terminationSource = NilsPodTerminationSource.inferTerminationSource(values[offset++]);
+
+            // Byte 6
+            NilsPodSyncRole syncRole = NilsPodSyncRole.values()[values[offset++]];
+
+            // Byte 7
+            int syncDistance = values[offset++] * 100; // in ms
+
+            // Byte 8
+            int accRange = values[offset++]; // in g
+
+            // Byte 9
+            int gyroRange = values[offset++] * 125; // in dps
+
+            // Bytes 10-14: System Settings
+            // Byte 10: Sensor Position
+            NilsPodSensorPosition sensorPosition = NilsPodSensorPosition.values()[values[offset++]];
+
+            // Byte 11: Operation Modes (Motion Interrupt, Home Monitoring, etc.)
+            boolean dockMode = (values[offset] & 0x40) != 0;
+            boolean motionInterrupt = (values[offset++] & 0x80) != 0;
+
+            // Bytes 12-14: Custom Meta Data
+            byte[] customMetaData = new byte[3];
+            System.arraycopy(values, offset, customMetaData, 0, 3);
+            offset += 3;
+
+            // Bytes 15-18
+            int startTime = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT32, offset);
+            offset += 4;
+
+            // Bytes 19-22
+            int endTime = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT32, offset);
+            offset += 4;
+
+            // Bytes 23-26: Session Size (number of samples)
+            int sessionSize = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT32, offset);
+            offset += 4;
+
+            // Bytes 27-30
+            int syncIndexStart = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT32, offset);
+            offset += 4;
+            // Bytes 31-34
+            int syncIndexEnd = characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT32, offset);
+            offset += 4;
+
+            // Bytes 35-40: 6 Byte MAC Address
+            StringBuilder sb = new StringBuilder();
+            for (int i = 5; i >= 0; i--) {
+                byte val = values[offset + i];
+                sb.append(String.format("%02x", val).toUpperCase());
+                if (i != 0) {
+                    sb.append(":");
+                }
+            }
+            String macAddress = sb.toString();
+            offset += 6;
+
+            // Bytes 41-45: 5 Byte RF Address used for synchronization packages
+            sb = new StringBuilder();
+            for (int i = 4; i >= 0; i--) {
+                byte val = values[offset + i];
+                sb.append("0x").append(String.format("%02x", val).toUpperCase());
+                if (i != 0) {
+                    sb.append(" ");
+                }
+            }
+            String syncAddress = sb.toString();
+            offset += 5;
+
+            // Byte 46
+            int syncChannel = values[offset++];
+
+            // Bytes 47-48
+            String hardwareVersion = Integer.toString(characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT16, offset));
+            offset += 2;
+
+            // Bytes 49-51
+            String firmwareVersion = "v" + characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT8, offset++) + "." + characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT8, offset++) + "." + characteristic.getIntValue(BluetoothGattCharacteristic.FORMAT_UINT8, offset);
+
+            header.setSampleSize(sampleSize);
+            header.setSamplingRate(samplingRate);
+            header.setEnabledSensors(enabledSensorList);
+            header.setTerminationSource(terminationSource);
+            header.setSyncRole(syncRole);
+            header.setSyncDistance(syncDistance);
+            header.setSyncIndex(syncIndexStart, syncIndexEnd);
+            header.setSyncAddress(syncAddress, syncChannel);
+            header.setAccRange(accRange);
+            header.setGyroRange(gyroRange);
+            header.setSensorPosition(sensorPosition);
+            header.setDockModeEnabled(dockMode);
+            header.setMotionInterruptEnabled(motionInterrupt);
+            header.setCustomMetaData(customMetaData);
+            header.setStartTime(startTime);
+            header.setEndTime(endTime);
+            header.setSessionSize(sessionSize);
+            header.setHardwareVersion(hardwareVersion);
+            header.setMacAddress(macAddress);
+            header.setFirmwareVersion(firmwareVersion);
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new SensorException(SensorException.SensorExceptionType.readHeaderError);
+        }
+
+        return header;
+    }
+
     public String toJson() {
         return new Gson().toJson(this);
     }
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+
+package de.fau.sensorlib.sensors.logging;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Incrementally verifies the integrity of a NilsPod session (.bin) file while its bytes are streamed through.
+ * <p>
+ * The checker computes a CRC32 over all bytes, parses the session header once it is complete and checks
+ * the 32 bit sample counter (last 4 bytes of every sample) for continuity. It is either fed with the packets
+ * of a running download (see {@link SessionByteWriter}), so no second read pass is required, or with the
+ * contents of an existing file via {@link #verify(File)}.
+ */
+public class SessionIntegrityChecker {
+
+    private static final String TAG = SessionIntegrityChecker.class.getSimpleName();
+
+    /**
+     * Header offset of the sample size (1 Byte)
+     */
+    private static final int HEADER_OFFSET_SAMPLE_SIZE = 1;
+    /**
+     * Header offset of the session size, i.e. the number of samples (4 Byte, little endian)
+     */
+    private static final int HEADER_OFFSET_NUM_SAMPLES = 23;
+    /**
+     * Minimum header size required to contain all fields needed for verification
+     */
+    private static final int MIN_HEADER_SIZE = HEADER_OFFSET_NUM_SAMPLES + 4;
+    /**
+     * Size of the sample counter at the end of every sample
+     */
+    private static final int COUNTER_SIZE = 4;
+
+    private static final long UINT32_MASK = 0xFFFFFFFFL;
+
+    private final CRC32 mCrc = new CRC32();
+    private long mNumBytes;
+
+    private int mHeaderSize = -1;
+    private byte[] mHeader;
+    private int mHeaderPos;
+    private String mHeaderError;
+
+    private int mSampleSize;
+    private long mExpectedSamples;
+    private byte[] mSample;
+    private int mSamplePos;
+    private long mNumSamples;
+
+    private long mLastCounter = -1;
+    private long mCounterGaps;
+    private long mFirstGapSample = -1;
+
+
+    /**
+     * Verifies an existing session file by streaming it through a new checker.
+     *
+     * @param file the session file
+     * @return the checker containing the verification results
+     * @throws IOException if the file could not be read
+     */
+    public static SessionIntegrityChecker verify(File file) throws IOException {
+        SessionIntegrityChecker checker = new SessionIntegrityChecker();
+        try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+            byte[] buffer = new byte[4096];
+            int len;
+            while ((len = is.read(buffer)) > 0) {
+                checker.update(buffer, 0, len);
+            }
+        }
+        return checker;
+    }
+
+    public void update(byte[] data) {
+        update(data, 0, data.length);
+    }
+
+    public void update(byte[] data, int offset, int length) {
+        mCrc.update(data, offset, length);
+        mNumBytes += length;
+
+        int end = offset + length;
+        while (offset < end) {
+            if (!isHeaderComplete()) {
+                offset = readHeader(data, offset, end);
+            } else if (mHeaderError != null) {
+                // header invalid => samples can't be split
+                return;
+            } else {
+                int len = Math.min(end - offset, mSampleSize - mSamplePos);
+                System.arraycopy(data, offset, mSample, mSamplePos, len);
+                mSamplePos += len;
+                offset += len;
+                if (mSamplePos == mSampleSize) {
+                    onSample();
+                    mSamplePos = 0;
+                }
+            }
+        }
+    }
+
+    private int readHeader(byte[] data, int offset, int end) {
+        if (mHeaderSize < 0) {
+            // first byte of the file is the header size
+            mHeaderSize = data[offset] & 0xFF;
+            mHeader = new byte[mHeaderSize];
+        }
+        int len = Math.min(end - offset, mHeaderSize - mHeaderPos);
+        System.arraycopy(data, offset, mHeader, mHeaderPos, len);
+        mHeaderPos += len;
+        if (isHeaderComplete()) {
+            parseHeader();
+        }
+        return offset + len;
+    }
+
+    private void parseHeader() {
+        if (mHeaderSize < MIN_HEADER_SIZE) {
+            mHeaderError = "Header too short: " + mHeaderSize + " Byte";
+            return;
+        }
+        mSampleSize = mHeader[HEADER_OFFSET_SAMPLE_SIZE] & 0xFF;
+        if (mSampleSize <= COUNTER_SIZE) {
+            mHeaderError = "Invalid sample size: " + mSampleSize + " Byte";
+            return;
+        }
+        mExpectedSamples = readUInt32(mHeader, HEADER_OFFSET_NUM_SAMPLES);
+        mSample = new byte[mSampleSize];
+    }
+
+    private void onSample() {
+        long counter = readUInt32(mSample, mSampleSize - COUNTER_SIZE);
+        if (mLastCounter >= 0 && counter != ((mLastCounter + 1) & UINT32_MASK)) {
+            if (mCounterGaps == 0) {
+                mFirstGapSample = mNumSamples;
+            }
+            mCounterGaps++;
+        }
+        mLastCounter = counter;
+        mNumSamples++;
+    }
+
+    private static long readUInt32(byte[] data, int offset) {
+        return (data[offset] & 0xFFL) | ((data[offset + 1] & 0xFFL) << 8) | ((data[offset + 2] & 0xFFL) << 16) | ((data[offset + 3] & 0xFFL) << 24);
+    }
+
+    private boolean isHeaderComplete() {
+        return mHeaderSize >= 0 && mHeaderPos == mHeaderSize;
+    }
+
+    /**
+     * @return CRC32 over all bytes passed to this checker so far
+     */
+    public long getChecksum() {
+        return mCrc.getValue();
+    }
+
+    public long getNumBytes() {
+        return mNumBytes;
+    }
+
+    public boolean isHeaderValid() {
+        return isHeaderComplete() && mHeaderError == null;
+    }
+
+    public String getHeaderError() {
+        if (!isHeaderComplete()) {
+            return "Header incomplete";
+        }
+        return mHeaderError;
+    }
+
+    public long getNumSamples() {
+        return mNumSamples;
+    }
+
+    /**
+     * @return number of samples announced in the session header
+     */
+    public long getExpectedNumSamples() {
+        return mExpectedSamples;
+    }
+
+    /**
+     * Checks whether the number of bytes matches header size and the number of samples announced in the header.
+     */
+    public boolean isLengthConsistent() {
+        return isHeaderValid() && mSamplePos == 0 && mNumSamples == mExpectedSamples
+                && mNumBytes == mHeaderSize + mExpectedSamples * mSampleSize;
+    }
+
+    /**
+     * @return number of discontinuities of the sample counter
+     */
+    public long getCounterGaps() {
+        return mCounterGaps;
+    }
+
+    /**
+     * @return index of the first sample following a counter discontinuity, or -1 if the counter is continuous
+     */
+    public long getFirstGapSample() {
+        return mFirstGapSample;
+    }
+
+    public boolean isCounterContinuous() {
+        return mCounterGaps == 0;
+    }
+
+    /**
+     * Checks whether the checksum matches the expected one. Unknown checksums (negative values) always match.
+     */
+    public boolean matchesChecksum(long expectedChecksum) {
+        return expectedChecksum < 0 || expectedChecksum == getChecksum();
+    }
+
+    /**
+     * Checks whether the session file is intact, i.e. has a valid header and the announced number of samples.
+     * Counter gaps are allowed: they are samples the sensor already dropped while recording, so downloading the
+     * session again would not remove them. Use {@link #isCounterContinuous()} to check for them.
+     */
+    public boolean isValid() {
+        return isHeaderValid() && isLengthConsistent();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.getDefault(), "%s <crc: %08x, bytes: %d, samples: %d/%d, counter gaps: %d, header: %s>",
+                TAG, getChecksum(), mNumBytes, mNumSamples, mExpectedSamples, mCounterGaps,
+                isHeaderValid() ? "ok" : getHeaderError());
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+
+package de.fau.sensorlib.sensors.logging;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.fau.sensorlib.SensorException;
+import de.fau.sensorlib.sensors.enums.NilsPodSyncRole;
+
+/**
+ * Merges the downloaded sessions of one NilsPod sync group into a single multi-sensor file.
+ * <p>
+ * The sessions must contain exactly one sync master. Every session is trimmed to its synchronized range (given by
+ * the sync indices of its header; the master session is synchronized as a whole) and the sessions are aligned by
+ * their sample counter, which is shared across the sync group. Only counter values present in all sessions are
+ * written. The inputs are streamed sample by sample, so memory usage does not depend on session length.
+ * <p>
+ * Format of the merged file (little endian):
+ * <ul>
+ * <li>4 Byte: length of the JSON header</li>
+ * <li>JSON header (UTF-8) containing the headers of all merged sessions, in order, and the row size</li>
+ * <li>rows: 4 Byte sample counter, followed by the raw samples of all sessions, in order</li>
+ * </ul>
+ */
+public class SessionMerger {
+
+    private static final String TAG = SessionMerger.class.getSimpleName();
+
+    private static final int COUNTER_SIZE = 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final List<File> mInputFiles;
+
+    private long mNumMergedSamples;
+    private long mNumDroppedSamples;
+
+
+    /**
+     * Reads the samples of one session file within its synchronized range.
+     */
+    private static class SyncedSessionReader implements Closeable {
+
+        private final File mFile;
+        private final InputStream mInputStream;
+        private final SessionHeader mHeader;
+        private final byte[] mSample;
+
+        // sample index of the current sample
+        private long mIndex = -1;
+        private final long mEndIndex;
+        private long mCounter;
+
+        private SyncedSessionReader(File file) throws IOException, SensorException {
+            mFile = file;
+            mInputStream = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+            try {
+                int headerSize = mInputStream.read();
+                if (headerSize <= 0) {
+                    throw new SensorException(SensorException.SensorExceptionType.readHeaderError, file.getName() + ": empty file");
+                }
+                byte[] header = new byte[headerSize];
+                header[0] = (byte) headerSize;
+                readFully(header, 1, headerSize - 1);
+                mHeader = SessionHeader.fromByteArray(header);
+                mSample = new byte[mHeader.getSampleSize()];
+
+                long startIndex;
+                if (mHeader.getSyncRole() == NilsPodSyncRole.SYNC_ROLE_MASTER) {
+                    startIndex = 0;
+                    mEndIndex = mHeader.getSessionSize() - 1;
+                } else if (mHeader.getSyncRole() == NilsPodSyncRole.SYNC_ROLE_SLAVE && mHeader.getSyncIndexEnd() > mHeader.getSyncIndexStart()) {
+                    startIndex = mHeader.getSyncIndexStart();
+                    mEndIndex = Math.min(mHeader.getSyncIndexEnd(), mHeader.getSessionSize() - 1);
+                } else {
+                    throw new SensorException(SensorException.SensorExceptionType.configError, file.getName() + " was not synchronized");
+                }
+
+                skipFully(startIndex * mSample.length);
+                mIndex = startIndex - 1;
+            } catch (IOException | SensorException e) {
+                mInputStream.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Reads the next sample of the synchronized range.
+         *
+         * @return false if the end of the synchronized range was reached
+         */
+        private boolean next() throws IOException {
+            if (mIndex >= mEndIndex) {
+                return false;
+            }
+            try {
+                readFully(mSample, 0, mSample.length);
+            } catch (EOFException e) {
+                Log.w(TAG, mFile.getName() + " truncated at sample " + (mIndex + 1));
+                return false;
+            }
+            mIndex++;
+            int offset = mSample.length - COUNTER_SIZE;
+            mCounter = (mSample[offset] & 0xFFL) | ((mSample[offset + 1] & 0xFFL) << 8)
+                    | ((mSample[offset + 2] & 0xFFL) << 16) | ((mSample[offset + 3] & 0xFFL) << 24);
+            return true;
+        }
+
+        private void readFully(byte[] buffer, int offset, int length) throws IOException {
+            while (length > 0) {
+                int len = mInputStream.read(buffer, offset, length);
+                if (len < 0) {
+                    throw new EOFException();
+                }
+                offset += len;
+                length -= len;
+            }
+        }
+
+        private void skipFully(long numBytes) throws IOException {
+            while (numBytes > 0) {
+                long skipped = mInputStream.skip(numBytes);
+                if (skipped <= 0) {
+                    throw new EOFException(mFile.getName() + ": sync index beyond end of file");
+                }
+                numBytes -= skipped;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            mInputStream.close();
+        }
+    }
+
+
+    public SessionMerger(List<File> inputFiles) {
+        mInputFiles = new ArrayList<>(inputFiles);
+    }
+
+    /**
+     * Merges all input sessions into the given output file.
+     *
+     * @param outputFile the merged file
+     * @return number of merged samples (rows)
+     * @throws IOException     if reading the input or writing the output failed
+     * @throws SensorException if the input sessions do not form a valid sync group
+     */
+    public long merge(File outputFile) throws IOException, SensorException {
+        if (mInputFiles.size() < 2) {
+            throw new IllegalArgumentException("At least two sessions are required for merging!");
+        }
+        mNumMergedSamples = 0;
+        mNumDroppedSamples = 0;
+
+        List<SyncedSessionReader> readers = new ArrayList<>();
+        try {
+            for (File file : mInputFiles) {
+                readers.add(new SyncedSessionReader(file));
+            }
+            checkSyncGroup(readers);
+
+            try (OutputStream os = new BufferedOutputStream(new FileOutputStream(outputFile), BUFFER_SIZE)) {
+                writeHeader(os, readers);
+                mergeSamples(os, readers);
+            }
+        } finally {
+            for (SyncedSessionReader reader : readers) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        Log.d(TAG, "Merged " + mNumMergedSamples + " samples of " + mInputFiles.size() + " sessions into " + outputFile.getName() + " (" + mNumDroppedSamples + " samples dropped)");
+        return mNumMergedSamples;
+    }
+
+    private void checkSyncGroup(List<SyncedSessionReader> readers) throws SensorException {
+        SessionHeader master = null;
+        for (SyncedSessionReader reader : readers) {
+            if (reader.mHeader.getSyncRole() == NilsPodSyncRole.SYNC_ROLE_MASTER) {
+                if (master != null) {
+                    throw new SensorException(SensorException.SensorExceptionType.configError, "More than one sync master in sync group!");
+                }
+                master = reader.mHeader;
+            }
+        }
+        if (master == null) {
+            // the sync indices of the slaves refer to the master's session, without it they can't be verified
+            throw new SensorException(SensorException.SensorExceptionType.configError, "No sync master in sync group!");
+        }
+
+        SessionHeader reference = readers.get(0).mHeader;
+        for (SyncedSessionReader reader : readers) {
+            SessionHeader header = reader.mHeader;
+            if (!header.getSyncAddress().equals(reference.getSyncAddress()) || header.getSyncChannel() != reference.getSyncChannel()) {
+                throw new SensorException(SensorException.SensorExceptionType.configError, reader.mFile.getName() + " belongs to a different sync group!");
+            }
+            if (header.getSamplingRate() != reference.getSamplingRate()) {
+                throw new SensorException(SensorException.SensorExceptionType.configError, reader.mFile.getName() + " has a different sampling rate!");
+            }
+        }
+    }
+
+    private void writeHeader(OutputStream os, List<SyncedSessionReader> readers) throws IOException {
+        Gson gson = new Gson();
+        JsonObject root = new JsonObject();
+        JsonArray sessions = new JsonArray();
+        int rowSize = COUNTER_SIZE;
+        for (SyncedSessionReader reader : readers) {
+            sessions.add(gson.toJsonTree(reader.mHeader));
+            rowSize += reader.mSample.length;
+        }
+        root.addProperty("sampling_rate_hz", readers.get(0).mHeader.getSamplingRate());
+        root.addProperty("row_size", rowSize);
+        root.add("sessions", sessions);
+
+        byte[] header = gson.toJson(root).getBytes(StandardCharsets.UTF_8);
+        writeUInt32(os, header.length);
+        os.write(header);
+    }
+
+    /**
+     * Writes one row for every counter value that is present in all sessions. Sessions that are ahead are
+     * held back while the others catch up, so each reader only ever holds a single sample.
+     */
+    private void mergeSamples(OutputStream os, List<SyncedSessionReader> readers) throws IOException {
+        for (SyncedSessionReader reader : readers) {
+            if (!reader.next()) {
+                return;
+            }
+        }
+
+        while (true) {
+            long maxCounter = Long.MIN_VALUE;
+            for (SyncedSessionReader reader : readers) {
+                maxCounter = Math.max(maxCounter, reader.mCounter);
+            }
+
+            boolean aligned = true;
+            for (SyncedSessionReader reader : readers) {
+                while (reader.mCounter < maxCounter) {
+                    mNumDroppedSamples++;
+                    if (!reader.next()) {
+                        return;
+                    }
+                }
+                if (reader.mCounter != maxCounter) {
+                    aligned = false;
+                }
+            }
+            if (!aligned) {
+                // at least one session skipped the current counter value
+                continue;
+            }
+
+            writeUInt32(os, maxCounter);
+            for (SyncedSessionReader reader : readers) {
+                os.write(reader.mSample);
+            }
+            mNumMergedSamples++;
+
+            for (SyncedSessionReader reader : readers) {
+                if (!reader.next()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void writeUInt32(OutputStream os, long value) throws IOException {
+        os.write((int) (value & 0xFF));
+        os.write((int) ((value >> 8) & 0xFF));
+        os.write((int) ((value >> 16) & 0xFF));
+        os.write((int) ((value >> 24) & 0xFF));
+    }
+
+    public long getNumMergedSamples() {
+        return mNumMergedSamples;
+    }
+
+    /**
+     * @return number of synchronized samples that were dropped because they were missing in at least one other session
+     */
+    public long getNumDroppedSamples() {
+        return mNumDroppedSamples;
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib.sensors.logging;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.fau.sensorlib.SensorException;
+import de.fau.sensorlib.sensors.enums.NilsPodSyncRole;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Merges synthetic session files of a sync group: trimming to the synchronized range, alignment by the sample
+ * counter and dropping samples missing in one of the sessions.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class SessionMergerTest {
+
+    private static final int HEADER_SIZE = 52;
+    /**
+     * 2 Byte payload (session number and low byte of the counter) and the 4 Byte sample counter
+     */
+    private static final int SAMPLE_SIZE = 6;
+    /**
+     * Sampling rate command for 102.4 Hz
+     */
+    private static final int SAMPLING_RATE = 10;
+    private static final byte[] SYNC_ADDRESS = {0x12, 0x34, 0x56, 0x78, (byte) 0x9A};
+    private static final int SYNC_CHANNEL = 20;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * Synthetic session of one sensor.
+     */
+    private static class SessionBuilder {
+        private final int mSession;
+        private final NilsPodSyncRole mSyncRole;
+        private final List<Long> mCounters = new ArrayList<>();
+        private int mSyncIndexStart;
+        private int mSyncIndexEnd;
+        private byte[] mSyncAddress = SYNC_ADDRESS;
+
+        private SessionBuilder(int session, NilsPodSyncRole syncRole) {
+            mSession = session;
+            mSyncRole = syncRole;
+        }
+
+        /**
+         * Adds samples with the counter values from first to last, except the skipped ones.
+         */
+        private SessionBuilder counters(long first, long last, long... skipped) {
+            for (long counter = first; counter <= last; counter++) {
+                if (Arrays.binarySearch(skipped, counter) < 0) {
+                    mCounters.add(counter);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Synchronized range as indices of the first and the last synchronized sample.
+         */
+        private SessionBuilder syncIndex(int start, int end) {
+            mSyncIndexStart = start;
+            mSyncIndexEnd = end;
+            return this;
+        }
+
+        private SessionBuilder syncAddress(byte[] syncAddress) {
+            mSyncAddress = syncAddress;
+            return this;
+        }
+
+        private File write(File file) throws IOException {
+            byte[] header = new byte[HEADER_SIZE];
+            header[0] = HEADER_SIZE;
+            header[1] = SAMPLE_SIZE;
+            // accelerometer enabled
+            header[2] = 0x01;
+            header[4] = SAMPLING_RATE;
+            header[6] = (byte) mSyncRole.ordinal();
+            header[7] = 1;
+            header[8] = 16;
+            header[9] = 16;
+            putUInt32(header, 23, mCounters.size());
+            putUInt32(header, 27, mSyncIndexStart);
+            putUInt32(header, 31, mSyncIndexEnd);
+            for (int i = 0; i < 6; i++) {
+                header[35 + i] = (byte) (0x10 * mSession + i);
+            }
+            System.arraycopy(mSyncAddress, 0, header, 41, 5);
+            header[46] = SYNC_CHANNEL;
+            header[47] = 0x11;
+            header[49] = 0;
+            header[50] = 15;
+            header[51] = 0;
+
+            try (OutputStream os = new FileOutputStream(file)) {
+                os.write(header);
+                for (long counter : mCounters) {
+                    byte[] sample = new byte[SAMPLE_SIZE];
+                    sample[0] = (byte) mSession;
+                    sample[1] = (byte) counter;
+                    putUInt32(sample, 2, counter);
+                    os.write(sample);
+                }
+            }
+            return file;
+        }
+    }
+
+    private static void putUInt32(byte[] buffer, int offset, long value) {
+        for (int i = 0; i < 4; i++) {
+            buffer[offset + i] = (byte) (value >> (8 * i));
+        }
+    }
+
+    private static long readUInt32(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int i = 0; i < 4; i++) {
+            value |= (in.readUnsignedByte() & 0xFFL) << (8 * i);
+        }
+        return value;
+    }
+
+    private File file(String name) {
+        return new File(mFolder.getRoot(), name);
+    }
+
+    /**
+     * Reads the merged file and checks that every row holds the samples of all sessions with the row's counter.
+     *
+     * @return the counter values of all rows
+     */
+    private static List<Long> readMergedCounters(File file, int numSessions) throws IOException {
+        List<Long> counters = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            byte[] header = new byte[(int) readUInt32(in)];
+            in.readFully(header);
+            JsonObject json = new JsonParser().parse(new String(header, StandardCharsets.UTF_8)).getAsJsonObject();
+            assertEquals(4 + numSessions * SAMPLE_SIZE, json.get("row_size").getAsInt());
+            assertEquals(numSessions, json.getAsJsonArray("sessions").size());
+            assertEquals(102.4, json.get("sampling_rate_hz").getAsDouble(), 0);
+
+            while (in.available() > 0) {
+                long counter = readUInt32(in);
+                for (int session = 0; session < numSessions; session++) {
+                    assertEquals(session, in.readUnsignedByte());
+                    assertEquals(counter & 0xFF, in.readUnsignedByte());
+                    assertEquals(counter, readUInt32(in));
+                }
+                counters.add(counter);
+            }
+        }
+        return counters;
+    }
+
+    private static List<Long> range(long first, long last, long... skipped) {
+        List<Long> list = new ArrayList<>();
+        for (long counter = first; counter <= last; counter++) {
+            if (Arrays.binarySearch(skipped, counter) < 0) {
+                list.add(counter);
+            }
+        }
+        return list;
+    }
+
+    @Test
+    public void trimsAndAlignsSessions() throws Exception {
+        // master is synchronized as a whole
+        File master = new SessionBuilder(0, NilsPodSyncRole.SYNC_ROLE_MASTER)
+                .counters(100, 199)
+                .write(file("master.bin"));
+        // synchronized from counter 105 to 194, the samples outside are trimmed although their counters match
+        File slave1 = new SessionBuilder(1, NilsPodSyncRole.SYNC_ROLE_SLAVE)
+                .counters(90, 209)
+                .syncIndex(15, 104)
+                .write(file("slave1.bin"));
+        // lost the samples with counter 120, 150 and 151
+        File slave2 = new SessionBuilder(2, NilsPodSyncRole.SYNC_ROLE_SLAVE)
+                .counters(95, 204, 120, 150, 151)
+                .syncIndex(2, 106)
+                .write(file("slave2.bin"));
+
+        SessionMerger merger = new SessionMerger(Arrays.asList(master, slave1, slave2));
+        File merged = file("merged.bin");
+        long numSamples = merger.merge(merged);
+
+        List<Long> expected = range(105, 194, 120, 150, 151);
+        assertEquals(expected, readMergedCounters(merged, 3));
+        assertEquals(expected.size(), numSamples);
+        assertEquals(expected.size(), merger.getNumMergedSamples());
+        // before alignment: 100-104 of the master, 97-104 of slave 2, then 120, 150 and 151 of master and slave 1
+        assertEquals(5 + 8 + 2 * 3, merger.getNumDroppedSamples());
+    }
+
+    @Test
+    public void stopsAtEndOfShortestSyncRange() throws Exception {
+        File master = new SessionBuilder(0, NilsPodSyncRole.SYNC_ROLE_MASTER)
+                .counters(1000, 1999)
+                .write(file("master.bin"));
+        // the sync end index lies beyond the recorded samples
+        File slave = new SessionBuilder(1, NilsPodSyncRole.SYNC_ROLE_SLAVE)
+                .counters(990, 1499)
+                .syncIndex(10, 5000)
+                .write(file("slave.bin"));
+
+        SessionMerger merger = new SessionMerger(Arrays.asList(master, slave));
+        File merged = file("merged.bin");
+        merger.merge(merged);
+
+        assertEquals(range(1000, 1499), readMergedCounters(merged, 2));
+        assertEquals(0, merger.getNumDroppedSamples());
+    }
+
+    @Test
+    public void rejectsGroupWithoutMaster() throws Exception {
+        File slave1 = new SessionBuilder(0, NilsPodSyncRole.SYNC_ROLE_SLAVE)
+                .counters(0, 99)
+                .syncIndex(0, 99)
+                .write(file("slave1.bin"));
+        File slave2 = new SessionBuilder(1, NilsPodSyncRole.SYNC_ROLE_SLAVE)
+                .counters(0, 99)
+                .syncIndex(0, 99)
+                .write(file("slave2.bin"));
+        assertMergeFails(slave1, slave2);
+    }
+
+    @Test
+    public void rejectsTwoMasters() throws Exception {
+        File master1 = new SessionBuilder(0, NilsPodSyncRole.SYNC_ROLE_MASTER)
+                .counters(0, 99)
+                .write(file("master1.bin"));
+        File master2 = new SessionBuilder(1, NilsPodSyncRole.SYNC_ROLE_MASTER)
+                .counters(0, 99)
+                .write(file("master2.bin"));
+        assertMergeFails(master1, master2);
+    }
+
+    @Test
+    public void rejectsUnsynchronizedSession() throws Exception {
+        File master = new SessionBuilder(0, NilsPodSyncRole.SYNC_ROLE_MASTER)
+                .counters(0, 99)
+                .write(file("master.bin"));
+        File slave = new SessionBuilder(1, NilsPodSyncRole.SYNC_ROLE_SLAVE)
+                .counters(0, 99)
+                .write(file("slave.bin"));
+        assertMergeFails(master, slave);
+    }
+
+    @Test
+    public void rejectsDifferentSyncGroup() throws Exception {
+        File master = new SessionBuilder(0, NilsPodSyncRole.SYNC_ROLE_MASTER)
+                .counters(0, 99)
+                .write(file("master.bin"));
+        File slave = new SessionBuilder(1, NilsPodSyncRole.SYNC_ROLE_SLAVE)
+                .counters(0, 99)
+                .syncIndex(0, 99)
+                .syncAddress(new byte[]{1, 2, 3, 4, 5})
+                .write(file("slave.bin"));
+        assertMergeFails(master, slave);
+    }
+
+    private void assertMergeFails(File... sessions) throws IOException {
+        try {
+            new SessionMerger(Arrays.asList(sessions)).merge(file("merged.bin"));
+            fail("Merging did not fail");
+        } catch (SensorException e) {
+            assertEquals(SensorException.SensorExceptionType.configError, e.getExceptionType());
+        }
+    }
+}
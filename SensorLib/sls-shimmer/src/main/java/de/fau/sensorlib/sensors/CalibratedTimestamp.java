@@ -7,7 +7,11 @@ package de.fau.sensorlib.sensors;
 
 /**
  * Created by gradl on 07.10.2015.
+ *
+ * @deprecated accumulates the time in a float, which loses precision after a few hours, and treats every timer
+ * overflow as a single sample. Use {@link ShimmerTimestampCalibrator} instead.
  */
+@Deprecated
 public class CalibratedTimestamp {
     private double mDeltaTimeStamp;
     private double mNewTimeStamp;
@@ -13,6 +13,7 @@ import android.bluetooth.BluetoothDevice;
 import android.content.Context;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.shimmerresearch.driver.FormatCluster;
@@ -38,7 +39,7 @@ import de.fau.sensorlib.enums.SensorState;
 public class ShimmerSensor extends AbstractSensor {
     Shimmer shimmer;
     int accelRange = 0;
-    CalibratedTimestamp calTimestamp;
+    ShimmerTimestampCalibrator calTimestamp;
     ShimmerMessageHandler mShimmerHandler;
 
     public static class ShimmerDataFrame extends SensorDataFrame implements EcgDataFrame, GyroDataFrame, AccelDataFrame, EmgDataFrame {
@@ -278,7 +279,7 @@ public class ShimmerSensor extends AbstractSensor {
         if (mSelectedHwSensors.isEmpty())
             throw new SensorException(SensorException.SensorExceptionType.noSensorsSelected);
 
-        calTimestamp = new CalibratedTimestamp(mSamplingRate);
+        calTimestamp = new ShimmerTimestampCalibrator(mSamplingRate);
         if (shimmer == null) {
             if (mShimmerHandler == null) {
                 mShimmerHandler = new ShimmerMessageHandler();
@@ -326,7 +327,8 @@ public class ShimmerSensor extends AbstractSensor {
             if (timestamp.size() != 0) {
                 //retrieve the calibrated data
                 FormatCluster formatCluster = ObjectCluster.returnFormatCluster(timestamp, "RAW");
-                df = new ShimmerDataFrame(this, calTimestamp.calibrateTimestamp(formatCluster.mData));
+                long timestampNanos = calTimestamp.calibrateTimestamp((int) formatCluster.mData, SystemClock.elapsedRealtimeNanos());
+                df = new ShimmerDataFrame(this, timestampNanos / 1e6);
             }
             if (df == null)
                 return null;
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib.sensors;
+
+/**
+ * Converts the raw 16 bit timer values sent by a Shimmer (32768 Hz clock) into monotonic timestamps.
+ * <p>
+ * The timer is unrolled into a 64 bit tick counter, so the timestamps don't lose precision in long sessions. Gaps of
+ * several samples across a timer overflow are handled by the tick difference modulo the timer range; gaps longer
+ * than one timer period (2 s) can only be resolved if the host arrival time of the sample is passed as well.
+ * <p>
+ * Host arrival times include the transmission latency, which grows a lot when the host stalls and receives the
+ * buffered samples in a burst. So the arrival times are not compared with each other, but with the sample times
+ * on the host axis: the offset between arrival time and sample time is tracked as its minimum (allowing for the
+ * drift of both clocks), and overflows are only added if a sample arrives clearly later (0.9 timer periods, 1.8 s)
+ * than expected from this offset.
+ */
+public class ShimmerTimestampCalibrator {
+
+    /**
+     * Frequency of the Shimmer timer (in Hz)
+     */
+    public static final int CLOCK_FREQUENCY = 32768;
+
+    private static final int TIMER_RANGE = 1 << 16;
+
+    /**
+     * Maximum delay of a sample by the host (e.g. while the host is stalled) that is not mistaken for an overflow (in
+     * timer periods). Samples arriving up to {@code 1 - MAX_HOST_DELAY_PERIODS} periods earlier than expected (e.g.
+     * since the offset is not updated exactly) still count the overflows correctly.
+     */
+    private static final double MAX_HOST_DELAY_PERIODS = 0.9;
+
+    /**
+     * Maximum drift between the Shimmer clock and the host clock, the offset between arrival and sample time may
+     * grow by this fraction of the elapsed time.
+     */
+    private static final double MAX_CLOCK_DRIFT = 500e-6;
+
+    /**
+     * 1e9 / 32768 = 1953125 / 64, used for an exact conversion from ticks to nanoseconds
+     */
+    private static final long NANOS_PER_TICK_NUM = 1953125;
+    private static final long NANOS_PER_TICK_DEN = 64;
+
+    private final double mSamplingRate;
+
+    private boolean mFirstTimestamp = true;
+    private int mLastTimerValue;
+    private long mTicks;
+    private long mLastArrivalTime = -1;
+    /**
+     * Minimum of arrival time minus sample time (in ns), or NaN if no arrival time was passed yet
+     */
+    private double mHostOffset = Double.NaN;
+
+    private long mNumSamples;
+    private long mNumLostSamples;
+    private long mNumDuplicates;
+
+
+    /**
+     * @param samplingRate sampling rate the Shimmer is streaming with (in Hz)
+     */
+    public ShimmerTimestampCalibrator(double samplingRate) {
+        mSamplingRate = samplingRate;
+    }
+
+    /**
+     * Resets the calibrator, the next sample will have the timestamp 0.
+     */
+    public void reset() {
+        mFirstTimestamp = true;
+        mTicks = 0;
+        mLastArrivalTime = -1;
+        mHostOffset = Double.NaN;
+        mNumSamples = 0;
+        mNumLostSamples = 0;
+        mNumDuplicates = 0;
+    }
+
+    /**
+     * Computes the timestamp of a sample.
+     *
+     * @param timerValue raw 16 bit timer value of the sample
+     * @return time since the first sample (in ns)
+     */
+    public long calibrateTimestamp(int timerValue) {
+        return calibrateTimestamp(timerValue, -1);
+    }
+
+    /**
+     * Computes the timestamp of a sample, using the arrival time to resolve gaps longer than one timer period.
+     *
+     * @param timerValue  raw 16 bit timer value of the sample
+     * @param arrivalTime host monotonic time the sample was received (in ns, e.g. SystemClock.elapsedRealtimeNanos()),
+     *                    or a negative value if unknown
+     * @return time since the first sample (in ns)
+     */
+    public long calibrateTimestamp(int timerValue, long arrivalTime) {
+        timerValue &= TIMER_RANGE - 1;
+        if (mFirstTimestamp) {
+            // first timer value can be every value, start the time axis here
+            mFirstTimestamp = false;
+        } else {
+            long delta = (timerValue - mLastTimerValue) & (TIMER_RANGE - 1);
+            if (arrivalTime >= 0 && !Double.isNaN(mHostOffset)) {
+                if (mLastArrivalTime >= 0 && arrivalTime > mLastArrivalTime) {
+                    mHostOffset += (arrivalTime - mLastArrivalTime) * MAX_CLOCK_DRIFT;
+                }
+                // add the timer overflows that can't be seen in the timer value
+                double expectedTicks = (arrivalTime - mHostOffset) * NANOS_PER_TICK_DEN / NANOS_PER_TICK_NUM;
+                long overflows = (long) Math.floor((expectedTicks - (mTicks + delta)) / TIMER_RANGE + (1 - MAX_HOST_DELAY_PERIODS));
+                if (overflows > 0) {
+                    delta += overflows * TIMER_RANGE;
+                }
+            }
+            if (delta == 0) {
+                mNumDuplicates++;
+            } else if (mSamplingRate > 0) {
+                long lost = Math.round(delta * mSamplingRate / CLOCK_FREQUENCY) - 1;
+                if (lost > 0) {
+                    mNumLostSamples += lost;
+                }
+            }
+            mTicks += delta;
+        }
+        long nanos = getNanos(mTicks);
+        if (arrivalTime >= 0) {
+            if (Double.isNaN(mHostOffset) || arrivalTime - nanos < mHostOffset) {
+                mHostOffset = arrivalTime - nanos;
+            }
+            mLastArrivalTime = arrivalTime;
+        }
+        mLastTimerValue = timerValue;
+        mNumSamples++;
+        return nanos;
+    }
+
+    private static long getNanos(long ticks) {
+        return ticks / NANOS_PER_TICK_DEN * NANOS_PER_TICK_NUM + (ticks % NANOS_PER_TICK_DEN) * NANOS_PER_TICK_NUM / NANOS_PER_TICK_DEN;
+    }
+
+    /**
+     * @return number of timer ticks since the first sample
+     */
+    public long getTicks() {
+        return mTicks;
+    }
+
+    public long getNumSamples() {
+        return mNumSamples;
+    }
+
+    /**
+     * @return number of samples missing according to the timer values
+     */
+    public long getNumLostSamples() {
+        return mNumLostSamples;
+    }
+
+    /**
+     * @return number of samples with the same timer value as the previous sample
+     */
+    public long getNumDuplicates() {
+        return mNumDuplicates;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib.sensors;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks {@link ShimmerTimestampCalibrator} with synthetic sessions: every sample must get the exact timestamp of
+ * its timer tick, also across timer overflows, lost samples, host stalls and clock drift.
+ */
+public class ShimmerTimestampCalibratorTest {
+
+    private static final double SAMPLING_RATE = 204.8;
+    /**
+     * 32768 Hz / 204.8 Hz
+     */
+    private static final int TICKS_PER_SAMPLE = 160;
+    private static final long SAMPLES_PER_DAY = Math.round(24 * 3600 * SAMPLING_RATE);
+    private static final int START_TIMER_VALUE = 0xF123;
+    private static final long HOST_START_TIME = 123456789000000L;
+
+    private static long ticksToNanos(long ticks) {
+        return ticks * 1953125 / 64;
+    }
+
+    private static int timerValue(long sample) {
+        return (int) ((START_TIMER_VALUE + sample * TICKS_PER_SAMPLE) & 0xFFFF);
+    }
+
+    /**
+     * Simulates the host receiving the samples: the Shimmer clock drifts against the host clock, every sample is
+     * delayed by a random latency, and samples generated while the host is stalled arrive in a burst afterwards.
+     */
+    private static class Host {
+        private final double mDrift;
+        private final Random mRandom;
+        private long mStallStart = Long.MAX_VALUE;
+        private long mStallEnd;
+        private long mLastArrivalTime;
+
+        private Host(double drift, long seed) {
+            mDrift = drift;
+            mRandom = new Random(seed);
+        }
+
+        private void stall(long start, long duration) {
+            mStallStart = start;
+            mStallEnd = start + duration;
+        }
+
+        private long getArrivalTime(long sample) {
+            double sensorTime = ticksToNanos(sample * TICKS_PER_SAMPLE) * (1 + mDrift);
+            long arrivalTime = HOST_START_TIME + Math.round(sensorTime) + 5000000 + (long) (mRandom.nextDouble() * 45000000);
+            if (arrivalTime >= mStallStart && arrivalTime < mStallEnd) {
+                arrivalTime = mStallEnd;
+            }
+            // samples are received in order
+            arrivalTime = Math.max(arrivalTime, mLastArrivalTime + 10000);
+            mLastArrivalTime = arrivalTime;
+            return arrivalTime;
+        }
+    }
+
+    private static void assertTimestamp(ShimmerTimestampCalibrator calibrator, long sample, long timestamp) {
+        long expected = ticksToNanos(sample * TICKS_PER_SAMPLE);
+        if (timestamp != expected) {
+            fail("Sample " + sample + ": expected " + expected + " ns, but was " + timestamp + " ns (" + (timestamp - expected) / 1e9 + " s off)");
+        }
+        assertEquals(sample * TICKS_PER_SAMPLE, calibrator.getTicks());
+    }
+
+    @Test
+    public void unrollsTimerOver24Hours() {
+        ShimmerTimestampCalibrator calibrator = new ShimmerTimestampCalibrator(SAMPLING_RATE);
+        long lastTimestamp = -1;
+        for (long sample = 0; sample < SAMPLES_PER_DAY; sample++) {
+            long timestamp = calibrator.calibrateTimestamp(timerValue(sample));
+            assertTimestamp(calibrator, sample, timestamp);
+            assertTrue(timestamp > lastTimestamp);
+            lastTimestamp = timestamp;
+        }
+        assertEquals(24 * 3600e9 - 1e9 / SAMPLING_RATE, lastTimestamp, 1);
+        assertEquals(SAMPLES_PER_DAY, calibrator.getNumSamples());
+        assertEquals(0, calibrator.getNumLostSamples());
+    }
+
+    /**
+     * 24 hour sessions with drifting clocks, a stall of the host every 10 minutes, short gaps across timer overflows
+     * and gaps longer than one timer period.
+     */
+    @Test
+    public void unrollsTimerOver24HoursWithArrivalTimes() {
+        for (double drift : new double[]{-50e-6, 0, 50e-6}) {
+            Random random = new Random(42);
+            Host host = new Host(drift, 7);
+            ShimmerTimestampCalibrator calibrator = new ShimmerTimestampCalibrator(SAMPLING_RATE);
+            long lastTimestamp = -1;
+            long lost = 0;
+            long lastSample = -1;
+            long sample = 0;
+            while (sample < SAMPLES_PER_DAY) {
+                lost += sample - lastSample - 1;
+                lastSample = sample;
+                long arrivalTime = host.getArrivalTime(sample);
+                long timestamp = calibrator.calibrateTimestamp(timerValue(sample), arrivalTime);
+                assertTimestamp(calibrator, sample, timestamp);
+                assertTrue(timestamp > lastTimestamp);
+                lastTimestamp = timestamp;
+
+                if (sample % 123000 == 1000) {
+                    // host stalls for 1.1 to 1.7 s
+                    host.stall(arrivalTime + 1000000, 1100000000L + random.nextInt(600000000));
+                }
+                long gap = 1;
+                int r = random.nextInt(20000);
+                if (r == 0) {
+                    // 5 to 30 s without samples
+                    gap = 1000 + random.nextInt(5000);
+                } else if (r < 20) {
+                    // up to 400 samples (1.95 s) lost
+                    gap = 2 + random.nextInt(399);
+                }
+                sample += gap;
+            }
+            assertEquals(lost, calibrator.getNumLostSamples());
+            assertEquals(0, calibrator.getNumDuplicates());
+        }
+    }
+
+    @Test
+    public void unrollsGapsAcrossOverflowWithoutArrivalTime() {
+        ShimmerTimestampCalibrator calibrator = new ShimmerTimestampCalibrator(SAMPLING_RATE);
+        long[] samples = {0, 1, 2, 300, 301, 700, 1100, 1101};
+        for (long sample : samples) {
+            assertTimestamp(calibrator, sample, calibrator.calibrateTimestamp(timerValue(sample)));
+        }
+        assertEquals(297 + 398 + 399, calibrator.getNumLostSamples());
+    }
+
+    @Test
+    public void resolvesLongGapsWithArrivalTime() {
+        Host host = new Host(0, 3);
+        ShimmerTimestampCalibrator calibrator = new ShimmerTimestampCalibrator(SAMPLING_RATE);
+        // gaps of 2 s, 4 s, 10 s (exactly five timer periods), 2.5 s and 61 s
+        long[] samples = {0, 1, 2, 412, 413, 1232, 1233, 3281, 3282, 3794, 3795, 16288, 16289};
+        for (long sample : samples) {
+            assertTimestamp(calibrator, sample, calibrator.calibrateTimestamp(timerValue(sample), host.getArrivalTime(sample)));
+        }
+    }
+
+    /**
+     * The host doesn't receive anything for 1.1 s, then a sample that was not delayed by the Shimmer arrives.
+     * Comparing the arrival times of consecutive samples would mistake the stall for a timer overflow.
+     */
+    @Test
+    public void hostStallIsNoOverflow() {
+        ShimmerTimestampCalibrator calibrator = new ShimmerTimestampCalibrator(SAMPLING_RATE);
+        long arrivalTime = HOST_START_TIME;
+        for (long sample = 0; sample < 100; sample++) {
+            arrivalTime += 5000000;
+            assertTimestamp(calibrator, sample, calibrator.calibrateTimestamp(timerValue(sample), arrivalTime));
+        }
+        arrivalTime += 1100000000L;
+        assertTimestamp(calibrator, 100, calibrator.calibrateTimestamp(timerValue(100), arrivalTime));
+        // buffered samples arrive in a burst
+        for (long sample = 101; sample < 400; sample++) {
+            arrivalTime += 100000;
+            assertTimestamp(calibrator, sample, calibrator.calibrateTimestamp(timerValue(sample), arrivalTime));
+        }
+        assertEquals(0, calibrator.getNumLostSamples());
+    }
+
+    @Test
+    public void stallsAreNoOverflowsAfterFirstSampleWithoutArrivalTime() {
+        Host host = new Host(0, 5);
+        ShimmerTimestampCalibrator calibrator = new ShimmerTimestampCalibrator(SAMPLING_RATE);
+        assertTimestamp(calibrator, 0, calibrator.calibrateTimestamp(timerValue(0)));
+        for (long sample = 1; sample < 5000; sample++) {
+            if (sample == 2000) {
+                host.stall(host.mLastArrivalTime, 1500000000L);
+            }
+            assertTimestamp(calibrator, sample, calibrator.calibrateTimestamp(timerValue(sample), host.getArrivalTime(sample)));
+        }
+    }
+
+    @Test
+    public void countsDuplicates() {
+        Host host = new Host(0, 11);
+        ShimmerTimestampCalibrator calibrator = new ShimmerTimestampCalibrator(SAMPLING_RATE);
+        for (long sample = 0; sample < 1000; sample++) {
+            long arrivalTime = host.getArrivalTime(sample);
+            assertTimestamp(calibrator, sample, calibrator.calibrateTimestamp(timerValue(sample), arrivalTime));
+            if (sample % 100 == 50) {
+                // same sample received twice
+                assertTimestamp(calibrator, sample, calibrator.calibrateTimestamp(timerValue(sample), arrivalTime + 10000));
+            }
+        }
+        assertEquals(10, calibrator.getNumDuplicates());
+        assertEquals(0, calibrator.getNumLostSamples());
+    }
+
+    @Test
+    public void resetStartsNewTimeAxis() {
+        Host host = new Host(0, 13);
+        ShimmerTimestampCalibrator calibrator = new ShimmerTimestampCalibrator(SAMPLING_RATE);
+        for (long sample = 0; sample < 1000; sample++) {
+            calibrator.calibrateTimestamp(timerValue(sample), host.getArrivalTime(sample));
+        }
+        calibrator.reset();
+        assertEquals(0, calibrator.calibrateTimestamp(timerValue(5000), host.getArrivalTime(5000)));
+        assertEquals(ticksToNanos(TICKS_PER_SAMPLE), calibrator.calibrateTimestamp(timerValue(5001), host.getArrivalTime(5001)));
+        assertEquals(2, calibrator.getNumSamples());
+    }
+}
@@ -16,16 +16,20 @@ import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.os.Environment;
+import android.os.SystemClock;
 import android.util.Log;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
 
 import de.fau.sensorlib.BleSensorManager;
 import de.fau.sensorlib.SensorDataProcessor;
@@ -326,14 +330,16 @@ public class BleEcgSensor extends AbstractSensor {
      * @param ecgData The raw ECG data from the Bluetooth device
      */
     private void scheduleWriting(final BleEcgDataFrame ecgData) {
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                if (mWriter != null) {
-                    mWriter.writeData(ecgData);
-                }
-            }
-        }).start();
+        if (mWriter != null) {
+            mWriter.writeData(ecgData);
+        }
+    }
+
+    /**
+     * @return the writer storing the raw ECG data (with underrun/overrun statistics), or null if not connected
+     */
+    public BleEcgDataWriter getDataWriter() {
+        return mWriter;
     }
 
     /**
@@ -352,16 +358,60 @@ public class BleEcgSensor extends AbstractSensor {
 
         private static final char mSeparator = '\n';
         private static final String mHeader = "samplingrate";
+
+        /**
+         * Default number of writes per second
+         */
+        public static final double DEFAULT_WRITE_RATE = 4.0;
+
+        /**
+         * Default capacity of the sample queue (in samples)
+         */
+        public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+        /**
+         * Size of the file buffer, i.e. of the coalesced writes (in characters)
+         */
+        private static final int WRITE_BUFFER_SIZE = 8192;
+
         private String mName;
         private BufferedWriter mBufferedWriter;
         private File mECGFileHandler;
         private boolean mStorageWritable;
         private boolean mECGFileCreated;
 
+        /**
+         * Samples are queued by the GATT callback and written by a single writer thread at a fixed rate
+         */
+        private final ArrayBlockingQueue<BleEcgDataFrame> mQueue;
+        private final ArrayList<BleEcgDataFrame> mDrainBuffer;
+        private final StringBuilder mLineBuilder = new StringBuilder(WRITE_BUFFER_SIZE);
+        private double mWriteRate = DEFAULT_WRITE_RATE;
+        private double mSamplingRate;
+        private Thread mWriterThread;
+        private volatile boolean mRunning;
+
+        // statistics
+        private long mNumWrittenSamples;
+        private long mNumDroppedSamples;
+        private long mNumUnderruns;
+        private long mNumOverruns;
+
         /**
          * Creates a new DataWriter to write the received ECG data to the external storage
          */
         public BleEcgDataWriter() {
+            this(DEFAULT_QUEUE_CAPACITY);
+        }
+
+        /**
+         * Creates a new DataWriter to write the received ECG data to the external storage
+         *
+         * @param queueCapacity maximum number of samples waiting to be written, further samples are dropped
+         */
+        public BleEcgDataWriter(int queueCapacity) {
+            mQueue = new ArrayBlockingQueue<>(queueCapacity);
+            mDrainBuffer = new ArrayList<>(queueCapacity);
             String[] parts = mDeviceAddress.split(":");
             String name = parts[parts.length - 2] + parts[parts.length - 1];
             if (parts.length > 1) {
@@ -453,7 +503,7 @@ public class BleEcgSensor extends AbstractSensor {
                 try {
                     // open buffered writer and write header line
                     fw = new FileWriter(mECGFileHandler);
-                    mBufferedWriter = new BufferedWriter(fw);
+                    mBufferedWriter = new BufferedWriter(fw, WRITE_BUFFER_SIZE);
                     mBufferedWriter.write(mHeader);
                     mBufferedWriter.write(String.valueOf(samplingRate));
                     mBufferedWriter.write(mSeparator);
@@ -462,6 +512,92 @@ public class BleEcgSensor extends AbstractSensor {
                     mECGFileCreated = false;
                 }
             }
+            mSamplingRate = samplingRate;
+            startWriterThread();
+        }
+
+        /**
+         * Sets the rate the queued samples are written with. Takes effect on the next call to {@link #prepareWriter(double)}.
+         *
+         * @param writeRate writes per second
+         */
+        public void setWriteRate(double writeRate) {
+            if (writeRate <= 0) {
+                throw new IllegalArgumentException("Write rate must be positive!");
+            }
+            mWriteRate = writeRate;
+        }
+
+        public double getWriteRate() {
+            return mWriteRate;
+        }
+
+        private void startWriterThread() {
+            if (mWriterThread != null || !isWritable()) {
+                return;
+            }
+            mRunning = true;
+            mWriterThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long period = Math.max(1, Math.round(1000 / mWriteRate));
+                    long nextWrite = SystemClock.elapsedRealtime() + period;
+                    while (mRunning) {
+                        long delay = nextWrite - SystemClock.elapsedRealtime();
+                        if (delay > 0) {
+                            try {
+                                Thread.sleep(delay);
+                            } catch (InterruptedException e) {
+                                break;
+                            }
+                        }
+                        nextWrite += period;
+                        checkRate(drainQueue());
+                    }
+                }
+            }, "BleEcgDataWriter");
+            mWriterThread.start();
+        }
+
+        /**
+         * Writes all queued samples with a single write to the file buffer.
+         *
+         * @return number of samples written
+         */
+        private int drainQueue() {
+            mDrainBuffer.clear();
+            mQueue.drainTo(mDrainBuffer);
+            if (mDrainBuffer.isEmpty() || !isWritable()) {
+                return 0;
+            }
+            mLineBuilder.setLength(0);
+            for (BleEcgDataFrame ecgData : mDrainBuffer) {
+                mLineBuilder.append(ecgData.ecg).append(mSeparator);
+            }
+            try {
+                mBufferedWriter.append(mLineBuilder);
+            } catch (IOException e) {
+                Log.e(TAG, "Error writing ECG data!", e);
+            }
+            mNumWrittenSamples += mDrainBuffer.size();
+            return mDrainBuffer.size();
+        }
+
+        /**
+         * Compares the number of samples written in one period with the number expected at the sampling rate.
+         * Fewer than half of the expected samples count as underrun (the sensor delivers too slowly), more than
+         * twice the expected samples as overrun (the writer falls behind).
+         */
+        private void checkRate(int numSamples) {
+            if (mSamplingRate <= 0) {
+                return;
+            }
+            double expected = mSamplingRate / mWriteRate;
+            if (numSamples < expected / 2) {
+                mNumUnderruns++;
+            } else if (numSamples > expected * 2) {
+                mNumOverruns++;
+            }
         }
 
         /**
@@ -470,13 +606,9 @@ public class BleEcgSensor extends AbstractSensor {
          * @param ecgData An array of incoming ECG data
          */
         public void writeData(BleEcgDataFrame ecgData) {
-            if (isWritable()) {
-                try {
-                    // writes the raw value into the BufferedWriter
-                    mBufferedWriter.write(String.valueOf(ecgData.ecg));
-                    mBufferedWriter.write(mSeparator);
-                } catch (Exception ignored) {
-                }
+            if (isWritable() && !mQueue.offer(ecgData)) {
+                // writer can't keep up, drop sample instead of blocking the GATT callback
+                mNumDroppedSamples++;
             }
         }
 
@@ -484,6 +616,19 @@ public class BleEcgSensor extends AbstractSensor {
          * Flushes and closes the internal {@link BufferedWriter}
          */
         public void completeWriter() {
+            if (mWriterThread != null) {
+                mRunning = false;
+                mWriterThread.interrupt();
+                try {
+                    mWriterThread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                mWriterThread = null;
+                drainQueue();
+                Log.d(TAG, "ECG writer: " + mNumWrittenSamples + " samples written, " + mNumDroppedSamples + " dropped, "
+                        + mNumUnderruns + " underruns, " + mNumOverruns + " overruns");
+            }
             if (isWritable()) {
                 try {
                     // flush and close writer
@@ -499,5 +644,30 @@ public class BleEcgSensor extends AbstractSensor {
             return (mStorageWritable && mECGFileCreated && (mBufferedWriter != null));
         }
 
+        public long getNumWrittenSamples() {
+            return mNumWrittenSamples;
+        }
+
+        /**
+         * @return number of samples dropped because the queue was full
+         */
+        public long getNumDroppedSamples() {
+            return mNumDroppedSamples;
+        }
+
+        /**
+         * @return number of write periods with less than half of the samples expected at the sampling rate
+         */
+        public long getNumUnderruns() {
+            return mNumUnderruns;
+        }
+
+        /**
+         * @return number of write periods with more than twice the samples expected at the sampling rate
+         */
+        public long getNumOverruns() {
+            return mNumOverruns;
+        }
+
     }
 }
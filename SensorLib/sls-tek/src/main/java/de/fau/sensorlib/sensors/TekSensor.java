@@ -10,9 +10,8 @@ package de.fau.sensorlib.sensors;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.content.Context;
 import android.os.Handler;
-import android.util.Log;
+import android.os.SystemClock;
 
-import java.util.Arrays;
 import java.util.UUID;
 
 import de.fau.sensorlib.SensorDataProcessor;
@@ -43,6 +42,18 @@ public class TekSensor extends GenericBleSensor {
     protected static final UUID TEK_CHARACTERISTIC_3D_FUSION = UUID.fromString("00007505-0000-1000-8000-00805f9b34fb");
     protected static final UUID TEK_CHARACTERISTIC_HCTM_INERTIAL = UUID.fromString("00007701-0000-1000-8000-00805f9b34fb");
 
+    /**
+     * Width of the sample counter sent with every notification (in bits)
+     */
+    private static final int COUNTER_BITS = 8;
+
+    /**
+     * Timestamps are estimated from the sample counter of each stream, not from the notification arrival time
+     */
+    private final TekTimestampEstimator mInertialClock = new TekTimestampEstimator(COUNTER_BITS, 0);
+    private final TekTimestampEstimator mFusionClock = new TekTimestampEstimator(COUNTER_BITS, 0);
+    private final TekTimestampEstimator mAmbientClock = new TekTimestampEstimator(COUNTER_BITS, 0);
+
     /**
      * The basic dataframe for the TEK sensor.
      */
@@ -263,6 +274,11 @@ public class TekSensor extends GenericBleSensor {
 
     @Override
     public void startStreaming() {
+        mInertialClock.reset();
+        mFusionClock.reset();
+        mAmbientClock.reset();
+        mInertialClock.setNominalSamplingRate(getSamplingRate());
+        mFusionClock.setNominalSamplingRate(getSamplingRate());
         new Handler().postDelayed(new Runnable() {
             @Override
             public void run() {
@@ -271,6 +287,34 @@ public class TekSensor extends GenericBleSensor {
         }, 2500);
     }
 
+    /**
+     * @return the timestamp estimator of the inertial data stream
+     */
+    public TekTimestampEstimator getInertialTimestampEstimator() {
+        return mInertialClock;
+    }
+
+    /**
+     * @return the timestamp estimator of the fusion data stream
+     */
+    public TekTimestampEstimator getFusionTimestampEstimator() {
+        return mFusionClock;
+    }
+
+    /**
+     * @return the timestamp estimator of the ambient data stream
+     */
+    public TekTimestampEstimator getAmbientTimestampEstimator() {
+        return mAmbientClock;
+    }
+
+    /**
+     * @return the estimated drift of the sensor clock (in ppm) based on the inertial data stream, or NaN if unknown
+     */
+    public double getClockDriftPpm() {
+        return mInertialClock.getDriftPpm();
+    }
+
     @Override
     protected boolean onNewCharacteristicValue(BluetoothGattCharacteristic characteristic, boolean isChange) {
         SensorDataFrame df = null;
@@ -336,15 +380,20 @@ public class TekSensor extends GenericBleSensor {
     }
 
 
+    private double estimateTimestamp(TekTimestampEstimator clock, int sampleCounter) {
+        return clock.addSample(sampleCounter, SystemClock.elapsedRealtimeNanos(), System.currentTimeMillis());
+    }
+
     private SensorDataFrame extractDataFrameInertial(BluetoothGattCharacteristic characteristic) {
         if (characteristic.getValue().length == 0) {
             return null;
         }
 
-        TekImuDataFrame df = new TekImuDataFrame(this, System.currentTimeMillis());
+        int sampleCounter = characteristic.getIntValue(FORMAT_SINT8, 0) & 0xFF;
+        TekImuDataFrame df = new TekImuDataFrame(this, estimateTimestamp(mInertialClock, sampleCounter));
 
         // TODO: replaced ByteBuffer, check if possible
-        df.mCounter = (characteristic.getIntValue(FORMAT_SINT8, 0) & 0xFF);
+        df.mCounter = sampleCounter;
         int counter = 2;
         df.mAx = convertAccelerometerValue(characteristic.getIntValue(FORMAT_SINT16, counter));
         counter += 2;
@@ -394,10 +443,11 @@ public class TekSensor extends GenericBleSensor {
             return null;
         }
 
-        TekFusionDataFrame df = new TekFusionDataFrame(this, System.currentTimeMillis());
+        int sampleCounter = characteristic.getIntValue(FORMAT_SINT8, 0) & 0xFF;
+        TekFusionDataFrame df = new TekFusionDataFrame(this, estimateTimestamp(mFusionClock, sampleCounter));
 
         // TODO: replaced ByteBuffer, check if possible
-        df.mCounter = (characteristic.getIntValue(FORMAT_SINT8, 0) & 0xFF);
+        df.mCounter = sampleCounter;
         int counter = 2;
         df.mQw = characteristic.getIntValue(FORMAT_SINT16, counter);
         counter += 2;
@@ -438,10 +488,11 @@ public class TekSensor extends GenericBleSensor {
             return null;
         }
 
-        TekAmbientDataFrame df = new TekAmbientDataFrame(this, System.currentTimeMillis());
+        int sampleCounter = characteristic.getIntValue(FORMAT_SINT8, 0) & 0xFF;
+        TekAmbientDataFrame df = new TekAmbientDataFrame(this, estimateTimestamp(mAmbientClock, sampleCounter));
 
         // TODO: replaced ByteBuffer, check if possible
-        df.mCounter = (characteristic.getIntValue(FORMAT_SINT8, 0) & 0xFF);
+        df.mCounter = sampleCounter;
         df.mTemp = ((float) characteristic.getIntValue(FORMAT_SINT16, 2)) / 100.0f;
         df.mHumidity = ((float) characteristic.getIntValue(FORMAT_SINT16, 5)) / 100.0f;
         df.mPressure = ((float) characteristic.getIntValue(FORMAT_SINT32, 8)) / 100.0f;
@@ -472,7 +523,7 @@ public class TekSensor extends GenericBleSensor {
 
         // TODO: replaced ByteBuffer, check if possible
         df.mCounter = characteristic.getIntValue(FORMAT_SINT8, 0);
-        Log.d(TAG, "3dFusion (" + df.mCounter + "): " + Arrays.toString(characteristic.getValue()));
+        //Log.d(TAG, "3dFusion (" + df.mCounter + "): " + Arrays.toString(characteristic.getValue()));
 
         /*ByteBuffer bb = ByteBuffer.wrap(data);
         bb.order(ByteOrder.BIG_ENDIAN);
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib.sensors;
+
+/**
+ * Estimates sample timestamps from the sample counter sent by a TEK sensor.
+ * <p>
+ * The wrapping counter is unrolled into a continuous sample index (lost samples are taken into account), and an
+ * exponentially weighted online linear regression of the host arrival time against the sample index estimates the
+ * offset and the actual sample period of the sensor clock. Timestamps are computed from the regression line, so they
+ * don't jitter with the BLE connection events, and are strictly increasing.
+ */
+public class TekTimestampEstimator {
+
+    /**
+     * Number of samples the regression needs before its estimate is used
+     */
+    private static final int MIN_FIT_SAMPLES = 32;
+
+    /**
+     * Default time constant of the exponential forgetting (in samples)
+     */
+    public static final int DEFAULT_WINDOW = 5000;
+
+    /**
+     * Minimum distance between two emitted timestamps (in ms)
+     */
+    private static final double MIN_TIMESTAMP_STEP = 0.001;
+
+    private final int mCounterRange;
+    private final double mForgetting;
+    private double mNominalPeriod;
+
+    private boolean mStarted;
+    private int mLastCounter;
+    private long mSampleIndex;
+    private long mNumLostSamples;
+    private long mNumDuplicates;
+    private long mNumClampedTimestamps;
+
+    // origin of the host time axis: elapsedRealtime (ms) at the first sample and its wall clock time
+    private double mHostOrigin;
+    private double mWallClockOrigin;
+
+    // exponentially weighted regression state (x: sample index, y: host time relative to origin in ms)
+    private long mNumSamples;
+    private double mWeight;
+    private double mMeanX;
+    private double mMeanY;
+    private double mCovXX;
+    private double mCovXY;
+
+    private double mLastTimestamp;
+
+
+    /**
+     * @param counterBits    width of the sample counter (in bits)
+     * @param samplingRate   nominal sampling rate of the stream (in Hz), or 0 if unknown
+     */
+    public TekTimestampEstimator(int counterBits, double samplingRate) {
+        this(counterBits, samplingRate, DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param counterBits    width of the sample counter (in bits)
+     * @param samplingRate   nominal sampling rate of the stream (in Hz), or 0 if unknown
+     * @param window         time constant of the exponential forgetting (in samples)
+     */
+    public TekTimestampEstimator(int counterBits, double samplingRate, int window) {
+        mCounterRange = 1 << counterBits;
+        mForgetting = 1.0 - 1.0 / Math.max(1, window);
+        setNominalSamplingRate(samplingRate);
+    }
+
+    /**
+     * Sets the nominal sampling rate, the drift is computed relative to it.
+     *
+     * @param samplingRate nominal sampling rate (in Hz), or 0 if unknown
+     */
+    public void setNominalSamplingRate(double samplingRate) {
+        mNominalPeriod = (samplingRate > 0) ? 1000.0 / samplingRate : 0;
+    }
+
+    /**
+     * Resets the estimator, e.g. when streaming is restarted.
+     */
+    public void reset() {
+        mStarted = false;
+        mSampleIndex = 0;
+        mNumLostSamples = 0;
+        mNumDuplicates = 0;
+        mNumClampedTimestamps = 0;
+        mNumSamples = 0;
+        mWeight = 0;
+        mMeanX = 0;
+        mMeanY = 0;
+        mCovXX = 0;
+        mCovXY = 0;
+    }
+
+    /**
+     * Adds a received sample and returns its estimated timestamp.
+     *
+     * @param counter        sample counter sent by the sensor
+     * @param arrivalTime    host monotonic time the sample was received (SystemClock.elapsedRealtimeNanos())
+     * @param wallClockTime  host wall clock time the sample was received (System.currentTimeMillis())
+     * @return the estimated wall clock time the sample was generated (in ms)
+     */
+    public double addSample(int counter, long arrivalTime, long wallClockTime) {
+        counter &= mCounterRange - 1;
+        double arrivalMs = arrivalTime / 1e6;
+        double y;
+        if (!mStarted) {
+            mStarted = true;
+            mHostOrigin = arrivalMs;
+            mWallClockOrigin = wallClockTime;
+            mLastTimestamp = Double.NEGATIVE_INFINITY;
+            y = 0;
+            updateRegression(mSampleIndex, y);
+        } else {
+            y = arrivalMs - mHostOrigin;
+            long delta = unrollCounter(counter, y);
+            if (delta == 0) {
+                // the later arrival time of a duplicate would bias the regression
+                mNumDuplicates++;
+            } else {
+                mSampleIndex += delta;
+                updateRegression(mSampleIndex, y);
+            }
+        }
+        mLastCounter = counter;
+
+        double timestamp;
+        if (mNumSamples >= MIN_FIT_SAMPLES && mCovXX > 0) {
+            timestamp = mMeanY + getSamplePeriod() * (mSampleIndex - mMeanX);
+        } else if (mNominalPeriod > 0) {
+            timestamp = mSampleIndex * mNominalPeriod;
+        } else {
+            timestamp = y;
+        }
+        timestamp += mWallClockOrigin;
+
+        // the estimate may jump back when the regression is updated, never emit a timestamp earlier than the last one
+        if (timestamp < mLastTimestamp + MIN_TIMESTAMP_STEP) {
+            timestamp = mLastTimestamp + MIN_TIMESTAMP_STEP;
+            mNumClampedTimestamps++;
+        }
+        mLastTimestamp = timestamp;
+        return timestamp;
+    }
+
+    /**
+     * Computes the number of samples since the last received sample. The counter only tells the number of samples
+     * modulo the counter range, so the number of wraps is estimated from the elapsed host time.
+     */
+    private long unrollCounter(int counter, double hostTime) {
+        int delta = (counter - mLastCounter) & (mCounterRange - 1);
+        double period = getSamplePeriod();
+        if (delta == 0) {
+            if (period <= 0) {
+                // no rate estimate to tell a full wrap from a duplicate, a duplicate is far more likely
+                return 0;
+            }
+            // repeated counter value: either a full wrap or a duplicate, decided by the elapsed time below
+            delta = mCounterRange;
+        }
+        if (period > 0) {
+            double lastTime = mMeanY + period * (mSampleIndex - mMeanX);
+            double expected = (hostTime - lastTime) / period;
+            long wraps = Math.round((expected - delta) / mCounterRange);
+            if (wraps > 0) {
+                delta += wraps * mCounterRange;
+            } else if (delta == mCounterRange && expected < mCounterRange / 2.0) {
+                // duplicate notification, keep the index
+                delta = 0;
+            }
+        }
+        if (delta > 1) {
+            mNumLostSamples += delta - 1;
+        }
+        return delta;
+    }
+
+    /**
+     * Exponentially weighted incremental update of means and (co)variances, numerically stable also for long
+     * sessions with large sample indices.
+     */
+    private void updateRegression(double x, double y) {
+        mNumSamples++;
+        mWeight = mForgetting * mWeight + 1;
+        mCovXX *= mForgetting;
+        mCovXY *= mForgetting;
+        double dx = x - mMeanX;
+        double dy = y - mMeanY;
+        mMeanX += dx / mWeight;
+        mMeanY += dy / mWeight;
+        mCovXX += dx * (x - mMeanX);
+        mCovXY += dx * (y - mMeanY);
+    }
+
+    /**
+     * @return the estimated period between two samples (in ms), or the nominal period if not enough samples were
+     * received yet
+     */
+    public double getSamplePeriod() {
+        if (mNumSamples >= MIN_FIT_SAMPLES && mCovXX > 0) {
+            return mCovXY / mCovXX;
+        }
+        return mNominalPeriod;
+    }
+
+    /**
+     * @return the estimated actual sampling rate of the sensor (in Hz), or 0 if unknown
+     */
+    public double getEstimatedSamplingRate() {
+        double period = getSamplePeriod();
+        return (period > 0) ? 1000.0 / period : 0;
+    }
+
+    /**
+     * @return the drift of the sensor clock relative to the nominal sampling rate (in ppm, positive if the sensor clock
+     * runs slow), or NaN if the nominal sampling rate is unknown or not enough samples were received
+     */
+    public double getDriftPpm() {
+        if (mNominalPeriod <= 0 || mNumSamples < MIN_FIT_SAMPLES || mCovXX <= 0) {
+            return Double.NaN;
+        }
+        return (getSamplePeriod() / mNominalPeriod - 1.0) * 1e6;
+    }
+
+    public long getNumSamples() {
+        return mNumSamples;
+    }
+
+    /**
+     * @return number of samples missing according to the sample counter
+     */
+    public long getNumLostSamples() {
+        return mNumLostSamples;
+    }
+
+    /**
+     * @return number of samples received again with the counter value of the previous sample
+     */
+    public long getNumDuplicates() {
+        return mNumDuplicates;
+    }
+
+    /**
+     * @return number of timestamps that were moved forward to keep the timestamps monotonic
+     */
+    public long getNumClampedTimestamps() {
+        return mNumClampedTimestamps;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2019 Machine Learning and Data Analytics Lab, Friedrich-Alexander-Universität Erlangen-Nürnberg (FAU).
+ * <p>
+ * This file is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. If you reuse
+ * this code you have to keep or cite this comment.
+ */
+package de.fau.sensorlib.sensors;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link TekTimestampEstimator} with synthetic streams of an 8 bit sample counter: drifting sensor clocks,
+ * counter wraps, lost and duplicate samples and jittering arrival times.
+ */
+public class TekTimestampEstimatorTest {
+
+    private static final int COUNTER_BITS = 8;
+    private static final double SAMPLING_RATE = 100;
+    private static final long HOST_START_TIME = 123456789000000L;
+    private static final long WALL_CLOCK_START_TIME = 1560000000000L;
+
+    /**
+     * Simulates the sensor and the host receiving its samples: the sensor clock drifts against the host clock and
+     * every sample is delayed by a random BLE latency of 5 to 25 ms.
+     */
+    private static class Stream {
+        private final double mPeriod;
+        private final Random mRandom;
+        private long mLastArrivalTime;
+
+        private Stream(double samplingRate, double driftPpm, long seed) {
+            // a slow sensor clock has a longer sample period
+            mPeriod = 1e9 / samplingRate * (1 + driftPpm * 1e-6);
+            mRandom = new Random(seed);
+        }
+
+        private long getArrivalTime(long sample) {
+            long arrivalTime = HOST_START_TIME + Math.round(sample * mPeriod) + 5000000 + (long) (mRandom.nextDouble() * 20000000);
+            // samples are received in order
+            arrivalTime = Math.max(arrivalTime, mLastArrivalTime + 10000);
+            mLastArrivalTime = arrivalTime;
+            return arrivalTime;
+        }
+
+        private double addSample(TekTimestampEstimator estimator, long sample) {
+            return addSample(estimator, sample, getArrivalTime(sample));
+        }
+
+        private double addSample(TekTimestampEstimator estimator, long sample, long arrivalTime) {
+            return estimator.addSample((int) (sample & 0xFF), arrivalTime, WALL_CLOCK_START_TIME + (arrivalTime - HOST_START_TIME) / 1000000);
+        }
+    }
+
+    @Test
+    public void estimatesDrift() {
+        for (double drift : new double[]{-200, 0, 200}) {
+            Stream stream = new Stream(SAMPLING_RATE, drift, 1);
+            TekTimestampEstimator estimator = new TekTimestampEstimator(COUNTER_BITS, SAMPLING_RATE);
+            for (long sample = 0; sample < 60000; sample++) {
+                stream.addSample(estimator, sample);
+            }
+            assertEquals(drift, estimator.getDriftPpm(), 20);
+            assertEquals(SAMPLING_RATE / (1 + drift * 1e-6), estimator.getEstimatedSamplingRate(), 0.002);
+            assertEquals(0, estimator.getNumLostSamples());
+        }
+    }
+
+    @Test
+    public void estimatesRateWithoutNominalRate() {
+        Stream stream = new Stream(SAMPLING_RATE, 0, 2);
+        TekTimestampEstimator estimator = new TekTimestampEstimator(COUNTER_BITS, 0);
+        assertEquals(0, estimator.getEstimatedSamplingRate(), 0);
+        for (long sample = 0; sample < 5000; sample++) {
+            stream.addSample(estimator, sample);
+        }
+        assertEquals(SAMPLING_RATE, estimator.getEstimatedSamplingRate(), 0.05);
+        assertTrue(Double.isNaN(estimator.getDriftPpm()));
+        assertEquals(0, estimator.getNumLostSamples());
+        assertEquals(0, estimator.getNumDuplicates());
+    }
+
+    /**
+     * Timestamps follow the sensor clock across counter wraps instead of the jittering arrival times.
+     */
+    @Test
+    public void unrollsCounterWraps() {
+        Stream stream = new Stream(SAMPLING_RATE, 100, 3);
+        TekTimestampEstimator estimator = new TekTimestampEstimator(COUNTER_BITS, SAMPLING_RATE);
+        double firstTimestamp = stream.addSample(estimator, 0);
+        for (long sample = 1; sample < 20000; sample++) {
+            double timestamp = stream.addSample(estimator, sample);
+            if (sample > 1000) {
+                // the origin is the arrival of the first sample, its latency is off by up to 20 ms from the mean
+                assertEquals(sample * stream.mPeriod / 1e6, timestamp - firstTimestamp, 25);
+            }
+        }
+        assertEquals(0, estimator.getNumLostSamples());
+        assertEquals(0, estimator.getNumDuplicates());
+    }
+
+    @Test
+    public void countsLostSamplesAcrossWraps() {
+        Stream stream = new Stream(SAMPLING_RATE, 0, 4);
+        TekTimestampEstimator estimator = new TekTimestampEstimator(COUNTER_BITS, SAMPLING_RATE);
+        // gaps of 10 samples, exactly one wrap and more than two wraps
+        long[] gaps = {10, 256, 600};
+        long sample = 0;
+        long lost = 0;
+        for (long gap : gaps) {
+            for (int i = 0; i < 1000; i++) {
+                stream.addSample(estimator, sample++);
+            }
+            sample += gap - 1;
+            lost += gap - 1;
+        }
+        stream.addSample(estimator, sample);
+        assertEquals(lost, estimator.getNumLostSamples());
+        assertEquals(0, estimator.getNumDuplicates());
+    }
+
+    /**
+     * Without a rate estimate a repeated counter value can't be told apart from a full wrap by the elapsed time, it is
+     * a duplicate. The ambient stream has no nominal rate, so this happens during its first samples.
+     */
+    @Test
+    public void repeatedCounterWithoutRateIsDuplicate() {
+        Stream stream = new Stream(SAMPLING_RATE, 0, 5);
+        TekTimestampEstimator estimator = new TekTimestampEstimator(COUNTER_BITS, 0);
+        double lastTimestamp = stream.addSample(estimator, 0);
+        for (long sample = 1; sample < 20; sample++) {
+            long arrivalTime = stream.getArrivalTime(sample);
+            lastTimestamp = stream.addSample(estimator, sample, arrivalTime);
+            if (sample % 5 == 0) {
+                // same sample received twice
+                double timestamp = stream.addSample(estimator, sample, arrivalTime + 100000);
+                assertTrue(timestamp > lastTimestamp);
+                lastTimestamp = timestamp;
+            }
+        }
+        assertEquals(3, estimator.getNumDuplicates());
+        assertEquals(0, estimator.getNumLostSamples());
+        assertEquals(20, estimator.getNumSamples());
+    }
+
+    @Test
+    public void repeatedCounterWithRateIsDuplicate() {
+        Stream stream = new Stream(SAMPLING_RATE, 0, 6);
+        TekTimestampEstimator estimator = new TekTimestampEstimator(COUNTER_BITS, SAMPLING_RATE);
+        for (long sample = 0; sample < 2000; sample++) {
+            long arrivalTime = stream.getArrivalTime(sample);
+            stream.addSample(estimator, sample, arrivalTime);
+            if (sample % 100 == 50) {
+                stream.addSample(estimator, sample, arrivalTime + 100000);
+            }
+        }
+        assertEquals(20, estimator.getNumDuplicates());
+        assertEquals(0, estimator.getNumLostSamples());
+        assertEquals(2000, estimator.getNumSamples());
+    }
+
+    @Test
+    public void timestampsAreStrictlyIncreasing() {
+        Random random = new Random(7);
+        Stream stream = new Stream(SAMPLING_RATE, -150, 8);
+        TekTimestampEstimator estimator = new TekTimestampEstimator(COUNTER_BITS, 0);
+        double lastTimestamp = Double.NEGATIVE_INFINITY;
+        long sample = 0;
+        while (sample < 50000) {
+            long arrivalTime = stream.getArrivalTime(sample);
+            double timestamp = stream.addSample(estimator, sample, arrivalTime);
+            assertTrue("Sample " + sample, timestamp > lastTimestamp);
+            lastTimestamp = timestamp;
+            if (random.nextInt(500) == 0) {
+                timestamp = stream.addSample(estimator, sample, arrivalTime + 100000);
+                assertTrue("Duplicate of sample " + sample, timestamp > lastTimestamp);
+                lastTimestamp = timestamp;
+            }
+            // lose up to 3 samples now and then
+            sample += (random.nextInt(100) == 0) ? 2 + random.nextInt(3) : 1;
+        }
+    }
+
+    @Test
+    public void resetStartsNewTimeAxis() {
+        Stream stream = new Stream(SAMPLING_RATE, 0, 9);
+        TekTimestampEstimator estimator = new TekTimestampEstimator(COUNTER_BITS, SAMPLING_RATE);
+        for (long sample = 0; sample < 1000; sample++) {
+            stream.addSample(estimator, sample);
+        }
+        estimator.reset();
+        long arrivalTime = stream.getArrivalTime(5000);
+        double timestamp = stream.addSample(estimator, 5000, arrivalTime);
+        assertEquals(WALL_CLOCK_START_TIME + (arrivalTime - HOST_START_TIME) / 1000000, timestamp, 0);
+        assertEquals(1, estimator.getNumSamples());
+        assertEquals(0, estimator.getNumLostSamples());
+    }
+}